@@ -0,0 +1,133 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.localcrypto;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import ch.threema.app.BenchmarkTest;
+
+/**
+ * Time to first frame of a large video, approximated by what the player has to read before it
+ * can render: the start of the file and the index at its end (MP4 files written by many
+ * cameras keep the "moov" box at the end). With the old format, the whole file has to be
+ * decrypted to a temporary file first; the chunked format is read in place.
+ */
+@RunWith(AndroidJUnit4.class)
+@BenchmarkTest
+public class ChunkedCipherBenchmarkTest {
+	private static final String TAG = "ChunkedCipherBenchmark";
+
+	private static final int[] SIZES_MIB = { 16, 64, 256 };
+	private static final int PROBE_LENGTH = 256 * 1024;
+
+	private MasterKey masterKey;
+	private File keyFile;
+	private File legacyFile;
+	private File chunkedFile;
+	private File decryptedFile;
+
+	@Before
+	public void setUp() throws IOException {
+		final Context context = ApplicationProvider.getApplicationContext();
+		keyFile = new File(context.getCacheDir(), "chunked-benchmark-key.dat");
+		legacyFile = new File(context.getCacheDir(), "chunked-benchmark-legacy");
+		chunkedFile = new File(context.getCacheDir(), "chunked-benchmark-chunked");
+		decryptedFile = new File(context.getCacheDir(), "chunked-benchmark-decrypted");
+		deleteFiles();
+		masterKey = new MasterKey(keyFile, null, false);
+	}
+
+	@After
+	public void deleteFiles() {
+		for (File file : new File[]{ keyFile, legacyFile, chunkedFile, decryptedFile }) {
+			//noinspection ResultOfMethodCallIgnored
+			file.delete();
+		}
+	}
+
+	@Test
+	public void timeToFirstFrame() throws Exception {
+		final byte[] block = new byte[1024 * 1024];
+		new Random(42).nextBytes(block);
+
+		for (int sizeMiB : SIZES_MIB) {
+			try (OutputStream legacy = masterKey.getCipherOutputStream(new FileOutputStream(legacyFile));
+			     OutputStream chunked = masterKey.getChunkedCipherOutputStream(new FileOutputStream(chunkedFile))) {
+				for (int i = 0; i < sizeMiB; i++) {
+					legacy.write(block);
+					chunked.write(block);
+				}
+			}
+			final long length = (long) sizeMiB * block.length;
+			final byte[] head = new byte[PROBE_LENGTH];
+			final byte[] tail = new byte[PROBE_LENGTH];
+
+			// old format: decrypt to a temporary file, then read from it
+			long startTime = System.nanoTime();
+			try (InputStream is = masterKey.getCipherInputStream(new FileInputStream(legacyFile));
+			     OutputStream os = new FileOutputStream(decryptedFile)) {
+				IOUtils.copyLarge(is, os);
+			}
+			try (FileInputStream fis = new FileInputStream(decryptedFile)) {
+				IOUtils.readFully(fis, head);
+				IOUtils.skipFully(fis, length - 2 * PROBE_LENGTH);
+				IOUtils.readFully(fis, tail);
+			}
+			long legacyMillis = (System.nanoTime() - startTime) / 1_000_000;
+
+			// chunked format: read in place
+			final byte[] head2 = new byte[PROBE_LENGTH];
+			final byte[] tail2 = new byte[PROBE_LENGTH];
+			startTime = System.nanoTime();
+			try (SeekableCipherInputStream sis = masterKey.getSeekableCipherInputStream(chunkedFile)) {
+				IOUtils.readFully(sis, head2);
+				sis.seek(length - PROBE_LENGTH);
+				IOUtils.readFully(sis, tail2);
+			}
+			long chunkedMillis = (System.nanoTime() - startTime) / 1_000_000;
+
+			Log.i(TAG, String.format("%d MiB: decrypt to file %d ms, chunked %d ms", sizeMiB, legacyMillis, chunkedMillis));
+
+			Assert.assertArrayEquals(head, head2);
+			Assert.assertArrayEquals(tail, tail2);
+		}
+	}
+}
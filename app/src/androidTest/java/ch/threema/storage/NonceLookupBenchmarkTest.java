@@ -0,0 +1,159 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.storage;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.util.Log;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import ch.threema.app.BenchmarkTest;
+import ch.threema.client.Utils;
+
+/**
+ * Nonce lookup latency versus the number of stored nonces, for the indexed nonce table and for
+ * the nonce archive that old nonces are compacted into.
+ */
+@RunWith(AndroidJUnit4.class)
+@BenchmarkTest
+public class NonceLookupBenchmarkTest {
+	private static final String TAG = "NonceLookupBenchmark";
+
+	private static final int[] SIZES = { 10_000, 100_000, 500_000 };
+	private static final int LOOKUPS = 2000;
+
+	private File databaseFile;
+	private File archiveFile;
+
+	@Before
+	public void setUp() {
+		final Context context = ApplicationProvider.getApplicationContext();
+		SQLiteDatabase.loadLibs(context);
+		databaseFile = new File(context.getCacheDir(), "nonce-benchmark.db");
+		archiveFile = new File(context.getCacheDir(), "nonce-benchmark-archive.dat");
+		deleteFiles();
+	}
+
+	@After
+	public void deleteFiles() {
+		//noinspection ResultOfMethodCallIgnored
+		databaseFile.delete();
+		//noinspection ResultOfMethodCallIgnored
+		archiveFile.delete();
+	}
+
+	@Test
+	public void lookupLatency() throws IOException {
+		final Random random = new Random(42);
+		final List<byte[]> stored = new ArrayList<>();
+
+		try (SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(databaseFile, "", null)) {
+			db.rawExecSQL("PRAGMA cipher_memory_security = OFF;");
+			db.execSQL("CREATE TABLE `threema_nonce` (`nonce` BLOB PRIMARY KEY, `epoch` INTEGER NOT NULL DEFAULT 0)");
+
+			for (int size : SIZES) {
+				// grow the table to the next size
+				db.beginTransaction();
+				try {
+					ContentValues values = new ContentValues();
+					values.put("epoch", 0);
+					while (stored.size() < size) {
+						byte[] nonce = new byte[NonceArchive.ENTRY_LENGTH];
+						random.nextBytes(nonce);
+						values.put("nonce", nonce);
+						db.insert("threema_nonce", null, values);
+						stored.add(nonce);
+					}
+					db.setTransactionSuccessful();
+				} finally {
+					db.endTransaction();
+				}
+
+				// build the archive from the same nonces, the way compaction does
+				//noinspection ResultOfMethodCallIgnored
+				archiveFile.delete();
+				final NonceArchive archive = new NonceArchive(archiveFile);
+				try (Cursor c = db.rawQuery("SELECT `nonce` FROM `threema_nonce` ORDER BY `nonce`", null)) {
+					archive.merge(() -> c.moveToNext() ? c.getBlob(0) : null);
+				}
+
+				// half of the lookups are for stored nonces, half for unknown ones
+				final List<byte[]> lookups = new ArrayList<>(LOOKUPS);
+				for (int i = 0; i < LOOKUPS; i++) {
+					if (i % 2 == 0) {
+						lookups.add(stored.get(random.nextInt(stored.size())));
+					} else {
+						byte[] nonce = new byte[NonceArchive.ENTRY_LENGTH];
+						random.nextBytes(nonce);
+						lookups.add(nonce);
+					}
+				}
+
+				int tableHits = 0;
+				long startTime = System.nanoTime();
+				for (byte[] nonce : lookups) {
+					try (Cursor c = db.rawQuery("SELECT COUNT(*) FROM `threema_nonce` WHERE `nonce` = x'"
+						+ Utils.byteArrayToHexString(nonce) + "'", null)) {
+						if (c.moveToFirst() && c.getInt(0) > 0) {
+							tableHits++;
+						}
+					}
+				}
+				long tableNanos = (System.nanoTime() - startTime) / LOOKUPS;
+
+				int archiveHits = 0;
+				startTime = System.nanoTime();
+				for (byte[] nonce : lookups) {
+					if (archive.contains(nonce)) {
+						archiveHits++;
+					}
+				}
+				long archiveNanos = (System.nanoTime() - startTime) / LOOKUPS;
+				archive.close();
+
+				Log.i(TAG, String.format("%d nonces: table %d us/lookup (%d KiB), archive %d us/lookup (%d KiB)",
+					size, tableNanos / 1000, databaseFile.length() / 1024,
+					archiveNanos / 1000, archiveFile.length() / 1024));
+
+				Assert.assertEquals(LOOKUPS / 2, tableHits);
+				Assert.assertEquals(LOOKUPS / 2, archiveHits);
+			}
+		}
+	}
+}
@@ -156,6 +156,7 @@ import ch.threema.app.webclient.services.SessionWakeUpServiceImpl;
 import ch.threema.app.webclient.services.instance.DisconnectContext;
 import ch.threema.app.webclient.state.WebClientSessionState;
 import ch.threema.app.workers.IdentityStatesWorker;
+import ch.threema.app.workers.NonceCompactionWorker;
 import ch.threema.base.ThreemaException;
 import ch.threema.client.AppVersion;
 import ch.threema.client.ConnectionState;
@@ -264,12 +265,14 @@ public class ThreemaApplication extends MultiDexApplication implements DefaultLi
 
 	private static final String WORKER_IDENTITY_STATES_PERIODIC_NAME = "IdentityStates";
 	private static final String WORKER_IMAGE_LABELS_PERIODIC = "ImageLabelsPeriodic";
+	private static final String WORKER_NONCE_COMPACTION_PERIODIC = "NonceCompactionPeriodic";
 
 	private static Context context;
 
 	private static volatile ServiceManager serviceManager;
 	private static volatile AppVersion appVersion;
 	private static volatile MasterKey masterKey;
+	private static volatile NonceDatabaseBlobService nonceDatabaseBlobService;
 
 	private static Date lastLoggedIn;
 	private static long lastNotificationTimeStamp;
@@ -348,6 +351,15 @@ public class ThreemaApplication extends MultiDexApplication implements DefaultLi
 				"message queue file",
 				LoggerFactory.getLogger("LoggingUEH.runOnUncaughtException")
 			);
+			final File messageQueueJournalFile = new File(
+				getAppContext().getFilesDir(),
+				MessageServiceImpl.MESSAGE_QUEUE_JOURNAL_FILE
+			);
+			FileUtil.deleteFileOrWarn(
+				messageQueueJournalFile,
+				"message queue journal file",
+				LoggerFactory.getLogger("LoggingUEH.runOnUncaughtException")
+			);
 		});
 		Thread.setDefaultUncaughtExceptionHandler(loggingUEH);
 
@@ -436,6 +448,11 @@ public class ThreemaApplication extends MultiDexApplication implements DefaultLi
 							logger.info("remove message queue file");
 							FileUtil.deleteFileOrWarn(messageQueueFile, "message queue file", logger);
 						}
+						File messageQueueJournalFile = new File(filesDir, MessageServiceImpl.MESSAGE_QUEUE_JOURNAL_FILE);
+						if (messageQueueJournalFile.exists()) {
+							logger.info("remove message queue journal file");
+							FileUtil.deleteFileOrWarn(messageQueueJournalFile, "message queue journal file", logger);
+						}
 					} else {
 						logger.info("OK, masterKeyFile exists");
 
@@ -560,6 +577,12 @@ public class ThreemaApplication extends MultiDexApplication implements DefaultLi
 	@Override
 	public void onStop(@NonNull LifecycleOwner owner) {
 		logger.info("*** Lifecycle: App now hidden");
+
+		// the process may be killed any time from now on
+		final NonceDatabaseBlobService nonceService = nonceDatabaseBlobService;
+		if (nonceService != null) {
+			new Thread(nonceService::saveFilter, "SaveNonceFilter").start();
+		}
 	}
 
 	@Override
@@ -638,6 +661,12 @@ public class ThreemaApplication extends MultiDexApplication implements DefaultLi
 					logger.error("Exception", e);
 				}
 
+				/* ...and the nonce filter */
+				final NonceDatabaseBlobService nonceService = nonceDatabaseBlobService;
+				if (nonceService != null) {
+					new Thread(nonceService::saveFilter, "SaveNonceFilter").start();
+				}
+
 				try {
 					if (serviceManager != null) {
 						serviceManager.getAvatarCacheService().clear();
@@ -659,6 +688,11 @@ public class ThreemaApplication extends MultiDexApplication implements DefaultLi
 		return masterKey;
 	}
 
+	@Nullable
+	public static NonceDatabaseBlobService getNonceDatabaseBlobService() {
+		return nonceDatabaseBlobService;
+	}
+
 	public static boolean isNotifyAgain() {
 		// do not notify again if second messages arrives within NOTIFICATION_TIMEOUT;
 		long newTimeStamp = System.nanoTime();
@@ -834,8 +868,9 @@ public class ThreemaApplication extends MultiDexApplication implements DefaultLi
 
 			IdentityStore identityStore = new IdentityStore(preferenceStore);
 
-			NonceDatabaseBlobService nonceDatabaseBlobService = new NonceDatabaseBlobService(getAppContext(), masterKey, nonceSqlcipherVersion, identityStore);
+			nonceDatabaseBlobService = new NonceDatabaseBlobService(getAppContext(), masterKey, nonceSqlcipherVersion, identityStore);
 			logger.info("Nonce count: " + nonceDatabaseBlobService.getCount());
+			nonceDatabaseBlobService.loadFilterAsync();
 
 			final ThreemaConnection connection = new ThreemaConnection(
 					identityStore,
@@ -945,6 +980,8 @@ public class ThreemaApplication extends MultiDexApplication implements DefaultLi
 				scheduleWorkSync(preferenceStore);
 				// schedule identity states / feature masks etc.
 				scheduleIdentityStatesSync(preferenceStore);
+				// schedule archiving of old nonces
+				scheduleNonceCompactionWork();
 			}).start();
 
 			if (ConfigUtils.isPlayServicesInstalled(getAppContext())) {
@@ -1103,6 +1140,32 @@ public class ThreemaApplication extends MultiDexApplication implements DefaultLi
 		}
 	}
 
+	/**
+	 * Schedule the recurring nonce database compaction every 24h, when the device is idle.
+	 */
+	private static void scheduleNonceCompactionWork() {
+		try {
+			final WorkManager workManager = WorkManager.getInstance(context);
+
+			final Constraints.Builder constraintsBuilder = new Constraints.Builder()
+				.setRequiresStorageNotLow(true)
+				.setRequiresBatteryNotLow(true);
+			if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.M) {
+				constraintsBuilder.setRequiresDeviceIdle(true);
+			}
+
+			final PeriodicWorkRequest workRequest = new PeriodicWorkRequest.Builder(NonceCompactionWorker.class, 24, TimeUnit.HOURS)
+				.addTag(WORKER_NONCE_COMPACTION_PERIODIC)
+				.setConstraints(constraintsBuilder.build())
+				.build();
+
+			// keep an already scheduled job, otherwise it would be postponed on every start
+			workManager.enqueueUniquePeriodicWork(WORKER_NONCE_COMPACTION_PERIODIC, ExistingPeriodicWorkPolicy.KEEP, workRequest);
+		} catch (IllegalStateException e) {
+			logger.error("Unable to initialize WorkManager", e);
+		}
+	}
+
 	private static boolean scheduleWorkSync(PreferenceStore preferenceStore) {
 		if (!ConfigUtils.isWorkBuild()) {
 			return false;
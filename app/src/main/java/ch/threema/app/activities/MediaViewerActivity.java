@@ -103,7 +103,7 @@ public class MediaViewerActivity extends ThreemaToolbarActivity {
 
 	private LockableViewPager pager;
 
-	private File currentMediaFile;
+	private Uri currentMediaUri;
 	private ActionBar actionBar;
 
 	private AbstractMessageModel currentMessageModel;
@@ -412,7 +412,7 @@ public class MediaViewerActivity extends ThreemaToolbarActivity {
 	private void saveMedia() {
 		AbstractMessageModel messageModel = this.getCurrentMessageModel();
 		if (TestUtil.required(this.fileService, messageModel)) {
-			if (currentMediaFile == null) {
+			if (currentMediaUri == null) {
 				Toast.makeText(this, R.string.media_file_not_found, Toast.LENGTH_LONG).show();
 			} else {
 				this.fileService.saveMedia(this, null, new CopyOnWriteArrayList<>(Collections.singletonList(messageModel)), true);
@@ -422,7 +422,7 @@ public class MediaViewerActivity extends ThreemaToolbarActivity {
 
 	private void shareMedia() {
 		AbstractMessageModel messageModel = this.getCurrentMessageModel();
-		Uri shareUri = fileService.copyToShareFile(messageModel, currentMediaFile);
+		Uri shareUri = getShareUri(messageModel);
 		messageService.shareMediaMessages(this,
 				new ArrayList<>(Collections.singletonList(messageModel)),
 				new ArrayList<>(Collections.singletonList(shareUri)));
@@ -430,10 +430,24 @@ public class MediaViewerActivity extends ThreemaToolbarActivity {
 
 	public void viewMediaInGallery() {
 		AbstractMessageModel messageModel = this.getCurrentMessageModel();
-		Uri shareUri = fileService.copyToShareFile(messageModel, currentMediaFile);
+		Uri shareUri = getShareUri(messageModel);
 		messageService.viewMediaMessage(this, messageModel, shareUri);
 	}
 
+	/**
+	 * Where content uris are supported, the receiving app reads the file through the decrypting
+	 * provider instead of from another decrypted copy.
+	 */
+	private Uri getShareUri(AbstractMessageModel messageModel) {
+		if (ConfigUtils.useContentUris() && messageModel != null) {
+			Uri uri = fileService.getDecryptedMessageUri(messageModel);
+			if (uri != null) {
+				return uri;
+			}
+		}
+		return fileService.copyToShareFile(messageModel, currentMediaUri);
+	}
+
 	private void showGallery() {
 		AbstractMessageModel messageModel = this.getCurrentMessageModel();
 		if (messageModel != null) {
@@ -683,7 +697,7 @@ public class MediaViewerActivity extends ThreemaToolbarActivity {
 				f.setOnImageLoaded(new MediaViewFragment.OnMediaLoadListener() {
 					@Override
 					public void decrypting() {
-						a.currentMediaFile = null;
+						a.currentMediaUri = null;
 					}
 
 					@Override
@@ -692,8 +706,8 @@ public class MediaViewerActivity extends ThreemaToolbarActivity {
 					}
 
 					@Override
-					public void loaded(File file) {
-						a.currentMediaFile = file;
+					public void loaded(Uri uri) {
+						a.currentMediaUri = uri;
 					}
 
 					@Override
@@ -32,6 +32,7 @@ import androidx.annotation.Nullable;
 import ch.threema.app.R;
 import ch.threema.app.ThreemaApplication;
 import ch.threema.app.managers.ServiceManager;
+import ch.threema.app.providers.DecryptedMediaProvider;
 import ch.threema.app.services.NotificationService;
 import ch.threema.app.services.PassphraseService;
 import ch.threema.app.utils.ConfigUtils;
@@ -74,6 +75,10 @@ public class StopPassphraseServiceActivity extends Activity {
 				}
 
 				masterKey.lock();
+				if (serviceManager != null) {
+					serviceManager.getIdentityStore().clearSharedKeyCache();
+				}
+				DecryptedMediaProvider.clearCache();
 				PassphraseService.stop(this);
 				ConfigUtils.scheduleAppRestart(this, 2000, getString(R.string.passphrase_locked));
 			}
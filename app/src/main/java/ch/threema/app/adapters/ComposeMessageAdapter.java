@@ -64,6 +64,7 @@ import ch.threema.app.collections.IPredicateNonNull;
 import ch.threema.app.emojis.EmojiMarkupUtil;
 import ch.threema.app.messagereceiver.MessageReceiver;
 import ch.threema.app.services.ContactService;
+import ch.threema.app.services.DownloadScheduler;
 import ch.threema.app.services.DownloadService;
 import ch.threema.app.services.FileService;
 import ch.threema.app.services.MessageService;
@@ -415,6 +416,10 @@ public class ComposeMessageAdapter extends ArrayAdapter<AbstractMessageModel> {
 				holder.messagePlayer.removeListeners();
 				holder.messagePlayer = null;
 			}
+			if (holder.messageModel != null && holder.messageModel != messageModel && !holder.messageModel.isAvailable()) {
+				// the previous message scrolled out of view, let visible downloads go first
+				this.messageService.setMediaMessageDownloadPriority(holder.messageModel, DownloadScheduler.Priority.BACKGROUND);
+			}
 
 			// make sure height is re-set to zero to force redraw of item layout if it's recycled after swipe-to-delete
 			if (itemType == TYPE_STATUS || itemType == TYPE_FIRST_UNREAD || itemType == TYPE_DATE_SEPARATOR) {
@@ -424,6 +429,12 @@ public class ComposeMessageAdapter extends ArrayAdapter<AbstractMessageModel> {
 			}
 		}
 		holder.position = position;
+		holder.messageModel = messageModel;
+
+		if (!messageModel.isAvailable()) {
+			// a pending download of this message is now on screen
+			this.messageService.setMediaMessageDownloadPriority(messageModel, DownloadScheduler.Priority.VISIBLE);
+		}
 
 		final ChatAdapterDecorator decorator;
 
@@ -35,6 +35,7 @@ import java.io.IOException;
 import androidx.fragment.app.FragmentManager;
 import ch.threema.app.R;
 import ch.threema.app.ThreemaApplication;
+import ch.threema.app.cache.ThumbnailDiskCache;
 import ch.threema.app.dialogs.GenericProgressDialog;
 import ch.threema.app.managers.ServiceManager;
 import ch.threema.app.mediaattacher.data.MediaItemsRoomDatabase;
@@ -123,16 +124,22 @@ public class DeleteIdentityAsyncTask extends AsyncTask<Void, Void, Exception> {
 			File aesFile = new File(ThreemaApplication.getAppContext().getFilesDir(), ThreemaApplication.AES_KEY_FILE);
 			File databaseFile = ThreemaApplication.getAppContext().getDatabasePath(DatabaseServiceNew.DATABASE_NAME_V4);
 			File nonceDatabaseFile = ThreemaApplication.getAppContext().getDatabasePath(NonceDatabaseBlobService.DATABASE_NAME_V4);
+			File nonceFilterFile = new File(ThreemaApplication.getAppContext().getFilesDir(), NonceDatabaseBlobService.FILTER_FILE_NAME);
+			File nonceArchiveFile = new File(ThreemaApplication.getAppContext().getFilesDir(), NonceDatabaseBlobService.ARCHIVE_FILE_NAME);
 			File backupFile = ThreemaApplication.getAppContext().getDatabasePath(DatabaseServiceNew.DATABASE_NAME_V4 + DatabaseServiceNew.DATABASE_BACKUP_EXT);
 			File labelDatabaseFile = ThreemaApplication.getAppContext().getDatabasePath(MediaItemsRoomDatabase.DATABASE_NAME);
+			File thumbnailCacheDirectory = new File(ThreemaApplication.getAppContext().getFilesDir(), ThumbnailDiskCache.DIRECTORY_NAME);
 			File cacheDirectory = ThreemaApplication.getAppContext().getCacheDir();
 			File externalCacheDirectory = ThreemaApplication.getAppContext().getExternalCacheDir();
 
 			secureDelete(aesFile);
 			secureDelete(databaseFile);
 			secureDelete(nonceDatabaseFile);
+			secureDelete(nonceFilterFile);
+			secureDelete(nonceArchiveFile);
 			secureDelete(backupFile);
 			secureDelete(labelDatabaseFile);
+			secureDelete(thumbnailCacheDirectory);
 			secureDelete(cacheDirectory);
 			secureDelete(externalCacheDirectory);
 
@@ -0,0 +1,145 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.app.cache;
+
+import android.graphics.Bitmap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Pool of mutable bitmaps that are no longer referenced anywhere and can be handed to
+ * {@link android.graphics.BitmapFactory.Options#inBitmap} instead of allocating a new bitmap
+ * for every decode.
+ *
+ * Only put bitmaps into the pool that are guaranteed not to be displayed anymore (e.g. the
+ * intermediate bitmap of a resize operation). Bitmaps evicted from a {@link ThumbnailCache}
+ * may still be shown by an image view and must never end up here.
+ */
+public class BitmapPool {
+	private static final Logger logger = LoggerFactory.getLogger(BitmapPool.class);
+
+	private final Object lock = new Object();
+	// least recently added bitmap first
+	private final LinkedList<Bitmap> bitmaps = new LinkedList<>();
+	private final long maxSize;
+	private long size = 0;
+	private int hitCount = 0;
+	private int missCount = 0;
+
+	/**
+	 * @param maxSize maximum number of bytes held by the pooled bitmaps
+	 */
+	public BitmapPool(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Take a bitmap out of the pool that is large enough to be reused for decoding an
+	 * ARGB_8888 image of the given dimensions.
+	 *
+	 * @return a reusable bitmap or null if none fits
+	 */
+	@Nullable
+	public Bitmap get(int width, int height) {
+		final long byteCount = (long) width * height * 4;
+		synchronized (this.lock) {
+			Bitmap best = null;
+			for (Bitmap bitmap : this.bitmaps) {
+				if (bitmap.getAllocationByteCount() >= byteCount
+					&& (best == null || bitmap.getAllocationByteCount() < best.getAllocationByteCount())) {
+					best = bitmap;
+				}
+			}
+			if (best != null) {
+				this.bitmaps.remove(best);
+				this.size -= best.getAllocationByteCount();
+				this.hitCount++;
+			} else {
+				this.missCount++;
+			}
+			return best;
+		}
+	}
+
+	/**
+	 * Return a bitmap to the pool. The caller must not use the bitmap afterwards.
+	 */
+	public void put(@Nullable Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+			return;
+		}
+		synchronized (this.lock) {
+			if (bitmap.getAllocationByteCount() > this.maxSize || this.bitmaps.contains(bitmap)) {
+				return;
+			}
+			this.bitmaps.addLast(bitmap);
+			this.size += bitmap.getAllocationByteCount();
+			this.trim(this.maxSize);
+		}
+	}
+
+	public void clear() {
+		synchronized (this.lock) {
+			logger.debug("clear (" + this + ")");
+			this.trim(0);
+		}
+	}
+
+	public int getHitCount() {
+		synchronized (this.lock) {
+			return this.hitCount;
+		}
+	}
+
+	public int getMissCount() {
+		synchronized (this.lock) {
+			return this.missCount;
+		}
+	}
+
+	private void trim(long targetSize) {
+		final Iterator<Bitmap> iterator = this.bitmaps.iterator();
+		while (this.size > targetSize && iterator.hasNext()) {
+			final Bitmap bitmap = iterator.next();
+			iterator.remove();
+			this.size -= bitmap.getAllocationByteCount();
+			// nobody else references pooled bitmaps
+			bitmap.recycle();
+		}
+	}
+
+	@NonNull
+	@Override
+	public String toString() {
+		synchronized (this.lock) {
+			return "size=" + this.size + ", hits=" + this.hitCount + ", misses=" + this.missCount;
+		}
+	}
+}
@@ -0,0 +1,179 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.cache;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import ch.threema.localcrypto.SeekableCipherInputStream;
+
+/**
+ * In-memory cache of recently read ranges of decrypted files, in fixed-size blocks.
+ *
+ * Media viewers tend to read the same parts of a file several times (headers, indexes, the
+ * current playback position), so keeping the decrypted blocks around avoids decrypting them
+ * again, without ever writing plaintext to disk.
+ */
+public class DecryptedRangeCache {
+	public static final int BLOCK_SIZE = 64 * 1024;
+
+	private final Object lock = new Object();
+	// least recently used block first
+	private final LinkedHashMap<String, byte[]> blocks = new LinkedHashMap<>(16, 0.75f, true);
+	private final long maxSize;
+	private long size = 0;
+	private int hitCount = 0;
+	private int missCount = 0;
+
+	/**
+	 * @param maxSizeKb maximum size of all cached blocks (in kilobytes)
+	 */
+	public DecryptedRangeCache(int maxSizeKb) {
+		this.maxSize = maxSizeKb * 1024L;
+	}
+
+	/**
+	 * Read a range of a decrypted file, from the cache where possible.
+	 *
+	 * @param fileKey identifies the file (and its version) in the cache
+	 * @param inputStream decrypting stream of the file, only used for blocks that are not cached
+	 * @return number of bytes read, less than size only at the end of the file
+	 */
+	public int read(@NonNull String fileKey, @NonNull SeekableCipherInputStream inputStream, long offset, @NonNull byte[] data, int dataOffset, int size) throws IOException {
+		if (offset < 0 || size < 0 || dataOffset < 0 || dataOffset + size > data.length) {
+			throw new IOException("Invalid range " + offset + "+" + size);
+		}
+		int read = 0;
+		while (read < size) {
+			final long position = offset + read;
+			if (position >= inputStream.length()) {
+				break;
+			}
+			final long blockIndex = position / BLOCK_SIZE;
+			final byte[] block = this.getBlock(fileKey, blockIndex, inputStream);
+
+			final int offsetInBlock = (int) (position - blockIndex * BLOCK_SIZE);
+			final int n = Math.min(size - read, block.length - offsetInBlock);
+			System.arraycopy(block, offsetInBlock, data, dataOffset + read, n);
+			read += n;
+		}
+		return read;
+	}
+
+	/**
+	 * Remove all cached blocks of a file.
+	 */
+	public void remove(@NonNull String fileKey) {
+		final String prefix = fileKey + ":";
+		synchronized (this.lock) {
+			final Iterator<Map.Entry<String, byte[]>> iterator = this.blocks.entrySet().iterator();
+			while (iterator.hasNext()) {
+				final Map.Entry<String, byte[]> entry = iterator.next();
+				if (entry.getKey().startsWith(prefix)) {
+					iterator.remove();
+					this.size -= entry.getValue().length;
+				}
+			}
+		}
+	}
+
+	public void clear() {
+		synchronized (this.lock) {
+			this.trim(0);
+		}
+	}
+
+	/**
+	 * @return number of bytes held by the cached blocks
+	 */
+	public long getSize() {
+		synchronized (this.lock) {
+			return this.size;
+		}
+	}
+
+	public int getHitCount() {
+		synchronized (this.lock) {
+			return this.hitCount;
+		}
+	}
+
+	public int getMissCount() {
+		synchronized (this.lock) {
+			return this.missCount;
+		}
+	}
+
+	@NonNull
+	private byte[] getBlock(@NonNull String fileKey, long blockIndex, @NonNull SeekableCipherInputStream inputStream) throws IOException {
+		final String key = fileKey + ":" + blockIndex;
+		synchronized (this.lock) {
+			final byte[] block = this.blocks.get(key);
+			if (block != null) {
+				this.hitCount++;
+				return block;
+			}
+			this.missCount++;
+		}
+
+		// decrypt outside the lock, reads of other files do not have to wait
+		final byte[] block = readBlock(inputStream, blockIndex);
+		synchronized (this.lock) {
+			if (block.length <= this.maxSize) {
+				final byte[] previous = this.blocks.put(key, block);
+				this.size += block.length - (previous != null ? previous.length : 0);
+				this.trim(this.maxSize);
+			}
+		}
+		return block;
+	}
+
+	private void trim(long targetSize) {
+		final Iterator<byte[]> iterator = this.blocks.values().iterator();
+		while (this.size > targetSize && iterator.hasNext()) {
+			this.size -= iterator.next().length;
+			iterator.remove();
+		}
+	}
+
+	@NonNull
+	private static byte[] readBlock(@NonNull SeekableCipherInputStream inputStream, long blockIndex) throws IOException {
+		final long start = blockIndex * BLOCK_SIZE;
+		final int length = (int) Math.max(0, Math.min(BLOCK_SIZE, inputStream.length() - start));
+		final byte[] block = new byte[length];
+		if (length > 0) {
+			inputStream.seek(start);
+			int read = 0;
+			while (read < length) {
+				int n = inputStream.read(block, read, length - read);
+				if (n < 0) {
+					throw new IOException("Unexpected end of file");
+				}
+				read += n;
+			}
+		}
+		return block;
+	}
+}
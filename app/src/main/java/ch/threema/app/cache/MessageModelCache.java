@@ -0,0 +1,345 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.app.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import ch.threema.app.utils.TestUtil;
+import ch.threema.storage.models.AbstractMessageModel;
+
+/**
+ * Bounded cache of message models, indexed by database id, API message id and
+ * (identity, API message id).
+ *
+ * Several instances of the same message may be cached; they are kept together under their
+ * database id and evicted together (least recently used first). The secondary indexes are
+ * refreshed whenever a model is put into the cache. Models are often cached right after
+ * creation, before they have a database id and API message id; such models are re-filed
+ * on every access until both are set.
+ *
+ * All methods synchronize on the cache itself, callers may do the same to make several
+ * operations atomic.
+ */
+public class MessageModelCache<M extends AbstractMessageModel> {
+	private static final Logger logger = LoggerFactory.getLogger(MessageModelCache.class);
+
+	private static class Entry<M> {
+		final List<M> models = new ArrayList<>(1);
+		String apiMessageId;
+		String identityKey;
+	}
+
+	private static final int MAX_PENDING = 100;
+
+	private final int maxSize;
+	// access ordered, least recently used message first
+	private final LinkedHashMap<Integer, Entry<M>> entries = new LinkedHashMap<>(64, 0.75f, true);
+	private final Map<String, Set<Integer>> byApiMessageId = new HashMap<>();
+	private final Map<String, Set<Integer>> byIdentityAndApiMessageId = new HashMap<>();
+	// database id each cached instance is filed under
+	private final Map<M, Integer> filedIds = new IdentityHashMap<>();
+	// instances without database id or API message id yet
+	private final List<M> pending = new ArrayList<>();
+
+	private int hitCount = 0;
+	private int missCount = 0;
+	private int evictionCount = 0;
+
+	/**
+	 * @param maxSize maximum number of cached messages (database ids)
+	 */
+	public MessageModelCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Add a model (if this instance is not cached yet) and refresh the indexes of its message.
+	 */
+	public synchronized void put(@NonNull M model) {
+		this.file(model);
+		if (!isComplete(model) && !this.pending.contains(model)) {
+			this.pending.add(model);
+			if (this.pending.size() > MAX_PENDING) {
+				// stop re-filing the oldest one, it stays cached under its current id
+				this.pending.remove(0);
+			}
+		}
+		this.trim();
+	}
+
+	@Nullable
+	public synchronized M getById(int id) {
+		this.refreshPending();
+		final Entry<M> entry = this.entries.get(id);
+		return this.countResult(entry != null && !entry.models.isEmpty() ? entry.models.get(0) : null);
+	}
+
+	/**
+	 * @return all cached instances of the message with the given database id
+	 */
+	@NonNull
+	public synchronized List<M> getAllById(int id) {
+		this.refreshPending();
+		final Entry<M> entry = this.entries.get(id);
+		return entry != null ? new ArrayList<>(entry.models) : new ArrayList<>();
+	}
+
+	@Nullable
+	public synchronized M getByApiMessageId(@NonNull String apiMessageId) {
+		this.refreshPending();
+		for (Integer id : this.lookup(this.byApiMessageId, apiMessageId)) {
+			for (M m : this.entries.get(id).models) {
+				if (apiMessageId.equals(m.getApiMessageId())) {
+					return this.countResult(m);
+				}
+			}
+		}
+		return this.countResult(null);
+	}
+
+	@Nullable
+	public synchronized M getByApiMessageIdAndIdentity(@NonNull String apiMessageId, @Nullable String identity) {
+		this.refreshPending();
+		for (Integer id : this.lookup(this.byIdentityAndApiMessageId, getIdentityKey(identity, apiMessageId))) {
+			for (M m : this.entries.get(id).models) {
+				if (apiMessageId.equals(m.getApiMessageId()) && TestUtil.compare(m.getIdentity(), identity)) {
+					return this.countResult(m);
+				}
+			}
+		}
+		return this.countResult(null);
+	}
+
+	@Nullable
+	public synchronized M getOutgoingByApiMessageId(@NonNull String apiMessageId) {
+		this.refreshPending();
+		for (Integer id : this.lookup(this.byApiMessageId, apiMessageId)) {
+			for (M m : this.entries.get(id).models) {
+				if (apiMessageId.equals(m.getApiMessageId()) && m.isOutbox()) {
+					return this.countResult(m);
+				}
+			}
+		}
+		return this.countResult(null);
+	}
+
+	/**
+	 * Remove all instances of the message with the given database id.
+	 */
+	public synchronized void remove(int id) {
+		this.refreshPending();
+		final Entry<M> entry = this.entries.remove(id);
+		if (entry != null) {
+			this.removeEntry(id, entry);
+		}
+	}
+
+	public synchronized void clear() {
+		this.entries.clear();
+		this.filedIds.clear();
+		this.pending.clear();
+		this.byApiMessageId.clear();
+		this.byIdentityAndApiMessageId.clear();
+	}
+
+	/**
+	 * @return number of cached messages (database ids)
+	 */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	public synchronized int getHitCount() {
+		return this.hitCount;
+	}
+
+	public synchronized int getMissCount() {
+		return this.missCount;
+	}
+
+	public synchronized int getEvictionCount() {
+		return this.evictionCount;
+	}
+
+	@NonNull
+	@Override
+	public synchronized String toString() {
+		return "size=" + this.entries.size() + ", hits=" + this.hitCount + ", misses=" + this.missCount + ", evictions=" + this.evictionCount;
+	}
+
+	@Nullable
+	private M countResult(@Nullable M model) {
+		if (model != null) {
+			this.hitCount++;
+		} else {
+			this.missCount++;
+		}
+		return model;
+	}
+
+	@NonNull
+	private List<Integer> lookup(@NonNull Map<String, Set<Integer>> index, @Nullable String key) {
+		final Set<Integer> ids = key != null ? index.get(key) : null;
+		return ids != null ? new ArrayList<>(ids) : new ArrayList<>();
+	}
+
+	private void index(int id, @NonNull Entry<M> entry) {
+		addToIndex(this.byApiMessageId, entry.apiMessageId, id);
+		addToIndex(this.byIdentityAndApiMessageId, entry.identityKey, id);
+	}
+
+	private void unindex(int id, @NonNull Entry<M> entry) {
+		removeFromIndex(this.byApiMessageId, entry.apiMessageId, id);
+		removeFromIndex(this.byIdentityAndApiMessageId, entry.identityKey, id);
+	}
+
+	/**
+	 * File a model under its current database id and refresh the indexes of that message.
+	 */
+	private void file(@NonNull M model) {
+		final int id = model.getId();
+		final Integer filedId = this.filedIds.get(model);
+		if (filedId != null && filedId != id) {
+			// the model got its database id after it was cached
+			this.unfile(model);
+		}
+
+		Entry<M> entry = this.entries.get(id);
+		if (entry == null) {
+			entry = new Entry<>();
+			this.entries.put(id, entry);
+		}
+		if (!this.filedIds.containsKey(model)) {
+			entry.models.add(model);
+			this.filedIds.put(model, id);
+		}
+
+		this.unindex(id, entry);
+		entry.apiMessageId = model.getApiMessageId();
+		entry.identityKey = getIdentityKey(model.getIdentity(), model.getApiMessageId());
+		this.index(id, entry);
+	}
+
+	private void refreshPending() {
+		final Iterator<M> iterator = this.pending.iterator();
+		while (iterator.hasNext()) {
+			final M model = iterator.next();
+			if (model.getId() > 0) {
+				this.file(model);
+				if (isComplete(model)) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove a single instance, and its message if no other instance is left.
+	 */
+	private void unfile(@NonNull M model) {
+		final Integer id = this.filedIds.remove(model);
+		if (id == null) {
+			return;
+		}
+		final Entry<M> entry = this.entries.get(id);
+		if (entry != null) {
+			for (Iterator<M> iterator = entry.models.iterator(); iterator.hasNext(); ) {
+				if (iterator.next() == model) {
+					iterator.remove();
+				}
+			}
+			if (entry.models.isEmpty()) {
+				this.entries.remove(id);
+				this.unindex(id, entry);
+			}
+		}
+	}
+
+	private void removeEntry(int id, @NonNull Entry<M> entry) {
+		this.unindex(id, entry);
+		for (M model : entry.models) {
+			this.filedIds.remove(model);
+			this.pending.remove(model);
+		}
+	}
+
+	private void trim() {
+		final Iterator<Map.Entry<Integer, Entry<M>>> iterator = this.entries.entrySet().iterator();
+		while (this.entries.size() > this.maxSize && iterator.hasNext()) {
+			final Map.Entry<Integer, Entry<M>> eldest = iterator.next();
+			iterator.remove();
+			this.removeEntry(eldest.getKey(), eldest.getValue());
+			if (++this.evictionCount % 1000 == 0) {
+				logger.debug("Message model cache: {}", this);
+			}
+		}
+	}
+
+	private static boolean isComplete(@NonNull AbstractMessageModel model) {
+		return model.getId() > 0 && model.getApiMessageId() != null;
+	}
+
+	@Nullable
+	private static String getIdentityKey(@Nullable String identity, @Nullable String apiMessageId) {
+		if (apiMessageId == null) {
+			return null;
+		}
+		return (identity != null ? identity : "") + "/" + apiMessageId;
+	}
+
+	private static void addToIndex(@NonNull Map<String, Set<Integer>> index, @Nullable String key, int id) {
+		if (key != null) {
+			Set<Integer> ids = index.get(key);
+			if (ids == null) {
+				ids = new LinkedHashSet<>(1);
+				index.put(key, ids);
+			}
+			ids.add(id);
+		}
+	}
+
+	private static void removeFromIndex(@NonNull Map<String, Set<Integer>> index, @Nullable String key, int id) {
+		if (key != null) {
+			final Set<Integer> ids = index.get(key);
+			if (ids != null) {
+				ids.remove(id);
+				if (ids.isEmpty()) {
+					index.remove(key);
+				}
+			}
+		}
+	}
+}
@@ -94,9 +94,21 @@ public class ThumbnailCache<T> {
 
 	public void flush() {
 		synchronized (this.lock) {
-			logger.debug("evictAll");
+			logger.debug("evictAll (hits=" + this.thumbnails.hitCount() + ", misses=" + this.thumbnails.missCount() + ")");
 
 			this.thumbnails.evictAll();
 		}
 	}
+
+	public int getHitCount() {
+		synchronized (this.lock) {
+			return this.thumbnails.hitCount();
+		}
+	}
+
+	public int getMissCount() {
+		synchronized (this.lock) {
+			return this.thumbnails.missCount();
+		}
+	}
 }
@@ -0,0 +1,283 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.app.cache;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import ch.threema.localcrypto.MasterKey;
+
+/**
+ * Second level thumbnail cache holding thumbnails that are already scaled to display size,
+ * encrypted with the master key.
+ *
+ * A hit saves decrypting and decoding the (larger) stored thumbnail and scaling it down again.
+ * The total size of the cache is bounded, the least recently used entries are evicted first.
+ * Access times are kept in the file modification date so the order survives restarts.
+ */
+public class ThumbnailDiskCache {
+	private static final Logger logger = LoggerFactory.getLogger(ThumbnailDiskCache.class);
+
+	public static final String DIRECTORY_NAME = "thumbnails";
+	private static final String EXTENSION = ".thumb";
+	private static final String TEMP_EXTENSION = ".tmp";
+	private static final int JPEG_QUALITY = 90;
+
+	private final Object lock = new Object();
+	private final File directory;
+	private final MasterKey masterKey;
+	private final long maxSize;
+
+	// access ordered, least recently used entry first, lazily read from the directory
+	private LinkedHashMap<String, Long> entries = null;
+	private long size = 0;
+	private int hitCount = 0;
+	private int missCount = 0;
+	private int evictionCount = 0;
+
+	/**
+	 * @param maxSize maximum size of all cached files (in bytes)
+	 */
+	public ThumbnailDiskCache(@NonNull File directory, @NonNull MasterKey masterKey, long maxSize) {
+		this.directory = directory;
+		this.masterKey = masterKey;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Load a cached thumbnail.
+	 *
+	 * @return the thumbnail or null if it is not cached (or cannot be read)
+	 */
+	@WorkerThread
+	@Nullable
+	public Bitmap get(@NonNull String key) {
+		synchronized (this.lock) {
+			if (!this.getEntries().containsKey(key)) {
+				this.missCount++;
+				return null;
+			}
+		}
+
+		final File file = this.getFile(key);
+		Bitmap bitmap = null;
+		try (InputStream inputStream = new BufferedInputStream(this.masterKey.getCipherInputStream(file))) {
+			bitmap = BitmapFactory.decodeStream(inputStream);
+		} catch (Exception | OutOfMemoryError e) {
+			logger.error("Unable to read cached thumbnail", e);
+		}
+
+		synchronized (this.lock) {
+			if (bitmap == null) {
+				this.missCount++;
+				this.removeEntry(key);
+				return null;
+			}
+
+			this.hitCount++;
+			// touch the entry (the map is access ordered)
+			this.getEntries().get(key);
+		}
+		//noinspection ResultOfMethodCallIgnored
+		file.setLastModified(System.currentTimeMillis());
+		return bitmap;
+	}
+
+	/**
+	 * Store a thumbnail, replacing any existing entry for the key.
+	 */
+	@WorkerThread
+	public void put(@NonNull String key, @NonNull Bitmap bitmap) {
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		if (bitmap.hasAlpha()) {
+			bitmap.compress(Bitmap.CompressFormat.PNG, 100, compressed);
+		} else {
+			bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, compressed);
+		}
+		if (compressed.size() == 0 || compressed.size() > this.maxSize) {
+			return;
+		}
+
+		final File file = this.getFile(key);
+		File tempFile = null;
+		try {
+			synchronized (this.lock) {
+				// make sure the directory exists and stale temporary files are gone
+				this.getEntries();
+			}
+
+			tempFile = File.createTempFile(key, TEMP_EXTENSION, this.directory);
+			try (OutputStream outputStream = this.masterKey.getChunkedCipherOutputStream(new FileOutputStream(tempFile))) {
+				compressed.writeTo(outputStream);
+			}
+
+			synchronized (this.lock) {
+				if (!tempFile.renameTo(file)) {
+					throw new IOException("Unable to rename " + tempFile.getName());
+				}
+				final Long oldSize = this.getEntries().put(key, file.length());
+				this.size += file.length() - (oldSize != null ? oldSize : 0);
+				this.trim(this.maxSize);
+			}
+		} catch (Exception e) {
+			logger.error("Unable to write cached thumbnail", e);
+			if (tempFile != null) {
+				//noinspection ResultOfMethodCallIgnored
+				tempFile.delete();
+			}
+		}
+	}
+
+	public void remove(@NonNull String key) {
+		synchronized (this.lock) {
+			this.removeEntry(key);
+		}
+	}
+
+	public void clear() {
+		synchronized (this.lock) {
+			logger.debug("clear (" + this + ")");
+			this.trim(0);
+		}
+	}
+
+	public int getHitCount() {
+		synchronized (this.lock) {
+			return this.hitCount;
+		}
+	}
+
+	public int getMissCount() {
+		synchronized (this.lock) {
+			return this.missCount;
+		}
+	}
+
+	public int getEvictionCount() {
+		synchronized (this.lock) {
+			return this.evictionCount;
+		}
+	}
+
+	/**
+	 * @return size of all cached files (in bytes)
+	 */
+	public long getSize() {
+		synchronized (this.lock) {
+			this.getEntries();
+			return this.size;
+		}
+	}
+
+	@NonNull
+	private File getFile(@NonNull String key) {
+		return new File(this.directory, key + EXTENSION);
+	}
+
+	private void removeEntry(@NonNull String key) {
+		final Long oldSize = this.getEntries().remove(key);
+		if (oldSize != null) {
+			this.size -= oldSize;
+		}
+		final File file = this.getFile(key);
+		if (file.exists() && !file.delete()) {
+			logger.warn("Unable to delete cached thumbnail " + file.getName());
+		}
+	}
+
+	private void trim(long targetSize) {
+		final Iterator<Map.Entry<String, Long>> iterator = this.getEntries().entrySet().iterator();
+		while (this.size > targetSize && iterator.hasNext()) {
+			final Map.Entry<String, Long> entry = iterator.next();
+			iterator.remove();
+			this.size -= entry.getValue();
+			this.evictionCount++;
+			final File file = this.getFile(entry.getKey());
+			if (!file.delete()) {
+				logger.warn("Unable to delete cached thumbnail " + file.getName());
+			}
+		}
+	}
+
+	@NonNull
+	private LinkedHashMap<String, Long> getEntries() {
+		if (this.entries == null) {
+			this.entries = new LinkedHashMap<>(64, 0.75f, true);
+			this.size = 0;
+
+			if (!this.directory.exists() && !this.directory.mkdirs()) {
+				logger.warn("Unable to create thumbnail cache directory");
+			}
+
+			final File[] files = this.directory.listFiles();
+			if (files != null) {
+				Arrays.sort(files, new Comparator<File>() {
+					@Override
+					public int compare(File f1, File f2) {
+						return Long.compare(f1.lastModified(), f2.lastModified());
+					}
+				});
+				for (File file : files) {
+					final String name = file.getName();
+					if (name.endsWith(EXTENSION)) {
+						this.entries.put(name.substring(0, name.length() - EXTENSION.length()), file.length());
+						this.size += file.length();
+					} else if (name.endsWith(TEMP_EXTENSION)) {
+						// left over from an interrupted write
+						//noinspection ResultOfMethodCallIgnored
+						file.delete();
+					}
+				}
+			}
+			this.trim(this.maxSize);
+		}
+		return this.entries;
+	}
+
+	@NonNull
+	@Override
+	public String toString() {
+		synchronized (this.lock) {
+			return "size=" + this.size + ", hits=" + this.hitCount + ", misses=" + this.missCount + ", evictions=" + this.evictionCount;
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.collections;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A Bloom filter for byte array items.
+ *
+ * {@link #mightContain(byte[])} never returns false for an item that has been added, but may
+ * return true for an item that has not been added (with roughly the false positive rate the
+ * filter was sized for, as long as the expected number of items is not exceeded).
+ *
+ * This class is thread safe.
+ */
+public class BloomFilter {
+	private static final int SERIALIZATION_VERSION = 1;
+
+	private final long[] bits;
+	private final long numBits;
+	private final int numHashes;
+
+	/**
+	 * Create an empty filter.
+	 *
+	 * @param expectedItems number of items the filter is sized for
+	 * @param falsePositiveRate desired false positive rate at the expected number of items
+	 */
+	public BloomFilter(int expectedItems, double falsePositiveRate) {
+		if (expectedItems < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("Invalid bloom filter parameters");
+		}
+
+		/* optimal size and number of hash functions */
+		long numBits = (long) Math.ceil(-expectedItems * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		int numWords = (int) Math.max(1, (numBits + 63) / 64);
+		this.bits = new long[numWords];
+		this.numBits = (long) numWords * 64;
+		this.numHashes = Math.max(1, (int) Math.round((double) this.numBits / expectedItems * Math.log(2)));
+	}
+
+	private BloomFilter(@NonNull long[] bits, int numHashes) {
+		this.bits = bits;
+		this.numBits = (long) bits.length * 64;
+		this.numHashes = numHashes;
+	}
+
+	public synchronized void add(@NonNull byte[] item) {
+		long hash = hash(item);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < this.numHashes; i++) {
+			long index = ((h1 + (long) i * h2) & Long.MAX_VALUE) % this.numBits;
+			this.bits[(int) (index >>> 6)] |= 1L << index;
+		}
+	}
+
+	public synchronized boolean mightContain(@NonNull byte[] item) {
+		long hash = hash(item);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < this.numHashes; i++) {
+			long index = ((h1 + (long) i * h2) & Long.MAX_VALUE) % this.numBits;
+			if ((this.bits[(int) (index >>> 6)] & (1L << index)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return size of the filter in bits
+	 */
+	public long getNumBits() {
+		return this.numBits;
+	}
+
+	public int getNumHashes() {
+		return this.numHashes;
+	}
+
+	public synchronized void writeTo(@NonNull DataOutputStream dos) throws IOException {
+		dos.writeInt(SERIALIZATION_VERSION);
+		dos.writeInt(this.numHashes);
+		dos.writeInt(this.bits.length);
+		for (long word : this.bits) {
+			dos.writeLong(word);
+		}
+	}
+
+	@NonNull
+	public static BloomFilter readFrom(@NonNull DataInputStream dis) throws IOException {
+		if (dis.readInt() != SERIALIZATION_VERSION) {
+			throw new IOException("Unsupported bloom filter version");
+		}
+		int numHashes = dis.readInt();
+		int numWords = dis.readInt();
+		if (numHashes < 1 || numWords < 1) {
+			throw new IOException("Invalid bloom filter header");
+		}
+		long[] bits = new long[numWords];
+		for (int i = 0; i < numWords; i++) {
+			bits[i] = dis.readLong();
+		}
+		return new BloomFilter(bits, numHashes);
+	}
+
+	/**
+	 * 64-bit FNV-1a followed by a final avalanche step, split into two 32-bit halves for
+	 * double hashing.
+	 */
+	private static long hash(byte[] item) {
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : item) {
+			hash ^= (b & 0xff);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
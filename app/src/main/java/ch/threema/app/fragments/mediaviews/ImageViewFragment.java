@@ -130,14 +130,24 @@ public class ImageViewFragment extends MediaViewFragment {
 		//
 	}
 
+	@Override
+	protected boolean isDecryptedUriSupported() {
+		return true;
+	}
+
 	@Override
 	protected void handleDecryptedFile(File file) {
+		this.handleDecryptedUri(Uri.fromFile(file));
+	}
+
+	@Override
+	protected void handleDecryptedUri(Uri uri) {
 		if (this.isAdded()) {
 
-			imageViewReference.get().setImage(ImageSource.uri(file.getPath()));
+			imageViewReference.get().setImage(ImageSource.uri(uri));
 
 			try {
-				BitmapUtil.ExifOrientation exifOrientation = BitmapUtil.rotationForImage(getContext(), Uri.fromFile(file));
+				BitmapUtil.ExifOrientation exifOrientation = BitmapUtil.rotationForImage(getContext(), uri);
 				logger.debug("Orientation = " + exifOrientation);
 				if (exifOrientation.getRotation() != 0) {
 					imageViewReference.get().setOrientation((int) exifOrientation.getRotation());
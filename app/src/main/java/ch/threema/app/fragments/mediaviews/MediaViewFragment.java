@@ -23,6 +23,7 @@ package ch.threema.app.fragments.mediaviews;
 
 import android.app.Activity;
 import android.graphics.Bitmap;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.view.LayoutInflater;
@@ -66,7 +67,7 @@ abstract public class MediaViewFragment extends Fragment {
 	public interface OnMediaLoadListener {
 		void decrypting();
 		void decrypted(boolean success);
-		void loaded(File file);
+		void loaded(Uri uri);
 		void thumbnailLoaded(Bitmap bitmap);
 	}
 
@@ -83,7 +84,7 @@ abstract public class MediaViewFragment extends Fragment {
 	protected MessageService messageService;
 	private File[] decryptedFileCache;
 	private OnMediaLoadListener onMediaLoadListener;
-	private File decryptedFile;
+	private Uri decryptedUri;
 	private int imageState = ImageState_NONE;
 	private WeakReference<TextView> emptyTextViewReference;
 	WeakReference<ViewGroup> rootViewReference;
@@ -180,8 +181,8 @@ abstract public class MediaViewFragment extends Fragment {
 	}
 
 	private void fireLoadedFile() {
-		if(TestUtil.required(this.onMediaLoadListener, this.decryptedFile)) {
-			this.onMediaLoadListener.loaded(this.decryptedFile);
+		if(TestUtil.required(this.onMediaLoadListener, this.decryptedUri)) {
+			this.onMediaLoadListener.loaded(this.decryptedUri);
 		}
 	}
 
@@ -252,7 +253,7 @@ abstract public class MediaViewFragment extends Fragment {
 
 		this.handleDecryptingFile();
 		//use cached files!
-		if(this.decryptedFileCache[this.position] != null && this.decryptedFileCache[this.position].exists()) {
+		if(!this.isDecryptedUriSupported() && this.decryptedFileCache[this.position] != null && this.decryptedFileCache[this.position].exists()) {
 			this.fileDecrypted(this.decryptedFileCache[this.position]);
 			return;
 		}
@@ -264,6 +265,23 @@ abstract public class MediaViewFragment extends Fragment {
 			this.threadFullDecrypt = threadPoolExecutor.submit(() -> {
 				try {
 					logger.debug("show decrypted of " + position);
+					if (isDecryptedUriSupported()) {
+						// decrypted on demand by the provider, no plaintext copy is written to disk
+						final Uri decryptedUri = fileService.getDecryptedMessageUri(messageModel);
+						if (decryptedUri == null) {
+							throw new Exception("Message file not found");
+						}
+
+						RuntimeUtil.runOnUiThread(() -> {
+							uriDecrypted(decryptedUri);
+
+							if(TestUtil.required(onMediaLoadListener)) {
+								onMediaLoadListener.decrypted(true);
+							}
+						});
+						return;
+					}
+
 					final File decrypted = fileService.getDecryptedMessageFile(messageModel);
 					if (!TestUtil.required(decrypted) || !decrypted.exists()) {
 						throw new Exception("Decrypted file not found");
@@ -309,8 +327,8 @@ abstract public class MediaViewFragment extends Fragment {
 			return;
 		}
 		logger.debug( "file decrypted " + this.position);
-		this.decryptedFile = file;
-		this.decryptedFileCache[this.position] = this.decryptedFile;
+		this.decryptedUri = Uri.fromFile(file);
+		this.decryptedFileCache[this.position] = file;
 
 		if (this.emptyTextViewReference != null && this.emptyTextViewReference.get() != null) {
 			this.emptyTextViewReference.get().setVisibility(View.GONE);
@@ -321,6 +339,33 @@ abstract public class MediaViewFragment extends Fragment {
 		this.fireLoadedFile();
 	}
 
+	private void uriDecrypted(Uri uri) {
+		logger.debug( "uri decrypted " + this.position);
+		this.decryptedUri = uri;
+
+		if (this.emptyTextViewReference != null && this.emptyTextViewReference.get() != null) {
+			this.emptyTextViewReference.get().setVisibility(View.GONE);
+		}
+
+		this.handleDecryptedUri(uri);
+		this.imageState = ImageState_DECRYPTED;
+		this.fireLoadedFile();
+	}
+
+	/**
+	 * @return true if the media can be shown from a content uri of the {@link ch.threema.app.providers.DecryptedMediaProvider},
+	 * which decrypts it on demand, instead of from a decrypted copy of the file
+	 */
+	protected boolean isDecryptedUriSupported() {
+		return false;
+	}
+
+	/**
+	 * Show the media from a content uri, see {@link #isDecryptedUriSupported()}
+	 */
+	protected void handleDecryptedUri(Uri uri) {
+	}
+
 	protected void keepScreenOn(boolean value) {
 		if (value) {
 			getActivity().getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
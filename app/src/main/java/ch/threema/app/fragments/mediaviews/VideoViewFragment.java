@@ -54,9 +54,12 @@ import java.lang.ref.WeakReference;
 import androidx.annotation.UiThread;
 import androidx.core.view.ViewCompat;
 import ch.threema.app.R;
+import ch.threema.app.ThreemaApplication;
 import ch.threema.app.activities.MediaViewerActivity;
 import ch.threema.app.ui.ZoomableExoPlayerView;
 import ch.threema.app.utils.TestUtil;
+import ch.threema.app.video.EncryptedFileDataSource;
+import ch.threema.localcrypto.MasterKey;
 
 public class VideoViewFragment extends AudioFocusSupportingMediaViewFragment implements Player.EventListener {
 	private static final Logger logger = LoggerFactory.getLogger(VideoViewFragment.class);
@@ -66,6 +69,9 @@ public class VideoViewFragment extends AudioFocusSupportingMediaViewFragment imp
 	private WeakReference<ZoomableExoPlayerView> videoViewRef;
 	private SimpleExoPlayer videoPlayer;
 	private boolean isImmediatePlay, isPreparing;
+	// playing the encrypted file directly, see showDecrypted()
+	private boolean isStreaming;
+	private Uri decryptedFallbackUri;
 
 	public VideoViewFragment() {
 		super();
@@ -166,9 +172,48 @@ public class VideoViewFragment extends AudioFocusSupportingMediaViewFragment imp
 		}
 	}
 
+	@Override
+	public void showDecrypted() {
+		if (this.videoPlayer != null) {
+			if (this.isStreaming) {
+				if (this.videoPlayer.getPlaybackState() == Player.STATE_READY) {
+					// navigated back to fragment
+					playVideo(this.isImmediatePlay);
+				}
+			} else {
+				// files in the seekable format can be played right away, without going through
+				// the content provider
+				MasterKey masterKey = ThreemaApplication.getMasterKey();
+				File seekableFile = this.fileService != null ? this.fileService.getSeekableMessageFile(getMessageModel()) : null;
+				if (seekableFile != null && masterKey != null && !masterKey.isLocked()) {
+					logger.debug("streaming encrypted file");
+					this.isStreaming = true;
+					loadVideo(Uri.fromFile(seekableFile), new EncryptedFileDataSource.Factory(masterKey));
+				}
+			}
+		}
+		super.showDecrypted();
+	}
+
+	@Override
+	protected boolean isDecryptedUriSupported() {
+		return true;
+	}
+
 	@Override
 	protected void handleDecryptedFile(final File file) {
-		logger.debug("handleDecryptedFile");
+		handleDecryptedUri(Uri.fromFile(file));
+	}
+
+	@Override
+	protected void handleDecryptedUri(final Uri uri) {
+		logger.debug("handleDecryptedUri");
+
+		if (this.isStreaming) {
+			// keep it in case the encrypted file cannot be played
+			this.decryptedFallbackUri = uri;
+			return;
+		}
 
 		if (this.isAdded()) {
 			if (this.videoPlayer != null && this.videoPlayer.getPlaybackState() == Player.STATE_READY) {
@@ -176,7 +221,7 @@ public class VideoViewFragment extends AudioFocusSupportingMediaViewFragment imp
 				playVideo(this.isImmediatePlay);
 			} else {
 				// new fragment
-				loadVideo(Uri.fromFile(file));
+				loadVideo(uri, new DefaultDataSourceFactory(getContext(), Util.getUserAgent(getContext(), getContext().getString(R.string.app_name))));
 			}
 		} else {
 			logger.debug("Fragment no longer added. Get out of here");
@@ -194,11 +239,10 @@ public class VideoViewFragment extends AudioFocusSupportingMediaViewFragment imp
 		videoPlayer.setPlayWhenReady(play);
 	}
 
-	private void loadVideo(Uri videoUri) {
+	private void loadVideo(Uri videoUri, DataSource.Factory dataSourceFactory) {
 		logger.debug("loadVideo");
 
 		if (this.videoPlayer != null) {
-			DataSource.Factory dataSourceFactory = new DefaultDataSourceFactory(getContext(), Util.getUserAgent(getContext(), getContext().getString(R.string.app_name)));
 			MediaSource videoSource = new ProgressiveMediaSource.Factory(dataSourceFactory).createMediaSource(videoUri);
 
 			this.videoPlayer.setPlayWhenReady(this.isImmediatePlay);
@@ -287,6 +331,15 @@ public class VideoViewFragment extends AudioFocusSupportingMediaViewFragment imp
 	public void onPlayerError(ExoPlaybackException error) {
 		logger.info("ExoPlaybackException = " + error.getMessage());
 
+		if (this.isStreaming) {
+			// fall back to the decrypted copy, now or once it is ready
+			this.isStreaming = false;
+			if (this.decryptedFallbackUri != null) {
+				handleDecryptedUri(this.decryptedFallbackUri);
+			}
+			return;
+		}
+
 		this.progressBarRef.get().setVisibility(View.GONE);
 
 		Toast.makeText(getContext(), R.string.unable_to_play_video, Toast.LENGTH_SHORT).show();
@@ -25,7 +25,6 @@ import android.annotation.SuppressLint;
 import android.content.Intent;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
 import android.view.View;
 import android.widget.ProgressBar;
 import android.widget.TextView;
@@ -68,7 +67,6 @@ import static com.google.android.material.bottomsheet.BottomSheetBehavior.STATE_
 public class GlobalSearchActivity extends ThreemaToolbarActivity implements ThreemaSearchView.OnQueryTextListener {
 	private static final Logger logger = LoggerFactory.getLogger(GlobalSearchActivity.class);
 	private static final int QUERY_MIN_LENGTH = 2;
-	private static final long QUERY_TIMEOUT_MS = 500;
 
 	private GlobalSearchAdapter chatsAdapter, groupChatsAdapter;
 	private RecyclerView chatsRecyclerView, groupChatsRecyclerView;
@@ -80,16 +78,6 @@ public class GlobalSearchActivity extends ThreemaToolbarActivity implements Thre
 	private GroupService groupService;
 
 	private String queryText;
-	private Handler queryHandler = new Handler();
-	private Runnable queryTask = new Runnable() {
-		@Override
-		public void run() {
-			chatsViewModel.onQueryChanged(queryText);
-			chatsAdapter.onQueryChanged(queryText);
-			groupChatsViewModel.onQueryChanged(queryText);
-			groupChatsAdapter.onQueryChanged(queryText);
-		}
-	};
 
 	@Override
 	public boolean onQueryTextSubmit(String query) {
@@ -104,10 +92,13 @@ public class GlobalSearchActivity extends ThreemaToolbarActivity implements Thre
 
 		if (chatsViewModel != null && chatsAdapter != null) {
 
-			queryHandler.removeCallbacksAndMessages(null);
 			if (queryText != null && queryText.length() >= QUERY_MIN_LENGTH) {
 				emptyTextView.setVisibility(View.GONE);
-				queryHandler.postDelayed(queryTask, QUERY_TIMEOUT_MS);
+				// the search repositories debounce the queries
+				chatsViewModel.onQueryChanged(queryText);
+				chatsAdapter.onQueryChanged(queryText);
+				groupChatsViewModel.onQueryChanged(queryText);
+				groupChatsAdapter.onQueryChanged(queryText);
 			} else {
 				emptyTextView.setVisibility(View.VISIBLE);
 				chatsViewModel.onQueryChanged(null);
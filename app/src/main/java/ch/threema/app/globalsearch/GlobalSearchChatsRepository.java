@@ -33,7 +33,7 @@ public class GlobalSearchChatsRepository extends GlobalSearchRepository {
 
 	GlobalSearchChatsRepository(Application application) { super(application); }
 
-	List<AbstractMessageModel> getMessagesForText(String queryString) {
-		return messageService.getContactMessagesForText(queryString);
+	List<AbstractMessageModel> searchMessages(String queryString, int limit, int offset) {
+		return messageService.searchContactMessages(queryString, limit, offset, false);
 	}
 }
@@ -51,4 +51,10 @@ public class GlobalSearchChatsViewModel extends GlobalSearchViewModel {
 	LiveData<Boolean> getIsLoading() {
 		return repository.getIsLoading();
 	}
+
+	@Override
+	protected void onCleared() {
+		repository.shutdown();
+		super.onCleared();
+	}
 }
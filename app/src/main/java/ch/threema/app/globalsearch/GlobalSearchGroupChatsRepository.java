@@ -32,7 +32,7 @@ public class GlobalSearchGroupChatsRepository extends GlobalSearchRepository {
 		super(application);
 	}
 
-	List<AbstractMessageModel> getMessagesForText(String queryString) {
-		return messageService.getGroupMessagesForText(queryString);
+	List<AbstractMessageModel> searchMessages(String queryString, int limit, int offset) {
+		return messageService.searchGroupMessages(queryString, limit, offset, false);
 	}
 }
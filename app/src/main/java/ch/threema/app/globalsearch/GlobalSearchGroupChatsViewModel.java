@@ -51,4 +51,10 @@ public class GlobalSearchGroupChatsViewModel extends GlobalSearchViewModel {
 	LiveData<Boolean> getIsLoading() {
 		return repository.getIsLoading();
 	}
+
+	@Override
+	protected void onCleared() {
+		repository.shutdown();
+		super.onCleared();
+	}
 }
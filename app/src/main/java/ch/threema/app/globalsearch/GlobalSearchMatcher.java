@@ -0,0 +1,126 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.app.globalsearch;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import ch.threema.storage.models.AbstractMessageModel;
+
+/**
+ * In-memory equivalent of the message search index query, used to refine a previous result
+ * instead of querying the database again: every word of the query must be the prefix of a
+ * word in the searchable text of a message. Case and diacritics are ignored.
+ */
+final class GlobalSearchMatcher {
+	private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+	private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+	private GlobalSearchMatcher() { }
+
+	/**
+	 * Whether every message matching newQuery also matches oldQuery, i.e. the results of
+	 * newQuery can be computed by filtering the results of oldQuery.
+	 */
+	static boolean refines(@Nullable String oldQuery, @Nullable String newQuery) {
+		return oldQuery != null && newQuery != null
+			&& !tokenize(oldQuery).isEmpty()
+			&& newQuery.startsWith(oldQuery);
+	}
+
+	@NonNull
+	static List<AbstractMessageModel> filter(@NonNull List<AbstractMessageModel> messageModels, @NonNull String query) {
+		final List<String> queryTokens = tokenize(query);
+		final List<AbstractMessageModel> result = new ArrayList<>();
+		for (AbstractMessageModel messageModel : messageModels) {
+			if (matches(getSearchableText(messageModel), queryTokens)) {
+				result.add(messageModel);
+			}
+		}
+		return result;
+	}
+
+	static boolean matches(@Nullable String text, @NonNull String query) {
+		return matches(text, tokenize(query));
+	}
+
+	/**
+	 * The text covered by the message search index.
+	 */
+	@Nullable
+	private static String getSearchableText(@NonNull AbstractMessageModel messageModel) {
+		if (messageModel.getType() == null) {
+			return null;
+		}
+		switch (messageModel.getType()) {
+			case TEXT:
+			case LOCATION:
+			case BALLOT:
+				return messageModel.getBody();
+			case IMAGE:
+			case FILE:
+				return messageModel.getCaption();
+			default:
+				return null;
+		}
+	}
+
+	private static boolean matches(@Nullable String text, @NonNull List<String> queryTokens) {
+		if (text == null) {
+			return queryTokens.isEmpty();
+		}
+		final List<String> textTokens = tokenize(text);
+		for (String queryToken : queryTokens) {
+			boolean found = false;
+			for (String textToken : textTokens) {
+				if (textToken.startsWith(queryToken)) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@NonNull
+	private static List<String> tokenize(@NonNull String text) {
+		final String normalized = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD))
+			.replaceAll("")
+			.toLowerCase(Locale.ROOT);
+		final List<String> tokens = new ArrayList<>();
+		for (String token : SEPARATORS.split(normalized)) {
+			if (!token.isEmpty()) {
+				tokens.add(token);
+			}
+		}
+		return tokens;
+	}
+}
@@ -21,17 +21,26 @@
 
 package ch.threema.app.globalsearch;
 
-import android.annotation.SuppressLint;
 import android.app.Application;
-import android.os.AsyncTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import ch.threema.app.ThreemaApplication;
+import ch.threema.app.listeners.MessageListener;
+import ch.threema.app.managers.ListenerManager;
 import ch.threema.app.managers.ServiceManager;
 import ch.threema.app.services.MessageService;
 import ch.threema.app.utils.TestUtil;
@@ -44,62 +53,202 @@ import ch.threema.storage.models.AbstractMessageModel;
  * The Repository is not part of the Architecture Components libraries, but is a
  * suggested best practice for code separation and architecture. A Repository class
  * handles data operations. It provides a clean API to the rest of the app for app data.
+ *
+ * Queries are debounced and run one after another on a single thread. A new query supersedes
+ * the running one, whose results are discarded. Results are published page by page, and a
+ * query extending the previous one is answered by filtering the previous (complete) result.
+ * That result is dropped as soon as a message is added, changed or removed.
  */
 abstract class GlobalSearchRepository {
+	private static final Logger logger = LoggerFactory.getLogger(GlobalSearchRepository.class);
+
+	private static final long DEBOUNCE_MS = 300;
+	private static final int PAGE_SIZE = 50;
+	private static final int MAX_RESULTS = 200;
+
 	private final MutableLiveData<Boolean> isLoading = new MutableLiveData<>();
-	private MutableLiveData<List<AbstractMessageModel>> messageModels;
+	private final MutableLiveData<List<AbstractMessageModel>> messageModels = new MutableLiveData<>();
+	private final ScheduledExecutorService searchExecutor = Executors.newSingleThreadScheduledExecutor();
 	protected MessageService messageService;
-	private String queryString = "";
+
+	private final Object lock = new Object();
+	// incremented for every query, searches of older queries stop and discard their results
+	private int generation = 0;
+	private ScheduledFuture<?> pendingSearch = null;
+
+	// last result that was published in full (guarded by lock)
+	private String lastQuery = null;
+	private List<AbstractMessageModel> lastResult = null;
+	// incremented whenever messages change, a search started before that must not be cached
+	private int dataVersion = 0;
+
+	private final MessageListener messageListener = new MessageListener() {
+		@Override
+		public void onNew(AbstractMessageModel newMessage) {
+			invalidateLastResult();
+		}
+
+		@Override
+		public void onModified(List<AbstractMessageModel> modifiedMessageModel) {
+			invalidateLastResult();
+		}
+
+		@Override
+		public void onRemoved(AbstractMessageModel removedMessageModel) {
+			invalidateLastResult();
+		}
+
+		@Override
+		public void onProgressChanged(AbstractMessageModel messageModel, int newProgress) {
+			// ignore
+		}
+	};
 
 	GlobalSearchRepository(Application application) {
 		ServiceManager serviceManager = ThreemaApplication.getServiceManager();
 		if (serviceManager != null) {
-			messageService = null;
 			try {
 				messageService = serviceManager.getMessageService();
 			} catch (ThreemaException e) {
-				return;
-			}
-			if (messageService != null) {
-				messageModels = new MutableLiveData<List<AbstractMessageModel>>() {
-					@Nullable
-					@Override
-					public List<AbstractMessageModel> getValue() {
-						return getMessagesForText(queryString);
-					}
-				};
+				logger.error("Exception", e);
 			}
 		}
+		ListenerManager.messageListeners.add(this.messageListener);
 	}
 
 	LiveData<List<AbstractMessageModel>> getMessageModels() {
 		return messageModels;
 	}
 
-	@SuppressLint("StaticFieldLeak")
-	public void onQueryChanged(String query) {
-		this.queryString = query;
-
-		new AsyncTask<String, Void, Void>() {
-			@Override
-			protected Void doInBackground(String... strings) {
-				if (messageService != null) {
-					if (TestUtil.empty(query)) {
-						messageModels.postValue(new ArrayList<>());
-					} else {
-						isLoading.postValue(true);
-						messageModels.postValue(getMessagesForText(query));
-						isLoading.postValue(false);
-					}
+	public void onQueryChanged(@Nullable String query) {
+		synchronized (this.lock) {
+			final int searchGeneration = ++this.generation;
+			if (this.pendingSearch != null) {
+				this.pendingSearch.cancel(false);
+				this.pendingSearch = null;
+			}
+
+			if (messageService == null) {
+				return;
+			}
+
+			if (TestUtil.empty(query)) {
+				this.clearLastResultLocked();
+				messageModels.postValue(new ArrayList<>());
+				isLoading.postValue(false);
+			} else {
+				if (!GlobalSearchMatcher.refines(this.lastQuery, query)) {
+					this.clearLastResultLocked();
 				}
-				return null;
+				this.pendingSearch = this.searchExecutor.schedule(
+					() -> this.search(query, searchGeneration),
+					DEBOUNCE_MS, TimeUnit.MILLISECONDS);
 			}
-		}.execute();
+		}
 	}
 
 	public LiveData<Boolean> getIsLoading() {
 		return isLoading;
 	}
 
-	abstract List<AbstractMessageModel> getMessagesForText(String queryString);
+	/**
+	 * Stop searching, call when the repository is no longer used.
+	 */
+	void shutdown() {
+		ListenerManager.messageListeners.remove(this.messageListener);
+		synchronized (this.lock) {
+			this.generation++;
+			this.clearLastResultLocked();
+			this.searchExecutor.shutdownNow();
+		}
+	}
+
+	private void invalidateLastResult() {
+		synchronized (this.lock) {
+			this.dataVersion++;
+			this.clearLastResultLocked();
+		}
+	}
+
+	private void clearLastResultLocked() {
+		this.lastQuery = null;
+		this.lastResult = null;
+	}
+
+	@WorkerThread
+	private void search(@NonNull String query, int searchGeneration) {
+		if (!this.publish(searchGeneration, null, true)) {
+			return;
+		}
+
+		final List<AbstractMessageModel> previousResult;
+		final int searchDataVersion;
+		synchronized (this.lock) {
+			previousResult = GlobalSearchMatcher.refines(this.lastQuery, query) ? this.lastResult : null;
+			searchDataVersion = this.dataVersion;
+		}
+
+		final List<AbstractMessageModel> result;
+		boolean complete = false;
+		if (previousResult != null) {
+			logger.debug("Refining {} previous results", previousResult.size());
+			result = GlobalSearchMatcher.filter(previousResult, query);
+			complete = true;
+		} else {
+			result = new ArrayList<>();
+			while (result.size() < MAX_RESULTS) {
+				final int limit = Math.min(PAGE_SIZE, MAX_RESULTS - result.size());
+				final List<AbstractMessageModel> page;
+				try {
+					page = this.searchMessages(query, limit, result.size());
+				} catch (Exception e) {
+					logger.error("Exception", e);
+					break;
+				}
+				result.addAll(page);
+				if (page.size() < limit) {
+					complete = true;
+					break;
+				}
+				// stream the results found so far
+				if (result.size() < MAX_RESULTS && !this.publish(searchGeneration, new ArrayList<>(result), true)) {
+					return;
+				}
+			}
+		}
+
+		// only a complete result can be refined, a truncated one may lack matches
+		synchronized (this.lock) {
+			if (complete && searchDataVersion == this.dataVersion) {
+				this.lastQuery = query;
+				this.lastResult = result;
+			} else {
+				this.clearLastResultLocked();
+			}
+		}
+
+		this.publish(searchGeneration, result, false);
+	}
+
+	/**
+	 * Publish results of a search unless it has been superseded.
+	 *
+	 * @param result results to publish or null to only update the loading state
+	 * @return false if the search has been superseded
+	 */
+	private boolean publish(int searchGeneration, @Nullable List<AbstractMessageModel> result, boolean loading) {
+		synchronized (this.lock) {
+			if (searchGeneration != this.generation) {
+				return false;
+			}
+			if (result != null) {
+				messageModels.postValue(result);
+			}
+			isLoading.postValue(loading);
+			return true;
+		}
+	}
+
+	@WorkerThread
+	abstract List<AbstractMessageModel> searchMessages(String queryString, int limit, int offset);
 }
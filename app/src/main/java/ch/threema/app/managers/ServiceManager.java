@@ -124,6 +124,7 @@ import ch.threema.client.ThreemaConnection;
 import ch.threema.localcrypto.MasterKey;
 import ch.threema.localcrypto.MasterKeyLockedException;
 import ch.threema.storage.DatabaseServiceNew;
+import ch.threema.storage.NonceDatabaseBlobService;
 
 public class ServiceManager {
 	private static final Logger logger = LoggerFactory.getLogger(ServiceManager.class);
@@ -311,6 +312,12 @@ public class ServiceManager {
 			logger.error("Exception", e);
 		}
 
+		// ...and the nonce filter
+		final NonceDatabaseBlobService nonceService = ThreemaApplication.getNonceDatabaseBlobService();
+		if (nonceService != null) {
+			nonceService.saveFilter();
+		}
+
 		// Re-set interrupted flag
 		if (interrupted != null) {
 			Thread.currentThread().interrupt();
@@ -47,6 +47,7 @@ import ch.threema.app.utils.NameUtil;
 import ch.threema.app.utils.TestUtil;
 import ch.threema.base.ThreemaException;
 import ch.threema.client.AbstractMessage;
+import ch.threema.client.BlobSource;
 import ch.threema.client.BlobUploader;
 import ch.threema.client.BoxAudioMessage;
 import ch.threema.client.BoxImageMessage;
@@ -54,6 +55,7 @@ import ch.threema.client.BoxLocationMessage;
 import ch.threema.client.BoxTextMessage;
 import ch.threema.client.BoxVideoMessage;
 import ch.threema.client.BoxedMessage;
+import ch.threema.client.EncryptingBlobInputStream;
 import ch.threema.client.MessageId;
 import ch.threema.client.MessageQueue;
 import ch.threema.client.ProtocolDefines;
@@ -547,6 +549,41 @@ public class ContactMessageReceiver implements MessageReceiver<MessageModel> {
 		};
 	}
 
+	@Override
+	public EncryptStreamResult encryptFileStream(final BlobSource source, final long length) {
+		//generate random symmetric key for file encryption
+		SecureRandom rnd = new SecureRandom();
+		final byte[] encryptionKey = new byte[NaCl.SYMMKEYBYTES];
+		rnd.nextBytes(encryptionKey);
+
+		return new EncryptStreamResult() {
+			@Override
+			public EncryptingBlobInputStream openStream() {
+				return new EncryptingBlobInputStream(source, length, encryptionKey, ProtocolDefines.FILE_NONCE);
+			}
+
+			@Override
+			public byte[] getData() {
+				return null;
+			}
+
+			@Override
+			public byte[] getKey() {
+				return encryptionKey;
+			}
+
+			@Override
+			public byte[] getNonce() {
+				return ProtocolDefines.FILE_NONCE;
+			}
+
+			@Override
+			public int getSize() {
+				return (int) (length + NaCl.BOXOVERHEAD);
+			}
+		};
+	}
+
 	@Override
 	public boolean isMessageBelongsToMe(AbstractMessageModel message) {
 		return message instanceof MessageModel
@@ -39,6 +39,7 @@ import ch.threema.app.services.DistributionListService;
 import ch.threema.app.services.MessageService;
 import ch.threema.app.utils.NameUtil;
 import ch.threema.base.ThreemaException;
+import ch.threema.client.BlobSource;
 import ch.threema.client.ThreemaFeature;
 import ch.threema.client.ballot.BallotData;
 import ch.threema.client.ballot.BallotVote;
@@ -247,6 +248,11 @@ public class DistributionListMessageReceiver implements MessageReceiver<Distribu
 		return null;
 	}
 
+	@Override
+	public EncryptStreamResult encryptFileStream(BlobSource source, long length) {
+		return null;
+	}
+
 	@Override
 	public EncryptResult encryptFileThumbnailData(byte[] fileData, byte[] encryptionKey)  {
 		return null;
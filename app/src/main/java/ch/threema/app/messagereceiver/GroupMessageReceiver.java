@@ -52,7 +52,9 @@ import ch.threema.app.utils.NameUtil;
 import ch.threema.app.utils.TestUtil;
 import ch.threema.base.ThreemaException;
 import ch.threema.client.AbstractGroupMessage;
+import ch.threema.client.BlobSource;
 import ch.threema.client.BlobUploader;
+import ch.threema.client.EncryptingBlobInputStream;
 import ch.threema.client.GroupAudioMessage;
 import ch.threema.client.GroupImageMessage;
 import ch.threema.client.GroupLocationMessage;
@@ -482,6 +484,41 @@ public class GroupMessageReceiver implements MessageReceiver<GroupMessageModel>
 		};
 	}
 
+	@Override
+	public EncryptStreamResult encryptFileStream(final BlobSource source, final long length) {
+		//generate random symmetric key for file encryption
+		SecureRandom rnd = new SecureRandom();
+		final byte[] encryptionKey = new byte[NaCl.SYMMKEYBYTES];
+		rnd.nextBytes(encryptionKey);
+
+		return new EncryptStreamResult() {
+			@Override
+			public EncryptingBlobInputStream openStream() {
+				return new EncryptingBlobInputStream(source, length, encryptionKey, ProtocolDefines.FILE_NONCE);
+			}
+
+			@Override
+			public byte[] getData() {
+				return null;
+			}
+
+			@Override
+			public byte[] getKey() {
+				return encryptionKey;
+			}
+
+			@Override
+			public byte[] getNonce() {
+				return ProtocolDefines.FILE_NONCE;
+			}
+
+			@Override
+			public int getSize() {
+				return (int) (length + NaCl.BOXOVERHEAD);
+			}
+		};
+	}
+
 	@Override
 	public EncryptResult encryptFileThumbnailData(byte[] fileThumbnailData, final byte[] encryptionKey) {
 		final byte[] thumbnailBoxed = NaCl.symmetricEncryptData(fileThumbnailData, encryptionKey, ProtocolDefines.FILE_THUMBNAIL_NONCE);
@@ -33,6 +33,8 @@ import java.util.List;
 import androidx.annotation.IntDef;
 import ch.threema.app.services.MessageService;
 import ch.threema.base.ThreemaException;
+import ch.threema.client.BlobSource;
+import ch.threema.client.EncryptingBlobInputStream;
 import ch.threema.client.ballot.BallotData;
 import ch.threema.client.ballot.BallotVote;
 import ch.threema.storage.models.AbstractMessageModel;
@@ -79,6 +81,17 @@ public interface MessageReceiver<T extends AbstractMessageModel> {
 		int getSize();
 	}
 
+	/**
+	 * result of an encryption that is done while the data is being uploaded
+	 */
+	interface EncryptStreamResult extends EncryptResult {
+		/**
+		 * open a new stream producing the encrypted data, every stream can be read once
+		 * @return
+		 */
+		EncryptingBlobInputStream openStream();
+	}
+
 	interface OnSendingPermissionDenied {
 		void denied(int errorResId);
 	}
@@ -287,6 +300,14 @@ public interface MessageReceiver<T extends AbstractMessageModel> {
 	 */
 	EncryptResult encryptFileData(byte[] fileData);
 
+	/**
+	 * Encrypt a file while it is being uploaded, so that it never has to be held in memory as a whole.
+	 * @param source Content data to encrypt, will be read twice per upload
+	 * @param length Exact length of the content data
+	 * @return Meta data and a stream of the encrypted data ({@link EncryptResult#getData()} returns null)
+	 */
+	EncryptStreamResult encryptFileStream(BlobSource source, long length);
+
 	/**
 	 * encrypt a thumbnail file
 	 * @param fileData
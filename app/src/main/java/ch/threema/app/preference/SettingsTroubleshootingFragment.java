@@ -589,6 +589,7 @@ public class SettingsTroubleshootingFragment extends ThreemaPreferenceFragment i
 							"\n-- \n" +
 							ConfigUtils.getDeviceInfo(getActivity(), false) + "\n" +
 							ConfigUtils.getFullAppVersion(getActivity()) + "\n" +
+							fileService.getThumbnailCacheStatistics() + "\n" +
 							userService.getIdentity(), receiver);
 
 					MediaItem mediaItem = new MediaItem(Uri.fromFile(zipFile), MediaItem.TYPE_NONE);
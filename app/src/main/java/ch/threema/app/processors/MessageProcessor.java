@@ -122,13 +122,11 @@ public class MessageProcessor implements MessageProcessorInterface {
 
 	@Override
 	@WorkerThread
-	public ProcessIncomingResult processIncomingMessage(BoxedMessage boxmsg) {
-
-		AbstractMessage msg;
+	public DecodeIncomingResult decodeIncomingMessage(BoxedMessage boxmsg) {
 		try {
 			// check first, if contact of incoming message is a already known
 			// try to fetch the key - throws MissingPublicKeyException if contact is blocked or fetching failed
-			msg = AbstractMessage.decodeFromBox(
+			AbstractMessage msg = AbstractMessage.decodeFromBox(
 					boxmsg,
 					this.contactStore,
 					this.identityStore,
@@ -137,7 +135,7 @@ public class MessageProcessor implements MessageProcessorInterface {
 			if (msg == null) {
 				logger.warn("Message {} from {} error: decodeFromBox failed",
 					boxmsg.getMessageId(), boxmsg.getFromIdentity());
-				return ProcessIncomingResult.failed();
+				return DecodeIncomingResult.done(ProcessIncomingResult.failed());
 			}
 
 			logger.info(
@@ -162,6 +160,40 @@ public class MessageProcessor implements MessageProcessorInterface {
 				}
 			}
 
+			return DecodeIncomingResult.decoded(msg);
+		}
+		catch (MissingPublicKeyException e) {
+			if(this.preferenceService.isBlockUnknown()) {
+				//its ok, return true and save nothing;
+				return DecodeIncomingResult.done(ProcessIncomingResult.ignore());
+			}
+
+			if(this.blackListService != null && boxmsg != null && this.blackListService.has(boxmsg.getFromIdentity())) {
+				//its ok, a black listed identity, save NOTHING
+				return DecodeIncomingResult.done(ProcessIncomingResult.ignore());
+			}
+
+			logger.error("Missing public key", e);
+			return DecodeIncomingResult.done(ProcessIncomingResult.failed());
+		}
+		catch (BadMessageException e) {
+			logger.error("Bad message", e);
+			if (e.shouldDrop()) {
+				logger.warn("Message {} error: invalid - dropping msg.", boxmsg.getMessageId());
+				return DecodeIncomingResult.done(ProcessIncomingResult.ignore());
+			}
+			return DecodeIncomingResult.done(ProcessIncomingResult.failed());
+		}
+		catch (Exception e) {
+			logger.error("Unknown exception", e);
+			return DecodeIncomingResult.done(ProcessIncomingResult.failed());
+		}
+	}
+
+	@Override
+	@WorkerThread
+	public ProcessIncomingResult processIncomingMessage(BoxedMessage boxmsg, AbstractMessage msg) {
+		try {
 			//check if sender is on blacklist
 			if(this.blackListService != null && this.blackListService.has(msg.getFromIdentity())) {
 				logger.debug("Message from {}: Contact blacklisted. Ignoring", msg.getFromIdentity());
@@ -223,28 +255,6 @@ public class MessageProcessor implements MessageProcessorInterface {
 			return ProcessIncomingResult.ok(msg);
 
 		}
-		catch (MissingPublicKeyException e) {
-			if(this.preferenceService.isBlockUnknown()) {
-				//its ok, return true and save nothing;
-				return ProcessIncomingResult.ignore();
-			}
-
-			if(this.blackListService != null && boxmsg != null && this.blackListService.has(boxmsg.getFromIdentity())) {
-				//its ok, a black listed identity, save NOTHING
-				return ProcessIncomingResult.ignore();
-			}
-
-			logger.error("Missing public key", e);
-			return ProcessIncomingResult.failed();
-		}
-		catch (BadMessageException e) {
-			logger.error("Bad message", e);
-			if (e.shouldDrop()) {
-				logger.warn("Message {} error: invalid - dropping msg.", boxmsg.getMessageId());
-				return ProcessIncomingResult.ignore();
-			}
-			return ProcessIncomingResult.failed();
-		}
 		catch (Exception e) {
 			logger.error("Unknown exception", e);
 			return ProcessIncomingResult.failed();
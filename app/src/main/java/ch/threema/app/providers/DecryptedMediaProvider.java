@@ -0,0 +1,344 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.providers;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.ParcelFileDescriptor;
+import android.os.ProxyFileDescriptorCallback;
+import android.os.storage.StorageManager;
+import android.provider.OpenableColumns;
+import android.system.ErrnoException;
+import android.system.OsConstants;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import ch.threema.app.ThreemaApplication;
+import ch.threema.app.cache.DecryptedRangeCache;
+import ch.threema.app.managers.ServiceManager;
+import ch.threema.app.services.FileService;
+import ch.threema.app.utils.MimeUtil;
+import ch.threema.localcrypto.MasterKey;
+import ch.threema.localcrypto.SeekableCipherInputStream;
+import ch.threema.storage.models.AbstractMessageModel;
+import ch.threema.storage.models.DistributionListMessageModel;
+import ch.threema.storage.models.GroupMessageModel;
+import ch.threema.storage.models.MessageModel;
+import ch.threema.storage.models.MessageType;
+
+/**
+ * Provides the decrypted files of media messages to viewers and share targets, decrypting them
+ * on demand instead of writing a decrypted copy to disk.
+ *
+ * Uri format: content://{package}.decryptedmedia/{c|g|d}/{message id}/{display name}
+ *
+ * On Android 8 and later, files are served as seekable proxy file descriptors that decrypt the
+ * requested ranges (going through a cache of recently read blocks); the message file is
+ * converted to the seekable chunked format first if necessary. Otherwise, the decrypted file
+ * is written to a pipe.
+ */
+public class DecryptedMediaProvider extends ContentProvider {
+	private static final Logger logger = LoggerFactory.getLogger(DecryptedMediaProvider.class);
+
+	private static final String AUTHORITY_SUFFIX = ".decryptedmedia";
+	private static final String TYPE_CONTACT = "c";
+	private static final String TYPE_GROUP = "g";
+	private static final String TYPE_DISTRIBUTION_LIST = "d";
+	private static final String[] DEFAULT_PROJECTION = new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+	private static final int RANGE_CACHE_SIZE_KB = 8 * 1024;
+
+	// shared by all open files
+	private static final DecryptedRangeCache rangeCache = new DecryptedRangeCache(RANGE_CACHE_SIZE_KB);
+
+	private HandlerThread callbackThread;
+	private Handler callbackHandler;
+
+	/**
+	 * @return uri of the decrypted file of a media message
+	 */
+	public static Uri getUri(@NonNull AbstractMessageModel messageModel, @NonNull String displayName) {
+		final String type;
+		if (messageModel instanceof GroupMessageModel) {
+			type = TYPE_GROUP;
+		} else if (messageModel instanceof DistributionListMessageModel) {
+			type = TYPE_DISTRIBUTION_LIST;
+		} else {
+			type = TYPE_CONTACT;
+		}
+
+		return new Uri.Builder()
+			.scheme(ContentResolver.SCHEME_CONTENT)
+			.authority(ThreemaApplication.getAppContext().getPackageName() + AUTHORITY_SUFFIX)
+			.appendPath(type)
+			.appendPath(String.valueOf(messageModel.getId()))
+			.appendPath(displayName)
+			.build();
+	}
+
+	/**
+	 * Drop all cached plaintext, e.g. when the master key is locked.
+	 */
+	public static void clearCache() {
+		rangeCache.clear();
+	}
+
+	@Override
+	public boolean onCreate() {
+		return true;
+	}
+
+	@Nullable
+	@Override
+	public String getType(@NonNull Uri uri) {
+		AbstractMessageModel messageModel = this.getMessageModel(uri);
+		return messageModel != null ? MimeUtil.getMimeTypeFromMessageModel(messageModel) : null;
+	}
+
+	@Nullable
+	@Override
+	public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+		AbstractMessageModel messageModel = this.getMessageModel(uri);
+		if (messageModel == null) {
+			return null;
+		}
+
+		if (projection == null) {
+			projection = DEFAULT_PROJECTION;
+		}
+
+		MatrixCursor cursor = new MatrixCursor(projection, 1);
+		MatrixCursor.RowBuilder row = cursor.newRow();
+		for (String column : projection) {
+			if (OpenableColumns.DISPLAY_NAME.equals(column)) {
+				row.add(uri.getLastPathSegment());
+			} else if (OpenableColumns.SIZE.equals(column)) {
+				row.add(this.getSize(messageModel));
+			} else {
+				row.add(null);
+			}
+		}
+		return cursor;
+	}
+
+	@Nullable
+	@Override
+	public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+		if (!"r".equals(mode)) {
+			throw new FileNotFoundException("Read only: " + uri);
+		}
+
+		AbstractMessageModel messageModel = this.getMessageModel(uri);
+		FileService fileService = this.getFileService();
+		MasterKey masterKey = ThreemaApplication.getMasterKey();
+		if (messageModel == null || fileService == null || masterKey == null || masterKey.isLocked()) {
+			throw new FileNotFoundException("Not available: " + uri);
+		}
+
+		try {
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+				File file = fileService.migrateMessageFile(messageModel);
+				if (file != null) {
+					return this.openProxyFile(masterKey, file);
+				}
+			}
+			return this.openPipe(fileService, messageModel);
+		} catch (FileNotFoundException e) {
+			throw e;
+		} catch (Exception e) {
+			logger.error("Exception", e);
+			throw new FileNotFoundException("Unable to open " + uri);
+		}
+	}
+
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		if (level >= TRIM_MEMORY_RUNNING_LOW) {
+			rangeCache.clear();
+		}
+	}
+
+	@Nullable
+	@Override
+	public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+		throw new UnsupportedOperationException("No external inserts");
+	}
+
+	@Override
+	public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+		throw new UnsupportedOperationException("No external deletes");
+	}
+
+	@Override
+	public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
+		throw new UnsupportedOperationException("No external updates");
+	}
+
+	@RequiresApi(Build.VERSION_CODES.O)
+	private ParcelFileDescriptor openProxyFile(@NonNull MasterKey masterKey, @NonNull File file) throws Exception {
+		final SeekableCipherInputStream inputStream = masterKey.getSeekableCipherInputStream(file);
+		// the message file is replaced when it is converted, so its timestamp is part of the key
+		final String fileKey = file.getName() + "-" + file.lastModified();
+
+		StorageManager storageManager = getContext().getSystemService(StorageManager.class);
+		try {
+			return storageManager.openProxyFileDescriptor(ParcelFileDescriptor.MODE_READ_ONLY, new ProxyFileDescriptorCallback() {
+				@Override
+				public long onGetSize() {
+					return inputStream.length();
+				}
+
+				@Override
+				public int onRead(long offset, int size, byte[] data) throws ErrnoException {
+					try {
+						return rangeCache.read(fileKey, inputStream, offset, data, 0, size);
+					} catch (IOException e) {
+						logger.error("Unable to decrypt range", e);
+						throw new ErrnoException("onRead", OsConstants.EIO);
+					}
+				}
+
+				@Override
+				public void onRelease() {
+					try {
+						inputStream.close();
+					} catch (IOException e) {
+						logger.error("Exception", e);
+					}
+				}
+			}, this.getCallbackHandler());
+		} catch (IOException | RuntimeException e) {
+			inputStream.close();
+			throw e;
+		}
+	}
+
+	private ParcelFileDescriptor openPipe(@NonNull FileService fileService, @NonNull AbstractMessageModel messageModel) throws Exception {
+		final InputStream inputStream = fileService.getDecryptedMessageStream(messageModel);
+		if (inputStream == null) {
+			throw new FileNotFoundException("Message file not found");
+		}
+
+		final ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createReliablePipe();
+		new Thread(() -> {
+			try (InputStream is = inputStream; OutputStream os = new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1])) {
+				IOUtils.copyLarge(is, os);
+			} catch (IOException e) {
+				// the reader may simply have stopped reading
+				logger.info("Decrypted media pipe closed: {}", e.getMessage());
+			}
+		}, "DecryptedMediaPipe").start();
+		return pipe[0];
+	}
+
+	private synchronized Handler getCallbackHandler() {
+		if (this.callbackHandler == null) {
+			this.callbackThread = new HandlerThread("DecryptedMediaProvider");
+			this.callbackThread.start();
+			this.callbackHandler = new Handler(this.callbackThread.getLooper());
+		}
+		return this.callbackHandler;
+	}
+
+	@Nullable
+	private Long getSize(@NonNull AbstractMessageModel messageModel) {
+		FileService fileService = this.getFileService();
+		MasterKey masterKey = ThreemaApplication.getMasterKey();
+		if (fileService != null && masterKey != null) {
+			File file = fileService.getSeekableMessageFile(messageModel);
+			if (file != null) {
+				try (SeekableCipherInputStream inputStream = masterKey.getSeekableCipherInputStream(file)) {
+					return inputStream.length();
+				} catch (Exception e) {
+					logger.error("Exception", e);
+				}
+			}
+		}
+		if (messageModel.getType() == MessageType.FILE && messageModel.getFileData() != null) {
+			return messageModel.getFileData().getFileSize();
+		}
+		return null;
+	}
+
+	@Nullable
+	private FileService getFileService() {
+		ServiceManager serviceManager = ThreemaApplication.getServiceManager();
+		if (serviceManager != null) {
+			try {
+				return serviceManager.getFileService();
+			} catch (Exception e) {
+				logger.error("Exception", e);
+			}
+		}
+		return null;
+	}
+
+	@Nullable
+	private AbstractMessageModel getMessageModel(@NonNull Uri uri) {
+		List<String> segments = uri.getPathSegments();
+		ServiceManager serviceManager = ThreemaApplication.getServiceManager();
+		if (segments.size() != 3 || serviceManager == null) {
+			return null;
+		}
+
+		final String type;
+		switch (segments.get(0)) {
+			case TYPE_CONTACT:
+				type = MessageModel.class.toString();
+				break;
+			case TYPE_GROUP:
+				type = GroupMessageModel.class.toString();
+				break;
+			case TYPE_DISTRIBUTION_LIST:
+				type = DistributionListMessageModel.class.toString();
+				break;
+			default:
+				return null;
+		}
+
+		try {
+			return serviceManager.getMessageService().getMessageModelFromId(Integer.parseInt(segments.get(1)), type);
+		} catch (Exception e) {
+			logger.error("Exception", e);
+			return null;
+		}
+	}
+}
@@ -23,8 +23,10 @@ package ch.threema.app.services;
 
 import ch.threema.client.BlobLoader;
 import ch.threema.client.BlobUploader;
+import ch.threema.client.EncryptingBlobInputStream;
 
 public interface ApiService {
 	BlobUploader createUploader(byte[] data);
+	BlobUploader createUploader(EncryptingBlobInputStream encryptingInputStream);
 	BlobLoader createLoader(byte[] blobId);
 }
@@ -25,6 +25,7 @@ import ch.threema.app.utils.ConfigUtils;
 import ch.threema.client.AppVersion;
 import ch.threema.client.BlobLoader;
 import ch.threema.client.BlobUploader;
+import ch.threema.client.EncryptingBlobInputStream;
 
 public class ApiServiceImpl implements ApiService {
 	private final AppVersion appVersion;
@@ -43,6 +44,14 @@ public class ApiServiceImpl implements ApiService {
 		return uploader;
 	}
 
+	@Override
+	public BlobUploader createUploader(EncryptingBlobInputStream encryptingInputStream) {
+		BlobUploader uploader = new BlobUploader(ConfigUtils::getSSLSocketFactory, encryptingInputStream, null);
+		uploader.setVersion(this.appVersion);
+		uploader.setServerUrls(ipv6);
+		return uploader;
+	}
+
 	@Override
 	public BlobLoader createLoader(byte[] blobId) {
 		BlobLoader loader = new BlobLoader(ConfigUtils::getSSLSocketFactory, blobId);
@@ -24,12 +24,11 @@ package ch.threema.app.services;
 import android.util.SparseArray;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
+import ch.threema.app.cache.MessageModelCache;
 import ch.threema.storage.models.ContactModel;
 import ch.threema.storage.models.ConversationModel;
 import ch.threema.storage.models.DistributionListMessageModel;
@@ -41,11 +40,13 @@ import ch.threema.storage.models.ballot.BallotModel;
 import ch.threema.storage.models.ballot.LinkBallotModel;
 
 public class CacheService {
-	private final Collection<MessageModel> messageModelCache = new HashSet<>();
-	private final Collection<DistributionListMessageModel> distributionListMessageCache = new HashSet<>();
+	private static final int MESSAGE_MODEL_CACHE_SIZE = 2000;
+
+	private final MessageModelCache<MessageModel> messageModelCache = new MessageModelCache<>(MESSAGE_MODEL_CACHE_SIZE);
+	private final MessageModelCache<DistributionListMessageModel> distributionListMessageCache = new MessageModelCache<>(MESSAGE_MODEL_CACHE_SIZE);
 	private final SparseArray<GroupModel> groupModelCache = new SparseArray<>();
 	private final SparseArray<String[]> groupIdentityCache = new SparseArray<>();
-	private final Collection<GroupMessageModel> groupMessageModelCache = new HashSet<>();
+	private final MessageModelCache<GroupMessageModel> groupMessageModelCache = new MessageModelCache<>(MESSAGE_MODEL_CACHE_SIZE);
 	private final List<ConversationModel> conversationModelCache = new ArrayList<>();
 	private final Map<String, int[]> colors = new HashMap<>();
 	private final SparseArray<Map<String, Integer>> groupMemberColorCache = new SparseArray<>();
@@ -61,7 +62,7 @@ public class CacheService {
 		return this.conversationModelCache;
 	}
 
-	public Collection<MessageModel> getMessageModelCache() {
+	public MessageModelCache<MessageModel> getMessageModelCache() {
 		return this.messageModelCache;
 	}
 
@@ -73,11 +74,11 @@ public class CacheService {
 		return this.groupModelCache;
 	}
 
-	public Collection<GroupMessageModel> getGroupMessageModelCache() {
+	public MessageModelCache<GroupMessageModel> getGroupMessageModelCache() {
 		return this.groupMessageModelCache;
 	}
 
-	public Collection<DistributionListMessageModel> getDistributionListMessageCache() {
+	public MessageModelCache<DistributionListMessageModel> getDistributionListMessageCache() {
 		return this.distributionListMessageCache;
 	}
 
@@ -29,7 +29,10 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -41,13 +44,13 @@ import ch.threema.app.messagereceiver.ContactMessageReceiver;
 import ch.threema.app.messagereceiver.DistributionListMessageReceiver;
 import ch.threema.app.messagereceiver.GroupMessageReceiver;
 import ch.threema.app.messagereceiver.MessageReceiver;
+import ch.threema.app.utils.ConversationUtil;
 import ch.threema.app.utils.MessageUtil;
 import ch.threema.app.utils.TestUtil;
 import ch.threema.storage.DatabaseServiceNew;
 import ch.threema.storage.models.AbstractMessageModel;
 import ch.threema.storage.models.ContactModel;
 import ch.threema.storage.models.ConversationModel;
-import ch.threema.storage.models.ConversationTagModel;
 import ch.threema.storage.models.DistributionListMessageModel;
 import ch.threema.storage.models.DistributionListModel;
 import ch.threema.storage.models.GroupMessageModel;
@@ -59,7 +62,9 @@ import ch.threema.storage.models.TagModel;
 public class ConversationServiceImpl implements ConversationService {
 	private static final Logger logger = LoggerFactory.getLogger(ConversationServiceImpl.class);
 
+	// sorted, the position of each conversation is its index
 	private final List<ConversationModel> conversationCache;
+	private final Map<String, ConversationModel> conversationCacheByUid = new HashMap<>();
 	private final ConversationTagService conversationTagService;
 	private final DatabaseServiceNew databaseServiceNew;
 	private final ContactService contactService;
@@ -70,6 +75,27 @@ public class ConversationServiceImpl implements ConversationService {
 	private boolean initAllLoaded = false;
 	private TagModel starTag;
 
+	/**
+	 * Pinned conversations first, then the most recent first, conversations without messages last.
+	 */
+	private final Comparator<ConversationModel> conversationComparator = new Comparator<ConversationModel>() {
+		@Override
+		public int compare(ConversationModel conversationModel, ConversationModel conversationModel2) {
+			boolean tagged1 = conversationTagService.isTaggedWith(conversationModel, starTag);
+			boolean tagged2 = conversationTagService.isTaggedWith(conversationModel2, starTag);
+			if (tagged1 != tagged2) {
+				return tagged1 ? -1 : 1;
+			}
+
+			Date sortDate1 = conversationModel.getSortDate();
+			Date sortDate2 = conversationModel2.getSortDate();
+			if (sortDate1 == null || sortDate2 == null) {
+				return sortDate1 == sortDate2 ? 0 : (sortDate1 == null ? 1 : -1);
+			}
+			return sortDate2.compareTo(sortDate1);
+		}
+	};
+
 	class ConversationResult {
 		public final int messageId;
 		public final long count;
@@ -114,7 +140,7 @@ public class ConversationServiceImpl implements ConversationService {
 		logger.debug("getAll forceReloadFromDatabase = " + forceReloadFromDatabase);
 		synchronized (this.conversationCache) {
 			if (forceReloadFromDatabase || !this.initAllLoaded) {
-				this.conversationCache.clear();
+				this.clearCache();
 			}
 			if (this.conversationCache.size() == 0) {
 
@@ -278,43 +304,72 @@ public class ConversationServiceImpl implements ConversationService {
 
 	@Override
 	public void sort() {
-		List<String> taggedConversationUids = new ArrayList<>();
-		for (ConversationTagModel tagModel : conversationTagService.getAll()) {
-			if (tagModel.getTag().equals(starTag.getTag())) {
-				taggedConversationUids.add(tagModel.getConversationUid());
-			}
+		// tags may have changed, this is cheap if the conversations are still sorted
+		synchronized (this.conversationCache) {
+			Collections.sort(this.conversationCache, this.conversationComparator);
+			this.updatePositions(0, this.conversationCache.size() - 1);
 		}
+	}
 
-		int size = taggedConversationUids.size();
-
+	/**
+	 * Move a single conversation to its sorted position, assuming all other cached
+	 * conversations are sorted (e.g. after a new message moved it to the front).
+	 */
+	void updatePosition(@NonNull ConversationModel conversationModel) {
 		synchronized (this.conversationCache) {
-			Collections.sort(this.conversationCache, new Comparator<ConversationModel>() {
-				@Override
-				public int compare(ConversationModel conversationModel, ConversationModel conversationModel2) {
-					if (conversationModel2.getSortDate() == null || conversationModel.getSortDate() == null) {
-						return 0;
-					}
+			int oldIndex = conversationModel.getPosition();
+			if (oldIndex < 0 || oldIndex >= this.conversationCache.size()
+					|| this.conversationCache.get(oldIndex) != conversationModel) {
+				oldIndex = this.conversationCache.indexOf(conversationModel);
+				if (oldIndex < 0) {
+					// not cached (e.g. archived)
+					return;
+				}
+			}
+
+			this.conversationCache.remove(oldIndex);
+			int newIndex = Collections.binarySearch(this.conversationCache, conversationModel, this.conversationComparator);
+			if (newIndex < 0) {
+				newIndex = -newIndex - 1;
+			}
+			this.conversationCache.add(newIndex, conversationModel);
 
-					if (size > 0) {
-						boolean tagged1 = taggedConversationUids.contains(conversationModel.getUid());
-						boolean tagged2 = taggedConversationUids.contains(conversationModel2.getUid());
+			this.updatePositions(Math.min(oldIndex, newIndex), Math.max(oldIndex, newIndex));
+		}
+	}
 
-						return tagged1 == tagged2 ? conversationModel2.getSortDate().compareTo(conversationModel.getSortDate()) :
-							tagged2 ? 1 : -1;
-					} else {
-						return conversationModel2.getSortDate().compareTo(conversationModel.getSortDate());
-					}
-				}
-			});
+	private void updatePositions(int from, int to) {
+		for (int pos = from; pos <= to; pos++) {
+			this.conversationCache.get(pos).setPosition(pos);
+		}
+	}
 
-			//set new position
-			int pos = 0;
-			for(ConversationModel m: this.conversationCache) {
-				m.setPosition(pos++);
+	void addToCache(@NonNull ConversationModel conversationModel) {
+		synchronized (this.conversationCache) {
+			conversationModel.setPosition(this.conversationCache.size());
+			this.conversationCache.add(conversationModel);
+			this.conversationCacheByUid.put(conversationModel.getUid(), conversationModel);
+		}
+	}
+
+	void removeFromCache(@NonNull ConversationModel conversationModel) {
+		synchronized (this.conversationCache) {
+			int index = this.conversationCache.indexOf(conversationModel);
+			if (index >= 0) {
+				this.conversationCache.remove(index);
+				this.conversationCacheByUid.remove(conversationModel.getUid());
+				this.updatePositions(index, this.conversationCache.size() - 1);
 			}
 		}
 	}
 
+	private void clearCache() {
+		synchronized (this.conversationCache) {
+			this.conversationCache.clear();
+			this.conversationCacheByUid.clear();
+		}
+	}
+
 	@Override
 	public synchronized ConversationModel refresh(AbstractMessageModel modifiedMessageModel) {
 		ConversationModelParser parser = this.createParser(modifiedMessageModel);
@@ -394,9 +449,7 @@ public class ConversationServiceImpl implements ConversationService {
 			distributionListService.setIsArchived(conversationModel.getDistributionList(), true);
 		}
 
-		synchronized (conversationCache) {
-			conversationCache.remove(conversationModel);
-		}
+		this.removeFromCache(conversationModel);
 		ListenerManager.conversationListeners.handle(new ListenerManager.HandleListener<ConversationListener>() {
 			@Override
 			public void handle(ConversationListener listener) {
@@ -436,9 +489,7 @@ public class ConversationServiceImpl implements ConversationService {
 
 			// Remove from cache if the conversation is a contact conversation
 			if (!conversation.isGroupConversation() && !conversation.isDistributionListConversation()) {
-				synchronized (this.conversationCache) {
-					this.conversationCache.remove(conversation);
-				}
+				this.removeFromCache(conversation);
 
 				if (conversations.length == 1) {
 					ListenerManager.conversationListeners.handle(new ListenerManager.HandleListener<ConversationListener>() {
@@ -500,9 +551,7 @@ public class ConversationServiceImpl implements ConversationService {
 		// Remove from cache if the conversation is a contact conversation
 		if(removeFromCache || (
 				!conversation.isGroupConversation() && !conversation.isDistributionListConversation())) {
-			synchronized (this.conversationCache) {
-				this.conversationCache.remove(conversation);
-			}
+			this.removeFromCache(conversation);
 
 			ListenerManager.conversationListeners.handle(new ListenerManager.HandleListener<ConversationListener>() {
 				@Override
@@ -511,16 +560,16 @@ public class ConversationServiceImpl implements ConversationService {
 				}
 			});
 
-			//resort!
-			this.sort();
-
 			return true;
 		}
 		else {
 			conversation.setLatestMessage(null);
 			conversation.setMessageCount(0);
 			conversation.setUnreadCount(0);
-			this.fireOnModifiedConversation(conversation);
+
+			final int oldPosition = conversation.getPosition();
+			this.updatePosition(conversation);
+			this.fireOnModifiedConversation(conversation, oldPosition != conversation.getPosition() ? oldPosition : null);
 		}
 
 		return false;
@@ -545,9 +594,7 @@ public class ConversationServiceImpl implements ConversationService {
 
 	@Override
 	public synchronized boolean reset() {
-		synchronized (this.conversationCache) {
-			this.conversationCache.clear();
-		}
+		this.clearCache();
 		return true;
 	}
 
@@ -605,18 +652,15 @@ public class ConversationServiceImpl implements ConversationService {
 		public abstract List<ConversationResult> selectAll(boolean archived);
 		protected abstract I getIndex(M messageModel);
 		protected abstract I getIndex(P parentObject);
+		protected abstract String getUid(@NonNull I index);
 
 		public final ConversationModel getCached(final I index) {
 			if(index == null) {
 				return null;
 			}
 			synchronized (conversationCache) {
-				return Functional.select(conversationCache, new IPredicateNonNull<ConversationModel>() {
-					@Override
-					public boolean apply(@NonNull ConversationModel conversationModel) {
-						return belongsTo(conversationModel, index);
-					}
-				});
+				ConversationModel conversationModel = conversationCacheByUid.get(this.getUid(index));
+				return conversationModel != null && belongsTo(conversationModel, index) ? conversationModel : null;
 			}
 		}
 
@@ -651,8 +695,9 @@ public class ConversationServiceImpl implements ConversationService {
 			if(model == null) {
 				newConversationModel = true;
 				model = this.getSelected(index);
-				//resort
-				sort();
+				if (model != null) {
+					updatePosition(model);
+				}
 			} else {
 				// refresh name if it's a distribution list
 				if (model.isDistributionListConversation() && parentObject instanceof DistributionListModel) {
@@ -733,7 +778,7 @@ public class ConversationServiceImpl implements ConversationService {
 			final ConversationModel finalModel = model;
 
 			final int oldPosition = model.getPosition();
-			sort();
+			updatePosition(model);
 
 			if(newConversationModel) {
 				logger.debug("refresh modified message NEW");
@@ -757,7 +802,7 @@ public class ConversationServiceImpl implements ConversationService {
 					updateLatestConversationMessageAfterDelete(model);
 
 					final int oldPosition = model.getPosition();
-					sort();
+					updatePosition(model);
 
 					ListenerManager.conversationListeners.handle(new ListenerManager.HandleListener<ConversationListener>() {
 						@Override
@@ -841,9 +886,7 @@ public class ConversationServiceImpl implements ConversationService {
 				if(conversationModel == null) {
 					conversationModel = new ConversationModel(receiver);
 					if (addToCache && !contactModel.isArchived()) {
-						synchronized (conversationCache) {
-							conversationCache.add(conversationModel);
-						}
+						addToCache(conversationModel);
 					}
 				}
 
@@ -875,6 +918,11 @@ public class ConversationServiceImpl implements ConversationService {
 		protected String getIndex(ContactModel contactModel) {
 			return contactModel != null ? contactModel.getIdentity() : null;
 		}
+
+		@Override
+		protected String getUid(@NonNull String identity) {
+			return ConversationUtil.getIdentityConversationUid(identity);
+		}
 	}
 
 	private class GroupConversationModelParser extends ConversationModelParser<Integer, GroupMessageModel, GroupModel> {
@@ -893,9 +941,7 @@ public class ConversationServiceImpl implements ConversationService {
 				if(conversationModel == null) {
 					conversationModel = new ConversationModel(receiver);
 					if (addToCache && !groupModel.isArchived()) {
-						synchronized (conversationCache) {
-							conversationCache.add(conversationModel);
-						}
+						addToCache(conversationModel);
 					}
 				}
 
@@ -955,6 +1001,11 @@ public class ConversationServiceImpl implements ConversationService {
 		protected Integer getIndex(GroupModel groupModel) {
 			return groupModel != null ? groupModel.getId() : null;
 		}
+
+		@Override
+		protected String getUid(@NonNull Integer groupId) {
+			return ConversationUtil.getGroupConversationUid(groupId);
+		}
 	}
 
 
@@ -974,9 +1025,7 @@ public class ConversationServiceImpl implements ConversationService {
 				if(conversationModel == null) {
 					conversationModel = new ConversationModel(receiver);
 					if (addToCache && !distributionListModel.isArchived()) {
-						synchronized (conversationCache) {
-							conversationCache.add(conversationModel);
-						}
+						addToCache(conversationModel);
 					}
 				}
 
@@ -1025,6 +1074,11 @@ public class ConversationServiceImpl implements ConversationService {
 		protected Integer getIndex(DistributionListModel distributionListModel) {
 			return distributionListModel != null ? distributionListModel.getId() : null;
 		}
+
+		@Override
+		protected String getUid(@NonNull Integer distributionListId) {
+			return ConversationUtil.getDistributionListConversationUid(distributionListId);
+		}
 	}
 
 
@@ -1091,9 +1145,7 @@ public class ConversationServiceImpl implements ConversationService {
 			else {
 				if (conversationModel.getMessageCount() == 1) {
 					// remove model from cache completely
-					synchronized (this.conversationCache) {
-						this.conversationCache.remove(conversationModel);
-					}
+					this.removeFromCache(conversationModel);
 				}
 			}
 		}
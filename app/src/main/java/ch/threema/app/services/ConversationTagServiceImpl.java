@@ -24,7 +24,11 @@ package ch.threema.app.services;
 import androidx.annotation.NonNull;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import ch.threema.app.collections.Functional;
 import ch.threema.app.collections.IPredicateNonNull;
@@ -42,6 +46,9 @@ public class ConversationTagServiceImpl implements ConversationTagService {
 	private final DatabaseServiceNew databaseService;
 
 	private final List<TagModel> tagModels = new ArrayList<>();
+	// conversation uids by tag, loaded on first use (the conversation list is sorted by tag)
+	private final Map<String, Set<String>> taggedConversationUids = new HashMap<>();
+	private boolean taggedConversationUidsLoaded = false;
 
 	public ConversationTagServiceImpl(DatabaseServiceNew databaseService) {
 		this.databaseService = databaseService;
@@ -80,9 +87,7 @@ public class ConversationTagServiceImpl implements ConversationTagService {
 	@Override
 	public boolean tag(ConversationModel conversation, TagModel tagModel) {
 		if (conversation != null && tagModel != null) {
-			if (!this.isTaggedWith(conversation, tagModel)) {
-				this.databaseService.getConversationTagFactory()
-					.create(new ConversationTagModel(conversation.getUid(), tagModel.getTag()));
+			if (this.setTagged(conversation, tagModel, true)) {
 				this.triggerChange(conversation);
 				return true;
 			}
@@ -93,9 +98,7 @@ public class ConversationTagServiceImpl implements ConversationTagService {
 	@Override
 	public boolean unTag(ConversationModel conversation, TagModel tagModel) {
 		if (conversation != null && tagModel != null) {
-			if (this.isTaggedWith(conversation, tagModel)) {
-				this.databaseService.getConversationTagFactory()
-					.deleteByConversationUidAndTag(conversation.getUid(), tagModel.getTag());
+			if (this.setTagged(conversation, tagModel, false)) {
 				this.triggerChange(conversation);
 				return true;
 			}
@@ -106,20 +109,9 @@ public class ConversationTagServiceImpl implements ConversationTagService {
 	@Override
 	public boolean toggle(ConversationModel conversation, TagModel tagModel, boolean silent) {
 		if (conversation != null && tagModel != null) {
-			if (this.isTaggedWith(conversation, tagModel)) {
-				// remove
-				this.databaseService.getConversationTagFactory()
-					.deleteByConversationUidAndTag(conversation.getUid(), tagModel.getTag());
-				if (!silent) {
-					this.triggerChange(conversation);
-				}
-			} else {
-				// Add
-				this.databaseService.getConversationTagFactory()
-					.create(new ConversationTagModel(conversation.getUid(), tagModel.getTag()));
-				if (!silent) {
-					this.triggerChange(conversation);
-				}
+			this.setTagged(conversation, tagModel, !this.isTaggedWith(conversation, tagModel));
+			if (!silent) {
+				this.triggerChange(conversation);
 			}
 		}
 		return false;
@@ -131,23 +123,32 @@ public class ConversationTagServiceImpl implements ConversationTagService {
 			return false;
 		}
 
-		return this.databaseService.getConversationTagFactory()
-			.getByConversationUidAndTag(conversation.getUid(), tagModel.getTag()) != null;
+		synchronized (this.taggedConversationUids) {
+			return this.getTaggedConversationUids(tagModel.getTag()).contains(conversation.getUid());
+		}
 	}
 
 	@Override
 	public void removeAll(ConversationModel conversation) {
 		if (conversation != null) {
-			this.databaseService.getConversationTagFactory()
-				.deleteByConversationUid(conversation.getUid());
+			synchronized (this.taggedConversationUids) {
+				this.databaseService.getConversationTagFactory()
+					.deleteByConversationUid(conversation.getUid());
+				for (Set<String> uids : this.getTaggedConversationUids().values()) {
+					uids.remove(conversation.getUid());
+				}
+			}
 		}
 	}
 
 	@Override
 	public void removeAll(TagModel tagModel) {
 		if (tagModel != null) {
-			this.databaseService.getConversationTagFactory()
-				.deleteByConversationTag(tagModel.getTag());
+			synchronized (this.taggedConversationUids) {
+				this.databaseService.getConversationTagFactory()
+					.deleteByConversationTag(tagModel.getTag());
+				this.getTaggedConversationUids().remove(tagModel.getTag());
+			}
 		}
 	}
 
@@ -156,6 +157,50 @@ public class ConversationTagServiceImpl implements ConversationTagService {
 		return this.databaseService.getConversationTagFactory().getAll();
 	}
 
+	/**
+	 * @return true if the tag was changed
+	 */
+	private boolean setTagged(@NonNull ConversationModel conversation, @NonNull TagModel tagModel, boolean tagged) {
+		// listeners are called outside of the lock, they may access the conversation service
+		synchronized (this.taggedConversationUids) {
+			final Set<String> uids = this.getTaggedConversationUids(tagModel.getTag());
+			if (tagged == uids.contains(conversation.getUid())) {
+				return false;
+			}
+			if (tagged) {
+				this.databaseService.getConversationTagFactory()
+					.create(new ConversationTagModel(conversation.getUid(), tagModel.getTag()));
+				uids.add(conversation.getUid());
+			} else {
+				this.databaseService.getConversationTagFactory()
+					.deleteByConversationUidAndTag(conversation.getUid(), tagModel.getTag());
+				uids.remove(conversation.getUid());
+			}
+			return true;
+		}
+	}
+
+	@NonNull
+	private Map<String, Set<String>> getTaggedConversationUids() {
+		if (!this.taggedConversationUidsLoaded) {
+			this.taggedConversationUidsLoaded = true;
+			for (ConversationTagModel conversationTagModel : this.databaseService.getConversationTagFactory().getAll()) {
+				this.getTaggedConversationUids(conversationTagModel.getTag()).add(conversationTagModel.getConversationUid());
+			}
+		}
+		return this.taggedConversationUids;
+	}
+
+	@NonNull
+	private Set<String> getTaggedConversationUids(String tag) {
+		Set<String> uids = this.getTaggedConversationUids().get(tag);
+		if (uids == null) {
+			uids = new HashSet<>();
+			this.getTaggedConversationUids().put(tag, uids);
+		}
+		return uids;
+	}
+
 	private void triggerChange(final ConversationModel conversationModel) {
 		ListenerManager.conversationListeners.handle(new ListenerManager.HandleListener<ConversationListener>() {
 			@Override
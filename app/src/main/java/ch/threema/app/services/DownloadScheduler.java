@@ -0,0 +1,301 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.app.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Runs download tasks on a bounded number of worker threads, highest priority first.
+ *
+ * Tasks are identified by a key (the blob ID). Scheduling a task for a key that is already
+ * waiting or running does not start a second download, it only adds the callback (and raises
+ * the priority, if the new one is higher). Tasks that have not started yet can be
+ * reprioritized or cancelled; cancelling a running download is up to the task itself.
+ */
+public class DownloadScheduler {
+	private static final Logger logger = LoggerFactory.getLogger(DownloadScheduler.class);
+
+	/**
+	 * Download priorities, highest first.
+	 */
+	public enum Priority {
+		/** requested by the user or shown on screen right now */
+		VISIBLE,
+		/** automatic download of a newly received message */
+		AUTO_DOWNLOAD,
+		/** anything else, e.g. messages that have been scrolled out of view */
+		BACKGROUND
+	}
+
+	public interface Task {
+		/**
+		 * @param progress receives the download progress, forwarded to all callbacks of the task
+		 * @return true if the download succeeded
+		 */
+		boolean run(@NonNull Progress progress) throws Exception;
+	}
+
+	public interface Progress {
+		/**
+		 * @param percent download progress (0..100)
+		 */
+		void update(int percent);
+	}
+
+	public interface Callback {
+		/**
+		 * Called on the worker thread while the task is running.
+		 */
+		default void onProgress(int percent) { }
+
+		/**
+		 * Called on the worker thread when the task has finished, or right away when it is
+		 * cancelled before it started.
+		 *
+		 * @param success result of the task (false if cancelled or failed)
+		 * @param exception the exception thrown by the task, if any
+		 */
+		void onFinished(boolean success, @Nullable Exception exception);
+	}
+
+	private static class Job implements Comparable<Job> {
+		final @NonNull String key;
+		final @NonNull Task task;
+		final long sequence;
+		final List<Callback> callbacks = new ArrayList<>(1);
+		@NonNull Priority priority;
+		boolean running;
+
+		Job(@NonNull String key, @NonNull Task task, @NonNull Priority priority, long sequence) {
+			this.key = key;
+			this.task = task;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Job other) {
+			int cmp = this.priority.compareTo(other.priority);
+			return cmp != 0 ? cmp : Long.compare(this.sequence, other.sequence);
+		}
+	}
+
+	private final int maxConcurrent;
+	private final @NonNull Executor executor;
+
+	private final Object lock = new Object();
+	private final Map<String, Job> jobs = new HashMap<>();
+	private final TreeSet<Job> queue = new TreeSet<>();
+	private long nextSequence;
+	private int runningWorkers;
+
+	public DownloadScheduler(int maxConcurrent) {
+		this(maxConcurrent, Executors.newCachedThreadPool(r -> new Thread(r, "DownloadScheduler")));
+	}
+
+	public DownloadScheduler(int maxConcurrent, @NonNull Executor executor) {
+		if (maxConcurrent < 1) {
+			throw new IllegalArgumentException("maxConcurrent must be at least 1");
+		}
+		this.maxConcurrent = maxConcurrent;
+		this.executor = executor;
+	}
+
+	/**
+	 * Schedule a download task, or join the task already scheduled for the same key.
+	 */
+	public void schedule(@NonNull String key, @NonNull Priority priority, @NonNull Task task, @Nullable Callback callback) {
+		synchronized (this.lock) {
+			Job job = this.jobs.get(key);
+			if (job == null) {
+				job = new Job(key, task, priority, this.nextSequence++);
+				this.jobs.put(key, job);
+				this.queue.add(job);
+			} else {
+				logger.debug("Download {} already scheduled", key);
+				this.raisePriorityLocked(job, priority);
+			}
+			if (callback != null) {
+				job.callbacks.add(callback);
+			}
+			this.startWorkersLocked();
+		}
+	}
+
+	/**
+	 * Change the priority of a task that has not started yet.
+	 *
+	 * @return true if the task was waiting
+	 */
+	public boolean setPriority(@NonNull String key, @NonNull Priority priority) {
+		synchronized (this.lock) {
+			Job job = this.jobs.get(key);
+			if (job == null || job.running) {
+				return false;
+			}
+			if (job.priority != priority) {
+				this.queue.remove(job);
+				job.priority = priority;
+				this.queue.add(job);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Remove a task that has not started yet. Its callbacks are called with success = false.
+	 *
+	 * @return true if the task was waiting and has been removed
+	 */
+	public boolean cancel(@NonNull String key) {
+		final Job job;
+		synchronized (this.lock) {
+			job = this.jobs.get(key);
+			if (job == null || job.running) {
+				return false;
+			}
+			this.queue.remove(job);
+			this.jobs.remove(key);
+		}
+		notifyFinished(job, false, null);
+		return true;
+	}
+
+	/**
+	 * @return number of tasks that are waiting or running
+	 */
+	public int getCount() {
+		synchronized (this.lock) {
+			return this.jobs.size();
+		}
+	}
+
+	/**
+	 * @return true if a task for the key is waiting or running
+	 */
+	public boolean isScheduled(@NonNull String key) {
+		synchronized (this.lock) {
+			return this.jobs.containsKey(key);
+		}
+	}
+
+	/**
+	 * @return true if a task for the key is waiting (and not yet running)
+	 */
+	public boolean isWaiting(@NonNull String key) {
+		synchronized (this.lock) {
+			Job job = this.jobs.get(key);
+			return job != null && !job.running;
+		}
+	}
+
+	private void raisePriorityLocked(@NonNull Job job, @NonNull Priority priority) {
+		if (!job.running && priority.compareTo(job.priority) < 0) {
+			this.queue.remove(job);
+			job.priority = priority;
+			this.queue.add(job);
+		}
+	}
+
+	private void startWorkersLocked() {
+		while (this.runningWorkers < this.maxConcurrent && this.runningWorkers < this.queue.size()) {
+			this.runningWorkers++;
+			this.executor.execute(this::work);
+		}
+	}
+
+	private void work() {
+		boolean exhausted = false;
+		try {
+			while (true) {
+				final Job job;
+				synchronized (this.lock) {
+					job = this.queue.pollFirst();
+					if (job == null) {
+						this.runningWorkers--;
+						exhausted = true;
+						return;
+					}
+					job.running = true;
+				}
+
+				boolean success = false;
+				Exception exception = null;
+				try {
+					success = job.task.run(percent -> this.notifyProgress(job, percent));
+				} catch (Exception e) {
+					exception = e;
+				} finally {
+					// from here on, scheduling the same key starts a new job
+					synchronized (this.lock) {
+						this.jobs.remove(job.key);
+					}
+				}
+				notifyFinished(job, success, exception);
+			}
+		} finally {
+			if (!exhausted) {
+				// the worker died (e.g. on an Error), let another one take over
+				synchronized (this.lock) {
+					this.runningWorkers--;
+					this.startWorkersLocked();
+				}
+			}
+		}
+	}
+
+	private void notifyProgress(@NonNull Job job, int percent) {
+		final List<Callback> callbacks;
+		synchronized (this.lock) {
+			callbacks = new ArrayList<>(job.callbacks);
+		}
+		for (Callback callback : callbacks) {
+			callback.onProgress(percent);
+		}
+	}
+
+	/**
+	 * Only called once the job has been removed, so no callbacks can be added concurrently.
+	 */
+	private static void notifyFinished(@NonNull Job job, boolean success, @Nullable Exception exception) {
+		for (Callback callback : job.callbacks) {
+			try {
+				callback.onFinished(success, exception);
+			} catch (Exception e) {
+				logger.error("Exception in download callback", e);
+			}
+		}
+	}
+}
@@ -21,10 +21,38 @@
 
 package ch.threema.app.services;
 
+import java.io.File;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import ch.threema.client.ProgressListener;
 
 public interface DownloadService{
 	byte[] download(int id, byte[] blobId, boolean markAsDown, ProgressListener progressListener);
+
+	/**
+	 * Download a blob into a temporary file, without holding it in memory.
+	 * The file stays valid until {@link #complete(int, byte[])} is called for the download.
+	 *
+	 * @return the downloaded (still encrypted) blob, or null if the download failed or was cancelled
+	 */
+	@Nullable File downloadFile(int id, byte[] blobId, boolean markAsDown, ProgressListener progressListener);
+	/**
+	 * Run a download task on the shared download scheduler, at most a few at a time and in order
+	 * of priority. Tasks for a blob that is already scheduled are merged with the existing one.
+	 */
+	void schedule(@NonNull byte[] blobId, @NonNull DownloadScheduler.Priority priority, @NonNull DownloadScheduler.Task task, @Nullable DownloadScheduler.Callback callback);
+
+	/**
+	 * Change the priority of a scheduled download that has not started yet.
+	 */
+	boolean setPriority(@NonNull byte[] blobId, @NonNull DownloadScheduler.Priority priority);
+
+	/**
+	 * Remove a scheduled download that has not started yet.
+	 */
+	boolean unschedule(@NonNull byte[] blobId);
+
 	void complete(int id, byte[] blobId);
 	boolean cancel(int id);
 
@@ -31,10 +31,12 @@ import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import ch.threema.app.BuildConfig;
 import ch.threema.app.utils.FileUtil;
@@ -48,7 +50,10 @@ public class DownloadServiceImpl implements DownloadService {
 	private static final String TAG = "DownloadService";
 	private static final String WAKELOCK_TAG = BuildConfig.APPLICATION_ID + ":" + TAG;
 	private static final int DOWNLOAD_WAKELOCK_TIMEOUT = 10 * 1000;
+	private static final String PARTIAL_FILE_SUFFIX = ".part";
+	private static final int MAX_CONCURRENT_DOWNLOADS = 3;
 	private final SparseArray<BlobLoader> blobLoaders = new SparseArray<>();
+	private final DownloadScheduler scheduler = new DownloadScheduler(MAX_CONCURRENT_DOWNLOADS);
 	private final FileService fileService;
 	private final ApiService apiService;
 	private PowerManager powerManager;
@@ -62,6 +67,25 @@ public class DownloadServiceImpl implements DownloadService {
 
 	@Override
 	public byte[] download(int id, byte[] blobId, boolean markAsDown, ProgressListener progressListener) {
+		File downloadFile = this.downloadFile(id, blobId, markAsDown, progressListener);
+		if (downloadFile == null) {
+			return null;
+		}
+
+		try (FileInputStream fileInputStream = new FileInputStream(downloadFile)) {
+			return IOUtils.toByteArray(fileInputStream);
+		} catch (IOException | OutOfMemoryError e) {
+			logger.error("Could not read downloaded blob for message " + id, e);
+			synchronized (this.blobLoaders) {
+				this.blobLoaders.remove(id);
+			}
+			return null;
+		}
+	}
+
+	@Override
+	@Nullable
+	public File downloadFile(int id, byte[] blobId, boolean markAsDown, ProgressListener progressListener) {
 		PowerManager.WakeLock wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKELOCK_TAG);
 		try {
 			if (wakeLock != null) {
@@ -75,8 +99,10 @@ public class DownloadServiceImpl implements DownloadService {
 				return null;
 			}
 
-			byte[] imageBlob = null;
 			File downloadFile = this.getTemporaryDownloadFile(blobId);
+			// the blob is streamed into a partial file first, so the download file only ever exists complete.
+			// if the download fails, the partial file is kept and the next attempt only loads the missing part
+			File partialFile = this.getPartialDownloadFile(blobId);
 			boolean downloadSuccess = false;
 
 			try {
@@ -84,9 +110,7 @@ public class DownloadServiceImpl implements DownloadService {
 				if (downloadFile.exists()) {
 					if (downloadFile.length() >= NaCl.BOXOVERHEAD) {
 						logger.warn("Blob download file for message {} already exists", id);
-						try (FileInputStream fileInputStream = new FileInputStream(downloadFile)) {
-							return IOUtils.toByteArray(fileInputStream);
-						}
+						return downloadFile;
 					} else {
 						// invalid download file - try again
 						FileUtil.deleteFileOrWarn(downloadFile, "Download File", logger);
@@ -108,49 +132,33 @@ public class DownloadServiceImpl implements DownloadService {
 					blobLoader.setProgressListener(progressListener);
 				}
 
-
-				// load image from server
+				// load blob from server straight into the file
 				logger.info("Fetching blob for message {}", id);
-				imageBlob = blobLoader.load(false);
-
-				if (imageBlob != null) {
+				if (blobLoader.loadResumable(partialFile, false)) {
 					synchronized (this.blobLoaders) {
 						//check if loader already existing in array (otherwise its canceled)
 						if (this.blobLoaders.get(id) != null) {
-							logger.debug("Write blob to file");
-							//write to temporary file
-							FileUtil.createNewFileOrLog(downloadFile, logger);
-							if (downloadFile.isFile()) {
-								try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(downloadFile))) {
-									bos.write(imageBlob);
-									bos.flush();
-								}
+							if (partialFile.renameTo(downloadFile)) {
+								downloadSuccess = true;
 
-								if (downloadFile.length() == imageBlob.length) {
-									downloadSuccess = true;
-
-									//ok download saved, set as down if set
-									if (markAsDown) {
-										logger.info("Marking message {} as downloaded", id);
-										final BlobLoader loader = this.blobLoaders.get(id);
-										try {
-											new Thread(() -> {
-												if (loader != null) {
-													loader.markAsDown(blobId);
-												}
-												logger.info("Marked message {} as downloaded", id);
-											}, "MarkAsDownThread").start();
-										} catch (Exception ignored) {
-											// markAsDown thread failed
-											// catch java.lang.InternalError: Thread starting during runtime shutdown
-										}
+								//ok download saved, set as down if set
+								if (markAsDown) {
+									logger.info("Marking message {} as downloaded", id);
+									final BlobLoader loader = this.blobLoaders.get(id);
+									try {
+										new Thread(() -> {
+											if (loader != null) {
+												loader.markAsDown(blobId);
+											}
+											logger.info("Marked message {} as downloaded", id);
+										}, "MarkAsDownThread").start();
+									} catch (Exception ignored) {
+										// markAsDown thread failed
+										// catch java.lang.InternalError: Thread starting during runtime shutdown
 									}
-								} else {
-									logger.warn("Blob and file size don't match.");
-									return null;
 								}
 							} else {
-								logger.warn("Blob file is a directory");
+								logger.warn("Could not rename blob download file");
 							}
 						} else {
 							logger.debug("No blob loaders, canceled?");
@@ -162,18 +170,16 @@ public class DownloadServiceImpl implements DownloadService {
 			}
 
 			if (downloadSuccess) {
-				logger.info("Blob for message {} successfully downloaded. Size = {}", id, imageBlob.length);
-			} else {
-				logger.warn("Blob download for message {} failed.", id);
+				logger.info("Blob for message {} successfully downloaded. Size = {}", id, downloadFile.length());
+				return downloadFile;
 			}
 
-			if (imageBlob == null) {
-				synchronized (this.blobLoaders) {
-					// download failed. remove loader
-					this.blobLoaders.remove(id);
-				}
+			logger.warn("Blob download for message {} failed.", id);
+			synchronized (this.blobLoaders) {
+				// download failed. remove loader
+				this.blobLoaders.remove(id);
 			}
-			return imageBlob;
+			return null;
 		} finally {
 			if (wakeLock != null && wakeLock.isHeld()) {
 				logger.info("Release download wakelock");
@@ -182,6 +188,21 @@ public class DownloadServiceImpl implements DownloadService {
 		}
 	}
 
+	@Override
+	public void schedule(@NonNull byte[] blobId, @NonNull DownloadScheduler.Priority priority, @NonNull DownloadScheduler.Task task, @Nullable DownloadScheduler.Callback callback) {
+		this.scheduler.schedule(Utils.byteArrayToHexString(blobId), priority, task, callback);
+	}
+
+	@Override
+	public boolean setPriority(@NonNull byte[] blobId, @NonNull DownloadScheduler.Priority priority) {
+		return this.scheduler.setPriority(Utils.byteArrayToHexString(blobId), priority);
+	}
+
+	@Override
+	public boolean unschedule(@NonNull byte[] blobId) {
+		return this.scheduler.cancel(Utils.byteArrayToHexString(blobId));
+	}
+
 	@Override
 	public void complete(int id, byte[] blobId) {
 		synchronized (this.blobLoaders) {
@@ -194,6 +215,16 @@ public class DownloadServiceImpl implements DownloadService {
 		if(f.exists()) {
 			FileUtil.deleteFileOrWarn(f, "remove temporary blob file", logger);
 		}
+
+		// and any leftovers of an earlier partial download
+		File partialFile = this.getPartialDownloadFile(blobId);
+		File progressFile = BlobLoader.getProgressFile(partialFile);
+		if (partialFile.exists()) {
+			FileUtil.deleteFileOrWarn(partialFile, "remove partial blob file", logger);
+		}
+		if (progressFile.exists()) {
+			FileUtil.deleteFileOrWarn(progressFile, "remove blob progress file", logger);
+		}
 	}
 
 	@Override
@@ -221,8 +252,12 @@ public class DownloadServiceImpl implements DownloadService {
 	@Override
 	public boolean isDownloading() {
 		synchronized (this.blobLoaders) {
-			return this.blobLoaders.size() > 0;
+			if (this.blobLoaders.size() > 0) {
+				return true;
+			}
 		}
+		// downloads waiting for a free slot will start soon
+		return this.scheduler.getCount() > 0;
 	}
 
 	@Override
@@ -237,4 +272,8 @@ public class DownloadServiceImpl implements DownloadService {
 		File path = this.fileService.getBlobDownloadPath();
 		return new File(path.getPath() + "/" + Utils.byteArrayToHexString(blobId));
 	}
+
+	private File getPartialDownloadFile(byte[] blobId) {
+		return new File(this.getTemporaryDownloadFile(blobId).getPath() + PARTIAL_FILE_SUFFIX);
+	}
 }
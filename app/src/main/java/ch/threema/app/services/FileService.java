@@ -35,6 +35,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.crypto.CipherInputStream;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.appcompat.app.AppCompatActivity;
@@ -156,11 +157,40 @@ public interface FileService {
 	File getDecryptedMessageFile(AbstractMessageModel messageModel, String filename) throws Exception;
 
 	/**
-	 * return a cipher input stream of a message
+	 * return a decrypting input stream of a message
 	 * return null if the file is missing
 	 * @throws Exception
 	 */
-	CipherInputStream getDecryptedMessageStream(AbstractMessageModel messageModel) throws Exception;
+	InputStream getDecryptedMessageStream(AbstractMessageModel messageModel) throws Exception;
+
+	/**
+	 * return the (still encrypted) file of a message if it is in the seekable chunked format,
+	 * so it can be played without decrypting it first (see {@link ch.threema.app.video.EncryptedFileDataSource})
+	 * return null if the file is missing or has not been migrated yet
+	 */
+	@Nullable File getSeekableMessageFile(AbstractMessageModel messageModel);
+
+	/**
+	 * make sure the file of a message is in the seekable chunked format, converting it if necessary
+	 * return the (still encrypted) file, or null if the file is missing or could not be converted
+	 */
+	@WorkerThread
+	@Nullable File migrateMessageFile(AbstractMessageModel messageModel);
+
+	/**
+	 * return the size of the decrypted media file of a message, converting it to the seekable
+	 * chunked format if necessary
+	 * return -1 if the file is missing or could not be converted
+	 */
+	@WorkerThread
+	long getDecryptedMessageSize(AbstractMessageModel messageModel) throws Exception;
+
+	/**
+	 * return a content uri that provides the decrypted file of a message, decrypting it on demand
+	 * without writing the plaintext to disk (see {@link ch.threema.app.providers.DecryptedMediaProvider})
+	 * return null if the file is missing
+	 */
+	@Nullable Uri getDecryptedMessageUri(AbstractMessageModel messageModel);
 
 	/**
 	 * return the cipher input stream of a thumbnail
@@ -191,6 +221,11 @@ public interface FileService {
 	 */
 	boolean writeConversationMedia(AbstractMessageModel messageModel, byte[] data, int pos, int length, boolean overwrite) throws Exception;
 
+	/**
+	 * write a message from a stream, without holding the whole media file in memory
+	 */
+	boolean writeConversationMedia(AbstractMessageModel messageModel, InputStream data, boolean overwrite) throws Exception;
+
 	/**
 	 * save a group avatar (resize if needed) and return the original or modified avatar
 	 */
@@ -281,6 +316,12 @@ public interface FileService {
 	 */
 	void removeAllAvatars();
 
+	/**
+	 * return the hit, miss and eviction counts of the thumbnail disk cache and the bitmap pool
+	 * (for diagnostics)
+	 */
+	@NonNull String getThumbnailCacheStatistics();
+
 	/**
 	 * write a thumbnail to disk
 	 */
@@ -317,9 +358,9 @@ public interface FileService {
 	File copyUriToTempFile(Uri uri, String prefix, String suffix, boolean isPublic);
 
 	/**
-	 * export the message file to the "share file"
+	 * export the decrypted message file (a file or content uri) to the "share file"
 	 */
-	Uri copyToShareFile(AbstractMessageModel currentModel, File decodedFile);
+	Uri copyToShareFile(AbstractMessageModel currentModel, Uri decodedUri);
 
 	Uri getShareFileUri(File destFile);
 
@@ -331,6 +372,7 @@ public interface FileService {
 
 	/**
 	 * Decrypt messages specified by the 'models' parameter and return a list of URIs of the temporary files
+	 * (or, where content uris are supported, of the {@link #getDecryptedMessageUri decrypting content uris})
 	 * Note that you have to ensure that only image, video or file messages are provided
 	 * @param models List of AbstractMessageModels to be decrypted
 	 * @param onDecryptedFilesComplete Callback
@@ -49,10 +49,10 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.filefilter.AgeFileFilter;
 import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -82,12 +82,15 @@ import androidx.preference.PreferenceManager;
 import ch.threema.app.BuildConfig;
 import ch.threema.app.R;
 import ch.threema.app.ThreemaApplication;
+import ch.threema.app.cache.BitmapPool;
 import ch.threema.app.cache.ThumbnailCache;
+import ch.threema.app.cache.ThumbnailDiskCache;
 import ch.threema.app.dialogs.CancelableHorizontalProgressDialog;
 import ch.threema.app.listeners.AppIconListener;
 import ch.threema.app.managers.ListenerManager;
 import ch.threema.app.managers.ServiceManager;
 import ch.threema.app.messagereceiver.MessageReceiver;
+import ch.threema.app.providers.DecryptedMediaProvider;
 import ch.threema.app.ui.SingleToast;
 import ch.threema.app.utils.AndroidContactUtil;
 import ch.threema.app.utils.BitmapUtil;
@@ -105,8 +108,10 @@ import ch.threema.app.utils.SecureDeleteUtil;
 import ch.threema.app.utils.TestUtil;
 import ch.threema.base.ThreemaException;
 import ch.threema.client.Base32;
+import ch.threema.localcrypto.ChunkedCipherOutputStream;
 import ch.threema.localcrypto.MasterKey;
 import ch.threema.localcrypto.MasterKeyLockedException;
+import ch.threema.localcrypto.SeekableCipherInputStream;
 import ch.threema.storage.models.AbstractMessageModel;
 import ch.threema.storage.models.ContactModel;
 import ch.threema.storage.models.GroupModel;
@@ -126,6 +131,9 @@ public class FileServiceImpl implements FileService {
 
 	private static final String DIALOG_TAG_SAVING_MEDIA = "savingToGallery";
 
+	private static final long THUMBNAIL_DISK_CACHE_SIZE = 64 * 1024 * 1024;
+	private static final long BITMAP_POOL_SIZE = Math.min(Runtime.getRuntime().maxMemory() / 32, 8 * 1024 * 1024);
+
 	private final Context context;
 	private final MasterKey masterKey;
 	private final PreferenceService preferenceService;
@@ -135,6 +143,8 @@ public class FileServiceImpl implements FileService {
 	private final File downloadsPath;
 	private final File appDataPath;
 	private final File backupPath;
+	private final ThumbnailDiskCache thumbnailDiskCache;
+	private final BitmapPool bitmapPool = new BitmapPool(BITMAP_POOL_SIZE);
 
 	public FileServiceImpl(Context c, MasterKey masterKey, PreferenceService preferenceService) {
 		this.context = c;
@@ -165,6 +175,9 @@ public class FileServiceImpl implements FileService {
 		this.downloadsPath = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
 		getDownloadsPath();
 
+		// display size thumbnails, outside of the cache dir as that is purged by cleanTempDirs()
+		this.thumbnailDiskCache = new ThumbnailDiskCache(new File(context.getFilesDir(), ThumbnailDiskCache.DIRECTORY_NAME), masterKey, THUMBNAIL_DISK_CACHE_SIZE);
+
 		// initialize ringtone
 		if (needRingtonePreferencesUpdate(context.getContentResolver())) {
 			preferenceService.setVoiceCallSound(RingtoneUtil.THREEMA_CALL_RINGTONE_URI);
@@ -525,6 +538,7 @@ public class FileServiceImpl implements FileService {
 		}
 
 		if (withThumbnails) {
+			this.removeCachedMessageThumbnail(messageModel);
 			File thumbnailFile = this.getMessageThumbnail(messageModel);
 			if (thumbnailFile != null && thumbnailFile.exists() && thumbnailFile.delete()) {
 				logger.debug("Thumbnail deleted");
@@ -536,68 +550,144 @@ public class FileServiceImpl implements FileService {
 	}
 
 	public File getDecryptedMessageFile(AbstractMessageModel messageModel) throws Exception {
-		String ext = getMediaFileExtension(messageModel);
+		File messageFile = this.getMessageFile(messageModel);
+		if (messageFile != null && messageFile.exists()) {
+			String ext = getMediaFileExtension(messageModel);
+			File decoded = this.createTempFile(messageModel.getId() + "" + messageModel.getCreatedAt().getTime(), ext, !ConfigUtils.useContentUris());
+			this.decryptMessageFile(messageFile, decoded);
+			return decoded;
+		}
+		return null;
+	}
 
-		CipherInputStream is = null;
-		FileOutputStream fos = null;
-		try {
-			is = getDecryptedMessageStream(messageModel);
-			if (is != null) {
-				File decoded = this.createTempFile(messageModel.getId() + "" + messageModel.getCreatedAt().getTime(), ext, !ConfigUtils.useContentUris());
-				fos = new FileOutputStream(decoded);
+	public File getDecryptedMessageFile(AbstractMessageModel messageModel, @Nullable String filename) throws Exception {
+		if (filename == null) {
+			return getDecryptedMessageFile(messageModel);
+		}
 
+		File messageFile = this.getMessageFile(messageModel);
+		if (messageFile != null && messageFile.exists()) {
+			File decrypted = new File(ConfigUtils.useContentUris() ? this.getTempPath() : this.getExtTmpPath(), filename);
+			this.decryptMessageFile(messageFile, decrypted);
+			return decrypted;
+		}
+		return null;
+	}
+
+	/**
+	 * Decrypt a message file into the given file. Message files that are still in the old
+	 * format are rewritten in the seekable chunked format along the way, so they can be
+	 * streamed directly from then on (see {@link #getSeekableMessageFile(AbstractMessageModel)}).
+	 */
+	private void decryptMessageFile(@NonNull File messageFile, @NonNull File to) throws Exception {
+		if (MasterKey.isChunkedFile(messageFile)) {
+			try (InputStream is = masterKey.getSeekableCipherInputStream(messageFile); FileOutputStream fos = new FileOutputStream(to)) {
 				IOUtils.copy(is, fos);
+			}
+			return;
+		}
 
-				return decoded;
+		try (FileOutputStream fos = new FileOutputStream(to)) {
+			this.convertToChunkedFormat(messageFile, fos);
+		}
+	}
+
+	/**
+	 * Rewrite a message file in the old format in the seekable chunked format, optionally
+	 * copying the plaintext to another stream in the same pass.
+	 *
+	 * @return true if the message file has been replaced
+	 */
+	private boolean convertToChunkedFormat(@NonNull File messageFile, @Nullable OutputStream plaintextCopy) throws Exception {
+		File migratedFile;
+		try {
+			migratedFile = File.createTempFile(messageFile.getName(), ".tmp", messageFile.getParentFile());
+		} catch (IOException e) {
+			logger.warn("Unable to migrate message file to chunked format", e);
+			if (plaintextCopy != null) {
+				try (InputStream is = masterKey.getCipherInputStream(new FileInputStream(messageFile))) {
+					IOUtils.copyLarge(is, plaintextCopy);
+				}
 			}
-		} finally {
-			if (fos != null) {
-				try {
-					fos.close();
-				} catch (IOException e) { /**/ }
+			return false;
+		}
+
+		boolean migrated = false;
+		try {
+			try (InputStream is = masterKey.getCipherInputStream(new FileInputStream(messageFile));
+			     ChunkedCipherOutputStream cos = masterKey.getChunkedCipherOutputStream(new FileOutputStream(migratedFile))) {
+				IOUtils.copyLarge(is, plaintextCopy != null ? new TeeOutputStream(plaintextCopy, cos) : cos);
 			}
-			if (is != null) {
-				try {
-					is.close();
-				} catch (IOException e) { /**/ }
+			// do not bring back a message file that has been deleted in the meantime
+			migrated = messageFile.exists() && migratedFile.renameTo(messageFile);
+		} finally {
+			if (!migrated) {
+				FileUtil.deleteFileOrWarn(migratedFile, "migrated message file", logger);
 			}
 		}
+		return migrated;
+	}
+
+	@Override
+	public InputStream getDecryptedMessageStream(AbstractMessageModel messageModel) throws Exception {
+		File file = this.getMessageFile(messageModel);
+		if(file != null && file.exists()) {
+			return masterKey.getCipherInputStream(file);
+		}
 		return null;
 	}
 
-	public File getDecryptedMessageFile(AbstractMessageModel messageModel, @Nullable String filename) throws Exception {
-		if (filename == null) {
-			return getDecryptedMessageFile(messageModel);
+	@Override
+	@WorkerThread
+	@Nullable
+	public File migrateMessageFile(AbstractMessageModel messageModel) {
+		File file = this.getMessageFile(messageModel);
+		try {
+			if (file != null && file.exists() && (MasterKey.isChunkedFile(file) || this.convertToChunkedFormat(file, null))) {
+				return file;
+			}
+		} catch (Exception e) {
+			logger.error("Exception", e);
 		}
+		return null;
+	}
 
-		InputStream is = getDecryptedMessageStream(messageModel);
-		if (is != null) {
-			FileOutputStream fos = null;
-			try {
-				File decrypted = new File(ConfigUtils.useContentUris() ? this.getTempPath() : this.getExtTmpPath(), filename);
-				fos = new FileOutputStream(decrypted);
+	@Override
+	@WorkerThread
+	public long getDecryptedMessageSize(AbstractMessageModel messageModel) throws Exception {
+		File file = this.migrateMessageFile(messageModel);
+		if (file == null) {
+			return -1;
+		}
+		try (SeekableCipherInputStream inputStream = this.masterKey.getSeekableCipherInputStream(file)) {
+			return inputStream.length();
+		}
+	}
 
-				IOUtils.copy(is, fos);
-				return decrypted;
-			} finally {
-				if (fos != null) {
-					try {
-						fos.close();
-					} catch (IOException e) { /**/ }
-				}
-				try {
-					is.close();
-				} catch (IOException e) { /**/ }
+	@Override
+	@Nullable
+	public Uri getDecryptedMessageUri(AbstractMessageModel messageModel) {
+		File file = this.getMessageFile(messageModel);
+		if (file != null && file.exists()) {
+			String filename = messageModel.getType() == MessageType.FILE ? messageModel.getFileData().getFileName() : null;
+			if (TestUtil.empty(filename)) {
+				filename = FileUtil.getMediaFilenamePrefix(messageModel) + getMediaFileExtension(messageModel);
 			}
+			return DecryptedMediaProvider.getUri(messageModel, filename);
 		}
 		return null;
 	}
 
 	@Override
-	public CipherInputStream getDecryptedMessageStream(AbstractMessageModel messageModel) throws Exception {
+	@Nullable
+	public File getSeekableMessageFile(AbstractMessageModel messageModel) {
 		File file = this.getMessageFile(messageModel);
-		if(file != null && file.exists()) {
-			return masterKey.getCipherInputStream(new FileInputStream(file));
+		try {
+			if (file != null && file.exists() && MasterKey.isChunkedFile(file)) {
+				return file;
+			}
+		} catch (IOException e) {
+			logger.error("Exception", e);
 		}
 		return null;
 	}
@@ -750,8 +840,8 @@ public class FileServiceImpl implements FileService {
 		}
 
 		if (FileUtil.isFilePresent(messageFile)) {
-			try (CipherInputStream cis = masterKey.getCipherInputStream(new FileInputStream(messageFile))) {
-				copyMediaFileIntoPublicDirectory(cis, mediaFile, MimeUtil.getMimeTypeFromMessageModel(messageModel));
+			try (InputStream is = masterKey.getCipherInputStream(messageFile)) {
+				copyMediaFileIntoPublicDirectory(is, mediaFile, MimeUtil.getMimeTypeFromMessageModel(messageModel));
 			}
 		} else {
 			throw new ThreemaException("File not found.");
@@ -854,9 +944,14 @@ public class FileServiceImpl implements FileService {
 		}
 
 		try {
-			if (messageFile.createNewFile()) {
-				success = this.writeFile(data, pos, length, messageFile);
+			if (data != null && data.length > 0 && messageFile.createNewFile()) {
+				try (FileOutputStream fileOutputStream = new FileOutputStream(messageFile); ChunkedCipherOutputStream cipherOutputStream = this.masterKey.getChunkedCipherOutputStream(fileOutputStream)) {
+					cipherOutputStream.write(data, pos, length);
+					success = true;
+				}
 			}
+		} catch (OutOfMemoryError e) {
+			logger.error("Out of memory", e);
 		} catch (Exception e) {
 			logger.error("Exception", e);
 		}
@@ -880,6 +975,52 @@ public class FileServiceImpl implements FileService {
 		return success;
 	}
 
+	@Override
+	public boolean writeConversationMedia(AbstractMessageModel messageModel, InputStream data, boolean overwrite) throws Exception {
+		if (MessageUtil.autoGenerateThumbnail(messageModel)) {
+			// thumbnail generation needs the whole file anyway
+			byte[] bytes = IOUtils.toByteArray(data);
+			return this.writeConversationMedia(messageModel, bytes, 0, bytes.length, overwrite);
+		}
+
+		if (this.masterKey.isLocked()) {
+			return false;
+		}
+
+		File messageFile = this.getMessageFile(messageModel, false);
+
+		if(messageFile == null) {
+			return false;
+		}
+
+		if (messageFile.exists()) {
+			if(overwrite) {
+				FileUtil.deleteFileOrWarn(messageFile, "writeConversationMedia", logger);
+			}
+			else {
+				return false;
+			}
+		}
+
+		boolean success = false;
+		try {
+			if (messageFile.createNewFile()) {
+				try (FileOutputStream fileOutputStream = new FileOutputStream(messageFile); ChunkedCipherOutputStream cipherOutputStream = this.masterKey.getChunkedCipherOutputStream(fileOutputStream)) {
+					success = IOUtils.copyLarge(data, cipherOutputStream) > 0;
+				}
+			}
+		} catch (Exception e) {
+			logger.error("Exception", e);
+		}
+
+		if (!success && messageFile.exists()) {
+			// do not leave a truncated file behind
+			FileUtil.deleteFileOrWarn(messageFile, "writeConversationMedia", logger);
+		}
+
+		return success;
+	}
+
 	@Override
 	public boolean writeGroupAvatar(GroupModel groupModel, byte[] photoData) throws Exception {
 		return this.writeFile(photoData, new File(getGroupAvatarDirPath(), getGroupAvatarFileName(groupModel)));
@@ -1040,6 +1181,17 @@ public class FileServiceImpl implements FileService {
 		return f != null && f.exists() && f.delete();
 	}
 
+	@Override
+	@NonNull
+	public String getThumbnailCacheStatistics() {
+		return "Thumbnail cache: " + (this.thumbnailDiskCache.getSize() / 1024) + " KB, "
+			+ this.thumbnailDiskCache.getHitCount() + " hits, "
+			+ this.thumbnailDiskCache.getMissCount() + " misses, "
+			+ this.thumbnailDiskCache.getEvictionCount() + " evictions\n"
+			+ "Bitmap pool: " + this.bitmapPool.getHitCount() + " hits, "
+			+ this.bitmapPool.getMissCount() + " misses";
+	}
+
 	@Override
 	public void removeAllAvatars() {
 		try {
@@ -1062,21 +1214,6 @@ public class FileServiceImpl implements FileService {
 		return false;
 	}
 
-	private boolean writeFile(byte[] data, int pos, int length, File file) throws Exception {
-		if (data != null && data.length > 0) {
-			try (FileOutputStream fileOutputStream = new FileOutputStream(file); CipherOutputStream cipherOutputStream = this.masterKey.getCipherOutputStream(fileOutputStream)) {
-				cipherOutputStream.write(data, pos, length);
-				return true;
-			} catch (OutOfMemoryError e) {
-				throw new IOException("Out of memory");
-			} catch (FileNotFoundException e) {
-				logger.error("Unable to save file to " + file.getAbsolutePath(), e);
-				throw new FileNotFoundException(e.getMessage());
-			}
-		}
-		return false;
-	}
-
 	private void generateConversationMediaThumbnail(AbstractMessageModel messageModel, byte[] originalPicture, int pos, int length) throws Exception {
 		if (this.masterKey.isLocked()) {
 			throw new Exception("no masterkey or locked");
@@ -1087,6 +1224,7 @@ public class FileServiceImpl implements FileService {
 		byte[] resizedThumbnailBytes = BitmapUtil.resizeBitmapByteArrayToMaxWidth(originalPicture, preferredThumbnailWidth > maxWidth ? maxWidth : preferredThumbnailWidth , pos, length);
 		File thumbnailFile = this.getMessageThumbnail(messageModel);
 		if (thumbnailFile != null) {
+			this.removeCachedMessageThumbnail(messageModel);
 			FileUtil.createNewFileOrLog(thumbnailFile, logger);
 			logger.info("Writing thumbnail...");
 			this.writeFile(resizedThumbnailBytes, thumbnailFile);
@@ -1122,56 +1260,59 @@ public class FileServiceImpl implements FileService {
 			throw new Exception("no masterkey or locked");
 		}
 
-		// Open thumbnail file
-		final File f = this.getMessageThumbnail(messageModel);
-
+		// Display size thumbnails are kept in an encrypted disk cache
+		final String cacheKey = this.convert(messageModel.getUid());
 		Bitmap thumbnailBitmap = null;
+		if (!TestUtil.empty(cacheKey)) {
+			thumbnailBitmap = this.thumbnailDiskCache.get(cacheKey);
+		}
 
-		FileInputStream fis = null;
-		try {
-			try {
-				fis = new FileInputStream(f);
-			} catch (FileNotFoundException e) {
+		if (thumbnailBitmap == null) {
+			// Open thumbnail file
+			final File f = this.getMessageThumbnail(messageModel);
+			if (f == null || !f.exists()) {
 				return null;
 			}
 
-			// Get cipher input streams
-			BufferedInputStream bis = null;
-			try {
-				CipherInputStream cis = masterKey.getCipherInputStream(fis);
+			// Decrypt once, both decoding passes read the plaintext
+			final byte[] thumbnailBytes;
+			try (InputStream inputStream = this.masterKey.getCipherInputStream(f)) {
+				thumbnailBytes = IOUtils.toByteArray(inputStream);
+			}
+
+			BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inJustDecodeBounds = true;
+			this.decodeMessageThumbnail(thumbnailBytes, options);
+
+			options.inJustDecodeBounds = false;
+			options.inMutable = true;
+			if (options.outWidth > 0 && options.outHeight > 0) {
+				options.inBitmap = this.bitmapPool.get(options.outWidth, options.outHeight);
+			}
 
-				bis = new BufferedInputStream(cis);
-				BitmapFactory.Options options = new BitmapFactory.Options();
-				options.inJustDecodeBounds = false;
+			Bitmap originalBitmap;
+			try {
+				originalBitmap = this.decodeMessageThumbnail(thumbnailBytes, options);
+			} catch (IllegalArgumentException e) {
+				// pooled bitmap could not be reused
+				options.inBitmap = null;
+				originalBitmap = this.decodeMessageThumbnail(thumbnailBytes, options);
+			}
 
-				Bitmap originalBitmap = null;
+			if (originalBitmap != null) {
 				try {
-					originalBitmap = BitmapFactory.decodeStream(bis, null, options);
+					thumbnailBitmap = BitmapUtil.resizeBitmapExactlyToMaxWidth(originalBitmap, THUMBNAIL_SIZE_PX);
 				} catch (OutOfMemoryError e) {
 					logger.error("Exception", e);
 				}
 
-				if (originalBitmap != null) {
-					try {
-						thumbnailBitmap = BitmapUtil.resizeBitmapExactlyToMaxWidth(originalBitmap, THUMBNAIL_SIZE_PX);
-					} catch (OutOfMemoryError e) {
-						logger.error("Exception", e);
+				if (thumbnailBitmap != null && thumbnailBitmap != originalBitmap) {
+					// the full size bitmap is not referenced anywhere else
+					this.bitmapPool.put(originalBitmap);
+					if (!TestUtil.empty(cacheKey)) {
+						this.thumbnailDiskCache.put(cacheKey, thumbnailBitmap);
 					}
 				}
-			} catch (Exception e) {
-				throw e;
-			} finally {
-				if (bis != null) {
-					try {
-						bis.close();
-					} catch (IOException e) { /**/ }
-				}
-			}
-		} finally {
-			if (fis != null) {
-				try {
-					fis.close();
-				} catch (IOException e) { /**/ }
 			}
 		}
 
@@ -1182,6 +1323,28 @@ public class FileServiceImpl implements FileService {
 		return thumbnailBitmap;
 	}
 
+	/**
+	 * Decode a decrypted message thumbnail.
+	 *
+	 * @return the bitmap, null if it could not be decoded or only the bounds were requested
+	 */
+	@Nullable
+	private Bitmap decodeMessageThumbnail(@NonNull byte[] thumbnailBytes, @NonNull BitmapFactory.Options options) {
+		try {
+			return BitmapFactory.decodeByteArray(thumbnailBytes, 0, thumbnailBytes.length, options);
+		} catch (OutOfMemoryError e) {
+			logger.error("Exception", e);
+			return null;
+		}
+	}
+
+	private void removeCachedMessageThumbnail(@NonNull AbstractMessageModel messageModel) {
+		final String cacheKey = this.convert(messageModel.getUid());
+		if (!TestUtil.empty(cacheKey)) {
+			this.thumbnailDiskCache.remove(cacheKey);
+		}
+	}
+
 	@Override
 	public Bitmap getDefaultMessageThumbnailBitmap(Context context, AbstractMessageModel messageModel, ThumbnailCache thumbnailCache, String mimeType) {
 		if (thumbnailCache != null) {
@@ -1257,13 +1420,13 @@ public class FileServiceImpl implements FileService {
 	}
 
 	@Override
-	public Uri copyToShareFile(AbstractMessageModel model, File srcFile) {
+	public Uri copyToShareFile(AbstractMessageModel model, Uri srcUri) {
 		// copy file to public dir
 		if (model != null) {
-			if (srcFile != null && srcFile.exists()) {
+			if (srcUri != null) {
 				String destFilePrefix = FileUtil.getMediaFilenamePrefix(model);
 				String destFileExtension = getMediaFileExtension(model);
-				File destFile = copyUriToTempFile(Uri.fromFile(srcFile), destFilePrefix, destFileExtension, !ConfigUtils.useContentUris());
+				File destFile = copyUriToTempFile(srcUri, destFilePrefix, destFileExtension, !ConfigUtils.useContentUris());
 
 				return getShareFileUri(destFile);
 			}
@@ -1335,16 +1498,25 @@ public class FileServiceImpl implements FileService {
 		for (AbstractMessageModel model : models) {
 
 			try {
-				File file;
-				if (model.getType() == MessageType.FILE && model.getFileData() != null) {
-					file = getDecryptedMessageFile(model, model.getFileData().getFileName());
+				if (ConfigUtils.useContentUris()) {
+					// decrypted on demand when the receiving app reads it
+					Uri uri = getDecryptedMessageUri(model);
+					if (uri != null) {
+						shareFileUris.add(uri);
+						continue;
+					}
 				} else {
-					file = getDecryptedMessageFile(model);
-				}
+					File file;
+					if (model.getType() == MessageType.FILE && model.getFileData() != null) {
+						file = getDecryptedMessageFile(model, model.getFileData().getFileName());
+					} else {
+						file = getDecryptedMessageFile(model);
+					}
 
-				if (file != null) {
-					shareFileUris.add(getShareFileUri(file));
-					continue;
+					if (file != null) {
+						shareFileUris.add(getShareFileUri(file));
+						continue;
+					}
 				}
 			} catch (Exception ignore) {
 			}
@@ -156,6 +156,14 @@ public interface MessageService {
 	List<AbstractMessageModel> getContactMessagesForText(String query);
 	List<AbstractMessageModel> getGroupMessagesForText(String query);
 
+	/**
+	 * Full text search in contact (or group) messages, every word of the query is matched as a prefix.
+	 *
+	 * @param rankByRelevance order by relevance instead of by date
+	 */
+	List<AbstractMessageModel> searchContactMessages(String query, int limit, int offset, boolean rankByRelevance);
+	List<AbstractMessageModel> searchGroupMessages(String query, int limit, int offset, boolean rankByRelevance);
+
 	MessageModel getContactMessageModel(final Integer id, boolean lazy);
 	GroupMessageModel getGroupMessageModel(final Integer id, boolean lazy);
 	DistributionListMessageModel getDistributionListMessageModel(final Integer id, boolean lazy);
@@ -166,6 +174,19 @@ public interface MessageService {
 	void saveIncomingServerMessage(ServerMessageModel msg);
 
 	boolean downloadMediaMessage(AbstractMessageModel mediaMessageModel, ProgressListener progressListener) throws Exception;
+
+	/**
+	 * Download a media message in the background, on the shared download scheduler
+	 * (see {@link DownloadService#schedule}).
+	 */
+	void scheduleMediaMessageDownload(AbstractMessageModel mediaMessageModel, DownloadScheduler.Priority priority, @Nullable DownloadScheduler.Callback callback);
+
+	/**
+	 * Change the priority of a scheduled media message download that has not started yet,
+	 * e.g. when the message scrolls into or out of view.
+	 */
+	void setMediaMessageDownloadPriority(AbstractMessageModel mediaMessageModel, DownloadScheduler.Priority priority);
+
 	boolean cancelMessageDownload(AbstractMessageModel messageModel);
 	void cancelMessageUpload(AbstractMessageModel messageModel);
 
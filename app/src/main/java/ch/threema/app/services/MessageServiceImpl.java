@@ -38,7 +38,6 @@ import android.text.format.DateUtils;
 import android.util.SparseIntArray;
 import android.widget.Toast;
 
-import com.google.android.gms.common.util.ArrayUtils;
 import com.neilalexander.jnacl.NaCl;
 
 import org.apache.commons.io.IOUtils;
@@ -50,7 +49,6 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.ref.WeakReference;
@@ -58,7 +56,6 @@ import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -70,7 +67,6 @@ import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.crypto.CipherInputStream;
-import javax.crypto.CipherOutputStream;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -80,6 +76,7 @@ import androidx.core.app.NotificationManagerCompat;
 import ch.threema.app.R;
 import ch.threema.app.ThreemaApplication;
 import ch.threema.app.activities.RecipientListBaseActivity;
+import ch.threema.app.cache.MessageModelCache;
 import ch.threema.app.collections.Functional;
 import ch.threema.app.collections.IPredicateNonNull;
 import ch.threema.app.exceptions.NotAllowedException;
@@ -95,6 +92,7 @@ import ch.threema.app.services.ballot.BallotService;
 import ch.threema.app.services.ballot.BallotUpdateResult;
 import ch.threema.app.services.messageplayer.MessagePlayerService;
 import ch.threema.app.stores.IdentityStore;
+import ch.threema.app.stores.MessageQueueJournalStore;
 import ch.threema.app.ui.MediaItem;
 import ch.threema.app.utils.BallotUtil;
 import ch.threema.app.utils.BitmapUtil;
@@ -118,6 +116,7 @@ import ch.threema.app.video.VideoTranscoder;
 import ch.threema.base.ThreemaException;
 import ch.threema.client.AbstractGroupMessage;
 import ch.threema.client.AbstractMessage;
+import ch.threema.client.BlobSource;
 import ch.threema.client.BlobUploader;
 import ch.threema.client.BoxAudioMessage;
 import ch.threema.client.BoxImageMessage;
@@ -128,7 +127,9 @@ import ch.threema.client.BoxedMessage;
 import ch.threema.client.ContactDeletePhotoMessage;
 import ch.threema.client.ContactRequestPhotoMessage;
 import ch.threema.client.ContactSetPhotoMessage;
+import ch.threema.client.DecryptingBlobInputStream;
 import ch.threema.client.DeliveryReceiptMessage;
+import ch.threema.client.EncryptingBlobInputStream;
 import ch.threema.client.GroupAudioMessage;
 import ch.threema.client.GroupImageMessage;
 import ch.threema.client.GroupLocationMessage;
@@ -193,6 +194,7 @@ public class MessageServiceImpl implements MessageService {
 
 	private final MessageQueue messageQueue;
 	public static final String MESSAGE_QUEUE_SAVE_FILE = "msgqueue.ser";
+	public static final String MESSAGE_QUEUE_JOURNAL_FILE = "msgqueue.journal";
 	public static final long FILE_AUTO_DOWNLOAD_MAX_SIZE_M = 5; // MB
 	public static final long FILE_AUTO_DOWNLOAD_MAX_SIZE_ISO = FILE_AUTO_DOWNLOAD_MAX_SIZE_M * 1024 * 1024; // used for calculations
 	public static final long FILE_AUTO_DOWNLOAD_MAX_SIZE_SI = FILE_AUTO_DOWNLOAD_MAX_SIZE_M * 1000 * 1000; // used for presentation only
@@ -209,9 +211,9 @@ public class MessageServiceImpl implements MessageService {
 
 	private final PreferenceService preferenceService;
 
-	private final Collection<MessageModel> contactMessageCache;
-	private final Collection<GroupMessageModel> groupMessageCache;
-	private final Collection<DistributionListMessageModel> distributionListMessageCache;
+	private final MessageModelCache<MessageModel> contactMessageCache;
+	private final MessageModelCache<GroupMessageModel> groupMessageCache;
+	private final MessageModelCache<DistributionListMessageModel> distributionListMessageCache;
 
 	private final SparseIntArray loadingProgress = new SparseIntArray();
 
@@ -310,13 +312,9 @@ public class MessageServiceImpl implements MessageService {
 
 	private void cache(AbstractMessageModel m) {
 		if (m instanceof GroupMessageModel) {
-			synchronized (this.groupMessageCache) {
-				this.groupMessageCache.add((GroupMessageModel) m);
-			}
+			this.groupMessageCache.put((GroupMessageModel) m);
 		} else if (m instanceof MessageModel) {
-			synchronized (this.contactMessageCache) {
-				this.contactMessageCache.add((MessageModel) m);
-			}
+			this.contactMessageCache.put((MessageModel) m);
 		}
 	}
 
@@ -633,10 +631,9 @@ public class MessageServiceImpl implements MessageService {
 			public byte[] blobIdThumbnail;
 			public byte[] blobId;
 			public byte[] thumbnailData;
-			public byte[] fileData;
-			public int fileDataBoxedLength;
+			public long fileSize;
 			public MessageReceiver.EncryptResult thumbnailEncryptResult;
-			public MessageReceiver.EncryptResult encryptResult;
+			public MessageReceiver.EncryptStreamResult encryptResult;
 			public boolean success = false;
 
 			@Override
@@ -656,19 +653,9 @@ public class MessageServiceImpl implements MessageService {
 						.next(new SendMachineProcess() {
 							@Override
 							public void run() throws Exception {
-								File decryptedMessageFile = fileService.getDecryptedMessageFile(messageModel);
+								fileSize = fileService.getDecryptedMessageSize(messageModel);
 
-								if (decryptedMessageFile != null) {
-
-									try (FileInputStream inputStream = new FileInputStream(decryptedMessageFile)) {
-										fileDataBoxedLength = inputStream.available();
-										fileData = new byte[fileDataBoxedLength + NaCl.BOXOVERHEAD];
-										IOUtils.readFully(inputStream,
-											fileData,
-											NaCl.BOXOVERHEAD,
-											fileDataBoxedLength);
-									}
-								} else {
+								if (fileSize < 0) {
 									// TODO: we should abort upload here instead of trying again
 									throw new Exception("Message file not present");
 								}
@@ -677,8 +664,8 @@ public class MessageServiceImpl implements MessageService {
 						.next(new SendMachineProcess() {
 							@Override
 							public void run() throws Exception {
-								encryptResult = getReceiver().encryptFileData(fileData);
-								if (encryptResult.getData() == null || encryptResult.getSize() == 0) {
+								encryptResult = getReceiver().encryptFileStream(getDecryptedMessageSource(messageModel), fileSize);
+								if (encryptResult == null) {
 									throw new Exception("File data encrypt failed");
 								}
 							}
@@ -700,7 +687,7 @@ public class MessageServiceImpl implements MessageService {
 						.next(new SendMachineProcess() {
 							@Override
 							public void run() throws Exception {
-								BlobUploader blobUploader = initUploader(getMessageModel(), encryptResult.getData());
+								BlobUploader blobUploader = initUploader(getMessageModel(), encryptResult.openStream());
 								blobUploader.setProgressListener(new ProgressListener() {
 									@Override
 									public void updateProgress(int progress) {
@@ -882,35 +869,18 @@ public class MessageServiceImpl implements MessageService {
 	}
 
 	private AbstractMessageModel getAbstractMessageModelByApiIdAndIdentity(final MessageId apiMessageId, final String identity) {
+		final String apiMessageIdString = apiMessageId.toString();
+
 		//contact message cache
-		synchronized (this.contactMessageCache) {
-			AbstractMessageModel messageModel = Functional.select(this.contactMessageCache, new IPredicateNonNull<MessageModel>() {
-				@Override
-				public boolean apply(@NonNull MessageModel m) {
-					return m.getApiMessageId() != null
-						&& m.getApiMessageId().equals(apiMessageId.toString())
-						&& TestUtil.compare(m.getIdentity(), identity);
-				}
-			});
-			if(messageModel != null) {
-				return messageModel;
-			}
+		AbstractMessageModel messageModel = this.contactMessageCache.getByApiMessageIdAndIdentity(apiMessageIdString, identity);
+		if(messageModel != null) {
+			return messageModel;
 		}
 
 		//group message cache
-		synchronized (this.groupMessageCache) {
-			AbstractMessageModel messageModel = Functional.select(this.groupMessageCache, new IPredicateNonNull<GroupMessageModel>() {
-				@Override
-				public boolean apply(@NonNull GroupMessageModel m) {
-					return m.getApiMessageId() != null
-							&& m.getApiMessageId().equals(apiMessageId.toString())
-							&& TestUtil.compare(m.getIdentity(), identity);
-				}
-			});
-
-			if(messageModel != null) {
-				return messageModel;
-			}
+		messageModel = this.groupMessageCache.getByApiMessageIdAndIdentity(apiMessageIdString, identity);
+		if(messageModel != null) {
+			return messageModel;
 		}
 
 		MessageModel contactMessageModel = this.databaseServiceNew.getMessageModelFactory().getByApiMessageIdAndIdentity(
@@ -932,35 +902,18 @@ public class MessageServiceImpl implements MessageService {
 
 	private AbstractMessageModel getAbstractMessageModelByApiIdAndOutbox(final MessageId apiMessageId)
 	{
+		final String apiMessageIdString = apiMessageId.toString();
+
 		//contact message cache
-		synchronized (this.contactMessageCache) {
-			AbstractMessageModel messageModel = Functional.select(this.contactMessageCache, new IPredicateNonNull<MessageModel>() {
-				@Override
-				public boolean apply(@NonNull MessageModel m) {
-					return m.getApiMessageId() != null
-							&& m.getApiMessageId().equals(apiMessageId.toString())
-							&& m.isOutbox();
-				}
-			});
-			if(messageModel != null) {
-				return messageModel;
-			}
+		AbstractMessageModel messageModel = this.contactMessageCache.getOutgoingByApiMessageId(apiMessageIdString);
+		if(messageModel != null) {
+			return messageModel;
 		}
 
 		//group message cache
-		synchronized (this.groupMessageCache) {
-			AbstractMessageModel messageModel = Functional.select(this.groupMessageCache, new IPredicateNonNull<GroupMessageModel>() {
-				@Override
-				public boolean apply(@NonNull GroupMessageModel m) {
-					return m.getApiMessageId() != null
-							&& m.getApiMessageId().equals(apiMessageId.toString())
-							&& m.isOutbox();
-				}
-			});
-
-			if(messageModel != null) {
-				return messageModel;
-			}
+		messageModel = this.groupMessageCache.getOutgoingByApiMessageId(apiMessageIdString);
+		if(messageModel != null) {
+			return messageModel;
 		}
 
 		MessageModel contactMessageModel = this.databaseServiceNew.getMessageModelFactory().getByApiMessageIdAndIsOutbox(
@@ -1131,14 +1084,7 @@ public class MessageServiceImpl implements MessageService {
 			);
 
 			//remove from cache
-			synchronized (this.groupMessageCache) {
-				Iterator<GroupMessageModel> i = this.groupMessageCache.iterator();
-				while(i.hasNext()) {
-					if(i.next().getId() == messageModel.getId()) {
-						i.remove();
-					}
-				}
-			}
+			this.groupMessageCache.remove(messageModel.getId());
 
 			this.databaseServiceNew.getGroupMessagePendingMessageIdModelFactory().delete(
 					messageModel.getId()
@@ -1150,28 +1096,14 @@ public class MessageServiceImpl implements MessageService {
 			);
 
 			//remove from cache
-			synchronized (this.distributionListMessageCache) {
-				Iterator<DistributionListMessageModel> i = this.distributionListMessageCache.iterator();
-				while(i.hasNext()) {
-					if(i.next().getId() == messageModel.getId()) {
-						i.remove();
-					}
-				}
-			}
+			this.distributionListMessageCache.remove(messageModel.getId());
 		}
 
 		else if (messageModel instanceof MessageModel) {
 			this.databaseServiceNew.getMessageModelFactory().delete((MessageModel) messageModel);
 
 			//remove from cache
-			synchronized (this.contactMessageCache) {
-				Iterator<MessageModel> i = this.contactMessageCache.iterator();
-				while(i.hasNext()) {
-					if(i.next().getId() == messageModel.getId()) {
-						i.remove();
-					}
-				}
-			}
+			this.contactMessageCache.remove(messageModel.getId());
 		}
 
 		if(!silent) {
@@ -1194,17 +1126,9 @@ public class MessageServiceImpl implements MessageService {
 			//first search in cache
 			MessageModel savedMessageModel;
 			logger.info("processIncomingContactMessage: {} check contact message cache", message.getMessageId());
-			synchronized (this.contactMessageCache) {
-				savedMessageModel = Functional.select(this.contactMessageCache, new IPredicateNonNull<MessageModel>() {
-					@Override
-					public boolean apply(@NonNull MessageModel messageModel1) {
-						return messageModel1.getApiMessageId() != null &&
-								messageModel1.getApiMessageId().equals(message.getMessageId().toString())
-								&& message.getFromIdentity() != null
-								&& message.getFromIdentity().equals(messageModel1.getIdentity());
-					}
-				});
-			}
+			savedMessageModel = message.getFromIdentity() != null
+				? this.contactMessageCache.getByApiMessageIdAndIdentity(message.getMessageId().toString(), message.getFromIdentity())
+				: null;
 			logger.info("processIncomingContactMessage: {} check contact message cache end", message.getMessageId());
 
 			if(savedMessageModel == null) {
@@ -1610,7 +1534,7 @@ public class MessageServiceImpl implements MessageService {
 
 				if (canDownload(MessageType.VIDEO)) {
 					if (videoSize <= FILE_AUTO_DOWNLOAD_MAX_SIZE_ISO) {
-						downloadMediaMessage(messageModel, null);
+						scheduleMediaMessageDownload(messageModel, DownloadScheduler.Priority.AUTO_DOWNLOAD, null);
 					}
 				}
 			} else {
@@ -1716,7 +1640,7 @@ public class MessageServiceImpl implements MessageService {
 
 			if (canDownload(messageModel.getMessageContentsType())) {
 				if (fileData.getFileSize() <= FILE_AUTO_DOWNLOAD_MAX_SIZE_ISO) {
-					downloadMediaMessage(messageModel, null);
+					scheduleMediaMessageDownload(messageModel, DownloadScheduler.Priority.AUTO_DOWNLOAD, null);
 				}
 			}
 		}
@@ -2334,19 +2258,36 @@ public class MessageServiceImpl implements MessageService {
 		return this.databaseServiceNew.getGroupMessageModelFactory().getMessagesByText(query);
 	}
 
+	@Override
+	public List<AbstractMessageModel> searchContactMessages(String query, int limit, int offset, boolean rankByRelevance) {
+		return this.databaseServiceNew.getMessageModelFactory().searchMessages(query, limit, offset, rankByRelevance);
+	}
+
+	@Override
+	public List<AbstractMessageModel> searchGroupMessages(String query, int limit, int offset, boolean rankByRelevance) {
+		return this.databaseServiceNew.getGroupMessageModelFactory().searchMessages(query, limit, offset, rankByRelevance);
+	}
+
 	private void readMessageQueue() {
 		try {
-			File f = this.getMessageQueueFile();
+			MasterKey masterKey = ThreemaApplication.getMasterKey();
+			if (masterKey == null || masterKey.isLocked())
+				return;
 
+			/* migrate a legacy serialized queue into the journal */
+			File f = this.getMessageQueueFile();
 			if (f.exists()) {
-				MasterKey masterKey = ThreemaApplication.getMasterKey();
-				if (masterKey == null || masterKey.isLocked())
-					return;
-
 				try (CipherInputStream cis = masterKey.getCipherInputStream(new FileInputStream(f))) {
 					messageQueue.unserializeFromStream(cis);
 				}
-				logger.info("Queue restored. Size = {}", messageQueue.getQueueSize());
+				logger.info("Legacy queue restored. Size = {}", messageQueue.getQueueSize());
+			}
+
+			messageQueue.restoreFromJournal(new MessageQueueJournalStore(this.getMessageQueueJournalFile(), masterKey));
+			logger.info("Queue restored. Size = {}", messageQueue.getQueueSize());
+
+			if (f.exists()) {
+				FileUtil.deleteFileOrWarn(f, "legacy message queue file", logger);
 			}
 		} catch (Exception e) {
 			logger.error("Exception", e);
@@ -2355,66 +2296,36 @@ public class MessageServiceImpl implements MessageService {
 
 	@Override
 	public void saveMessageQueue() {
-		MasterKey masterKey = ThreemaApplication.getMasterKey();
-		if (masterKey == null || masterKey.isLocked()) {
-			return;
-		}
-
+		/* all queue changes are journaled as they happen; just keep the journal compact */
 		new Thread(() -> {
-			synchronized (messageQueue) {
-				try {
-					FileOutputStream fileOutputStream = new FileOutputStream(getMessageQueueFile());
-					CipherOutputStream cos = masterKey.getCipherOutputStream(fileOutputStream);
-					if (cos != null) {
-						messageQueue.serializeToStream(cos);
-						logger.info("Queue saved. Size = {}", messageQueue.getQueueSize());
-					}
-				} catch (Exception e) {
-					logger.error("Exception", e);
-				}
+			try {
+				messageQueue.compactJournal();
+				logger.info("Queue saved. Size = {}", messageQueue.getQueueSize());
+			} catch (Exception e) {
+				logger.error("Exception", e);
 			}
-		});
+		}, "SaveMessageQueue").start();
 	}
 
 	@Override
 	public MessageModel getContactMessageModel(final Integer id, boolean lazy) {
-		MessageModel model;
-		synchronized (this.contactMessageCache) {
-			model = Functional.select(this.contactMessageCache, new IPredicateNonNull<MessageModel>() {
-				@Override
-				public boolean apply(@NonNull MessageModel type) {
-					return type.getId() == id;
-				}
-			});
-		}
+		MessageModel model = this.contactMessageCache.getById(id);
 		if (lazy && model == null) {
 			model = this.databaseServiceNew.getMessageModelFactory().getById(id);
 			if (model != null) {
-				synchronized (this.contactMessageCache) {
-					this.contactMessageCache.add(model);
-				}
+				this.contactMessageCache.put(model);
 			}
 		}
 		return model;
 	}
 
 	private MessageModel getContactMessageModel(@NonNull final String apiMessageId) {
-		MessageModel model;
-		synchronized (this.contactMessageCache) {
-			model = Functional.select(this.contactMessageCache, new IPredicateNonNull<MessageModel>() {
-				@Override
-				public boolean apply(@NonNull MessageModel messageModel) {
-					return apiMessageId.equals(messageModel.getApiMessageId());
-				}
-			});
-		}
+		MessageModel model = this.contactMessageCache.getByApiMessageId(apiMessageId);
 		if (model == null) {
 			try {
 				model = this.databaseServiceNew.getMessageModelFactory().getByApiMessageId(new MessageId(Utils.hexStringToByteArray(apiMessageId)));
 				if (model != null) {
-					synchronized (this.contactMessageCache) {
-						this.contactMessageCache.add(model);
-					}
+					this.contactMessageCache.put(model);
 				}
 			}
 			catch (ThreemaException ignore) {}
@@ -2425,17 +2336,12 @@ public class MessageServiceImpl implements MessageService {
 	@Override
 	public GroupMessageModel getGroupMessageModel(final Integer id, boolean lazy) {
 		synchronized (this.groupMessageCache) {
-			GroupMessageModel model = Functional.select(this.groupMessageCache, new IPredicateNonNull<GroupMessageModel>() {
-				@Override
-				public boolean apply(@NonNull GroupMessageModel type) {
-					return type.getId() == id;
-				}
-			});
+			GroupMessageModel model = this.groupMessageCache.getById(id);
 
 			if (lazy && model == null) {
 				model = this.databaseServiceNew.getGroupMessageModelFactory().getById(id);
 				if (model != null) {
-					this.groupMessageCache.add(model);
+					this.groupMessageCache.put(model);
 				}
 			}
 			return model;
@@ -2444,18 +2350,13 @@ public class MessageServiceImpl implements MessageService {
 
 	private GroupMessageModel getGroupMessageModel(@NonNull final String apiMessageId) {
 		synchronized (this.groupMessageCache) {
-			GroupMessageModel model = Functional.select(this.groupMessageCache, new IPredicateNonNull<GroupMessageModel>() {
-				@Override
-				public boolean apply(@NonNull GroupMessageModel messageModel) {
-					return apiMessageId.equals(messageModel.getApiMessageId());
-				}
-			});
+			GroupMessageModel model = this.groupMessageCache.getByApiMessageId(apiMessageId);
 
 			if (model == null) {
 				try {
 					model = this.databaseServiceNew.getGroupMessageModelFactory().getByApiMessageId(new MessageId(Utils.hexStringToByteArray(apiMessageId)));
 					if (model != null) {
-						this.groupMessageCache.add(model);
+						this.groupMessageCache.put(model);
 					}
 				}
 				catch (ThreemaException ignore) {}
@@ -2647,41 +2548,53 @@ public class MessageServiceImpl implements MessageService {
 
 		if (data != null && !data.isDownloaded()) {
 
-			byte[] blob = this.downloadService.download(
-					mediaMessageModel.getId(),
-					data.getBlobId(),
-					!(mediaMessageModel instanceof GroupMessageModel),
-					progressListener);
-			if (blob == null || blob.length < NaCl.BOXOVERHEAD) {
-				logger.error("Blob for message {} is empty", mediaMessageModel.getApiMessageId());
-
-				this.downloadService.error(mediaMessageModel.getId());
-				// blob download failed or empty or canceled
-				throw new ThreemaException("failed to download message");
-			}
-
 			boolean success = false;
 			if (mediaMessageModel.getType() != MessageType.IMAGE) {
+				File blobFile = this.downloadService.downloadFile(
+						mediaMessageModel.getId(),
+						data.getBlobId(),
+						!(mediaMessageModel instanceof GroupMessageModel),
+						progressListener);
+				if (blobFile == null || blobFile.length() < NaCl.BOXOVERHEAD) {
+					logger.error("Blob for message {} is empty", mediaMessageModel.getApiMessageId());
+
+					this.downloadService.error(mediaMessageModel.getId());
+					// blob download failed or empty or canceled
+					throw new ThreemaException("failed to download message");
+				}
+
 				logger.info("Decrypting blob for message {}", mediaMessageModel.getApiMessageId());
 
-				if (NaCl.symmetricDecryptDataInplace(blob, data.getEncryptionKey(), nonce)) {
+				// decrypt straight from the downloaded file, so the media is never held in memory as a whole
+				try (DecryptingBlobInputStream decryptedStream = new DecryptingBlobInputStream(blobFile, data.getEncryptionKey(), nonce)) {
 					logger.info("Write conversation media for message {}", mediaMessageModel.getApiMessageId());
 
-					// save the file
-					try {
-						if (this.fileService.writeConversationMedia(mediaMessageModel, blob, 0, blob.length - NaCl.BOXOVERHEAD, true)) {
-							success = true;
-							logger.info("Media for message {} successfully saved.", mediaMessageModel.getApiMessageId());
-						}
-					} catch (Exception e) {
-						logger.warn("Unable to save media");
+					// save the file (fails if the blob cannot be authenticated)
+					if (this.fileService.writeConversationMedia(mediaMessageModel, decryptedStream, true)) {
+						success = true;
+						logger.info("Media for message {} successfully saved.", mediaMessageModel.getApiMessageId());
+					}
+				} catch (Exception e) {
+					logger.warn("Unable to save media");
 
-						this.downloadService.error(mediaMessageModel.getId());
+					this.downloadService.error(mediaMessageModel.getId());
 
-						throw new ThreemaException("Unable to save media");
-					}
+					throw new ThreemaException("Unable to save media");
 				}
 			} else {
+				byte[] blob = this.downloadService.download(
+						mediaMessageModel.getId(),
+						data.getBlobId(),
+						!(mediaMessageModel instanceof GroupMessageModel),
+						progressListener);
+				if (blob == null || blob.length < NaCl.BOXOVERHEAD) {
+					logger.error("Blob for message {} is empty", mediaMessageModel.getApiMessageId());
+
+					this.downloadService.error(mediaMessageModel.getId());
+					// blob download failed or empty or canceled
+					throw new ThreemaException("failed to download message");
+				}
+
 				byte image[];
 
 				if (mediaMessageModel instanceof GroupMessageModel) {
@@ -2755,9 +2668,59 @@ public class MessageServiceImpl implements MessageService {
 		return false;
 	}
 
+	@Override
+	public void scheduleMediaMessageDownload(final AbstractMessageModel mediaMessageModel, DownloadScheduler.Priority priority, @Nullable DownloadScheduler.Callback callback) {
+		MediaMessageDataInterface data = this.getMediaMessageData(mediaMessageModel);
+		if (data == null || data.getBlobId() == null) {
+			if (callback != null) {
+				callback.onFinished(false, new ThreemaException("message is not a media message"));
+			}
+			return;
+		}
+
+		this.downloadService.schedule(data.getBlobId(), priority, progress -> downloadMediaMessage(mediaMessageModel, new ProgressListener() {
+			@Override
+			public void updateProgress(int percent) {
+				progress.update(percent);
+			}
+
+			@Override
+			public void onFinished(boolean success) {
+				progress.update(100);
+			}
+		}), callback);
+	}
+
+	@Override
+	public void setMediaMessageDownloadPriority(AbstractMessageModel mediaMessageModel, DownloadScheduler.Priority priority) {
+		MediaMessageDataInterface data = this.getMediaMessageData(mediaMessageModel);
+		if (data != null && data.getBlobId() != null && !data.isDownloaded()) {
+			this.downloadService.setPriority(data.getBlobId(), priority);
+		}
+	}
+
 	@Override
 	public boolean cancelMessageDownload(AbstractMessageModel messageModel) {
-		return this.downloadService.cancel(messageModel.getId());
+		// a download that is still waiting for its turn is just dropped
+		MediaMessageDataInterface data = this.getMediaMessageData(messageModel);
+		boolean unscheduled = data != null && data.getBlobId() != null && this.downloadService.unschedule(data.getBlobId());
+		return this.downloadService.cancel(messageModel.getId()) || unscheduled;
+	}
+
+	@Nullable
+	private MediaMessageDataInterface getMediaMessageData(AbstractMessageModel messageModel) {
+		switch (messageModel.getType()) {
+			case IMAGE:
+				return messageModel.getImageData();
+			case VIDEO:
+				return messageModel.getVideoData();
+			case VOICEMESSAGE:
+				return messageModel.getAudioData();
+			case FILE:
+				return messageModel.getFileData();
+			default:
+				return null;
+		}
 	}
 
 	private void fireOnCreatedMessage(final AbstractMessageModel messageModel) {
@@ -2816,19 +2779,9 @@ public class MessageServiceImpl implements MessageService {
 		this.databaseServiceNew.getDistributionListMessageModelFactory().deleteAll();
 
 		//clear all caches
-		synchronized (this.contactMessageCache) {
-			this.contactMessageCache.clear();
-		}
-
-		//clear all caches
-		synchronized (this.groupMessageCache) {
-			this.groupMessageCache.clear();
-		}
-
-		//clear all caches
-		synchronized (this.distributionListMessageCache) {
-			this.distributionListMessageCache.clear();
-		}
+		this.contactMessageCache.clear();
+		this.groupMessageCache.clear();
+		this.distributionListMessageCache.clear();
 
 		//clear all files in app Path
 		this.fileService.clearDirectory(this.fileService.getAppDataPath(), false);
@@ -2838,6 +2791,10 @@ public class MessageServiceImpl implements MessageService {
 		if (f.exists()) {
 			FileUtil.deleteFileOrWarn(f, "message queue save file", logger);
 		}
+		File journalFile = this.getMessageQueueJournalFile();
+		if (journalFile.exists()) {
+			FileUtil.deleteFileOrWarn(journalFile, "message queue journal file", logger);
+		}
 	}
 
 	@Override
@@ -2849,13 +2806,11 @@ public class MessageServiceImpl implements MessageService {
 							(MessageModel) messageModel
 					);
 
-					//remove "old" message models from cache
-					for(MessageModel m: Functional.filter(this.contactMessageCache, new IPredicateNonNull<MessageModel>() {
-						@Override
-						public boolean apply(@NonNull MessageModel type) {
-							return type.getId() == messageModel.getId() && messageModel != type;
+					//update "old" message models in cache
+					for(MessageModel m: this.contactMessageCache.getAllById(messageModel.getId())) {
+						if (m == messageModel) {
+							continue;
 						}
-					})){
 						//remove cached unsaved object
 						logger.debug("copy from message model fix");
 						m.copyFrom(messageModel);
@@ -2868,13 +2823,11 @@ public class MessageServiceImpl implements MessageService {
 					this.databaseServiceNew.getGroupMessageModelFactory().createOrUpdate(
 							(GroupMessageModel) messageModel);
 
-					//remove "old" message models from cache
-					for(GroupMessageModel m: Functional.filter(this.groupMessageCache, new IPredicateNonNull<GroupMessageModel>() {
-						@Override
-						public boolean apply(@NonNull GroupMessageModel type) {
-							return type.getId() == messageModel.getId() && messageModel != type;
+					//update "old" message models in cache
+					for(GroupMessageModel m: this.groupMessageCache.getAllById(messageModel.getId())) {
+						if (m == messageModel) {
+							continue;
 						}
-					})){
 						//remove cached unsaved object
 
 						logger.debug("copy from group message model fix");
@@ -2888,13 +2841,11 @@ public class MessageServiceImpl implements MessageService {
 					this.databaseServiceNew.getDistributionListMessageModelFactory().createOrUpdate(
 							(DistributionListMessageModel) messageModel);
 
-					//remove "old" message models from cache
-					for(DistributionListMessageModel m: Functional.filter(this.distributionListMessageCache, new IPredicateNonNull<DistributionListMessageModel>() {
-						@Override
-						public boolean apply(@NonNull DistributionListMessageModel type) {
-							return type.getId() == messageModel.getId() && messageModel != type;
+					//update "old" message models in cache
+					for(DistributionListMessageModel m: this.distributionListMessageCache.getAllById(messageModel.getId())) {
+						if (m == messageModel) {
+							continue;
 						}
-					})){
 						//remove cached unsaved object
 
 						logger.debug("copy from distribution list message model fix");
@@ -3064,6 +3015,10 @@ public class MessageServiceImpl implements MessageService {
 		return new File(context.getFilesDir(), MESSAGE_QUEUE_SAVE_FILE);
 	}
 
+	private File getMessageQueueJournalFile() {
+		return new File(context.getFilesDir(), MESSAGE_QUEUE_JOURNAL_FILE);
+	}
+
 	@Override
 	public void markConversationAsRead(MessageReceiver messageReceiver, NotificationService notificationService) {
 		try {
@@ -3181,6 +3136,43 @@ public class MessageServiceImpl implements MessageService {
 		}
 	}
 
+	/**
+	 * create a new AbstractMessageModel uploader that encrypts the data while uploading
+	 * a existing uploader will be canceled
+	 * @param messageModel
+	 * @param inputStream
+	 * @return
+	 */
+	private BlobUploader initUploader(AbstractMessageModel messageModel, EncryptingBlobInputStream inputStream) {
+		synchronized (this.uploaders) {
+			String key = this.cancelUploader(messageModel);
+			BlobUploader up = apiService.createUploader(inputStream);
+			this.uploaders.put(key, up);
+			logger.debug("create new streaming uploader for message " + key);
+			return up;
+		}
+	}
+
+	/**
+	 * Get a source of the decrypted local media file of a message that can be read more than once
+	 * @param messageModel
+	 * @return
+	 */
+	private BlobSource getDecryptedMessageSource(final AbstractMessageModel messageModel) {
+		return () -> {
+			InputStream inputStream;
+			try {
+				inputStream = fileService.getDecryptedMessageStream(messageModel);
+			} catch (Exception e) {
+				throw new IOException("Unable to open message file", e);
+			}
+			if (inputStream == null) {
+				throw new IOException("Message file not present");
+			}
+			return inputStream;
+		};
+	}
+
 	private String getLoaderKey(AbstractMessageModel messageModel) {
 		return messageModel.getClass().toString() + "-" + messageModel.getUid();
 	}
@@ -3456,9 +3448,9 @@ public class MessageServiceImpl implements MessageService {
 				saveToGallery(mediaItem);
 			}
 
-			final byte[] contentData = generateContentData(mediaItem, resolvedReceivers, messageModels, fileDataModel);
-			if (contentData != null) {
-				if (encryptAndSend(resolvedReceivers, messageModels, fileDataModel, thumbnailData, contentData)) {
+			final long contentSize = writeContentData(mediaItem, resolvedReceivers, messageModels, fileDataModel);
+			if (contentSize >= 0) {
+				if (encryptAndSend(resolvedReceivers, messageModels, fileDataModel, thumbnailData, contentSize)) {
 					successfulMessageModel = messageModels.get(resolvedReceivers[0]);
 				}
 			} else {
@@ -3507,24 +3499,24 @@ public class MessageServiceImpl implements MessageService {
 	}
 
 	/**
-	 * Generate content data for this MediaItem
+	 * Generate content data for this MediaItem and write it to the local media files of the messages
 	 * @param mediaItem
 	 * @param resolvedReceivers
 	 * @param messageModels
 	 * @param fileDataModel
-	 * @return content data as a byte array or null if content data could not be generated
+	 * @return size of the content data or -1 if content data could not be generated
 	 */
 	@WorkerThread
-	private @Nullable byte[] generateContentData(@NonNull MediaItem mediaItem,
-	                                             @NonNull MessageReceiver[] resolvedReceivers,
-	                                             @NonNull Map<MessageReceiver, AbstractMessageModel> messageModels,
-	                                             @NonNull FileDataModel fileDataModel) {
+	private long writeContentData(@NonNull MediaItem mediaItem,
+	                              @NonNull MessageReceiver[] resolvedReceivers,
+	                              @NonNull Map<MessageReceiver, AbstractMessageModel> messageModels,
+	                              @NonNull FileDataModel fileDataModel) {
 		switch (mediaItem.getType()) {
 			case TYPE_VIDEO:
 				// fallthrough
 			case TYPE_VIDEO_CAM:
 				if (transcodeVideo(mediaItem, resolvedReceivers, messageModels, fileDataModel)) {
-					return getContentData(mediaItem);
+					return writeLocalMedia(mediaItem, resolvedReceivers, messageModels);
 				}
 				break;
 			case TYPE_IMAGE:
@@ -3547,7 +3539,7 @@ public class MessageServiceImpl implements MessageService {
 						}
 						if (imageByteArray != null) {
 							fileDataModel.setFileSize(imageByteArray.length);
-							return ArrayUtils.concatByteArrays(new byte[NaCl.BOXOVERHEAD], imageByteArray);
+							return writeLocalMedia(imageByteArray, resolvedReceivers, messageModels);
 						}
 					}
 				} catch (Exception e) {
@@ -3568,7 +3560,7 @@ public class MessageServiceImpl implements MessageService {
 								bitmap,
 								mediaItem.getExifRotation(),
 								mediaItem.getExifFlip()), mediaItem.getRotation(), mediaItem.getFlip());
-							return ArrayUtils.concatByteArrays(new byte[NaCl.BOXOVERHEAD], BitmapUtil.getJpegByteArray(bitmap, mediaItem.getRotation(), mediaItem.getFlip()));
+							return writeLocalMedia(BitmapUtil.getJpegByteArray(bitmap, mediaItem.getRotation(), mediaItem.getFlip()), resolvedReceivers, messageModels);
 						}
 					}
 				} catch (Exception e) {
@@ -3581,12 +3573,12 @@ public class MessageServiceImpl implements MessageService {
 				// fallthrough
 			case TYPE_NONE:
 				// "regular" file messages
-				return getContentData(mediaItem);
+				return writeLocalMedia(mediaItem, resolvedReceivers, messageModels);
 			default:
 				// media type currently not supported
 				break;
 		}
-		return null;
+		return -1;
 	}
 
 	/**
@@ -3701,7 +3693,7 @@ public class MessageServiceImpl implements MessageService {
 	 * @param messageModels MessageModels for above MessageReceivers
 	 * @param fileDataModel fileDataModel for this message
 	 * @param thumbnailData Byte Array of thumbnail bitmap to be uploaded as a blob
-	 * @param contentData Byte Array of Content to be uploaded as a blob
+	 * @param contentSize Size of the content, which is read from the local media files and encrypted while it is being uploaded
 	 * @return true if the message was queued successfully, false otherwise. Note that errors that occur during sending are not handled here.
 	 */
 	@WorkerThread
@@ -3710,15 +3702,8 @@ public class MessageServiceImpl implements MessageService {
 	                       @NonNull Map<MessageReceiver, AbstractMessageModel> messageModels,
 	                       @NonNull FileDataModel fileDataModel,
 	                       @Nullable byte[] thumbnailData,
-	                       @NonNull byte[] contentData) {
-		final MessageReceiver.EncryptResult[] thumbnailEncryptResult = new MessageReceiver.EncryptResult[1];
-		final MessageReceiver.EncryptResult[] contentEncryptResult = new MessageReceiver.EncryptResult[1];
-
-		thumbnailEncryptResult[0] = null;
-		contentEncryptResult[0] = null;
-
+	                       long contentSize) {
 		for (MessageReceiver messageReceiver : resolvedReceivers) {
-			// save content first as it will be modified later on
 			AbstractMessageModel messageModel = messageModels.get(messageReceiver);
 			if (messageModel == null) {
 				// no messagemodel has been created for this receiver - skip
@@ -3728,13 +3713,6 @@ public class MessageServiceImpl implements MessageService {
 			// now set to pending
 			messageModel.setState(MessageState.PENDING); // shows a progress bar
 			save(messageModel);
-
-			try {
-				fileService.writeConversationMedia(messageModel, contentData, NaCl.BOXOVERHEAD, contentData.length - NaCl.BOXOVERHEAD);
-			} catch (Exception e) {
-				// Failure to write local media is not necessarily fatal, continue
-				logger.debug("Exception", e);
-			}
 		}
 
 		for (MessageReceiver messageReceiver : resolvedReceivers) {
@@ -3749,6 +3727,8 @@ public class MessageServiceImpl implements MessageService {
 			this.messageSendingService.addToQueue(new MessageSendingService.MessageSendingProcess() {
 				public byte[] thumbnailBlobId;
 				public byte[] contentBlobId;
+				public MessageReceiver.EncryptResult thumbnailEncryptResult;
+				public MessageReceiver.EncryptStreamResult contentEncryptResult;
 
 				public boolean success = false;
 
@@ -3768,22 +3748,22 @@ public class MessageServiceImpl implements MessageService {
 					sendMachine.reset()
 						.next(() -> {
 							if (getReceiver().sendMediaData()) {
-								// note that encryptFileData will overwrite contents of provided content data!
-								if (contentEncryptResult[0] == null) {
-									contentEncryptResult[0] = getReceiver().encryptFileData(contentData);
-									if (contentEncryptResult[0].getData() == null || contentEncryptResult[0].getSize() == 0) {
-										throw new Exception("File data encrypt failed");
+								if (contentEncryptResult == null) {
+									long fileSize = fileService.getDecryptedMessageSize(messageModel);
+									if (fileSize < 0) {
+										throw new Exception("Message file not present");
 									}
+									contentEncryptResult = getReceiver().encryptFileStream(getDecryptedMessageSource(messageModel), fileSize);
 								}
 							}
-							fileDataModel.setFileSize(contentData.length);
+							fileDataModel.setFileSize(contentSize + NaCl.BOXOVERHEAD);
 							messageModel.setFileData(fileDataModel);
 							fireOnModifiedMessage(messageModel);
 						})
 						.next(() -> {
 							//do not upload if sendMediaData Disabled (Distribution Lists)
 							if (getReceiver().sendMediaData()) {
-								BlobUploader blobUploader = initUploader(getMessageModel(), contentEncryptResult[0].getData());
+								BlobUploader blobUploader = initUploader(getMessageModel(), contentEncryptResult.openStream());
 								blobUploader.setProgressListener(new ProgressListener() {
 									@Override
 									public void updateProgress(int progress) {
@@ -3803,12 +3783,12 @@ public class MessageServiceImpl implements MessageService {
 							//do not upload if sendMediaData Disabled (Distribution Lists)
 							if (getReceiver().sendMediaData()) {
 								if (thumbnailData != null) {
-									if (thumbnailEncryptResult[0] == null) {
-										thumbnailEncryptResult[0] = getReceiver().encryptFileThumbnailData(thumbnailData, contentEncryptResult[0].getKey());
+									if (thumbnailEncryptResult == null) {
+										thumbnailEncryptResult = getReceiver().encryptFileThumbnailData(thumbnailData, contentEncryptResult.getKey());
 									}
 
-									if (thumbnailEncryptResult[0].getData() != null) {
-										BlobUploader blobUploader = initUploader(getMessageModel(), thumbnailEncryptResult[0].getData());
+									if (thumbnailEncryptResult.getData() != null) {
+										BlobUploader blobUploader = initUploader(getMessageModel(), thumbnailEncryptResult.getData());
 										blobUploader.setProgressListener(new ProgressListener() {
 											@Override
 											public void updateProgress(int progress) {
@@ -3834,7 +3814,7 @@ public class MessageServiceImpl implements MessageService {
 							if (getReceiver().createBoxedFileMessage(
 								thumbnailBlobId,
 								contentBlobId,
-								contentEncryptResult[0],
+								contentEncryptResult,
 								messageModel
 							)) {
 								updateMessageState(messageModel,
@@ -4164,41 +4144,87 @@ public class MessageServiceImpl implements MessageService {
 	}
 
 	/**
-	 * Get a byte array for the media represented by the MediaItem leaving room for NaCl Box header
+	 * Write the media represented by the MediaItem to the local media file of every message
 	 * @param mediaItem MediaItem containing the Uri of the media
-	 * @return byte array of the media data or null if error occured
+	 * @return size of the media data or -1 if error occured
 	 */
 	@WorkerThread
-	private byte[] getContentData(MediaItem mediaItem) {
-		try (InputStream inputStream = StreamUtil.getFromUri(context, mediaItem.getUri())) {
-			if (inputStream != null && inputStream.available() > 0) {
-				final int fileLength;
+	private long writeLocalMedia(@NonNull MediaItem mediaItem,
+	                             @NonNull MessageReceiver[] resolvedReceivers,
+	                             @NonNull Map<MessageReceiver, AbstractMessageModel> messageModels) {
+		AbstractMessageModel lastMessageModel = null;
 
-				fileLength = inputStream.available();
+		for (MessageReceiver messageReceiver : resolvedReceivers) {
+			AbstractMessageModel messageModel = messageModels.get(messageReceiver);
+			if (messageModel == null) {
+				continue;
+			}
 
-				if (fileLength > MAX_BLOB_SIZE) {
+			try (InputStream inputStream = StreamUtil.getFromUri(context, mediaItem.getUri())) {
+				if (inputStream == null || inputStream.available() <= 0) {
+					logger.info("Unable to read file to send");
+					return -1;
+				}
+
+				if (inputStream.available() > MAX_BLOB_SIZE) {
 					logger.info(context.getString(R.string.file_too_large));
-					return null;
+					return -1;
 				}
 
-				if (ConfigUtils.checkAvailableMemory(fileLength + NaCl.BOXOVERHEAD)) {
-					try {
-						byte[] fileData = new byte[fileLength + NaCl.BOXOVERHEAD];
-						IOUtils.readFully(inputStream, fileData, NaCl.BOXOVERHEAD, fileLength);
-						return fileData;
-					} catch (OutOfMemoryError e) {
-						logger.error("Unable to create byte array", e);
-					}
-				} else {
-					logger.info("Not enough memory to create byte array.");
+				if (!fileService.writeConversationMedia(messageModel, inputStream, true)) {
+					return -1;
 				}
-			} else {
-				logger.info("Not enough memory to create byte array.");
+				lastMessageModel = messageModel;
+			} catch (Exception e) {
+				logger.error("Unable to write file to send", e);
+				return -1;
 			}
-		} catch (IOException e) {
-			logger.error("Unable to open file to send", e);
 		}
-		return null;
+		return getContentSize(lastMessageModel);
+	}
+
+	/**
+	 * Write the provided media data to the local media file of every message
+	 * @param data media data
+	 * @return size of the media data or -1 if error occured
+	 */
+	@WorkerThread
+	private long writeLocalMedia(@Nullable byte[] data,
+	                             @NonNull MessageReceiver[] resolvedReceivers,
+	                             @NonNull Map<MessageReceiver, AbstractMessageModel> messageModels) {
+		if (data == null) {
+			return -1;
+		}
+
+		for (MessageReceiver messageReceiver : resolvedReceivers) {
+			AbstractMessageModel messageModel = messageModels.get(messageReceiver);
+			if (messageModel == null) {
+				continue;
+			}
+
+			try {
+				if (!fileService.writeConversationMedia(messageModel, data)) {
+					return -1;
+				}
+			} catch (Exception e) {
+				logger.error("Unable to write file to send", e);
+				return -1;
+			}
+		}
+		return data.length;
+	}
+
+	@WorkerThread
+	private long getContentSize(@Nullable AbstractMessageModel messageModel) {
+		if (messageModel == null) {
+			return -1;
+		}
+		try {
+			return fileService.getDecryptedMessageSize(messageModel);
+		} catch (Exception e) {
+			logger.error("Unable to determine size of file to send", e);
+			return -1;
+		}
 	}
 
 	/**
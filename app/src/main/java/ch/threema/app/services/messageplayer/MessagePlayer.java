@@ -40,12 +40,12 @@ import androidx.annotation.MainThread;
 import androidx.annotation.Nullable;
 import ch.threema.app.R;
 import ch.threema.app.messagereceiver.MessageReceiver;
+import ch.threema.app.services.DownloadScheduler;
 import ch.threema.app.services.FileService;
 import ch.threema.app.services.MessageService;
 import ch.threema.app.utils.FileUtil;
 import ch.threema.app.utils.RuntimeUtil;
 import ch.threema.app.utils.TestUtil;
-import ch.threema.client.ProgressListener;
 import ch.threema.storage.models.AbstractMessageModel;
 import ch.threema.storage.models.data.media.MediaMessageDataInterface;
 
@@ -289,8 +289,9 @@ public abstract class MessagePlayer {
 
 		boolean result = this.stop();
 		if(this.state == State_DOWNLOADING) {
-			this.messageService.cancelMessageDownload(this.getMessageModel());
+			// set the state first, a download that has not started yet reports back right away
 			this.state = State_NONE;
+			this.messageService.cancelMessageDownload(this.getMessageModel());
 		}
 
 		return result;
@@ -538,34 +539,22 @@ public abstract class MessagePlayer {
 			}
 		}
 		logger.debug("download");
-		new Thread(new Runnable() {
+		messageService.scheduleMediaMessageDownload(messageModel, DownloadScheduler.Priority.VISIBLE, new DownloadScheduler.Callback() {
 			@Override
-			public void run() {
-				try {
-					boolean success = messageService.downloadMediaMessage(messageModel, new ProgressListener() {
-						@Override
-						public void updateProgress(final int progress) {
-							downloadProgress = progress;
-
-							synchronized (downloadListeners) {
-								for (Map.Entry<String, DownloadListener> l : downloadListeners.entrySet()) {
-									l.getValue().onStatusUpdate(messageModel, progress);
-								}
-							}
-						}
+			public void onProgress(int progress) {
+				downloadProgress = progress;
 
-						@Override
-						public void onFinished(boolean success) {
-							downloadProgress = 100;
-
-							synchronized (downloadListeners) {
-								for (Map.Entry<String, DownloadListener> l : downloadListeners.entrySet()) {
-									l.getValue().onStatusUpdate(messageModel, 100);
-								}
-							}
-						}
-					});
+				synchronized (downloadListeners) {
+					for (Map.Entry<String, DownloadListener> l : downloadListeners.entrySet()) {
+						l.getValue().onStatusUpdate(messageModel, progress);
+					}
+				}
+			}
 
+			@Override
+			public void onFinished(boolean success, @Nullable Exception exception) {
+				// a download that was cancelled before it started finishes without exception, but in State_NONE
+				if (exception == null && (success || state != State_NONE)) {
 					state = State_DOWNLOADED;
 					synchronized (downloadListeners) {
 						for (Map.Entry<String, DownloadListener> l : downloadListeners.entrySet()) {
@@ -574,7 +563,7 @@ public abstract class MessagePlayer {
 					}
 
 					internalListener.onComplete(true);
-				} catch (Exception e) {
+				} else {
 					String errorMessage;
 					if (state == State_NONE) {
 						// cancelled by user
@@ -592,7 +581,7 @@ public abstract class MessagePlayer {
 					internalListener.onComplete(false);
 				}
 			}
-		},"MessagePlayerDownload").start();
+		});
 	}
 
 	protected final void updatePlayState() {
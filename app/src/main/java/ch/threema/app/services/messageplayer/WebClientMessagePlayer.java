@@ -25,6 +25,8 @@ import android.content.Context;
 
 import java.io.File;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import ch.threema.app.messagereceiver.MessageReceiver;
 import ch.threema.app.services.FileService;
 import ch.threema.app.services.MessageService;
@@ -35,6 +37,8 @@ import ch.threema.storage.models.data.media.MediaMessageDataInterface;
  * A subclass of the MessagePlayer made for downloading files and sending them to Threema Web.
  */
 public class WebClientMessagePlayer extends MessagePlayer {
+	private @Nullable Runnable downloadedListener;
+
 	public WebClientMessagePlayer(Context context,
 	                                 MessageService messageService,
 	                                 FileService fileService,
@@ -84,6 +88,24 @@ public class WebClientMessagePlayer extends MessagePlayer {
 		return null;
 	}
 
+	/**
+	 * Do not decrypt the file to a temporary file once it is available, call the listener instead.
+	 * The caller is expected to read the decrypted message stream itself.
+	 */
+	public WebClientMessagePlayer setDownloadedListener(@NonNull Runnable downloadedListener) {
+		this.downloadedListener = downloadedListener;
+		return this;
+	}
+
+	@Override
+	protected void play(boolean autoPlay) {
+		if (this.downloadedListener != null) {
+			this.downloadedListener.run();
+		} else {
+			super.play(autoPlay);
+		}
+	}
+
 	@Override
 	protected void open(File decryptedFile) { }
 
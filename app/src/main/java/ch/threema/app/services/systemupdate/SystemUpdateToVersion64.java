@@ -0,0 +1,80 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.app.services.systemupdate;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import java.sql.SQLException;
+
+import ch.threema.app.services.UpdateSystemService;
+import ch.threema.storage.MessageSearchIndex;
+import ch.threema.storage.models.GroupMessageModel;
+import ch.threema.storage.models.MessageModel;
+
+/**
+ * add full text search index for message body and caption
+ */
+public class SystemUpdateToVersion64 extends UpdateToVersion implements UpdateSystemService.SystemUpdate {
+
+	private static final String[] TABLES = new String[]{MessageModel.TABLE, GroupMessageModel.TABLE};
+
+	private final SQLiteDatabase sqLiteDatabase;
+
+	public SystemUpdateToVersion64(SQLiteDatabase sqLiteDatabase) {
+		this.sqLiteDatabase = sqLiteDatabase;
+	}
+
+	@Override
+	public boolean runDirectly() throws SQLException {
+		// the search works on an empty index until it is filled
+		for (String table : TABLES) {
+			for (String statement : MessageSearchIndex.getCreateTableStatements(table)) {
+				sqLiteDatabase.rawExecSQL(statement);
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean runASync() {
+		// fill the index and create the triggers in one go, so no message is indexed twice
+		for (String table : TABLES) {
+			sqLiteDatabase.beginTransaction();
+			try {
+				sqLiteDatabase.rawExecSQL(MessageSearchIndex.getBackfillStatement(table));
+				for (String statement : MessageSearchIndex.getCreateTriggerStatements(table)) {
+					sqLiteDatabase.rawExecSQL(statement);
+				}
+				sqLiteDatabase.setTransactionSuccessful();
+			} finally {
+				sqLiteDatabase.endTransaction();
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String getText() {
+		return "version 64 (message search index)";
+	}
+}
@@ -32,6 +32,7 @@ import ch.threema.app.managers.ListenerManager;
 import ch.threema.base.ThreemaException;
 import ch.threema.client.IdentityStoreInterface;
 import ch.threema.client.ProtocolDefines;
+import ch.threema.client.SharedKeyCache;
 
 public class IdentityStore implements IdentityStoreInterface {
 	private static final Logger logger = LoggerFactory.getLogger(IdentityStore.class);
@@ -42,6 +43,7 @@ public class IdentityStore implements IdentityStoreInterface {
 	private byte[] privateKey;
 	private String publicNickname;
 	private final PreferenceStoreInterface preferenceStore;
+	private final SharedKeyCache sharedKeyCache = new SharedKeyCache();
 
 	public IdentityStore(PreferenceStoreInterface preferenceStore) throws ThreemaException {
 
@@ -75,17 +77,28 @@ public class IdentityStore implements IdentityStoreInterface {
 
 	public byte[] encryptData(byte[] boxData, byte[] nonce, byte[] receiverPublicKey) {
 		if (privateKey != null) {
-			NaCl nacl = new NaCl(privateKey, receiverPublicKey);
+			NaCl nacl = this.sharedKeyCache.get(privateKey, receiverPublicKey);
 			return nacl.encrypt(boxData, nonce);
 		}
 		return null;
 	}
 
 	public byte[] decryptData(byte[] boxData, byte[] nonce, byte[] senderPublicKey) {
-		NaCl nacl = new NaCl(privateKey, senderPublicKey);
+		NaCl nacl = this.sharedKeyCache.get(privateKey, senderPublicKey);
 		return nacl.decrypt(boxData, nonce);
 	}
 
+	/**
+	 * Zeroize all cached shared keys, e.g. when the master key is locked.
+	 */
+	public void clearSharedKeyCache() {
+		this.sharedKeyCache.clear();
+	}
+
+	public SharedKeyCache getSharedKeyCache() {
+		return this.sharedKeyCache;
+	}
+
 	public String getIdentity() {
 		return this.identity;
 	}
@@ -113,6 +126,7 @@ public class IdentityStore implements IdentityStoreInterface {
 	}
 
 	public void storeIdentity(String identity, String serverGroup, byte[] publicKey, byte[] privateKey) {
+		this.sharedKeyCache.clear();
 
 		this.identity = identity;
 		this.serverGroup = serverGroup;
@@ -129,6 +143,7 @@ public class IdentityStore implements IdentityStoreInterface {
 	}
 
 	public void clear() {
+		this.sharedKeyCache.clear();
 		this.identity = null;
 		this.serverGroup = null;
 		this.publicKey = null;
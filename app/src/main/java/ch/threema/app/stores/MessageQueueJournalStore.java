@@ -0,0 +1,303 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.stores;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+
+import androidx.annotation.NonNull;
+import ch.threema.client.BoxedMessage;
+import ch.threema.client.MessageId;
+import ch.threema.client.MessageQueueJournal;
+import ch.threema.client.ProtocolDefines;
+import ch.threema.localcrypto.MasterKey;
+import ch.threema.localcrypto.MasterKeyLockedException;
+
+/**
+ * File based {@link MessageQueueJournal}. Every record is encrypted individually with the master
+ * key, so records can be appended without rewriting (or re-encrypting) the file.
+ *
+ * Record format: length of the remainder (4 bytes), IV (16 bytes), AES-CBC ciphertext of
+ * record type (1 byte) and record data.
+ *
+ * Enqueue records are written right away. Remove records are written in batches by a background
+ * thread, so that processing ACKs never waits for the file system. Pending remove records are
+ * always written before the next enqueue record. Losing them in a crash only means that the
+ * affected messages are sent again, which the server and the recipient tolerate.
+ *
+ * A rewrite writes the new file without holding the lock. Records appended in the meantime are
+ * kept in memory as well and copied to the new file before it replaces the old one.
+ */
+public class MessageQueueJournalStore implements MessageQueueJournal {
+	private static final Logger logger = LoggerFactory.getLogger(MessageQueueJournalStore.class);
+
+	private static final int IV_LENGTH = 16;
+	private static final int MAX_RECORD_LENGTH = 2 * ProtocolDefines.MAX_PKT_LEN;
+
+	private static final byte RECORD_ENQUEUE = 1;
+	private static final byte RECORD_REMOVE = 2;
+
+	private static final long REMOVE_BATCH_DELAY_MS = 500;
+
+	private final File file;
+	private final MasterKey masterKey;
+	private final SecureRandom random = new SecureRandom();
+
+	private final ScheduledExecutorService writeExecutor = Executors.newSingleThreadScheduledExecutor();
+	private final List<MessageId> pendingRemoves = new ArrayList<>();
+
+	private OutputStream outputStream;
+	private int recordCount;
+
+	/* records appended since the current rewrite began, or null if no rewrite is in progress */
+	private ByteArrayOutputStream rewriteBacklog;
+	private int rewriteBacklogCount;
+
+	public MessageQueueJournalStore(@NonNull File file, @NonNull MasterKey masterKey) {
+		this.file = file;
+		this.masterKey = masterKey;
+	}
+
+	@Override
+	public synchronized void appendEnqueue(@NonNull BoxedMessage boxmsg) throws IOException {
+		this.append(RECORD_ENQUEUE, boxmsg.makeBinary());
+	}
+
+	@Override
+	public synchronized void appendRemove(@NonNull MessageId messageId) {
+		this.pendingRemoves.add(messageId);
+		this.recordCount++;
+		if (this.pendingRemoves.size() == 1) {
+			this.writeExecutor.schedule(this::writePendingRemoves, REMOVE_BATCH_DELAY_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public synchronized void replay(@NonNull ReplayListener listener) throws IOException {
+		this.recordCount = 0;
+		this.pendingRemoves.clear();
+
+		if (!this.file.exists()) {
+			return;
+		}
+
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)))) {
+			while (true) {
+				byte[] record;
+				try {
+					int length = dis.readInt();
+					if (length <= IV_LENGTH || length > MAX_RECORD_LENGTH) {
+						logger.warn("Invalid record length {}, ignoring rest of journal", length);
+						break;
+					}
+					record = new byte[length];
+					dis.readFully(record);
+				} catch (EOFException e) {
+					/* end of journal, or truncated trailing record */
+					break;
+				}
+
+				byte[] plaintext;
+				try {
+					Cipher cipher = this.masterKey.getDecryptCipher(Arrays.copyOf(record, IV_LENGTH));
+					plaintext = cipher.doFinal(record, IV_LENGTH, record.length - IV_LENGTH);
+				} catch (MasterKeyLockedException | GeneralSecurityException e) {
+					throw new IOException("Could not decrypt journal record", e);
+				}
+
+				try {
+					byte[] data = Arrays.copyOfRange(plaintext, 1, plaintext.length);
+					switch (plaintext[0]) {
+						case RECORD_ENQUEUE:
+							listener.onEnqueue(BoxedMessage.parseBinary(data));
+							break;
+						case RECORD_REMOVE:
+							listener.onRemove(new MessageId(data));
+							break;
+						default:
+							logger.warn("Unknown journal record type {}", plaintext[0]);
+					}
+				} catch (Exception e) {
+					logger.warn("Invalid journal record", e);
+				}
+				this.recordCount++;
+			}
+		}
+	}
+
+	@Override
+	public synchronized void beginRewrite() {
+		/* the messages passed to rewrite() already reflect all pending removals */
+		this.pendingRemoves.clear();
+		this.rewriteBacklog = new ByteArrayOutputStream();
+		this.rewriteBacklogCount = 0;
+	}
+
+	@Override
+	public void rewrite(@NonNull Collection<BoxedMessage> messages) throws IOException {
+		File tempFile = new File(this.file.getPath() + ".tmp");
+		try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+			for (BoxedMessage boxmsg : messages) {
+				fos.write(this.makeRecord(RECORD_ENQUEUE, boxmsg.makeBinary()));
+			}
+			fos.getFD().sync();
+
+			synchronized (this) {
+				if (this.rewriteBacklog == null) {
+					throw new IllegalStateException("Rewrite not started");
+				}
+
+				/* keep the records appended meanwhile; pending removes are written to the new file later */
+				this.rewriteBacklog.writeTo(fos);
+				fos.getFD().sync();
+				this.closeOutputStream();
+
+				if (!tempFile.renameTo(this.file)) {
+					throw new IOException("Could not replace message queue journal");
+				}
+				this.recordCount = messages.size() + this.rewriteBacklogCount + this.pendingRemoves.size();
+			}
+		} finally {
+			synchronized (this) {
+				this.rewriteBacklog = null;
+			}
+		}
+	}
+
+	@Override
+	public synchronized int getRecordCount() {
+		return this.recordCount;
+	}
+
+	/**
+	 * Write all pending remove records and close the underlying file. The next append reopens it.
+	 */
+	public synchronized void close() {
+		try {
+			this.writePendingRemovesLocked();
+		} catch (IOException e) {
+			logger.warn("Could not write message queue journal", e);
+		}
+		this.closeOutputStream();
+	}
+
+	private void closeOutputStream() {
+		if (this.outputStream != null) {
+			try {
+				this.outputStream.close();
+			} catch (IOException e) {
+				logger.warn("Could not close message queue journal", e);
+			}
+			this.outputStream = null;
+		}
+	}
+
+	private void append(byte type, byte[] data) throws IOException {
+		/* keep the records in the order of the queue operations */
+		this.writePendingRemovesLocked();
+
+		/* write each record with a single call so that a crash can at most truncate the last one */
+		this.write(this.makeRecord(type, data), 1);
+		this.recordCount++;
+	}
+
+	private synchronized void writePendingRemoves() {
+		try {
+			this.writePendingRemovesLocked();
+		} catch (IOException e) {
+			logger.error("Could not write message queue journal", e);
+		}
+	}
+
+	private void writePendingRemovesLocked() throws IOException {
+		if (this.pendingRemoves.isEmpty()) {
+			return;
+		}
+
+		ByteArrayOutputStream batch = new ByteArrayOutputStream();
+		for (MessageId messageId : this.pendingRemoves) {
+			batch.write(this.makeRecord(RECORD_REMOVE, messageId.getMessageId()));
+		}
+		this.write(batch.toByteArray(), this.pendingRemoves.size());
+		this.pendingRemoves.clear();
+	}
+
+	private void write(byte[] records, int count) throws IOException {
+		this.getOutputStream().write(records);
+		if (this.rewriteBacklog != null) {
+			this.rewriteBacklog.write(records);
+			this.rewriteBacklogCount += count;
+		}
+	}
+
+	@NonNull
+	private OutputStream getOutputStream() throws IOException {
+		if (this.outputStream == null) {
+			this.outputStream = new FileOutputStream(this.file, true);
+		}
+		return this.outputStream;
+	}
+
+	private byte[] makeRecord(byte type, byte[] data) throws IOException {
+		byte[] iv = new byte[IV_LENGTH];
+		this.random.nextBytes(iv);
+
+		byte[] plaintext = new byte[1 + data.length];
+		plaintext[0] = type;
+		System.arraycopy(data, 0, plaintext, 1, data.length);
+
+		byte[] ciphertext;
+		try {
+			ciphertext = this.masterKey.getEncryptCipher(iv).doFinal(plaintext);
+		} catch (MasterKeyLockedException | GeneralSecurityException e) {
+			throw new IOException("Could not encrypt journal record", e);
+		}
+
+		return ByteBuffer.allocate(4 + IV_LENGTH + ciphertext.length)
+			.putInt(IV_LENGTH + ciphertext.length)
+			.put(iv)
+			.put(ciphertext)
+			.array();
+	}
+}
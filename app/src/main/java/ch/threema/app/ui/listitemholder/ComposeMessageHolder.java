@@ -30,6 +30,7 @@ import android.widget.TextView;
 import ch.threema.app.services.messageplayer.MessagePlayer;
 import ch.threema.app.ui.ControllerView;
 import ch.threema.app.ui.TranscoderView;
+import ch.threema.storage.models.AbstractMessageModel;
 
 public class ComposeMessageHolder extends AvatarListItemHolder {
 	public TextView bodyTextView;
@@ -53,4 +54,7 @@ public class ComposeMessageHolder extends AvatarListItemHolder {
 
 	// associated messageplayer
 	public MessagePlayer messagePlayer;
+
+	// message currently shown in this item
+	public AbstractMessageModel messageModel;
 }
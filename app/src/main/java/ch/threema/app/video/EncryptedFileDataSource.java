@@ -0,0 +1,140 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.video;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.BaseDataSource;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import ch.threema.localcrypto.MasterKey;
+import ch.threema.localcrypto.MasterKeyLockedException;
+import ch.threema.localcrypto.SeekableCipherInputStream;
+
+/**
+ * ExoPlayer data source that plays a media file in the seekable chunked format directly,
+ * decrypting only the chunks the player actually reads. The URI is a file URI pointing to the
+ * encrypted file (see {@link ch.threema.app.services.FileService#getSeekableMessageFile}).
+ */
+public class EncryptedFileDataSource extends BaseDataSource {
+	private final @NonNull MasterKey masterKey;
+
+	private @Nullable Uri uri;
+	private @Nullable SeekableCipherInputStream inputStream;
+	private long bytesRemaining;
+	private boolean opened;
+
+	public static class Factory implements DataSource.Factory {
+		private final @NonNull MasterKey masterKey;
+
+		public Factory(@NonNull MasterKey masterKey) {
+			this.masterKey = masterKey;
+		}
+
+		@Override
+		public DataSource createDataSource() {
+			return new EncryptedFileDataSource(this.masterKey);
+		}
+	}
+
+	public EncryptedFileDataSource(@NonNull MasterKey masterKey) {
+		super(false);
+		this.masterKey = masterKey;
+	}
+
+	@Override
+	public long open(DataSpec dataSpec) throws IOException {
+		this.uri = dataSpec.uri;
+		this.transferInitializing(dataSpec);
+
+		String path = dataSpec.uri.getPath();
+		if (path == null) {
+			throw new IOException("Invalid URI " + dataSpec.uri);
+		}
+		try {
+			this.inputStream = this.masterKey.getSeekableCipherInputStream(new File(path));
+		} catch (MasterKeyLockedException e) {
+			throw new IOException("Master key is locked", e);
+		}
+
+		if (dataSpec.position > this.inputStream.length()) {
+			throw new EOFException();
+		}
+		this.inputStream.seek(dataSpec.position);
+		this.bytesRemaining = dataSpec.length == C.LENGTH_UNSET
+			? this.inputStream.length() - dataSpec.position
+			: dataSpec.length;
+		if (this.bytesRemaining < 0) {
+			throw new EOFException();
+		}
+
+		this.opened = true;
+		this.transferStarted(dataSpec);
+		return this.bytesRemaining;
+	}
+
+	@Override
+	public int read(@NonNull byte[] buffer, int offset, int readLength) throws IOException {
+		if (readLength == 0) {
+			return 0;
+		} else if (this.bytesRemaining == 0 || this.inputStream == null) {
+			return C.RESULT_END_OF_INPUT;
+		}
+
+		int bytesRead = this.inputStream.read(buffer, offset, (int) Math.min(this.bytesRemaining, readLength));
+		if (bytesRead > 0) {
+			this.bytesRemaining -= bytesRead;
+			this.bytesTransferred(bytesRead);
+		}
+		return bytesRead < 0 ? C.RESULT_END_OF_INPUT : bytesRead;
+	}
+
+	@Nullable
+	@Override
+	public Uri getUri() {
+		return this.uri;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.uri = null;
+		try {
+			if (this.inputStream != null) {
+				this.inputStream.close();
+			}
+		} finally {
+			this.inputStream = null;
+			if (this.opened) {
+				this.opened = false;
+				this.transferEnded();
+			}
+		}
+	}
+}
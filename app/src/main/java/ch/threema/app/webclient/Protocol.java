@@ -87,6 +87,8 @@ public class Protocol {
 	public final static String ARGUMENT_BLOB_BLOB = "blob";
 	public final static String ARGUMENT_BLOB_TYPE = "type";
 	public final static String ARGUMENT_BLOB_NAME = "name";
+	public final static String ARGUMENT_BLOB_SIZE = "size";
+	public final static String ARGUMENT_BLOB_CHUNK_SIZE = "chunkSize";
 	public final static String ARGUMENT_SUCCESS = "success";
 	public final static String ARGUMENT_ERROR = "error";
 	public final static String ARGUMENT_NAME = "name";
@@ -96,6 +98,13 @@ public class Protocol {
 	public final static String ARGUMENT_ALERT_MESSAGE = "message";
 	public final static String ARGUMENT_DELETE_TYPE = "deleteType";
 	public final static String ARGUMENT_MAX_SIZE = "maxSize";
+	public final static String ARGUMENT_PAGE_SIZE = "pageSize";
+	public final static String ARGUMENT_CURSOR = "cursor";
+	public final static String ARGUMENT_NEXT_CURSOR = "nextCursor";
+	public final static String ARGUMENT_OFFSET = "offset";
+	public final static String ARGUMENT_REVISION = "revision";
+	public final static String ARGUMENT_DELTA = "delta";
+	public final static String ARGUMENT_REMOVED = "removed";
 	public final static String ERROR_INTERNAL = "internalError";
 	public final static String ERROR_BAD_REQUEST = "badRequest";
 	public final static String ERROR_DISABLED_BY_POLICY = "disabledByPolicy";
@@ -0,0 +1,44 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.webclient;
+
+/**
+ * Priority lane of an outgoing message. Pending messages of a more important lane are sent
+ * first, messages within the same lane are sent in order.
+ */
+public enum SendPriority {
+	/**
+	 * Small, self-contained state like typing indicators or the battery status.
+	 */
+	CONTROL,
+
+	/**
+	 * Responses and updates carrying conversation, receiver or message state. These must not
+	 * overtake each other, otherwise an older state could overwrite a newer one.
+	 */
+	UPDATE,
+
+	/**
+	 * Binary payloads like blobs, thumbnails and avatars.
+	 */
+	BULK,
+}
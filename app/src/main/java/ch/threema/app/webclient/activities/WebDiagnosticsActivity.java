@@ -95,9 +95,12 @@ import ch.threema.app.utils.ConfigUtils;
 import ch.threema.app.utils.RuntimeUtil;
 import ch.threema.app.utils.TestUtil;
 import ch.threema.app.utils.WebRTCUtil;
+import ch.threema.app.webclient.SendPriority;
 import ch.threema.app.webclient.utils.DefaultNoopPeerConnectionObserver;
 import ch.threema.app.webclient.utils.DefaultNoopWebSocketListener;
+import ch.threema.app.webclient.utils.SessionTelemetry;
 import ch.threema.app.webclient.webrtc.PeerConnectionWrapper;
+import ch.threema.app.webclient.webrtc.SendQueueMetrics;
 import ch.threema.base.ThreemaException;
 import ch.threema.localcrypto.MasterKeyLockedException;
 import ch.threema.storage.models.ContactModel;
@@ -359,6 +362,12 @@ public class WebDiagnosticsActivity extends ThreemaToolbarActivity implements Te
 		// Print connectivity info
 		this.queryConnectivityInfo();
 
+		// Print outgoing queue info of the running sessions
+		this.queryOutgoingQueueInfo();
+
+		// Print performance telemetry of the running and past sessions
+		this.querySessionTelemetry();
+
 		// Start with WebSocket test
 		this.startWsTest();
 	}
@@ -418,6 +427,28 @@ public class WebDiagnosticsActivity extends ThreemaToolbarActivity implements Te
 		}
 	}
 
+	@UiThread
+	private void queryOutgoingQueueInfo() {
+		final SendQueueMetrics metrics = SendQueueMetrics.getInstance();
+
+		this.addLogSeparator();
+
+		this.addToLog("Outgoing queues (queued, max queued, sent):", false);
+		for (SendPriority priority : SendPriority.values()) {
+			this.addToLog("- " + priority.name().toLowerCase() + ": " + metrics.getDepth(priority)
+				+ ", " + metrics.getMaxDepth(priority) + ", " + metrics.getSentCount(priority), false);
+		}
+	}
+
+	@UiThread
+	private void querySessionTelemetry() {
+		this.addLogSeparator();
+
+		for (String line : SessionTelemetry.getInstance().getReport().split("\n")) {
+			this.addToLog(line, false);
+		}
+	}
+
 	/**
 	 * Start the WebSocket test.
 	 */
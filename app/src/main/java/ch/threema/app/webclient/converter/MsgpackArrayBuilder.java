@@ -41,64 +41,40 @@ import ch.threema.annotation.SameThread;
 @SameThread
 public class MsgpackArrayBuilder extends MsgpackBuilder {
 
-	private static class Instruction implements MsgpackBuilder.Instruction {
-		@NonNull
-		private final InstructionType type;
-		@Nullable
-		private final Object value;
-
-		@Nullable
-		@Override
-		public Object getValue() {
-			return this.value;
-		}
-
-		@NonNull
-		@Override
-		public InstructionType getType() {
-			return this.type;
-		}
-
-		Instruction(@NonNull InstructionType type, @Nullable Object value) {
-			this.type = type;
-			this.value = value;
-		}
-	}
-
 	public MsgpackArrayBuilder put(@Nullable String value) {
-		this.addInstruction(new Instruction(InstructionType.PACK_STRING, value));
+		this.packString(value);
 		return this;
 	}
 	public MsgpackArrayBuilder put(@Nullable Integer value) {
-		this.addInstruction(new Instruction(InstructionType.PACK_INTEGER, value));
+		this.packInteger(value);
 		return this;
 	}
 	public MsgpackArrayBuilder put(@Nullable Long value) {
-		this.addInstruction(new Instruction(InstructionType.PACK_LONG, value));
+		this.packLong(value);
 		return this;
 	}
 	public MsgpackArrayBuilder put(@Nullable Boolean value) {
-		this.addInstruction(new Instruction(InstructionType.PACK_BOOLEAN, value));
+		this.packBoolean(value);
 		return this;
 	}
 	public MsgpackArrayBuilder put(@Nullable Double value) {
-		this.addInstruction(new Instruction(InstructionType.PACK_DOUBLE, value));
+		this.packDouble(value);
 		return this;
 	}
 	public MsgpackArrayBuilder put(@Nullable Float value) {
-		this.addInstruction(new Instruction(InstructionType.PACK_FLOAT, value));
+		this.packFloat(value);
 		return this;
 	}
 	public MsgpackArrayBuilder put( @Nullable byte[] value) {
-		this.addInstruction(new Instruction(InstructionType.PACK_BYTES, value));
+		this.packBytes(value);
 		return this;
 	}
 	public MsgpackArrayBuilder put(@NonNull MsgpackBuilder value) {
-		this.addInstruction(new Instruction(InstructionType.PACK_PAYLOAD, value));
+		this.packPayload(value);
 		return this;
 	}
 	public MsgpackArrayBuilder put(@NonNull List<MsgpackBuilder> values) {
-		this.addInstruction(new Instruction(InstructionType.PACK_PAYLOAD_LIST, values));
+		this.packPayloadList(values);
 		return this;
 	}
 
@@ -158,15 +134,13 @@ public class MsgpackArrayBuilder extends MsgpackBuilder {
 	}
 
 	@Override
-	MsgpackArrayBuilder init(MessageBufferPacker packer, int instructionSize) throws IOException {
-		packer.packArrayHeader(instructionSize);
-		return this;
+	void packHeader(MsgpackBuffer buffer, int valueCount) {
+		buffer.packArrayHeader(valueCount);
 	}
 
 	@Override
-	MsgpackArrayBuilder initInstruction(MessageBufferPacker packer, MsgpackBuilder.Instruction instruction) {
-		//its a array, do nothing
-		return this;
+	void packHeader(MessageBufferPacker packer, int valueCount) throws IOException {
+		packer.packArrayHeader(valueCount);
 	}
 
 	/**
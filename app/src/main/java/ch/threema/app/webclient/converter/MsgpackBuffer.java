@@ -0,0 +1,227 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.webclient.converter;
+
+import java.nio.charset.StandardCharsets;
+
+import androidx.annotation.NonNull;
+import ch.threema.annotation.SameThread;
+
+/**
+ * Growable byte buffer that values are packed into directly, in the same (smallest) formats
+ * as the msgpack-core packer uses.
+ */
+@SameThread
+final class MsgpackBuffer {
+	private static final byte NIL = (byte) 0xc0;
+	private static final byte FALSE = (byte) 0xc2;
+	private static final byte TRUE = (byte) 0xc3;
+	private static final byte BIN8 = (byte) 0xc4;
+	private static final byte BIN16 = (byte) 0xc5;
+	private static final byte BIN32 = (byte) 0xc6;
+	private static final byte FLOAT32 = (byte) 0xca;
+	private static final byte FLOAT64 = (byte) 0xcb;
+	private static final byte UINT8 = (byte) 0xcc;
+	private static final byte UINT16 = (byte) 0xcd;
+	private static final byte UINT32 = (byte) 0xce;
+	private static final byte UINT64 = (byte) 0xcf;
+	private static final byte INT8 = (byte) 0xd0;
+	private static final byte INT16 = (byte) 0xd1;
+	private static final byte INT32 = (byte) 0xd2;
+	private static final byte INT64 = (byte) 0xd3;
+	private static final byte STR8 = (byte) 0xd9;
+	private static final byte STR16 = (byte) 0xda;
+	private static final byte STR32 = (byte) 0xdb;
+	private static final byte ARRAY16 = (byte) 0xdc;
+	private static final byte ARRAY32 = (byte) 0xdd;
+	private static final byte MAP16 = (byte) 0xde;
+	private static final byte MAP32 = (byte) 0xdf;
+	private static final byte FIXSTR_PREFIX = (byte) 0xa0;
+	private static final byte FIXARRAY_PREFIX = (byte) 0x90;
+	private static final byte FIXMAP_PREFIX = (byte) 0x80;
+
+	private byte[] data;
+	private int length = 0;
+
+	MsgpackBuffer(int capacity) {
+		this.data = new byte[capacity];
+	}
+
+	@NonNull
+	byte[] getData() {
+		return this.data;
+	}
+
+	int getLength() {
+		return this.length;
+	}
+
+	/**
+	 * Size of a map or array header for the given number of entries.
+	 */
+	static int getHeaderSize(int size) {
+		return size < 16 ? 1 : (size < (1 << 16) ? 3 : 5);
+	}
+
+	void packNil() {
+		this.ensureCapacity(1);
+		this.data[this.length++] = NIL;
+	}
+
+	void packBoolean(boolean value) {
+		this.ensureCapacity(1);
+		this.data[this.length++] = value ? TRUE : FALSE;
+	}
+
+	void packLong(long value) {
+		this.ensureCapacity(9);
+		if (value < -(1L << 5)) {
+			if (value < -(1L << 15)) {
+				if (value < -(1L << 31)) {
+					this.putByteAndLong(INT64, value);
+				} else {
+					this.putByteAndInt(INT32, (int) value);
+				}
+			} else if (value < -(1L << 7)) {
+				this.putByteAndShort(INT16, (int) value);
+			} else {
+				this.data[this.length++] = INT8;
+				this.data[this.length++] = (byte) value;
+			}
+		} else if (value < (1L << 7)) {
+			// positive or negative fixint
+			this.data[this.length++] = (byte) value;
+		} else if (value < (1L << 8)) {
+			this.data[this.length++] = UINT8;
+			this.data[this.length++] = (byte) value;
+		} else if (value < (1L << 16)) {
+			this.putByteAndShort(UINT16, (int) value);
+		} else if (value < (1L << 32)) {
+			this.putByteAndInt(UINT32, (int) value);
+		} else {
+			this.putByteAndLong(UINT64, value);
+		}
+	}
+
+	void packFloat(float value) {
+		this.ensureCapacity(5);
+		this.putByteAndInt(FLOAT32, Float.floatToRawIntBits(value));
+	}
+
+	void packDouble(double value) {
+		this.ensureCapacity(9);
+		this.putByteAndLong(FLOAT64, Double.doubleToRawLongBits(value));
+	}
+
+	void packString(@NonNull String value) {
+		final int charCount = value.length();
+		boolean ascii = true;
+		for (int i = 0; i < charCount && ascii; i++) {
+			ascii = value.charAt(i) < 0x80;
+		}
+
+		if (ascii) {
+			// one byte per char, write them directly
+			this.packRawHeader(charCount, FIXSTR_PREFIX, 32, STR8, STR16, STR32);
+			this.ensureCapacity(charCount);
+			for (int i = 0; i < charCount; i++) {
+				this.data[this.length++] = (byte) value.charAt(i);
+			}
+		} else {
+			final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			this.packRawHeader(bytes.length, FIXSTR_PREFIX, 32, STR8, STR16, STR32);
+			this.writePayload(bytes, 0, bytes.length);
+		}
+	}
+
+	void packBinary(@NonNull byte[] value) {
+		this.packRawHeader(value.length, BIN8, 0, BIN8, BIN16, BIN32);
+		this.writePayload(value, 0, value.length);
+	}
+
+	void packMapHeader(int size) {
+		this.packRawHeader(size, FIXMAP_PREFIX, 16, MAP16, MAP16, MAP32);
+	}
+
+	void packArrayHeader(int size) {
+		this.packRawHeader(size, FIXARRAY_PREFIX, 16, ARRAY16, ARRAY16, ARRAY32);
+	}
+
+	void writePayload(@NonNull byte[] payload, int offset, int length) {
+		this.ensureCapacity(length);
+		System.arraycopy(payload, offset, this.data, this.length, length);
+		this.length += length;
+	}
+
+	/**
+	 * @param fixLimit sizes below this use the fix format (prefix | size), 0 if there is none
+	 */
+	private void packRawHeader(int size, byte fixPrefix, int fixLimit, byte format8, byte format16, byte format32) {
+		if (size < fixLimit) {
+			this.ensureCapacity(1);
+			this.data[this.length++] = (byte) (fixPrefix | size);
+		} else if (size < (1 << 8) && format8 != format16) {
+			this.ensureCapacity(2);
+			this.data[this.length++] = format8;
+			this.data[this.length++] = (byte) size;
+		} else if (size < (1 << 16)) {
+			this.ensureCapacity(3);
+			this.putByteAndShort(format16, size);
+		} else {
+			this.ensureCapacity(5);
+			this.putByteAndInt(format32, size);
+		}
+	}
+
+	private void putByteAndShort(byte format, int value) {
+		this.data[this.length++] = format;
+		this.data[this.length++] = (byte) (value >> 8);
+		this.data[this.length++] = (byte) value;
+	}
+
+	private void putByteAndInt(byte format, int value) {
+		this.data[this.length++] = format;
+		this.putInt(value);
+	}
+
+	private void putByteAndLong(byte format, long value) {
+		this.data[this.length++] = format;
+		this.putInt((int) (value >> 32));
+		this.putInt((int) value);
+	}
+
+	private void putInt(int value) {
+		this.data[this.length++] = (byte) (value >> 24);
+		this.data[this.length++] = (byte) (value >> 16);
+		this.data[this.length++] = (byte) (value >> 8);
+		this.data[this.length++] = (byte) value;
+	}
+
+	private void ensureCapacity(int additional) {
+		final int required = this.length + additional;
+		if (required > this.data.length) {
+			final byte[] grown = new byte[Math.max(required, this.data.length * 2)];
+			System.arraycopy(this.data, 0, grown, 0, this.length);
+			this.data = grown;
+		}
+	}
+}
@@ -26,114 +26,211 @@ import org.msgpack.core.MessagePack;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import ch.threema.annotation.SameThread;
 
+/**
+ * Values are packed into a buffer as soon as they are added. Only nested builders are kept
+ * as references (they may still be modified) and packed when the builder is consumed.
+ */
 @SameThread
 public abstract class MsgpackBuilder {
+	private static final int INITIAL_CAPACITY = 64;
 
-	enum InstructionType {
-		PACK_STRING,
-		PACK_INTEGER,
-		PACK_LONG,
-		PACK_DOUBLE,
-		PACK_FLOAT,
-		PACK_BOOLEAN,
-		PACK_BYTES,
-		PACK_PAYLOAD,
-		PACK_PAYLOAD_LIST,
-	}
+	/**
+	 * A nested builder or list of builders, packed at the given offset of the buffer.
+	 */
+	private static class Child {
+		final int offset;
+		@Nullable final MsgpackBuilder builder;
+		@Nullable final List<MsgpackBuilder> builders;
 
-	interface Instruction {
-		Object getValue();
-		InstructionType getType();
+		Child(int offset, @Nullable MsgpackBuilder builder, @Nullable List<MsgpackBuilder> builders) {
+			this.offset = offset;
+			this.builder = builder;
+			this.builders = builders;
+		}
 	}
 
-	final private List<Instruction> instructions = new LinkedList<>();
+	private final MsgpackBuffer buffer = new MsgpackBuffer(INITIAL_CAPACITY);
+	@Nullable private List<Child> children = null;
+	private int valueCount = 0;
 	private boolean consumed = false;
 
-	final protected void build(MessageBufferPacker packer)
-	{
-		//write headers
-		try {
-			this
-					.init(packer, this.instructions.size())
-					//write contents
-					.pack(packer);
-		} catch (IOException e) {
-			// This shouldn't happen, as we're writing to a buffer, not to a stream
-			throw new RuntimeException("IOException while writing to MessageBufferPacker", e);
+	final void packKey(@NonNull String key) {
+		this.buffer.packString(key);
+	}
+
+	final void packNil() {
+		this.buffer.packNil();
+		this.valueCount++;
+	}
+
+	final void packString(@Nullable String value) {
+		if (value == null) {
+			this.packNil();
+		} else {
+			this.buffer.packString(value);
+			this.valueCount++;
+		}
+	}
+
+	final void packInteger(@Nullable Integer value) {
+		if (value == null) {
+			this.packNil();
+		} else {
+			this.buffer.packLong(value);
+			this.valueCount++;
+		}
+	}
+
+	final void packLong(@Nullable Long value) {
+		if (value == null) {
+			this.packNil();
+		} else {
+			this.buffer.packLong(value);
+			this.valueCount++;
+		}
+	}
+
+	final void packDouble(@Nullable Double value) {
+		if (value == null) {
+			this.packNil();
+		} else {
+			this.buffer.packDouble(value);
+			this.valueCount++;
+		}
+	}
+
+	final void packFloat(@Nullable Float value) {
+		if (value == null) {
+			this.packNil();
+		} else {
+			this.buffer.packFloat(value);
+			this.valueCount++;
+		}
+	}
+
+	final void packBoolean(@Nullable Boolean value) {
+		if (value == null) {
+			this.packNil();
+		} else {
+			this.buffer.packBoolean(value);
+			this.valueCount++;
+		}
+	}
+
+	final void packBytes(@Nullable byte[] value) {
+		if (value == null) {
+			this.packNil();
+		} else {
+			this.buffer.packBinary(value);
+			this.valueCount++;
+		}
+	}
+
+	final void packPayload(@Nullable MsgpackBuilder value) {
+		if (value == null) {
+			this.packNil();
+		} else {
+			this.addChild(new Child(this.buffer.getLength(), value, null));
 		}
 	}
 
-	final MsgpackBuilder addInstruction(Instruction instruction) {
-		this.instructions.add(instruction);
-		return this;
+	final void packPayloadList(@Nullable List<MsgpackBuilder> values) {
+		if (values == null) {
+			this.packNil();
+		} else {
+			this.addChild(new Child(this.buffer.getLength(), null, values));
+		}
+	}
+
+	private void addChild(@NonNull Child child) {
+		if (this.children == null) {
+			this.children = new ArrayList<>();
+		}
+		this.children.add(child);
+		this.valueCount++;
 	}
 
 	protected final int instructionCount() {
-		return this.instructions.size();
+		return this.valueCount;
 	}
 
-	abstract MsgpackBuilder init(MessageBufferPacker packer, int instructionSize) throws IOException;
+	abstract void packHeader(MsgpackBuffer buffer, int valueCount);
+
+	abstract void packHeader(MessageBufferPacker packer, int valueCount) throws IOException;
 
-	abstract MsgpackBuilder initInstruction(MessageBufferPacker packer, Instruction instruction) throws IOException;
+	/**
+	 * Number of bytes {@link #build(MsgpackBuffer)} will write.
+	 */
+	private int getEncodedSize() {
+		int size = MsgpackBuffer.getHeaderSize(this.valueCount) + this.buffer.getLength();
+		if (this.children != null) {
+			for (Child child : this.children) {
+				if (child.builder != null) {
+					size += child.builder.getEncodedSize();
+				} else if (child.builders != null) {
+					size += MsgpackBuffer.getHeaderSize(child.builders.size());
+					for (MsgpackBuilder builder : child.builders) {
+						size += builder.getEncodedSize();
+					}
+				}
+			}
+		}
+		return size;
+	}
 
-	private MsgpackBuilder pack(MessageBufferPacker packer) {
+	private void build(MsgpackBuffer out) {
+		this.packHeader(out, this.valueCount);
+		int offset = 0;
+		if (this.children != null) {
+			for (Child child : this.children) {
+				out.writePayload(this.buffer.getData(), offset, child.offset - offset);
+				offset = child.offset;
+				if (child.builder != null) {
+					child.builder.build(out);
+				} else if (child.builders != null) {
+					out.packArrayHeader(child.builders.size());
+					for (MsgpackBuilder builder : child.builders) {
+						builder.build(out);
+					}
+				}
+			}
+		}
+		out.writePayload(this.buffer.getData(), offset, this.buffer.getLength() - offset);
+	}
+
+	final protected void build(MessageBufferPacker packer)
+	{
 		try {
-			for (Instruction instruction : this.instructions) {
-				this.initInstruction(packer, instruction);
-				if (instruction.getValue() == null) {
-					packer.packNil();
-				} else {
-					switch (instruction.getType()) {
-						case PACK_STRING:
-							packer.packString((String) instruction.getValue());
-							break;
-						case PACK_INTEGER:
-							packer.packInt((Integer) instruction.getValue());
-							break;
-						case PACK_LONG:
-							packer.packLong((Long) instruction.getValue());
-							break;
-						case PACK_DOUBLE:
-							packer.packDouble((Double) instruction.getValue());
-							break;
-						case PACK_FLOAT:
-							packer.packFloat((Float) instruction.getValue());
-							break;
-						case PACK_BOOLEAN:
-							packer.packBoolean((Boolean) instruction.getValue());
-							break;
-						case PACK_BYTES:
-							final byte[] bytes = (byte[]) instruction.getValue();
-							packer.packBinaryHeader(bytes.length).writePayload(bytes);
-							break;
-						case PACK_PAYLOAD:
-							((MsgpackBuilder) instruction.getValue()).build(packer);
-							break;
-						case PACK_PAYLOAD_LIST:
-							List<MsgpackBuilder> list = (List<MsgpackBuilder>) instruction.getValue();
-							packer.packArrayHeader(list.size());
-							for (MsgpackBuilder builder: list) {
-								builder.build(packer);
-							}
-							break;
+			this.packHeader(packer, this.valueCount);
+			int offset = 0;
+			if (this.children != null) {
+				for (Child child : this.children) {
+					packer.writePayload(this.buffer.getData(), offset, child.offset - offset);
+					offset = child.offset;
+					if (child.builder != null) {
+						child.builder.build(packer);
+					} else if (child.builders != null) {
+						packer.packArrayHeader(child.builders.size());
+						for (MsgpackBuilder builder : child.builders) {
+							builder.build(packer);
+						}
 					}
 				}
 			}
+			packer.writePayload(this.buffer.getData(), offset, this.buffer.getLength() - offset);
 		} catch (IOException e) {
 			// This shouldn't happen, as we're writing to a buffer, not to a stream
 			throw new RuntimeException("IOException while writing to MessageBufferPacker", e);
 		}
-
-		return this;
 	}
 
-
 	@NonNull final public ByteBuffer consume(MessageBufferPacker packer) {
 		if (this.consumed) {
 			throw new RuntimeException("Builder has already been consumed!");
@@ -147,7 +244,16 @@ public abstract class MsgpackBuilder {
 		return this.consume(config.newBufferPacker());
 	}
 
+	/**
+	 * Pack everything into a buffer of the exact size, without copying the result.
+	 */
 	@NonNull final public ByteBuffer consume() {
-		return this.consume(new MessagePack.PackerConfig());
+		if (this.consumed) {
+			throw new RuntimeException("Builder has already been consumed!");
+		}
+		final MsgpackBuffer out = new MsgpackBuffer(this.getEncodedSize());
+		this.build(out);
+		this.consumed = true;
+		return ByteBuffer.wrap(out.getData(), 0, out.getLength());
 	}
 }
@@ -43,64 +43,49 @@ import ch.threema.annotation.SameThread;
 @SameThread
 public class MsgpackObjectBuilder extends MsgpackBuilder {
 
-	private static class Instruction implements MsgpackBuilder.Instruction {
-		@NonNull final MsgpackBuilder.InstructionType type;
-		@NonNull final String key;
-		@Nullable final Object value;
-		Instruction(@NonNull MsgpackBuilder.InstructionType type, @NonNull String key, @Nullable Object value) {
-			this.type = type;
-			this.key = key;
-			this.value = value;
-		}
-
-		@Nullable
-		@Override
-		public Object getValue() {
-			return this.value;
-		}
-
-		@NonNull
-		@Override
-		public MsgpackBuilder.InstructionType getType() {
-			return this.type;
-		}
-	}
-
-
 	public MsgpackObjectBuilder put(@NonNull String key, @Nullable String value) {
-		this.addInstruction(new Instruction(InstructionType.PACK_STRING, key, value));
+		this.packKey(key);
+		this.packString(value);
 		return this;
 	}
 	public MsgpackObjectBuilder put(@NonNull String key, @Nullable Integer value) {
-		this.addInstruction(new Instruction(InstructionType.PACK_INTEGER, key, value));
+		this.packKey(key);
+		this.packInteger(value);
 		return this;
 	}
 	public MsgpackObjectBuilder put(@NonNull String key, @Nullable Long value) {
-		this.addInstruction(new Instruction(InstructionType.PACK_LONG, key, value));
+		this.packKey(key);
+		this.packLong(value);
 		return this;
 	}
 	public MsgpackObjectBuilder put(@NonNull String key, @Nullable Boolean value) {
-		this.addInstruction(new Instruction(InstructionType.PACK_BOOLEAN, key, value));
+		this.packKey(key);
+		this.packBoolean(value);
 		return this;
 	}
 	public MsgpackObjectBuilder put(@NonNull String key, @Nullable Double value) {
-		this.addInstruction(new Instruction(InstructionType.PACK_DOUBLE, key, value));
+		this.packKey(key);
+		this.packDouble(value);
 		return this;
 	}
 	public MsgpackObjectBuilder put(@NonNull String key, @Nullable Float value) {
-		this.addInstruction(new Instruction(InstructionType.PACK_FLOAT, key, value));
+		this.packKey(key);
+		this.packFloat(value);
 		return this;
 	}
 	public MsgpackObjectBuilder put(@NonNull String key, @Nullable byte[] value) {
-		this.addInstruction(new Instruction(InstructionType.PACK_BYTES, key, value));
+		this.packKey(key);
+		this.packBytes(value);
 		return this;
 	}
 	public MsgpackObjectBuilder put(@NonNull String key, @NonNull MsgpackBuilder value) {
-		this.addInstruction(new Instruction(InstructionType.PACK_PAYLOAD, key, value));
+		this.packKey(key);
+		this.packPayload(value);
 		return this;
 	}
 	public MsgpackObjectBuilder put(@NonNull String key, @NonNull List<MsgpackBuilder> values) {
-		this.addInstruction(new Instruction(InstructionType.PACK_PAYLOAD_LIST, key, values));
+		this.packKey(key);
+		this.packPayloadList(values);
 		return this;
 	}
 
@@ -160,20 +145,19 @@ public class MsgpackObjectBuilder extends MsgpackBuilder {
 	}
 
 	public MsgpackObjectBuilder putNull(@NonNull String key) {
-		this.addInstruction(new Instruction(InstructionType.PACK_PAYLOAD /* hack */, key, null));
+		this.packKey(key);
+		this.packNil();
 		return this;
 	}
 
 	@Override
-	MsgpackObjectBuilder init(MessageBufferPacker packer, int instructionSize) throws IOException {
-		packer.packMapHeader(instructionSize);
-		return this;
+	void packHeader(MsgpackBuffer buffer, int valueCount) {
+		buffer.packMapHeader(valueCount);
 	}
 
 	@Override
-	MsgpackObjectBuilder initInstruction(MessageBufferPacker packer, MsgpackBuilder.Instruction instruction) throws IOException {
-		packer.packString(((Instruction)instruction).key);
-		return this;
+	void packHeader(MessageBufferPacker packer, int valueCount) throws IOException {
+		packer.packMapHeader(valueCount);
 	}
 
 	/**
@@ -81,6 +81,13 @@ public class Receiver extends Converter {
 		return args;
 	}
 
+	public static MsgpackObjectBuilder getArguments(String type, String id) {
+		MsgpackObjectBuilder args = new MsgpackObjectBuilder();
+		args.put(TYPE, type);
+		args.put(ID, id);
+		return args;
+	}
+
 	public static MsgpackObjectBuilder getArguments(String type) {
 		MsgpackObjectBuilder args = new MsgpackObjectBuilder();
 		args.put(TYPE, type);
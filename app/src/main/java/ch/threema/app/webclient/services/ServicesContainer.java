@@ -73,6 +73,7 @@ public class ServicesContainer {
 	@NonNull public final SessionWakeUpService sessionWakeUp;
 	@NonNull public final WakeLockService wakeLock;
 	@NonNull public final BatteryStatusService batteryStatus;
+	@NonNull public final SyncRevisionService syncRevision;
 
 	public ServicesContainer(
 		@NonNull final Context appContext,
@@ -119,5 +120,8 @@ public class ServicesContainer {
 
 		// Initialize battery status service
 		this.batteryStatus = new BatteryStatusServiceImpl(appContext);
+
+		// Initialize sync revision service
+		this.syncRevision = new SyncRevisionServiceImpl();
 	}
 }
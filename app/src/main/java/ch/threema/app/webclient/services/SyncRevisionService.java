@@ -0,0 +1,74 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.webclient.services;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import ch.threema.app.webclient.converter.Utils;
+import ch.threema.app.webclient.exceptions.ConversionException;
+
+/**
+ * Tracks changes of the conversation and receiver lists, so that web client sessions can be
+ * synchronized with the entries changed since their last sync instead of the full lists.
+ */
+@AnyThread
+public interface SyncRevisionService {
+	/**
+	 * Change log of the conversation list, keyed by {@link #getKey(Utils.ModelWrapper)}.
+	 */
+	@NonNull SyncRevisions getConversationRevisions();
+
+	/**
+	 * Change log of contacts, groups and distribution lists, keyed by {@link #getKey(Utils.ModelWrapper)}.
+	 */
+	@NonNull SyncRevisions getReceiverRevisions();
+
+	/**
+	 * @return the change log key of a receiver
+	 */
+	@NonNull
+	static String getKey(@NonNull Utils.ModelWrapper model) throws ConversionException {
+		return getKey(model.getType(), model.getId());
+	}
+
+	@NonNull
+	static String getKey(@NonNull String type, @NonNull String id) {
+		return type + ":" + id;
+	}
+
+	/**
+	 * @return the receiver type of a change log key
+	 */
+	@NonNull
+	static String getType(@NonNull String key) {
+		return key.substring(0, key.indexOf(':'));
+	}
+
+	/**
+	 * @return the receiver id of a change log key
+	 */
+	@NonNull
+	static String getId(@NonNull String key) {
+		return key.substring(key.indexOf(':') + 1);
+	}
+}
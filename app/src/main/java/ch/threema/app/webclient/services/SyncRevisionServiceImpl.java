@@ -0,0 +1,209 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.webclient.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import ch.threema.app.managers.ListenerManager;
+import ch.threema.app.webclient.converter.Utils;
+import ch.threema.app.webclient.exceptions.ConversionException;
+import ch.threema.storage.models.ContactModel;
+import ch.threema.storage.models.ConversationModel;
+import ch.threema.storage.models.DistributionListModel;
+import ch.threema.storage.models.GroupModel;
+
+/**
+ * Records conversation and receiver changes for all web client sessions.
+ *
+ * The listeners are registered for the lifetime of the service, so that changes happening
+ * while no session is running are included in the next delta sync.
+ */
+@AnyThread
+public class SyncRevisionServiceImpl implements SyncRevisionService {
+	private static final Logger logger = LoggerFactory.getLogger(SyncRevisionServiceImpl.class);
+
+	@NonNull private final SyncRevisions conversationRevisions = new SyncRevisions();
+	@NonNull private final SyncRevisions receiverRevisions = new SyncRevisions();
+
+	public SyncRevisionServiceImpl() {
+		ListenerManager.conversationListeners.add(new ConversationListener());
+		ListenerManager.contactListeners.add(new ContactListener());
+		ListenerManager.groupListeners.add(new GroupListener());
+		ListenerManager.distributionListListeners.add(new DistributionListListener());
+	}
+
+	@Override
+	@NonNull
+	public SyncRevisions getConversationRevisions() {
+		return this.conversationRevisions;
+	}
+
+	@Override
+	@NonNull
+	public SyncRevisions getReceiverRevisions() {
+		return this.receiverRevisions;
+	}
+
+	private void onConversationChanged(@NonNull ConversationModel conversation, boolean removed) {
+		try {
+			final String key = SyncRevisionService.getKey(Utils.ModelWrapper.getModel(conversation));
+			if (removed) {
+				this.conversationRevisions.onRemoved(key);
+			} else {
+				this.conversationRevisions.onModified(key);
+			}
+		} catch (ConversionException e) {
+			logger.warn("Could not determine conversation key, invalidating revisions: {}", e.getMessage());
+			this.conversationRevisions.onModifiedAll();
+		}
+	}
+
+	private void onReceiverChanged(@NonNull Utils.ModelWrapper model, boolean removed) {
+		try {
+			final String key = SyncRevisionService.getKey(model);
+			if (removed) {
+				this.receiverRevisions.onRemoved(key);
+			} else {
+				this.receiverRevisions.onModified(key);
+			}
+		} catch (ConversionException e) {
+			logger.warn("Could not determine receiver key, invalidating revisions: {}", e.getMessage());
+			this.receiverRevisions.onModifiedAll();
+		}
+	}
+
+	@AnyThread
+	private class ConversationListener implements ch.threema.app.listeners.ConversationListener {
+		@Override
+		public void onNew(ConversationModel conversationModel) {
+			onConversationChanged(conversationModel, false);
+		}
+
+		@Override
+		public void onModified(ConversationModel modifiedConversationModel, Integer oldPosition) {
+			onConversationChanged(modifiedConversationModel, false);
+		}
+
+		@Override
+		public void onRemoved(ConversationModel conversationModel) {
+			onConversationChanged(conversationModel, true);
+		}
+
+		@Override
+		public void onModifiedAll() {
+			conversationRevisions.onModifiedAll();
+		}
+	}
+
+	@AnyThread
+	private class ContactListener implements ch.threema.app.listeners.ContactListener {
+		@Override
+		public void onNew(ContactModel createdContactModel) {
+			onReceiverChanged(new Utils.ModelWrapper(createdContactModel), false);
+		}
+
+		@Override
+		public void onModified(ContactModel modifiedContactModel) {
+			onReceiverChanged(new Utils.ModelWrapper(modifiedContactModel), false);
+		}
+
+		@Override
+		public void onAvatarChanged(ContactModel contactModel) {
+			onReceiverChanged(new Utils.ModelWrapper(contactModel), false);
+		}
+
+		@Override
+		public void onRemoved(ContactModel removedContactModel) {
+			onReceiverChanged(new Utils.ModelWrapper(removedContactModel), true);
+		}
+	}
+
+	@AnyThread
+	private class GroupListener implements ch.threema.app.listeners.GroupListener {
+		@Override
+		public void onCreate(GroupModel newGroupModel) {
+			onReceiverChanged(new Utils.ModelWrapper(newGroupModel), false);
+		}
+
+		@Override
+		public void onRename(GroupModel groupModel) {
+			onReceiverChanged(new Utils.ModelWrapper(groupModel), false);
+		}
+
+		@Override
+		public void onUpdatePhoto(GroupModel groupModel) {
+			onReceiverChanged(new Utils.ModelWrapper(groupModel), false);
+		}
+
+		@Override
+		public void onRemove(GroupModel groupModel) {
+			onReceiverChanged(new Utils.ModelWrapper(groupModel), true);
+		}
+
+		@Override
+		public void onNewMember(GroupModel group, String newIdentity) {
+			onReceiverChanged(new Utils.ModelWrapper(group), false);
+		}
+
+		@Override
+		public void onMemberLeave(GroupModel group, String identity) {
+			onReceiverChanged(new Utils.ModelWrapper(group), false);
+		}
+
+		@Override
+		public void onMemberKicked(GroupModel group, String identity) {
+			onReceiverChanged(new Utils.ModelWrapper(group), false);
+		}
+
+		@Override
+		public void onUpdate(GroupModel groupModel) {
+			onReceiverChanged(new Utils.ModelWrapper(groupModel), false);
+		}
+
+		@Override
+		public void onLeave(GroupModel groupModel) {
+			onReceiverChanged(new Utils.ModelWrapper(groupModel), false);
+		}
+	}
+
+	@AnyThread
+	private class DistributionListListener implements ch.threema.app.listeners.DistributionListListener {
+		@Override
+		public void onCreate(DistributionListModel distributionListModel) {
+			onReceiverChanged(new Utils.ModelWrapper(distributionListModel), false);
+		}
+
+		@Override
+		public void onModify(DistributionListModel distributionListModel) {
+			onReceiverChanged(new Utils.ModelWrapper(distributionListModel), false);
+		}
+
+		@Override
+		public void onRemove(DistributionListModel distributionListModel) {
+			onReceiverChanged(new Utils.ModelWrapper(distributionListModel), true);
+		}
+	}
+}
@@ -0,0 +1,183 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.webclient.services;
+
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Change log of a synchronized list (e.g. conversations or receivers), used to send a web
+ * client only the entries that changed since the revision it has last received.
+ *
+ * Revisions are tokens of the form "<epoch>-<counter>". The epoch is chosen randomly per
+ * instance, so revisions handed out by a previous process are never mistaken for current ones.
+ * Removed entries are only remembered up to a limit, older revisions cannot be resolved anymore
+ * and require a full sync.
+ */
+@AnyThread
+public class SyncRevisions {
+	private static final int MAX_REMOVED = 1000;
+
+	/**
+	 * Entries that changed since a revision.
+	 */
+	public static class Changes {
+		@NonNull public final Set<String> modified;
+		@NonNull public final Set<String> removed;
+
+		Changes(@NonNull Set<String> modified, @NonNull Set<String> removed) {
+			this.modified = modified;
+			this.removed = removed;
+		}
+	}
+
+	@NonNull private final String epoch;
+	private long revision = 0;
+	// changes since revisions before this one are unknown
+	private long oldestRevision = 0;
+	@NonNull private final Map<String, Long> modified = new HashMap<>();
+	// ordered by revision, oldest first
+	@NonNull private final LinkedHashMap<String, Long> removed = new LinkedHashMap<>();
+	// last revision sent to each web client session
+	@NonNull private final Map<Integer, String> deliveredRevisions = new HashMap<>();
+
+	public SyncRevisions() {
+		this(Long.toHexString(new SecureRandom().nextLong()));
+	}
+
+	public SyncRevisions(@NonNull String epoch) {
+		this.epoch = epoch;
+	}
+
+	/**
+	 * @return the current revision
+	 */
+	@NonNull
+	public synchronized String getRevision() {
+		return this.epoch + "-" + this.revision;
+	}
+
+	/**
+	 * An entry has been created or modified.
+	 */
+	public synchronized void onModified(@NonNull String key) {
+		this.revision++;
+		this.removed.remove(key);
+		this.modified.put(key, this.revision);
+	}
+
+	/**
+	 * An entry has been removed.
+	 */
+	public synchronized void onRemoved(@NonNull String key) {
+		this.revision++;
+		this.modified.remove(key);
+		this.removed.remove(key);
+		this.removed.put(key, this.revision);
+
+		final Iterator<Long> iterator = this.removed.values().iterator();
+		while (this.removed.size() > MAX_REMOVED && iterator.hasNext()) {
+			this.oldestRevision = Math.max(this.oldestRevision, iterator.next());
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Any entry may have changed, all previous revisions require a full sync.
+	 */
+	public synchronized void onModifiedAll() {
+		this.revision++;
+		this.modified.clear();
+		this.removed.clear();
+		this.oldestRevision = this.revision;
+	}
+
+	/**
+	 * @return the entries changed since the given revision or null if the revision is
+	 *         unknown or too old, in which case a full sync is required
+	 */
+	@Nullable
+	public synchronized Changes getChangesSince(@Nullable String revision) {
+		final Long since = this.parse(revision);
+		if (since == null || since < this.oldestRevision || since > this.revision) {
+			return null;
+		}
+
+		final Set<String> modifiedKeys = new HashSet<>();
+		for (Map.Entry<String, Long> entry : this.modified.entrySet()) {
+			if (entry.getValue() > since) {
+				modifiedKeys.add(entry.getKey());
+			}
+		}
+		final Set<String> removedKeys = new HashSet<>();
+		for (Map.Entry<String, Long> entry : this.removed.entrySet()) {
+			if (entry.getValue() > since) {
+				removedKeys.add(entry.getKey());
+			}
+		}
+		return new Changes(modifiedKeys, removedKeys);
+	}
+
+	/**
+	 * Remember the revision a session has received with its last complete sync.
+	 */
+	public synchronized void setDeliveredRevision(int sessionId, @NonNull String revision) {
+		this.deliveredRevisions.put(sessionId, revision);
+	}
+
+	/**
+	 * @return the entries changed since the given revision, if that revision has been
+	 *         delivered to the session and can still be resolved, otherwise null
+	 */
+	@Nullable
+	public synchronized Changes getChangesSince(int sessionId, @Nullable String revision) {
+		if (revision == null || !revision.equals(this.deliveredRevisions.get(sessionId))) {
+			return null;
+		}
+		return this.getChangesSince(revision);
+	}
+
+	@Nullable
+	private Long parse(@Nullable String revision) {
+		if (revision == null) {
+			return null;
+		}
+		final int separator = revision.lastIndexOf('-');
+		if (separator < 0 || !this.epoch.equals(revision.substring(0, separator))) {
+			return null;
+		}
+		try {
+			return Long.parseLong(revision.substring(separator + 1));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.webclient.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Snapshot of a list that is sent to a web client page by page.
+ *
+ * The list is copied when the first page is requested, so that the following pages neither
+ * skip nor repeat entries when the list changes in between. Changes made after the snapshot
+ * has been taken are newer than its revision and will be part of the next delta sync.
+ */
+@AnyThread
+public class SyncSnapshot<T> {
+	private static final AtomicInteger nextId = new AtomicInteger(1);
+
+	public static class Page<T> {
+		@NonNull public final List<T> items;
+		public final int offset;
+		// null on the last page
+		@Nullable public final String nextCursor;
+
+		Page(@NonNull List<T> items, int offset, @Nullable String nextCursor) {
+			this.items = items;
+			this.offset = offset;
+			this.nextCursor = nextCursor;
+		}
+	}
+
+	private final int id = nextId.getAndIncrement();
+	@NonNull private final String revision;
+	@NonNull private final List<T> items;
+
+	/**
+	 * @param revision revision of the list, read before the list has been loaded
+	 */
+	public SyncSnapshot(@NonNull String revision, @NonNull List<T> items) {
+		this.revision = revision;
+		this.items = new ArrayList<>(items);
+	}
+
+	@NonNull
+	public String getRevision() {
+		return this.revision;
+	}
+
+	public int size() {
+		return this.items.size();
+	}
+
+	@NonNull
+	public Page<T> getFirstPage(int pageSize) {
+		return this.getPage(0, pageSize);
+	}
+
+	/**
+	 * @return the page at the cursor or null if the cursor does not belong to this snapshot
+	 */
+	@Nullable
+	public Page<T> getPage(@NonNull String cursor, int pageSize) {
+		final int separator = cursor.indexOf(':');
+		if (separator < 0) {
+			return null;
+		}
+		try {
+			final int cursorId = Integer.parseInt(cursor.substring(0, separator));
+			final int offset = Integer.parseInt(cursor.substring(separator + 1));
+			if (cursorId != this.id || offset < 0 || offset > this.items.size()) {
+				return null;
+			}
+			return this.getPage(offset, pageSize);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	@NonNull
+	private Page<T> getPage(int offset, int pageSize) {
+		final int end = offset + Math.min(Math.max(1, pageSize), this.items.size() - offset);
+		final String nextCursor = end < this.items.size() ? this.id + ":" + end : null;
+		return new Page<>(new ArrayList<>(this.items.subList(offset, end)), offset, nextCursor);
+	}
+}
@@ -29,6 +29,7 @@ import org.msgpack.core.MessagePackException;
 import org.msgpack.value.Value;
 import org.slf4j.Logger;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -38,10 +39,13 @@ import androidx.annotation.WorkerThread;
 import ch.threema.app.services.LifetimeService;
 import ch.threema.app.webclient.Protocol;
 import ch.threema.app.webclient.SendMode;
+import ch.threema.app.webclient.SendPriority;
 import ch.threema.app.webclient.converter.MsgpackBuilder;
 import ch.threema.app.webclient.converter.MsgpackObjectBuilder;
 import ch.threema.app.webclient.exceptions.DispatchException;
+import ch.threema.app.webclient.utils.SessionTelemetry;
 import ch.threema.client.MessageQueue;
+import java8.util.concurrent.CompletableFuture;
 
 /**
  * Dispatch incoming messages to the receivers or send outgoing messages to the webclient.
@@ -88,10 +92,18 @@ public class MessageDispatcher {
 	private void dispatch(@NonNull final String subType, @NonNull final Map<String, Value> message)
 		throws DispatchException, MessagePackException {
 		if (!this.receivers.containsKey(subType)) {
+			SessionTelemetry.getInstance().onIgnored();
 			throw new DispatchException("No receiver for type '" + this.type + "' with sub type '" + subType + "' found");
 		}
 		final MessageReceiver receiver = Objects.requireNonNull(this.receivers.get(subType));
-		receiver.receive(message);
+		final long startNs = System.nanoTime();
+		boolean success = false;
+		try {
+			receiver.receive(message);
+			success = true;
+		} finally {
+			SessionTelemetry.getInstance().onHandled(SessionTelemetry.getKey(this.type, subType), System.nanoTime() - startNs, success);
+		}
 
 		// If the receiver indicates that messages might have been enqueued,
 		// check whether the queue is empty. If it isn't, acquire the connection
@@ -138,39 +150,94 @@ public class MessageDispatcher {
 		final MsgpackObjectBuilder message = this.createMessage(type, subType, args);
 		message.maybePut(Protocol.FIELD_DATA, data);
 		logger.debug("Sending {}/{}", type, subType);
-		this.send(message);
+		this.send(message, type, subType);
 	}
 
 	public void send(@NonNull final String type, @NonNull final String subType, @Nullable final List<MsgpackBuilder> data, final @Nullable MsgpackBuilder args) {
 		final MsgpackObjectBuilder message = this.createMessage(type, subType, args);
 		message.maybePut(Protocol.FIELD_DATA, data);
 		logger.debug("Sending {}/{}", type, subType);
-		this.send(message);
+		this.send(message, type, subType);
 	}
 
 	public void send(@NonNull final String type, @NonNull final String subType, @Nullable final String data, final @Nullable MsgpackBuilder args) {
 		final MsgpackObjectBuilder message = this.createMessage(type, subType, args);
 		message.maybePut(Protocol.FIELD_DATA, data);
 		logger.debug("Sending {}/{}", type, subType);
-		this.send(message);
+		this.send(message, type, subType);
 	}
 
 	public void send(@NonNull final String type, @NonNull final String subType, @Nullable final byte[] data, final @Nullable MsgpackBuilder args) {
 		final MsgpackObjectBuilder message = this.createMessage(type, subType, args);
 		message.maybePut(Protocol.FIELD_DATA, data);
 		logger.debug("Sending {}/{}", type, subType);
-		this.send(message);
+		this.send(message, type, subType);
+	}
+
+	/**
+	 * Send a message and return a future that completes once the message has been handed to
+	 * the flow-controlled data channel. Senders of large amounts of data should wait for it
+	 * before encoding the next message, so that only one message is held in memory at a time.
+	 */
+	@NonNull public CompletableFuture<Void> sendFlowControlled(@NonNull final String subType, @Nullable final MsgpackBuilder data, final @Nullable MsgpackBuilder args) {
+		final MsgpackObjectBuilder message = this.createMessage(this.type, subType, args);
+		message.maybePut(Protocol.FIELD_DATA, data);
+		logger.debug("Sending {}/{} (flow controlled)", this.type, subType);
+		return this.send(message, this.type, subType);
 	}
 
 	/**
 	 * Send a message to the webclient.
 	 */
-	private void send(@NonNull final MsgpackObjectBuilder message) {
+	@NonNull private CompletableFuture<Void> send(@NonNull final MsgpackObjectBuilder message, @NonNull final String type, @NonNull final String subType) {
+		final SessionTelemetry telemetry = SessionTelemetry.getInstance();
+		final String key = SessionTelemetry.getKey(type, subType);
 		try {
-			this.service.send(message.consume(), SendMode.ASYNC);
+			final long startNs = System.nanoTime();
+			final ByteBuffer buffer = message.consume();
+			final long encodedNs = System.nanoTime();
+			telemetry.onEncoded(key, encodedNs - startNs, buffer.remaining());
+
+			final CompletableFuture<Void> future = this.service.send(buffer, SendMode.ASYNC, getPriority(subType));
+			future.whenComplete((result, error) -> {
+				if (error == null) {
+					telemetry.onDelivered(key, System.nanoTime() - encodedNs);
+				} else {
+					telemetry.onDeliveryFailed(key);
+				}
+			});
+			return future;
 		} catch (OutOfMemoryError error) {
+			telemetry.onDeliveryFailed(key);
 			logger.error("Out of memory while encoding outgoing data channel message");
 			this.service.stop(DisconnectContext.byUs(DisconnectContext.REASON_OUT_OF_MEMORY));
+			final CompletableFuture<Void> future = new CompletableFuture<>();
+			future.completeExceptionally(error);
+			return future;
+		}
+	}
+
+	/**
+	 * Determine the outgoing lane of a message.
+	 *
+	 * Responses and updates carrying state share one lane, so that an update never overtakes
+	 * an older response (or vice versa) and the webclient always ends up with the latest state.
+	 */
+	@NonNull static SendPriority getPriority(@NonNull final String subType) {
+		switch (subType) {
+			case Protocol.SUB_TYPE_TYPING:
+			case Protocol.SUB_TYPE_BATTERY_STATUS:
+			case Protocol.SUB_TYPE_VOIP_STATUS:
+			case Protocol.SUB_TYPE_ALERT:
+			case Protocol.SUB_TYPE_CONNECTION_INFO:
+			case Protocol.SUB_TYPE_CONNECTION_DISCONNECT:
+				return SendPriority.CONTROL;
+			case Protocol.SUB_TYPE_BLOB:
+			case Protocol.SUB_TYPE_THUMBNAIL:
+			case Protocol.SUB_TYPE_AVATAR:
+				return SendPriority.BULK;
+			default:
+				return SendPriority.UPDATE;
 		}
 	}
 
@@ -40,6 +40,7 @@ import ch.threema.app.webclient.converter.MsgpackObjectBuilder;
 import ch.threema.app.webclient.converter.Receiver;
 import ch.threema.app.webclient.converter.Utils;
 import ch.threema.app.webclient.exceptions.ConversionException;
+import java8.util.concurrent.CompletableFuture;
 
 @WorkerThread
 abstract public class MessageHandler {
@@ -71,6 +72,10 @@ abstract public class MessageHandler {
 		dispatcher.send(this.subType, data, args);
 	}
 
+	protected CompletableFuture<Void> sendFlowControlled(MessageDispatcher dispatcher, MsgpackBuilder data, MsgpackBuilder args) {
+		return dispatcher.sendFlowControlled(this.subType, data, args);
+	}
+
 	protected void sendConfirmActionSuccess(MessageDispatcher responseDispatcher, String temporaryId) {
 		if (!Protocol.TYPE_RESPONSE.equals(responseDispatcher.type)) {
 			throw new AssertionError("Cannot send a confirmAction message with a '"
@@ -32,8 +32,10 @@ import androidx.annotation.WorkerThread;
 import java.nio.ByteBuffer;
 
 import ch.threema.app.webclient.SendMode;
+import ch.threema.app.webclient.SendPriority;
 import ch.threema.app.webclient.state.WebClientSessionState;
 import ch.threema.storage.models.WebClientSessionModel;
+import java8.util.concurrent.CompletableFuture;
 
 /**
  * Interface of the Webclient service.
@@ -86,6 +88,9 @@ public interface SessionInstanceService {
 	 * Send data to the peer.
 	 *
 	 * @param message Msgpack encoded bytes
+	 * @param priority Lane of the message, ignored when sending synchronously
+	 * @return a future that completes once the message has been handed to the data channel
+	 *         and that fails if the message has been discarded
 	 */
-	void send(@NonNull ByteBuffer message, @NonNull SendMode mode);
+	@NonNull CompletableFuture<Void> send(@NonNull ByteBuffer message, @NonNull SendMode mode, @NonNull SendPriority priority);
 }
@@ -46,6 +46,7 @@ import ch.threema.app.utils.TestUtil;
 import ch.threema.app.utils.executor.HandlerExecutor;
 import ch.threema.app.webclient.Protocol;
 import ch.threema.app.webclient.SendMode;
+import ch.threema.app.webclient.SendPriority;
 import ch.threema.app.webclient.converter.ConnectionDisconnect;
 import ch.threema.app.webclient.exceptions.DispatchException;
 import ch.threema.app.webclient.listeners.WebClientMessageListener;
@@ -94,8 +95,10 @@ import ch.threema.app.webclient.services.instance.message.updater.TypingUpdateHa
 import ch.threema.app.webclient.services.instance.message.updater.VoipStatusUpdateHandler;
 import ch.threema.app.webclient.services.instance.state.SessionStateManager;
 import ch.threema.app.webclient.state.WebClientSessionState;
+import ch.threema.app.webclient.utils.SessionTelemetry;
 import ch.threema.logging.ThreemaLogger;
 import ch.threema.storage.models.WebClientSessionModel;
+import java8.util.concurrent.CompletableFuture;
 
 /**
  * Service class that handles everything related to the ARP session process.
@@ -162,6 +165,7 @@ public class SessionInstanceServiceImpl implements SessionInstanceService {
 			@Override
 			@WorkerThread
 			public void onStopped(@NonNull DisconnectContext reason) {
+				SessionTelemetry.getInstance().onSessionStopped(SessionInstanceServiceImpl.this.sessionId);
 				SessionInstanceServiceImpl.this.unregister();
 			}
 		});
@@ -301,6 +305,8 @@ public class SessionInstanceServiceImpl implements SessionInstanceService {
 			services.contact,
 			services.group,
 			services.distributionList,
+			services.syncRevision,
+			model.getId(),
 			new ReceiversRequestHandler.Listener() {
 				private boolean registered = false;
 
@@ -325,6 +331,8 @@ public class SessionInstanceServiceImpl implements SessionInstanceService {
 		requestDispatcher.addReceiver(new ConversationRequestHandler(
 			responseDispatcher,
 			services.conversation,
+			services.syncRevision,
+			model.getId(),
 			new ConversationRequestHandler.Listener() {
 				private boolean registered = false;
 
@@ -668,6 +676,9 @@ public class SessionInstanceServiceImpl implements SessionInstanceService {
 			logger.debug("Message listener already registered");
 		}
 
+		// Start a new telemetry period unless other sessions are running
+		SessionTelemetry.getInstance().onSessionStarted(this.sessionId);
+
 		// Store affiliation id and connect
 		this.affiliationId = affiliationId;
 		this.stateManager.setConnecting(builder, affiliationId);
@@ -680,6 +691,9 @@ public class SessionInstanceServiceImpl implements SessionInstanceService {
 	public void stop(@NonNull final DisconnectContext reason) {
 		logger.info("Stopping Threema Web session: {}", reason);
 
+		// Dump the performance telemetry (of all sessions) to the log
+		SessionTelemetry.getInstance().dump(logger);
+
 		// Run unregister procedure
 		this.unregister();
 
@@ -713,8 +727,8 @@ public class SessionInstanceServiceImpl implements SessionInstanceService {
 	 * Send a msgpack encoded message to the peer through the secure data channel.
 	 */
 	@Override
-	public void send(@NonNull final ByteBuffer message, @NonNull final SendMode mode) {
-		this.stateManager.send(message, mode);
+	@NonNull public CompletableFuture<Void> send(@NonNull final ByteBuffer message, @NonNull final SendMode mode, @NonNull final SendPriority priority) {
+		return this.stateManager.send(message, mode, priority);
 	}
 
 	/**
@@ -759,6 +773,7 @@ public class SessionInstanceServiceImpl implements SessionInstanceService {
 			// Check that one dispatcher received the message
 			if (!received) {
 				logger.warn("Ignored message with type {}", type);
+				SessionTelemetry.getInstance().onIgnored();
 			}
 		} catch (MessagePackException e) {
 			logger.error("Protocol error due to invalid message", e);
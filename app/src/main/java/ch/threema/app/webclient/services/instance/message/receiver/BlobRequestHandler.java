@@ -29,6 +29,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.Map;
@@ -53,11 +54,25 @@ import ch.threema.app.webclient.exceptions.ConversionException;
 import ch.threema.app.webclient.services.instance.MessageDispatcher;
 import ch.threema.app.webclient.services.instance.MessageReceiver;
 import ch.threema.storage.models.AbstractMessageModel;
+import java8.util.concurrent.CompletableFuture;
 
+/**
+ * Webclient is requesting the blob of a message.
+ *
+ * If the webclient passes a chunk size, the blob is streamed in parts of at most that size.
+ * Each part is a separate response carrying its offset and the total size. The next part is
+ * only read once the previous one has been handed to the flow-controlled data channel, so
+ * memory usage does not depend on the size of the blob. The blob is decrypted while it is
+ * read from the message file, no decrypted copy is written to disk. Otherwise, the whole
+ * blob is sent in a single response.
+ */
 @WorkerThread
 public class BlobRequestHandler extends MessageReceiver {
 	private static final Logger logger = LoggerFactory.getLogger(BlobRequestHandler.class);
 
+	private static final int MIN_CHUNK_SIZE = 16 * 1024;
+	private static final int MAX_CHUNK_SIZE = 1024 * 1024;
+
 	@Retention(RetentionPolicy.SOURCE)
 	@StringDef({
 		Protocol.ERROR_BLOB_DOWNLOAD_FAILED,
@@ -110,6 +125,13 @@ public class BlobRequestHandler extends MessageReceiver {
 		final String receiverType = args.get(Protocol.ARGUMENT_RECEIVER_TYPE).asStringValue().asString();
 		final String receiverId = args.get(Protocol.ARGUMENT_RECEIVER_ID).asStringValue().asString();
 		final String temporaryId = args.get(Protocol.ARGUMENT_TEMPORARY_ID).asStringValue().toString();
+		final Integer chunkSize;
+		if (args.containsKey(Protocol.ARGUMENT_BLOB_CHUNK_SIZE)) {
+			chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE,
+				args.get(Protocol.ARGUMENT_BLOB_CHUNK_SIZE).asIntegerValue().toInt()));
+		} else {
+			chunkSize = null;
+		}
 
 		// Find related message
 		final String messageIdStr = args.get(Protocol.ARGUMENT_MESSAGE_ID).asStringValue().asString();
@@ -131,6 +153,34 @@ public class BlobRequestHandler extends MessageReceiver {
 				return;
 		}
 
+		// Determine mime type and file name
+		final String mime;
+		final String name;
+		final String filename = FileUtil.getMediaFilenamePrefix(messageModel);
+		//noinspection EnumSwitchStatementWhichMissesCases
+		switch (messageModel.getType()) {
+			case VOICEMESSAGE:
+				mime = MimeUtil.MIME_TYPE_AUDIO_AAC;
+				name = filename + VoiceRecorderActivity.VOICEMESSAGE_FILE_EXTENSION;
+				break;
+			case FILE:
+				mime = messageModel.getFileData().getMimeType();
+				final String ownFileName = messageModel.getFileData().getFileName();
+				name = Message.fixFileName(ownFileName == null ? filename : ownFileName, mime);
+				break;
+			case VIDEO:
+				mime = MimeUtil.MIME_TYPE_VIDEO_MP4;
+				name = filename + ".mp4";
+				break;
+			case IMAGE:
+				mime = MimeUtil.MIME_TYPE_IMAGE_JPG;
+				name = filename + ".jpg";
+				break;
+			default:
+				//ignore
+				return;
+		}
+
 		final WebClientMessagePlayer player = new WebClientMessagePlayer(
 			ThreemaApplication.getAppContext(),
 			this.messageService,
@@ -152,65 +202,45 @@ public class BlobRequestHandler extends MessageReceiver {
 			}
 		});
 
-		// Handle decryption events
-		player.addListener("wc", new MessagePlayer.DecryptionListener() {
-			@Override
-			public void onStart(AbstractMessageModel messageModel) {
-				logger.debug("Starting to decrypt file");
-			}
-
-			@Override
-			public void onEnd(AbstractMessageModel messageModel, boolean success, String message, File decryptedFile) {
-				if (decryptedFile == null || !success) {
-					postFailed(receiverType, receiverId, temporaryId, messageId, Protocol.ERROR_BLOB_DOWNLOAD_FAILED);
-					return;
+		if (chunkSize != null) {
+			// Stream from the encrypted file, decrypting while reading
+			player.setDownloadedListener(() -> {
+				logger.debug("Streaming blob to Threema Web in chunks of {} bytes", chunkSize);
+				postStream(receiverType, receiverId, temporaryId, messageId, messageModel, mime, name, chunkSize);
+			});
+		} else {
+			// Handle decryption events
+			player.addListener("wc", new MessagePlayer.DecryptionListener() {
+				@Override
+				public void onStart(AbstractMessageModel messageModel) {
+					logger.debug("Starting to decrypt file");
 				}
 
-				try {
-					String mime;
-					String name;
-
-					final String filename = FileUtil.getMediaFilenamePrefix(messageModel);
-
-					//noinspection EnumSwitchStatementWhichMissesCases
-					switch (messageModel.getType()) {
-						case VOICEMESSAGE:
-							mime = MimeUtil.MIME_TYPE_AUDIO_AAC;
-							name = filename + VoiceRecorderActivity.VOICEMESSAGE_FILE_EXTENSION;
-							break;
-						case FILE:
-							mime = messageModel.getFileData().getMimeType();
-							final String ownFileName = messageModel.getFileData().getFileName();
-							name = Message.fixFileName(ownFileName == null ? filename : ownFileName, mime);
-							break;
-						case VIDEO:
-							mime = MimeUtil.MIME_TYPE_VIDEO_MP4;
-							name = filename + ".mp4";
-							break;
-						case IMAGE:
-							mime = MimeUtil.MIME_TYPE_IMAGE_JPG;
-							name = filename + ".jpg";
-							break;
-						default:
-							//ignore
-							return;
+				@Override
+				public void onEnd(AbstractMessageModel messageModel, boolean success, String message, File decryptedFile) {
+					if (decryptedFile == null || !success) {
+						postFailed(receiverType, receiverId, temporaryId, messageId, Protocol.ERROR_BLOB_DOWNLOAD_FAILED);
+						return;
 					}
-					logger.debug("File decrypted: {}", decryptedFile.getPath());
-					logger.debug("Reading file to byte array");
-					final byte[] data = FileUtils.readFileToByteArray(decryptedFile);
-					logger.debug("Sending blob to Threema Web");
-					postSuccess(
-						receiverType, receiverId, temporaryId, messageId,
-						data, mime, name
-					);
-					if (decryptedFile.delete()) {
-						logger.debug("Could not delete file");
+
+					try {
+						logger.debug("File decrypted: {}", decryptedFile.getPath());
+						logger.debug("Reading file to byte array");
+						final byte[] data = FileUtils.readFileToByteArray(decryptedFile);
+						logger.debug("Sending blob to Threema Web");
+						postSuccess(
+							receiverType, receiverId, temporaryId, messageId,
+							data, mime, name
+						);
+						if (decryptedFile.delete()) {
+							logger.debug("Could not delete file");
+						}
+					} catch (IOException x) {
+						logger.error("Exception", x);
 					}
-				} catch (IOException x) {
-					logger.error("Exception", x);
 				}
-			}
-		});
+			});
+		}
 
 		final boolean downloaded = player.open();
 
@@ -259,6 +289,77 @@ public class BlobRequestHandler extends MessageReceiver {
 		this.send(this.dispatcher, (MsgpackObjectBuilder) null, args);
 	}
 
+	/**
+	 * Start streaming the decrypted message file on the worker thread.
+	 */
+	@AnyThread
+	private void postStream(@NonNull String receiverType,
+	                        @NonNull String receiverId,
+	                        @NonNull String temporaryId,
+	                        int messageId,
+	                        @NonNull AbstractMessageModel messageModel,
+	                        @NonNull String mime,
+	                        @NonNull String name,
+	                        int chunkSize) {
+		this.handler.post(new Runnable() {
+			@Override
+			@WorkerThread
+			public void run() {
+				BlobRequestHandler.this.stream(receiverType, receiverId, temporaryId, messageId, messageModel, mime, name, chunkSize);
+			}
+		});
+	}
+
+	private void stream(@NonNull String receiverType,
+	                    @NonNull String receiverId,
+	                    @NonNull String temporaryId,
+	                    int messageId,
+	                    @NonNull AbstractMessageModel messageModel,
+	                    @NonNull String mime,
+	                    @NonNull String name,
+	                    int chunkSize) {
+		final InputStream inputStream;
+		final long size;
+		try {
+			size = this.fileService.getDecryptedMessageSize(messageModel);
+			// a negative size means that the file is missing, there is nothing to stream
+			inputStream = size >= 0 ? this.fileService.getDecryptedMessageStream(messageModel) : null;
+		} catch (Exception e) {
+			logger.error("Exception", e);
+			this.failed(receiverType, receiverId, temporaryId, messageId, Protocol.ERROR_BLOB_DECRYPT_FAILED);
+			return;
+		}
+		if (inputStream == null) {
+			this.failed(receiverType, receiverId, temporaryId, messageId, Protocol.ERROR_BLOB_DECRYPT_FAILED);
+			return;
+		}
+
+		new BlobStream(inputStream, size, chunkSize, new BlobStream.PartSender() {
+			@NonNull
+			@Override
+			public CompletableFuture<Void> send(long offset, long size, @NonNull byte[] part, boolean last) {
+				final MsgpackObjectBuilder args = new MsgpackObjectBuilder()
+					.put(Protocol.ARGUMENT_RECEIVER_TYPE, receiverType)
+					.put(Protocol.ARGUMENT_RECEIVER_ID, receiverId)
+					.put(Protocol.ARGUMENT_TEMPORARY_ID, temporaryId)
+					.put(Protocol.ARGUMENT_MESSAGE_ID, String.valueOf(messageId))
+					.put(Protocol.ARGUMENT_SUCCESS, true)
+					.put(Protocol.ARGUMENT_OFFSET, offset)
+					.put(Protocol.ARGUMENT_BLOB_SIZE, size);
+				final MsgpackObjectBuilder data = new MsgpackObjectBuilder()
+					.put(Protocol.ARGUMENT_BLOB_BLOB, part)
+					.put(Protocol.ARGUMENT_BLOB_TYPE, mime)
+					.put(Protocol.ARGUMENT_BLOB_NAME, name);
+				return BlobRequestHandler.this.sendFlowControlled(dispatcher, data, args);
+			}
+
+			@Override
+			public void failed(@NonNull IOException e) {
+				BlobRequestHandler.this.failed(receiverType, receiverId, temporaryId, messageId, Protocol.ERROR_BLOB_DECRYPT_FAILED);
+			}
+		}, this.handler::post).start();
+	}
+
 	/**
 	 * Run `success()` on the worker thread.
 	 */
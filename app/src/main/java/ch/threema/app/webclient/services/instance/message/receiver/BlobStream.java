@@ -0,0 +1,164 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2016-2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.app.webclient.services.instance.message.receiver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import java8.util.concurrent.CompletableFuture;
+
+/**
+ * Sends a blob part by part. The next part is only read once the previous one has been
+ * handed over, so memory usage does not depend on the size of the blob.
+ *
+ * A single read buffer is reused for all full parts, this is safe because msgpack builders
+ * copy binary values when they are put.
+ */
+@WorkerThread
+class BlobStream {
+	private static final Logger logger = LoggerFactory.getLogger(BlobStream.class);
+
+	public interface PartSender {
+		/**
+		 * Send a part of the blob.
+		 *
+		 * @param offset offset of the part within the blob
+		 * @param size total size of the blob
+		 * @param part the part, only valid until the returned future completes
+		 * @param last whether this is the last part of the blob
+		 * @return a future that completes once the part has been handed over
+		 */
+		@NonNull CompletableFuture<Void> send(long offset, long size, @NonNull byte[] part, boolean last);
+
+		/**
+		 * Reading the blob failed, the stream has been aborted.
+		 */
+		void failed(@NonNull IOException e);
+	}
+
+	@NonNull private final PartSender sender;
+	@NonNull private final Executor executor;
+	private final long size;
+
+	@Nullable private InputStream inputStream;
+	@Nullable private byte[] buffer;
+	private long offset = 0;
+
+	/**
+	 * @param inputStream the decrypted blob, closed once the stream ends
+	 * @param size total size of the blob
+	 * @param chunkSize maximum size of a part
+	 * @param sender sends the parts
+	 * @param executor the worker thread, used to continue after a part has been handed over
+	 */
+	BlobStream(@NonNull InputStream inputStream,
+	           long size,
+	           int chunkSize,
+	           @NonNull PartSender sender,
+	           @NonNull Executor executor) {
+		this.inputStream = inputStream;
+		this.size = size;
+		this.buffer = new byte[(int) Math.max(0, Math.min(chunkSize, size))];
+		this.sender = sender;
+		this.executor = executor;
+	}
+
+	void start() {
+		this.sendNext();
+	}
+
+	private void sendNext() {
+		final InputStream inputStream = this.inputStream;
+		final byte[] buffer = this.buffer;
+		if (inputStream == null || buffer == null) {
+			return;
+		}
+
+		final int length;
+		try {
+			length = read(inputStream, buffer);
+		} catch (IOException e) {
+			logger.error("Exception", e);
+			this.finish();
+			this.sender.failed(e);
+			return;
+		}
+		final long partOffset = this.offset;
+		this.offset += length;
+		final boolean last = length < buffer.length || this.offset >= this.size;
+		logger.debug("Sending blob part at offset {} of length {}", partOffset, length);
+
+		// Continue once the part has been handed over
+		this.sender.send(partOffset, this.size, length == buffer.length ? buffer : Arrays.copyOf(buffer, length), last)
+			.whenComplete((result, error) -> this.executor.execute(new Runnable() {
+				@Override
+				@WorkerThread
+				public void run() {
+					if (error != null) {
+						logger.warn("Aborting blob stream: {}", error.getMessage());
+						BlobStream.this.finish();
+					} else if (last) {
+						logger.debug("Blob stream complete");
+						BlobStream.this.finish();
+					} else {
+						BlobStream.this.sendNext();
+					}
+				}
+			}));
+	}
+
+	/**
+	 * Fill the buffer, unless the end of the stream is reached.
+	 */
+	private static int read(@NonNull InputStream inputStream, @NonNull byte[] buffer) throws IOException {
+		int length = 0;
+		while (length < buffer.length) {
+			final int read = inputStream.read(buffer, length, buffer.length - length);
+			if (read < 0) {
+				break;
+			}
+			length += read;
+		}
+		return length;
+	}
+
+	private void finish() {
+		if (this.inputStream != null) {
+			try {
+				this.inputStream.close();
+			} catch (IOException e) {
+				logger.warn("Could not close blob stream", e);
+			}
+			this.inputStream = null;
+		}
+		this.buffer = null;
+	}
+}
@@ -30,21 +30,35 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import ch.threema.app.services.ConversationService;
 import ch.threema.app.webclient.Protocol;
 import ch.threema.app.webclient.converter.Conversation;
 import ch.threema.app.webclient.converter.MsgpackBuilder;
 import ch.threema.app.webclient.converter.MsgpackObjectBuilder;
+import ch.threema.app.webclient.converter.Receiver;
+import ch.threema.app.webclient.converter.Utils;
 import ch.threema.app.webclient.exceptions.ConversionException;
+import ch.threema.app.webclient.services.SyncRevisionService;
+import ch.threema.app.webclient.services.SyncRevisions;
+import ch.threema.app.webclient.services.SyncSnapshot;
 import ch.threema.app.webclient.services.instance.MessageDispatcher;
 import ch.threema.app.webclient.services.instance.MessageReceiver;
 import ch.threema.storage.models.ConversationModel;
 
 /**
  * Webclient is requesting conversations.
+ *
+ * Without a page size, all conversations are sent at once. With a page size, the first request
+ * returns the first page and a cursor for the next one. If the webclient passes the revision of
+ * its last complete sync, only the conversations changed since then are sent.
  */
 @WorkerThread
 public class ConversationRequestHandler extends MessageReceiver {
@@ -53,8 +67,11 @@ public class ConversationRequestHandler extends MessageReceiver {
 	private static final int INITIAL_AVATAR_COUNT = 15;
 	private final MessageDispatcher dispatcher;
 	private final ConversationService conversationService;
+	private final SyncRevisions revisions;
+	private final int sessionId;
 	private final Listener listener;
 	private int avatarAppended;
+	@Nullable private SyncSnapshot<ConversationModel> snapshot;
 
 	@WorkerThread
 	public interface Listener {
@@ -65,10 +82,14 @@ public class ConversationRequestHandler extends MessageReceiver {
 	@AnyThread
 	public ConversationRequestHandler(MessageDispatcher dispatcher,
 	                                  ConversationService conversationService,
+	                                  SyncRevisionService syncRevisionService,
+	                                  int sessionId,
 	                                  Listener listener) {
 		super(Protocol.SUB_TYPE_CONVERSATIONS);
 		this.dispatcher = dispatcher;
 		this.conversationService = conversationService;
+		this.revisions = syncRevisionService.getConversationRevisions();
+		this.sessionId = sessionId;
 		this.listener = listener;
 	}
 
@@ -85,13 +106,44 @@ public class ConversationRequestHandler extends MessageReceiver {
 			avatarMaxSize = args.get(Protocol.ARGUMENT_MAX_SIZE).asIntegerValue().toInt();
 		}
 
-		this.respond(avatarMaxSize);
+		if (args.containsKey(Protocol.ARGUMENT_PAGE_SIZE)) {
+			final int pageSize = args.get(Protocol.ARGUMENT_PAGE_SIZE).asIntegerValue().toInt();
+			final String cursor = args.containsKey(Protocol.ARGUMENT_CURSOR)
+				? args.get(Protocol.ARGUMENT_CURSOR).asStringValue().asString() : null;
+			final String revision = args.containsKey(Protocol.ARGUMENT_REVISION)
+				? args.get(Protocol.ARGUMENT_REVISION).asStringValue().asString() : null;
+			this.respondPaged(avatarMaxSize, pageSize, cursor, revision);
+		} else {
+			this.respond(avatarMaxSize);
+		}
 	}
 
 	private boolean appendNextAvatar() {
 		return this.avatarAppended++ < INITIAL_AVATAR_COUNT;
 	}
 
+	private List<MsgpackBuilder> convert(List<ConversationModel> conversations, final Integer avatarMaxSize)
+			throws ConversionException {
+		return Conversation.convert(
+				conversations,
+				(builder, conversation, modelWrapper) -> {
+					if (!appendNextAvatar()) {
+						return;
+					}
+					try {
+						final byte[] avatar = modelWrapper.getAvatar(false, avatarMaxSize);
+						if (avatar != null) {
+							builder.put("avatar", avatar);
+						}
+					} catch (ConversionException e) {
+						logger.warn("Failed to append avatar: {}", e.getMessage());
+						//ignore exception
+					}
+
+				}
+		);
+	}
+
 	private void respond(final Integer avatarMaxSize) {
 		try {
 			this.avatarAppended = 0;
@@ -99,24 +151,7 @@ public class ConversationRequestHandler extends MessageReceiver {
 			// Shallow copy to prevent a ConcurrentModificationException
 			final List<ConversationModel> conversations =
 				new ArrayList<>(this.conversationService.getAll(false));
-			final List<MsgpackBuilder> data = Conversation.convert(
-					conversations,
-					(builder, conversation, modelWrapper) -> {
-						if (!appendNextAvatar()) {
-							return;
-						}
-						try {
-							final byte[] avatar = modelWrapper.getAvatar(false, avatarMaxSize);
-							if (avatar != null) {
-								builder.put("avatar", avatar);
-							}
-						} catch (ConversionException e) {
-							logger.warn("Failed to append avatar: {}", e.getMessage());
-							//ignore exception
-						}
-
-					}
-			);
+			final List<MsgpackBuilder> data = this.convert(conversations, avatarMaxSize);
 
 			if (this.listener != null) {
 				this.listener.onRespond();
@@ -135,6 +170,101 @@ public class ConversationRequestHandler extends MessageReceiver {
 		}
 	}
 
+	private void respondPaged(final Integer avatarMaxSize, int pageSize,
+	                          @Nullable String cursor, @Nullable String revision) {
+		try {
+			SyncSnapshot.Page<ConversationModel> page = null;
+			if (cursor != null && this.snapshot != null) {
+				page = this.snapshot.getPage(cursor, pageSize);
+			}
+
+			if (page == null) {
+				// Start a new sync, use a delta if the webclient is up to date with a known revision
+				final String currentRevision = this.revisions.getRevision();
+				final SyncRevisions.Changes changes = this.revisions.getChangesSince(this.sessionId, revision);
+				// Shallow copy to prevent a ConcurrentModificationException
+				final List<ConversationModel> conversations =
+					new ArrayList<>(this.conversationService.getAll(false));
+				if (changes != null) {
+					this.respondDelta(avatarMaxSize, conversations, changes, currentRevision);
+					return;
+				}
+				this.avatarAppended = 0;
+				this.snapshot = new SyncSnapshot<>(currentRevision, conversations);
+				page = this.snapshot.getFirstPage(pageSize);
+			}
+
+			final List<MsgpackBuilder> data = this.convert(page.items, avatarMaxSize);
+
+			if (this.listener != null) {
+				this.listener.onRespond();
+			}
+
+			// Send response
+			logger.debug("Sending conversation page at offset {}", page.offset);
+			final MsgpackObjectBuilder args = new MsgpackObjectBuilder();
+			args.put(Protocol.ARGUMENT_DELTA, false);
+			args.put(Protocol.ARGUMENT_OFFSET, page.offset);
+			args.put(Protocol.ARGUMENT_REVISION, this.snapshot.getRevision());
+			if (page.nextCursor != null) {
+				args.put(Protocol.ARGUMENT_NEXT_CURSOR, page.nextCursor);
+			}
+			this.send(this.dispatcher, data, args);
+
+			if (page.nextCursor == null) {
+				this.revisions.setDeliveredRevision(this.sessionId, this.snapshot.getRevision());
+				this.snapshot = null;
+				if (this.listener != null) {
+					this.listener.onAnswered();
+				}
+			}
+		} catch (ConversionException | MessagePackException e) {
+			logger.error("Exception", e);
+		}
+	}
+
+	private void respondDelta(final Integer avatarMaxSize,
+	                          @NonNull List<ConversationModel> conversations,
+	                          @NonNull SyncRevisions.Changes changes,
+	                          @NonNull String currentRevision) throws ConversionException {
+		this.avatarAppended = 0;
+		this.snapshot = null;
+
+		// Changed conversations that are still listed are sent, all others have been removed
+		final Set<String> removed = new HashSet<>(changes.removed);
+		removed.addAll(changes.modified);
+		final List<ConversationModel> modified = new ArrayList<>();
+		for (ConversationModel conversation : conversations) {
+			if (removed.remove(SyncRevisionService.getKey(Utils.ModelWrapper.getModel(conversation)))) {
+				modified.add(conversation);
+			}
+		}
+		final List<MsgpackBuilder> data = this.convert(modified, avatarMaxSize);
+
+		final List<MsgpackBuilder> removedReceivers = new ArrayList<>();
+		for (String key : removed) {
+			removedReceivers.add(Receiver.getArguments(
+				SyncRevisionService.getType(key), SyncRevisionService.getId(key)));
+		}
+
+		if (this.listener != null) {
+			this.listener.onRespond();
+		}
+
+		// Send response
+		logger.debug("Sending conversation delta ({} modified, {} removed)", modified.size(), removed.size());
+		final MsgpackObjectBuilder args = new MsgpackObjectBuilder();
+		args.put(Protocol.ARGUMENT_DELTA, true);
+		args.put(Protocol.ARGUMENT_REVISION, currentRevision);
+		args.put(Protocol.ARGUMENT_REMOVED, removedReceivers);
+		this.send(this.dispatcher, data, args);
+
+		this.revisions.setDeliveredRevision(this.sessionId, currentRevision);
+		if (this.listener != null) {
+			this.listener.onAnswered();
+		}
+	}
+
 	@Override
 	protected boolean maybeNeedsConnection() {
 		return false;
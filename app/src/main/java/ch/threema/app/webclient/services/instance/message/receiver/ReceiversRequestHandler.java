@@ -26,7 +26,11 @@ import org.msgpack.value.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
@@ -39,14 +43,25 @@ import ch.threema.app.services.GroupService;
 import ch.threema.app.webclient.Protocol;
 import ch.threema.app.webclient.converter.Contact;
 import ch.threema.app.webclient.converter.Group;
+import ch.threema.app.webclient.converter.MsgpackBuilder;
 import ch.threema.app.webclient.converter.MsgpackObjectBuilder;
 import ch.threema.app.webclient.converter.Receiver;
+import ch.threema.app.webclient.converter.Utils;
 import ch.threema.app.webclient.exceptions.ConversionException;
+import ch.threema.app.webclient.services.SyncRevisionService;
+import ch.threema.app.webclient.services.SyncRevisions;
+import ch.threema.app.webclient.services.SyncSnapshot;
 import ch.threema.app.webclient.services.instance.MessageDispatcher;
 import ch.threema.app.webclient.services.instance.MessageReceiver;
+import ch.threema.storage.models.ContactModel;
+import ch.threema.storage.models.DistributionListModel;
+import ch.threema.storage.models.GroupModel;
 
 /**
  * Webclient is requesting list of receivers.
+ *
+ * Paging and delta syncs work like in {@link ConversationRequestHandler}, pages contain
+ * contacts first, followed by groups and distribution lists.
  */
 @WorkerThread
 public class ReceiversRequestHandler extends MessageReceiver {
@@ -56,8 +71,12 @@ public class ReceiversRequestHandler extends MessageReceiver {
 	private final ContactService contactService;
 	private final GroupService groupService;
 	private final DistributionListService distributionListService;
+	private final SyncRevisions revisions;
+	private final int sessionId;
 
 	private Listener listener;
+	// contact, group and distribution list models
+	@Nullable private SyncSnapshot<Object> snapshot;
 
 	@WorkerThread
 	public interface Listener {
@@ -70,19 +89,34 @@ public class ReceiversRequestHandler extends MessageReceiver {
 	                               @NonNull ContactService contactService,
 	                               @NonNull GroupService groupService,
 	                               @NonNull DistributionListService distributionListService,
+	                               @NonNull SyncRevisionService syncRevisionService,
+	                               int sessionId,
 	                               @Nullable Listener listener) {
 		super(Protocol.SUB_TYPE_RECEIVERS);
 		this.dispatcher = dispatcher;
 		this.contactService = contactService;
 		this.groupService = groupService;
 		this.distributionListService = distributionListService;
+		this.revisions = syncRevisionService.getReceiverRevisions();
+		this.sessionId = sessionId;
 		this.listener = listener;
 	}
 
 	@Override
 	protected void receive(Map<String, Value> message) throws MessagePackException {
 		logger.debug("Received receivers request");
-		this.respond();
+
+		final Map<String, Value> args = this.getArguments(message, true);
+		if (args != null && args.containsKey(Protocol.ARGUMENT_PAGE_SIZE)) {
+			final int pageSize = args.get(Protocol.ARGUMENT_PAGE_SIZE).asIntegerValue().toInt();
+			final String cursor = args.containsKey(Protocol.ARGUMENT_CURSOR)
+				? args.get(Protocol.ARGUMENT_CURSOR).asStringValue().asString() : null;
+			final String revision = args.containsKey(Protocol.ARGUMENT_REVISION)
+				? args.get(Protocol.ARGUMENT_REVISION).asStringValue().asString() : null;
+			this.respondPaged(pageSize, cursor, revision);
+		} else {
+			this.respond();
+		}
 	}
 
 	private void respond() {
@@ -110,6 +144,138 @@ public class ReceiversRequestHandler extends MessageReceiver {
 		}
 	}
 
+	private void respondPaged(int pageSize, @Nullable String cursor, @Nullable String revision) {
+		try {
+			SyncSnapshot.Page<Object> page = null;
+			if (cursor != null && this.snapshot != null) {
+				page = this.snapshot.getPage(cursor, pageSize);
+			}
+
+			if (page == null) {
+				// Start a new sync, use a delta if the webclient is up to date with a known revision
+				final String currentRevision = this.revisions.getRevision();
+				final SyncRevisions.Changes changes = this.revisions.getChangesSince(this.sessionId, revision);
+				final List<Object> receivers = this.getReceivers();
+				if (changes != null) {
+					this.respondDelta(receivers, changes, currentRevision);
+					return;
+				}
+				this.snapshot = new SyncSnapshot<>(currentRevision, receivers);
+				page = this.snapshot.getFirstPage(pageSize);
+			}
+
+			final MsgpackObjectBuilder data = convert(page.items);
+
+			// Notify listeners
+			if (this.listener != null) {
+				this.listener.onReceived();
+			}
+
+			// Send response
+			logger.debug("Sending receivers page at offset {}", page.offset);
+			final MsgpackObjectBuilder args = new MsgpackObjectBuilder();
+			args.put(Protocol.ARGUMENT_DELTA, false);
+			args.put(Protocol.ARGUMENT_OFFSET, page.offset);
+			args.put(Protocol.ARGUMENT_REVISION, this.snapshot.getRevision());
+			if (page.nextCursor != null) {
+				args.put(Protocol.ARGUMENT_NEXT_CURSOR, page.nextCursor);
+			}
+			this.send(this.dispatcher, data, args);
+
+			if (page.nextCursor == null) {
+				this.revisions.setDeliveredRevision(this.sessionId, this.snapshot.getRevision());
+				this.snapshot = null;
+				if (this.listener != null) {
+					this.listener.onAnswered();
+				}
+			}
+		} catch (ConversionException | MessagePackException e) {
+			logger.error("Exception", e);
+		}
+	}
+
+	private void respondDelta(@NonNull List<Object> receivers,
+	                          @NonNull SyncRevisions.Changes changes,
+	                          @NonNull String currentRevision) throws ConversionException {
+		this.snapshot = null;
+
+		// Changed receivers that are still listed are sent, all others have been removed
+		final Set<String> removed = new HashSet<>(changes.removed);
+		removed.addAll(changes.modified);
+		final List<Object> modified = new ArrayList<>();
+		for (Object receiver : receivers) {
+			if (removed.remove(SyncRevisionService.getKey(getModelWrapper(receiver)))) {
+				modified.add(receiver);
+			}
+		}
+		final MsgpackObjectBuilder data = convert(modified);
+
+		final List<MsgpackBuilder> removedReceivers = new ArrayList<>();
+		for (String key : removed) {
+			removedReceivers.add(Receiver.getArguments(
+				SyncRevisionService.getType(key), SyncRevisionService.getId(key)));
+		}
+
+		// Notify listeners
+		if (this.listener != null) {
+			this.listener.onReceived();
+		}
+
+		// Send response
+		logger.debug("Sending receivers delta ({} modified, {} removed)", modified.size(), removed.size());
+		final MsgpackObjectBuilder args = new MsgpackObjectBuilder();
+		args.put(Protocol.ARGUMENT_DELTA, true);
+		args.put(Protocol.ARGUMENT_REVISION, currentRevision);
+		args.put(Protocol.ARGUMENT_REMOVED, removedReceivers);
+		this.send(this.dispatcher, data, args);
+
+		this.revisions.setDeliveredRevision(this.sessionId, currentRevision);
+		if (this.listener != null) {
+			this.listener.onAnswered();
+		}
+	}
+
+	/**
+	 * @return contacts, groups and distribution lists in the order they are paged
+	 */
+	@NonNull
+	private List<Object> getReceivers() {
+		final List<Object> receivers = new ArrayList<>();
+		receivers.addAll(this.contactService.find(Contact.getContactFilter()));
+		receivers.addAll(this.groupService.getAll(Group.getGroupFilter()));
+		receivers.addAll(this.distributionListService.getAll());
+		return receivers;
+	}
+
+	@NonNull
+	private static Utils.ModelWrapper getModelWrapper(@NonNull Object receiver) throws ConversionException {
+		if (receiver instanceof ContactModel) {
+			return new Utils.ModelWrapper((ContactModel) receiver);
+		} else if (receiver instanceof GroupModel) {
+			return new Utils.ModelWrapper((GroupModel) receiver);
+		} else if (receiver instanceof DistributionListModel) {
+			return new Utils.ModelWrapper((DistributionListModel) receiver);
+		}
+		throw new ConversionException("Unknown receiver: " + receiver);
+	}
+
+	@NonNull
+	private static MsgpackObjectBuilder convert(@NonNull List<Object> receivers) throws ConversionException {
+		final List<ContactModel> contacts = new ArrayList<>();
+		final List<GroupModel> groups = new ArrayList<>();
+		final List<DistributionListModel> distributionLists = new ArrayList<>();
+		for (Object receiver : receivers) {
+			if (receiver instanceof ContactModel) {
+				contacts.add((ContactModel) receiver);
+			} else if (receiver instanceof GroupModel) {
+				groups.add((GroupModel) receiver);
+			} else if (receiver instanceof DistributionListModel) {
+				distributionLists.add((DistributionListModel) receiver);
+			}
+		}
+		return Receiver.convert(contacts, groups, distributionLists);
+	}
+
 	@Override
 	protected boolean maybeNeedsConnection() {
 		return false;
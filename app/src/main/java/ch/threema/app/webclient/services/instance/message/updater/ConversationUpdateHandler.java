@@ -55,6 +55,9 @@ import static ch.threema.app.webclient.Protocol.ARGUMENT_MODE_REMOVED;
 public class ConversationUpdateHandler extends MessageUpdater {
 	private static final Logger logger = LoggerFactory.getLogger(ConversationUpdateHandler.class);
 
+	// Updates of the same conversation within this time are sent once
+	private static final long COALESCE_WINDOW_MS = 100;
+
 	// Handler
 	private final @NonNull HandlerExecutor handler;
 
@@ -72,6 +75,10 @@ public class ConversationUpdateHandler extends MessageUpdater {
 
 	private final int sessionId;
 
+	// Pending updates, by conversation uid
+	private final UpdateCoalescer<ConversationModel> pendingUpdates = new UpdateCoalescer<>();
+	private boolean flushScheduled = false;
+
 	@AnyThread
 	public ConversationUpdateHandler(
 		@NonNull HandlerExecutor handler,
@@ -108,6 +115,33 @@ public class ConversationUpdateHandler extends MessageUpdater {
 		ListenerManager.conversationListeners.remove(this.listener);
 	}
 
+	/**
+	 * Queue an update, it will be sent together with other updates of the coalescing window.
+	 */
+	private void enqueue(final ConversationModel model, final String mode) {
+		if (!this.pendingUpdates.add(model.getUid(), model, mode)) {
+			this.flush();
+			this.pendingUpdates.add(model.getUid(), model, mode);
+		}
+		if (!this.flushScheduled) {
+			this.flushScheduled = true;
+			this.handler.postDelayed(new Runnable() {
+				@Override
+				@WorkerThread
+				public void run() {
+					ConversationUpdateHandler.this.flushScheduled = false;
+					ConversationUpdateHandler.this.flush();
+				}
+			}, COALESCE_WINDOW_MS);
+		}
+	}
+
+	private void flush() {
+		for (UpdateCoalescer.Update<ConversationModel> update : this.pendingUpdates.flush()) {
+			this.respond(update.value, update.mode);
+		}
+	}
+
 	private void respond(final ConversationModel model, final String mode) {
 		// Respond only if the conversation is not a private chat
 		String uniqueId = null;
@@ -148,7 +182,7 @@ public class ConversationUpdateHandler extends MessageUpdater {
 				@Override
 				@WorkerThread
 				public void run() {
-					ConversationUpdateHandler.this.respond(conversationModel, ARGUMENT_MODE_NEW);
+					ConversationUpdateHandler.this.enqueue(conversationModel, ARGUMENT_MODE_NEW);
 				}
 			});
 		}
@@ -162,7 +196,7 @@ public class ConversationUpdateHandler extends MessageUpdater {
 				@Override
 				@WorkerThread
 				public void run() {
-					ConversationUpdateHandler.this.respond(modifiedConversationModel, ARGUMENT_MODE_MODIFIED);
+					ConversationUpdateHandler.this.enqueue(modifiedConversationModel, ARGUMENT_MODE_MODIFIED);
 				}
 			});
 		}
@@ -175,7 +209,7 @@ public class ConversationUpdateHandler extends MessageUpdater {
 				@Override
 				@WorkerThread
 				public void run() {
-					ConversationUpdateHandler.this.respond(conversationModel, ARGUMENT_MODE_REMOVED);
+					ConversationUpdateHandler.this.enqueue(conversationModel, ARGUMENT_MODE_REMOVED);
 				}
 			});
 		}
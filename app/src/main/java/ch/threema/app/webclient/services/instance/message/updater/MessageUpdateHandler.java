@@ -69,6 +69,22 @@ public class MessageUpdateHandler extends MessageUpdater {
 	})
 	private @interface Mode {}
 
+	// Updates of the same message within this time are sent once
+	private static final long COALESCE_WINDOW_MS = 100;
+
+	/**
+	 * A message update waiting to be sent.
+	 */
+	private static class PendingMessage {
+		@NonNull final MessageReceiver receiver;
+		@NonNull final AbstractMessageModel message;
+
+		PendingMessage(@NonNull MessageReceiver receiver, @NonNull AbstractMessageModel message) {
+			this.receiver = receiver;
+			this.message = message;
+		}
+	}
+
 	// Handler
 	private final @NonNull HandlerExecutor handler;
 
@@ -84,6 +100,10 @@ public class MessageUpdateHandler extends MessageUpdater {
 	// Local data
 	private Set<MessageReceiver> receivers = new LinkedHashSet<>();
 
+	// Pending updates, by receiver and message id
+	private final UpdateCoalescer<PendingMessage> pendingUpdates = new UpdateCoalescer<>();
+	private boolean flushScheduled = false;
+
 	// Ring buffer with 64 entries to keep track of messages where the
 	// thumbnail has already been sent. This is done to sent the thumbnail
 	// only once, to reduce the network traffic.
@@ -152,6 +172,54 @@ public class MessageUpdateHandler extends MessageUpdater {
 		}
 	}
 
+	/**
+	 * Queue an update, it will be sent together with other updates of the coalescing window.
+	 */
+	private void enqueue(@NonNull MessageReceiver receiver, @NonNull AbstractMessageModel message, @NonNull @Mode String mode) {
+		final String key = receiver.getUniqueIdString() + "/" + message.getId();
+		final PendingMessage pending = new PendingMessage(receiver, message);
+		if (!this.pendingUpdates.add(key, pending, mode)) {
+			this.flush();
+			this.pendingUpdates.add(key, pending, mode);
+		}
+		if (!this.flushScheduled) {
+			this.flushScheduled = true;
+			this.handler.postDelayed(new Runnable() {
+				@Override
+				@WorkerThread
+				public void run() {
+					MessageUpdateHandler.this.flushScheduled = false;
+					MessageUpdateHandler.this.flush();
+				}
+			}, COALESCE_WINDOW_MS);
+		}
+	}
+
+	/**
+	 * Send all pending updates, consecutive updates with the same receiver and mode are batched.
+	 */
+	private void flush() {
+		Map<MessageReceiver, List<AbstractMessageModel>> outbox = new HashMap<>();
+		String outboxMode = null;
+		for (UpdateCoalescer.Update<PendingMessage> update : this.pendingUpdates.flush()) {
+			final MessageReceiver receiver = update.value.receiver;
+			if (outboxMode != null && (!outboxMode.equals(update.mode) || !outbox.containsKey(receiver))) {
+				this.update(outbox, outboxMode);
+				outbox = new HashMap<>();
+			}
+			outboxMode = update.mode;
+			List<AbstractMessageModel> list = outbox.get(receiver);
+			if (list == null) {
+				list = new ArrayList<>();
+				outbox.put(receiver, list);
+			}
+			list.add(update.value.message);
+		}
+		if (outboxMode != null) {
+			this.update(outbox, outboxMode);
+		}
+	}
+
 	private void update(
 		@NonNull Map<MessageReceiver, List<AbstractMessageModel>> outbox,
 		@NonNull @Mode String mode
@@ -197,8 +265,6 @@ public class MessageUpdateHandler extends MessageUpdater {
 
 		@Override
 		public void onModified(List<AbstractMessageModel> modifiedMessageModels) {
-			// TODO: Here we should probably batch update messages for the same receiver.
-			// Also, if the same msg is updated multiple times, only send the last one.
 			this.dispatch(modifiedMessageModels, Protocol.ARGUMENT_MODE_MODIFIED);
 		}
 
@@ -217,31 +283,20 @@ public class MessageUpdateHandler extends MessageUpdater {
 				@Override
 				@WorkerThread
 				public void run() {
-					// Group messages by receiver
-					final Map<MessageReceiver, List<AbstractMessageModel>> outbox = new HashMap<>();
-
 					// Loop over messages
 					for (AbstractMessageModel message : messages) {
 						// Loop over registered receivers
 						for (ch.threema.app.messagereceiver.MessageReceiver receiver : MessageUpdateHandler.this.receivers) {
-							// If message belongs to a registered receiver, add it to the outbox.
+							// If message belongs to a registered receiver, queue an update.
 							if (receiver.isMessageBelongsToMe(message)) {
 								// Skip chat messages in hidden chats (#WEBC-75)
 								if (!Listener.this.hiddenChatService.has(receiver.getUniqueIdString())) {
-									if (outbox.containsKey(receiver)) {
-										outbox.get(receiver).add(message);
-									} else {
-										final List<AbstractMessageModel> list = new ArrayList<>();
-										list.add(message);
-										outbox.put(receiver, list);
-									}
+									MessageUpdateHandler.this.enqueue(receiver, message, mode);
 								}
 								break;
 							}
 						}
 					}
-
-					MessageUpdateHandler.this.update(outbox, mode);
 				}
 			});
 		}
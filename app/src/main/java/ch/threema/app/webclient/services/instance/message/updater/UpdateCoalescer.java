@@ -0,0 +1,107 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.webclient.services.instance.message.updater;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import ch.threema.app.webclient.Protocol;
+
+/**
+ * Collects updates of objects for a short while, so that an object changed several times in
+ * a row is only sent once, in its latest state.
+ *
+ * Updates are merged per key: a modification after a creation is still a creation, a removal
+ * supersedes both. Other sequences (e.g. a creation after a removal) cannot be merged, the
+ * pending updates need to be flushed first.
+ */
+@WorkerThread
+public class UpdateCoalescer<V> {
+	public static class Update<V> {
+		@NonNull public final V value;
+		@NonNull public final String mode;
+
+		Update(@NonNull V value, @NonNull String mode) {
+			this.value = value;
+			this.mode = mode;
+		}
+	}
+
+	// in order of the first pending update of each key
+	@NonNull private final LinkedHashMap<String, Update<V>> pending = new LinkedHashMap<>();
+
+	/**
+	 * Add an update, merging it with a pending update of the same key.
+	 *
+	 * @param mode one of the Protocol.ARGUMENT_MODE_* values
+	 * @return false if the update could not be merged, flush and add it again
+	 */
+	public boolean add(@NonNull String key, @NonNull V value, @NonNull String mode) {
+		final Update<V> previous = this.pending.get(key);
+		if (previous == null) {
+			this.pending.put(key, new Update<>(value, mode));
+			return true;
+		}
+		final String merged = merge(previous.mode, mode);
+		if (merged == null) {
+			return false;
+		}
+		this.pending.put(key, new Update<>(value, merged));
+		return true;
+	}
+
+	public boolean isEmpty() {
+		return this.pending.isEmpty();
+	}
+
+	/**
+	 * Remove and return all pending updates.
+	 */
+	@NonNull
+	public List<Update<V>> flush() {
+		final List<Update<V>> updates = new ArrayList<>(this.pending.values());
+		this.pending.clear();
+		return updates;
+	}
+
+	@Nullable
+	static String merge(@NonNull String previousMode, @NonNull String mode) {
+		if (Protocol.ARGUMENT_MODE_REMOVED.equals(previousMode)) {
+			return null;
+		}
+		if (Protocol.ARGUMENT_MODE_REMOVED.equals(mode)) {
+			return mode;
+		}
+		if (Protocol.ARGUMENT_MODE_NEW.equals(previousMode)) {
+			// modified (or announced again) before the creation has been sent
+			return previousMode;
+		}
+		if (Protocol.ARGUMENT_MODE_MODIFIED.equals(mode)) {
+			return mode;
+		}
+		return null;
+	}
+}
@@ -63,6 +63,7 @@ import ch.threema.app.utils.ConfigUtils;
 import ch.threema.app.utils.RuntimeUtil;
 import ch.threema.app.webclient.Protocol;
 import ch.threema.app.webclient.SendMode;
+import ch.threema.app.webclient.SendPriority;
 import ch.threema.app.webclient.converter.ConnectionDisconnect;
 import ch.threema.app.webclient.converter.MsgpackObjectBuilder;
 import ch.threema.app.webclient.exceptions.ConversionException;
@@ -758,7 +759,7 @@ class SessionConnectionContext {
 			return;
 		}
 		logger.debug("Sending alert");
-		state.send(builder.consume(), SendMode.UNSAFE_SYNC);
+		state.send(builder.consume(), SendMode.UNSAFE_SYNC, SendPriority.CONTROL);
 	}
 
 }
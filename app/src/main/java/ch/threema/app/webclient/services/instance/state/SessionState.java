@@ -33,9 +33,11 @@ import androidx.annotation.WorkerThread;
 import java.nio.ByteBuffer;
 
 import ch.threema.app.webclient.SendMode;
+import ch.threema.app.webclient.SendPriority;
 import ch.threema.app.webclient.services.instance.DisconnectContext;
 import ch.threema.app.webclient.state.WebClientSessionState;
 import ch.threema.logging.ThreemaLogger;
+import java8.util.concurrent.CompletableFuture;
 
 /**
  * A session state.
@@ -82,10 +84,24 @@ public abstract class SessionState {
 
 	/**
 	 * Send a msgpack encoded message to the peer through the secure data channel.
+	 *
+	 * @param priority Lane of the message, ignored when sending synchronously
+	 * @return a future that completes once the message has been handed to the data channel
+	 *         and that fails if the message has been discarded
 	 */
-	void send(@NonNull final ByteBuffer message, @NonNull final SendMode mode) {
+	@NonNull CompletableFuture<Void> send(@NonNull final ByteBuffer message, @NonNull final SendMode mode, @NonNull final SendPriority priority) {
 		// Default implementation. Override if sending is possible.
 		logger.error("Cannot send a message in this state");
+		return discarded("Cannot send a message in this state");
+	}
+
+	/**
+	 * Return a future for a message that has not been sent.
+	 */
+	@NonNull static CompletableFuture<Void> discarded(@NonNull final String reason) {
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+		future.completeExceptionally(new IllegalStateException(reason));
+		return future;
 	}
 
 	// State change methods
@@ -30,6 +30,7 @@ import java.nio.ByteBuffer;
 
 import ch.threema.app.webclient.Protocol;
 import ch.threema.app.webclient.SendMode;
+import ch.threema.app.webclient.SendPriority;
 import ch.threema.app.webclient.converter.ConnectionDisconnect;
 import ch.threema.app.webclient.converter.ConnectionInfo;
 import ch.threema.app.webclient.converter.MsgpackObjectBuilder;
@@ -38,6 +39,7 @@ import ch.threema.app.webclient.exceptions.WouldBlockException;
 import ch.threema.app.webclient.services.instance.DisconnectContext;
 import ch.threema.app.webclient.services.instance.DisconnectContext.DisconnectReason;
 import ch.threema.app.webclient.state.WebClientSessionState;
+import java8.util.concurrent.CompletableFuture;
 
 /**
  * The session is connected.
@@ -54,26 +56,28 @@ final class SessionStateConnected extends SessionState {
 	}
 
 	@Override
-	void send(@NonNull final ByteBuffer message, @NonNull final SendMode mode) {
+	@NonNull CompletableFuture<Void> send(@NonNull final ByteBuffer message, @NonNull final SendMode mode, @NonNull final SendPriority priority) {
 		if (this.cctx.dcc == null) {
 			logger.error("Could not send message: Data channel not established");
-			return;
+			return discarded("Data channel not established");
 		}
 
 		// Send
 		switch (mode) {
 			case ASYNC:
 				logger.info("Sending message through data channel (async)");
-				this.cctx.dcc.sendAsync(message);
-				break;
+				return this.cctx.dcc.sendAsync(message, priority);
 			case UNSAFE_SYNC:
 				logger.info("Sending message through data channel (sync)");
 				try {
 					this.cctx.dcc.sendSyncUnsafe(message);
 				} catch (WouldBlockException e) {
 					logger.warn("Sending operation would block, discarding message!");
+					return discarded("Sending operation would block");
 				}
-				break;
+				return CompletableFuture.completedFuture(null);
+			default:
+				return discarded("Unknown send mode");
 		}
 	}
 
@@ -86,7 +90,7 @@ final class SessionStateConnected extends SessionState {
 		builder.put(Protocol.FIELD_SUB_TYPE, Protocol.SUB_TYPE_CONNECTION_INFO);
 		builder.put(Protocol.FIELD_DATA, ConnectionInfo.convert());
 		logger.info("Sending update/connectionInfo to peer");
-		this.send(builder.consume(), SendMode.ASYNC);
+		this.send(builder.consume(), SendMode.ASYNC, SendPriority.CONTROL);
 	}
 
 	/**
@@ -103,7 +107,7 @@ final class SessionStateConnected extends SessionState {
 			return;
 		}
 		logger.info("Sending update/connectionDisconnect to peer (reason: {})", reason);
-		this.send(builder.consume(), SendMode.ASYNC);
+		this.send(builder.consume(), SendMode.ASYNC, SendPriority.CONTROL);
 	}
 
 	@Override
@@ -36,6 +36,7 @@ import java.util.Objects;
 import ch.threema.app.managers.ListenerManager;
 import ch.threema.app.utils.executor.HandlerExecutor;
 import ch.threema.app.webclient.SendMode;
+import ch.threema.app.webclient.SendPriority;
 import ch.threema.app.webclient.listeners.WebClientServiceListener;
 import ch.threema.app.webclient.manager.WebClientListenerManager;
 import ch.threema.app.webclient.services.ServicesContainer;
@@ -43,6 +44,7 @@ import ch.threema.app.webclient.services.instance.DisconnectContext;
 import ch.threema.app.webclient.state.WebClientSessionState;
 import ch.threema.logging.ThreemaLogger;
 import ch.threema.storage.models.WebClientSessionModel;
+import java8.util.concurrent.CompletableFuture;
 
 /**
  * This class manages and holds the state for a session.
@@ -215,8 +217,11 @@ public class SessionStateManager {
 
 	/**
 	 * Send a msgpack encoded message to the peer through the secure data channel.
+	 *
+	 * @param priority Lane of the message, ignored when sending synchronously
+	 * @return a future that completes once the message has been handed to the data channel
 	 */
-	public void send(@NonNull final ByteBuffer message, @NonNull final SendMode mode) {
-		this.state.send(message, mode);
+	@NonNull public CompletableFuture<Void> send(@NonNull final ByteBuffer message, @NonNull final SendMode mode, @NonNull final SendPriority priority) {
+		return this.state.send(message, mode, priority);
 	}
 }
@@ -0,0 +1,95 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.webclient.utils;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Histogram of non-negative values with power-of-two buckets.
+ *
+ * Bucket 0 counts zeros, bucket n counts values in [2^(n-1), 2^n). Percentiles are estimated
+ * with the upper bound of the bucket they fall into, which is at most twice the real value.
+ *
+ * Not thread safe, callers need to synchronize.
+ */
+public class Histogram {
+	private static final int BUCKETS = 64;
+
+	private final long[] buckets = new long[BUCKETS];
+	private long count = 0;
+	private long sum = 0;
+	private long max = 0;
+
+	public void record(long value) {
+		value = Math.max(0, value);
+		this.buckets[BUCKETS - Long.numberOfLeadingZeros(value)]++;
+		this.count++;
+		this.sum += value;
+		this.max = Math.max(this.max, value);
+	}
+
+	public long getCount() {
+		return this.count;
+	}
+
+	public long getSum() {
+		return this.sum;
+	}
+
+	public long getMax() {
+		return this.max;
+	}
+
+	public long getMean() {
+		return this.count > 0 ? this.sum / this.count : 0;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return estimated value below which the given percentage of recorded values lie,
+	 *         or 0 if nothing has been recorded
+	 */
+	public long getPercentile(double percentile) {
+		if (this.count == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(this.count * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += this.buckets[i];
+			if (seen >= rank) {
+				final long upper = i == 0 ? 0 : (1L << i) - 1;
+				return Math.min(upper, this.max);
+			}
+		}
+		return this.max;
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			this.buckets[i] = 0;
+		}
+		this.count = 0;
+		this.sum = 0;
+		this.max = 0;
+	}
+}
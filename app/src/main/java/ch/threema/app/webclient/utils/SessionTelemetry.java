@@ -0,0 +1,294 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.webclient.utils;
+
+import org.slf4j.Logger;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import ch.threema.app.webclient.SendPriority;
+
+/**
+ * Performance counters and histograms of the web client sessions, summed up over all sessions.
+ * The counters are reset when a session starts while no other session is running, so the report
+ * covers the current sessions (or the last ones, once they have stopped).
+ *
+ * Incoming and outgoing messages are tracked per message type ("type/subType"): how long the
+ * handler took, how long it took to encode a message, its size and how long it took until it
+ * was written to the data channel. Queue wait, encryption, chunking and writing happen in the
+ * priority lanes of the data channel and are tracked per lane.
+ */
+@AnyThread
+public class SessionTelemetry {
+	@NonNull private static final SessionTelemetry instance = new SessionTelemetry();
+
+	private static class Incoming {
+		long failed = 0;
+		@NonNull final Histogram handleNs = new Histogram();
+	}
+
+	private static class Outgoing {
+		long failed = 0;
+		@NonNull final Histogram encodeNs = new Histogram();
+		@NonNull final Histogram bytes = new Histogram();
+		@NonNull final Histogram deliveryNs = new Histogram();
+	}
+
+	private static class Lane {
+		long failed = 0;
+		@NonNull final Histogram queueWaitNs = new Histogram();
+		@NonNull final Histogram encryptNs = new Histogram();
+		@NonNull final Histogram writeNs = new Histogram();
+		@NonNull final Histogram chunks = new Histogram();
+	}
+
+	@NonNull private final Map<String, Incoming> incoming = new TreeMap<>();
+	@NonNull private final Map<String, Outgoing> outgoing = new TreeMap<>();
+	@NonNull private final Lane[] lanes = new Lane[SendPriority.values().length];
+	@NonNull private final Histogram decryptNs = new Histogram();
+	@NonNull private final Histogram incomingBytes = new Histogram();
+	private long ignored = 0;
+	private long sinceNs;
+	@NonNull private final Set<Integer> runningSessions = new HashSet<>();
+
+	SessionTelemetry() {
+		this.reset();
+	}
+
+	@NonNull
+	public static SessionTelemetry getInstance() {
+		return instance;
+	}
+
+	@NonNull
+	public static String getKey(@NonNull String type, @NonNull String subType) {
+		return type + "/" + subType;
+	}
+
+	/**
+	 * An incoming message has been handled.
+	 *
+	 * @param handleNs time spent in the handler, including the conversion of its response
+	 * @param success whether the handler processed the message without error
+	 */
+	public synchronized void onHandled(@NonNull String key, long handleNs, boolean success) {
+		final Incoming stats = this.getIncoming(key);
+		stats.handleNs.record(handleNs);
+		if (!success) {
+			stats.failed++;
+		}
+	}
+
+	/**
+	 * An incoming message has not been accepted by any handler.
+	 */
+	public synchronized void onIgnored() {
+		this.ignored++;
+	}
+
+	/**
+	 * An incoming message has been reassembled and decrypted.
+	 */
+	public synchronized void onDecrypted(long decryptNs, int bytes) {
+		this.decryptNs.record(decryptNs);
+		this.incomingBytes.record(bytes);
+	}
+
+	/**
+	 * An outgoing message has been encoded and handed over to the session.
+	 */
+	public synchronized void onEncoded(@NonNull String key, long encodeNs, int bytes) {
+		final Outgoing stats = this.getOutgoing(key);
+		stats.encodeNs.record(encodeNs);
+		stats.bytes.record(bytes);
+	}
+
+	/**
+	 * An outgoing message has been written to the data channel.
+	 *
+	 * @param deliveryNs time since the message has been handed over to the session
+	 */
+	public synchronized void onDelivered(@NonNull String key, long deliveryNs) {
+		this.getOutgoing(key).deliveryNs.record(deliveryNs);
+	}
+
+	/**
+	 * An outgoing message has been discarded or could not be written.
+	 */
+	public synchronized void onDeliveryFailed(@NonNull String key) {
+		this.getOutgoing(key).failed++;
+	}
+
+	/**
+	 * A message has been taken from a priority lane and written to the data channel.
+	 *
+	 * @param queueWaitNs time the message has been waiting in the lane
+	 * @param encryptNs time spent encrypting the message
+	 * @param writeNs time spent writing the chunks, including waiting for the flow control
+	 * @param chunks number of chunks the message has been split into
+	 */
+	public synchronized void onWritten(@NonNull SendPriority priority, long queueWaitNs, long encryptNs, long writeNs, int chunks) {
+		final Lane lane = this.lanes[priority.ordinal()];
+		lane.queueWaitNs.record(queueWaitNs);
+		lane.encryptNs.record(encryptNs);
+		lane.writeNs.record(writeNs);
+		lane.chunks.record(chunks);
+	}
+
+	/**
+	 * A message has been taken from a priority lane but could not be written.
+	 */
+	public synchronized void onWriteFailed(@NonNull SendPriority priority) {
+		this.lanes[priority.ordinal()].failed++;
+	}
+
+	/**
+	 * A session has been started or resumed.
+	 */
+	public synchronized void onSessionStarted(int sessionId) {
+		if (this.runningSessions.isEmpty()) {
+			this.reset();
+		}
+		this.runningSessions.add(sessionId);
+	}
+
+	/**
+	 * A session has been stopped, either regularly or due to an error.
+	 */
+	public synchronized void onSessionStopped(int sessionId) {
+		this.runningSessions.remove(sessionId);
+	}
+
+	public synchronized void reset() {
+		this.incoming.clear();
+		this.outgoing.clear();
+		for (int i = 0; i < this.lanes.length; i++) {
+			this.lanes[i] = new Lane();
+		}
+		this.decryptNs.reset();
+		this.incomingBytes.reset();
+		this.ignored = 0;
+		this.sinceNs = System.nanoTime();
+	}
+
+	/**
+	 * @return human readable report of all counters, times in microseconds
+	 */
+	@NonNull
+	public synchronized String getReport() {
+		final StringBuilder report = new StringBuilder();
+		report.append("Web client telemetry since the ")
+			.append(this.runningSessions.isEmpty() ? "last" : "current")
+			.append(" sessions started ")
+			.append(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - this.sinceNs))
+			.append(" s ago (times in µs)\n");
+
+		report.append("Incoming: ").append(formatSizes(this.incomingBytes))
+			.append(", decrypt ").append(formatTimes(this.decryptNs))
+			.append(", ignored=").append(this.ignored).append('\n');
+		for (Map.Entry<String, Incoming> entry : this.incoming.entrySet()) {
+			final Incoming stats = entry.getValue();
+			report.append("  ").append(entry.getKey())
+				.append(": n=").append(stats.handleNs.getCount())
+				.append(", failed=").append(stats.failed)
+				.append(", handle ").append(formatTimes(stats.handleNs)).append('\n');
+		}
+
+		report.append("Outgoing:\n");
+		for (Map.Entry<String, Outgoing> entry : this.outgoing.entrySet()) {
+			final Outgoing stats = entry.getValue();
+			report.append("  ").append(entry.getKey())
+				.append(": ").append(formatSizes(stats.bytes))
+				.append(", failed=").append(stats.failed)
+				.append(", encode ").append(formatTimes(stats.encodeNs))
+				.append(", delivery ").append(formatTimes(stats.deliveryNs)).append('\n');
+		}
+
+		report.append("Lanes:\n");
+		for (SendPriority priority : SendPriority.values()) {
+			final Lane lane = this.lanes[priority.ordinal()];
+			report.append("  ").append(priority.name())
+				.append(": n=").append(lane.chunks.getCount())
+				.append(", failed=").append(lane.failed)
+				.append(", queue wait ").append(formatTimes(lane.queueWaitNs))
+				.append(", encrypt ").append(formatTimes(lane.encryptNs))
+				.append(", write ").append(formatTimes(lane.writeNs))
+				.append(", chunks mean=").append(lane.chunks.getMean())
+				.append(" max=").append(lane.chunks.getMax()).append('\n');
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Write the report to the given logger, line by line.
+	 */
+	public void dump(@NonNull Logger logger) {
+		for (String line : this.getReport().split("\n")) {
+			logger.info(line);
+		}
+	}
+
+	@NonNull
+	private Incoming getIncoming(@NonNull String key) {
+		Incoming stats = this.incoming.get(key);
+		if (stats == null) {
+			stats = new Incoming();
+			this.incoming.put(key, stats);
+		}
+		return stats;
+	}
+
+	@NonNull
+	private Outgoing getOutgoing(@NonNull String key) {
+		Outgoing stats = this.outgoing.get(key);
+		if (stats == null) {
+			stats = new Outgoing();
+			this.outgoing.put(key, stats);
+		}
+		return stats;
+	}
+
+	@NonNull
+	private static String formatTimes(@NonNull Histogram histogram) {
+		return "p50=" + toMicros(histogram.getPercentile(50))
+			+ " p95=" + toMicros(histogram.getPercentile(95))
+			+ " max=" + toMicros(histogram.getMax());
+	}
+
+	@NonNull
+	private static String formatSizes(@NonNull Histogram histogram) {
+		return "n=" + histogram.getCount()
+			+ " bytes=" + histogram.getSum()
+			+ " (mean=" + histogram.getMean()
+			+ " max=" + histogram.getMax() + ")";
+	}
+
+	private static long toMicros(long ns) {
+		return TimeUnit.NANOSECONDS.toMicros(ns);
+	}
+}
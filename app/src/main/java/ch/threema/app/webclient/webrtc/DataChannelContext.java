@@ -45,7 +45,9 @@ import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 
 import ch.threema.annotation.SameThread;
+import ch.threema.app.webclient.SendPriority;
 import ch.threema.app.webclient.exceptions.WouldBlockException;
+import ch.threema.app.webclient.utils.SessionTelemetry;
 import ch.threema.app.webrtc.FlowControlledDataChannel;
 import ch.threema.logging.ThreemaLogger;
 import java8.util.concurrent.CompletableFuture;
@@ -68,9 +70,25 @@ public class DataChannelContext {
 	@Nullable private final DataChannelCryptoContext crypto;
 	@Nullable private Unchunker unchunker;
 	@NonNull private CompletableFuture<Void> queue;
+	@NonNull private final SendQueue<PendingMessage> pending = new SendQueue<>(SendQueueMetrics.getInstance());
 	private final int chunkLength;
 	private long messageId = 0;
 
+	/**
+	 * A message waiting in a priority lane.
+	 */
+	private static class PendingMessage {
+		@NonNull final ByteBuffer buffer;
+		@NonNull final SendPriority priority;
+		@NonNull final CompletableFuture<Void> future = new CompletableFuture<>();
+		final long queuedAtNs = System.nanoTime();
+
+		PendingMessage(@NonNull ByteBuffer buffer, @NonNull SendPriority priority) {
+			this.buffer = buffer;
+			this.priority = priority;
+		}
+	}
+
 	public DataChannelContext(
 		@NonNull final String logPrefix,
 		@NonNull final DataChannel dc,
@@ -97,9 +115,11 @@ public class DataChannelContext {
 			@SameThread
 			public void onMessage(ByteBuffer buffer) {
 				// Decrypt message
+				final long startNs = System.nanoTime();
 				final Box box = new Box(buffer, DataChannelCryptoContext.NONCE_LENGTH);
 				try {
 					buffer = ByteBuffer.wrap(Objects.requireNonNull(DataChannelContext.this.crypto).decrypt(box));
+					SessionTelemetry.getInstance().onDecrypted(System.nanoTime() - startNs, buffer.remaining());
 				} catch (ValidationError | ProtocolException error) {
 					logger.error("Invalid packet received", error);
 					return;
@@ -127,15 +147,48 @@ public class DataChannelContext {
 	/**
 	 * Send a message asynchronously via this channel's write queue. The
 	 * message will be fragmented into chunks.
+	 *
+	 * Pending messages are sent by priority, so a message may overtake
+	 * messages of less important lanes that have been enqueued before.
+	 *
+	 * @return a future that completes once the message has been written
+	 *         and that fails if it could not be sent
 	 */
-	@NonNull public CompletableFuture<Void> sendAsync(@NonNull final ByteBuffer buffer) {
-		return this.enqueue(new Runnable() {
+	@NonNull public CompletableFuture<Void> sendAsync(@NonNull final ByteBuffer buffer, @NonNull final SendPriority priority) {
+		final PendingMessage message = new PendingMessage(buffer, priority);
+		this.pending.add(message, priority);
+
+		// Every message adds one step to the write queue. A step sends the most important
+		// pending message, which is not necessarily the message that added the step.
+		this.enqueue(new Runnable() {
 			@Override
 			@AnyThread
 			public void run() {
-				DataChannelContext.this.sendSync(buffer);
+				DataChannelContext.this.sendNextPending();
 			}
 		});
+		return message.future;
+	}
+
+	/**
+	 * Send the most important pending message.
+	 */
+	@AnyThread
+	private void sendNextPending() {
+		final PendingMessage message = this.pending.poll();
+		if (message == null) {
+			return;
+		}
+		try {
+			if (this.sendSync(message.buffer, message.priority, message.queuedAtNs)) {
+				message.future.complete(null);
+			} else {
+				message.future.completeExceptionally(new IllegalStateException("Message could not be sent"));
+			}
+		} catch (RuntimeException error) {
+			message.future.completeExceptionally(error);
+			throw error;
+		}
 	}
 
 	/**
@@ -146,7 +199,7 @@ public class DataChannelContext {
 		if (!this.fcdc.ready().isDone()) {
 			throw new WouldBlockException();
 		} else {
-			this.sendSync(buffer);
+			this.sendSync(buffer, SendPriority.CONTROL, System.nanoTime());
 		}
 	}
 
@@ -155,15 +208,23 @@ public class DataChannelContext {
 	 *
 	 * Important: This may only be called from the future queue or synchronously from the worker
 	 *            thread.
+	 *
+	 * @param priority lane the message has been taken from, for the telemetry
+	 * @param queuedAtNs time the message has been enqueued, for the telemetry
+	 * @return whether the message has been written
 	 */
 	@AnyThread
-	private synchronized void sendSync(@NonNull ByteBuffer buffer) {
+	private synchronized boolean sendSync(@NonNull ByteBuffer buffer, @NonNull SendPriority priority, long queuedAtNs) {
+		final SessionTelemetry telemetry = SessionTelemetry.getInstance();
 		try {
 			logger.debug("Outgoing message of length {}", buffer.remaining());
 
 			// Encrypt message
+			final long startNs = System.nanoTime();
 			final Box box = Objects.requireNonNull(this.crypto).encrypt(bufferToBytes(buffer));
 			buffer = ByteBuffer.wrap(box.toBytes());
+			final long encryptedNs = System.nanoTime();
+			int chunks = 0;
 
 			// Write chunks
 			final Chunker chunker = new Chunker(this.messageId++, buffer, this.chunkLength);
@@ -174,7 +235,8 @@ public class DataChannelContext {
 					this.fcdc.ready().get();
 				} catch (InterruptedException | ExecutionException e) {
 					logger.error("Error while waiting for fcdc.ready()", e);
-					return;
+					telemetry.onWriteFailed(priority);
+					return false;
 				}
 				buffer = chunker.next();
 
@@ -182,7 +244,10 @@ public class DataChannelContext {
 				final DataChannel.Buffer chunk = new DataChannel.Buffer(buffer, true);
 				logger.debug("Outgoing chunk of length {}", chunk.data.remaining());
 				this.fcdc.write(chunk);
+				chunks++;
 			}
+			telemetry.onWritten(priority, startNs - queuedAtNs, encryptedNs - startNs, System.nanoTime() - encryptedNs, chunks);
+			return true;
 		} catch (OverflowException error) {
 			logger.error("CSN overflow", error);
 			this.close();
@@ -190,6 +255,8 @@ public class DataChannelContext {
 			logger.error("Unable to encrypt", error);
 			this.close();
 		}
+		telemetry.onWriteFailed(priority);
+		return false;
 	}
 
 	/**
@@ -201,6 +268,9 @@ public class DataChannelContext {
 			@Override
 			@AnyThread
 			public Void apply(@NonNull final Throwable error) {
+				// The write queue is stuck, nothing pending will be sent anymore
+				DataChannelContext.this.discardPending();
+
 				// Ignore if the data channel has been disposed or is currently
 				// closing. This can happen when a peer connection is being closed
 				// abruptly.
@@ -259,10 +329,21 @@ public class DataChannelContext {
 	}
 
 	/**
-	 * Close the underlying data channel.
+	 * Close the underlying data channel and discard all pending messages.
 	 */
 	@AnyThread
 	public void close() {
 		this.dc.close();
+		this.discardPending();
+	}
+
+	/**
+	 * Fail all messages that have not been sent yet.
+	 */
+	@AnyThread
+	private void discardPending() {
+		for (PendingMessage message : this.pending.clear()) {
+			message.future.completeExceptionally(new IllegalStateException("Data channel closed"));
+		}
 	}
 }
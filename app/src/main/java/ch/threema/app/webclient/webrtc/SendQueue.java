@@ -0,0 +1,94 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.webclient.webrtc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import ch.threema.app.webclient.SendPriority;
+
+/**
+ * Outgoing messages waiting to be written to a data channel, one FIFO queue per priority lane.
+ */
+@AnyThread
+public class SendQueue<T> {
+	@NonNull private final SendQueueMetrics metrics;
+	@NonNull private final ArrayDeque<T>[] lanes;
+
+	@SuppressWarnings("unchecked")
+	public SendQueue(@NonNull SendQueueMetrics metrics) {
+		this.metrics = metrics;
+		this.lanes = new ArrayDeque[SendPriority.values().length];
+		for (int i = 0; i < this.lanes.length; i++) {
+			this.lanes[i] = new ArrayDeque<>();
+		}
+	}
+
+	public synchronized void add(@NonNull T item, @NonNull SendPriority priority) {
+		final ArrayDeque<T> lane = this.lanes[priority.ordinal()];
+		lane.add(item);
+		this.metrics.onQueued(priority);
+	}
+
+	/**
+	 * @return the oldest item of the most important non-empty lane
+	 */
+	@Nullable
+	public synchronized T poll() {
+		for (SendPriority priority : SendPriority.values()) {
+			final T item = this.lanes[priority.ordinal()].poll();
+			if (item != null) {
+				this.metrics.onDequeued(priority);
+				return item;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Remove all items, e.g. because the data channel has been closed.
+	 *
+	 * @return the removed items
+	 */
+	@NonNull
+	public synchronized List<T> clear() {
+		final List<T> items = new ArrayList<>();
+		for (SendPriority priority : SendPriority.values()) {
+			final ArrayDeque<T> lane = this.lanes[priority.ordinal()];
+			T item;
+			while ((item = lane.poll()) != null) {
+				this.metrics.onDiscarded(priority);
+				items.add(item);
+			}
+		}
+		return items;
+	}
+
+	public synchronized int getDepth(@NonNull SendPriority priority) {
+		return this.lanes[priority.ordinal()].size();
+	}
+}
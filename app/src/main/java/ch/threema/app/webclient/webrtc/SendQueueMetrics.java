@@ -0,0 +1,83 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.webclient.webrtc;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import ch.threema.app.webclient.SendPriority;
+
+/**
+ * Queue depth statistics of the outgoing priority lanes, summed up over all sessions.
+ */
+@AnyThread
+public class SendQueueMetrics {
+	@NonNull private static final SendQueueMetrics instance = new SendQueueMetrics();
+
+	private final int[] depth = new int[SendPriority.values().length];
+	private final int[] maxDepth = new int[SendPriority.values().length];
+	private final long[] sent = new long[SendPriority.values().length];
+
+	SendQueueMetrics() { }
+
+	@NonNull
+	public static SendQueueMetrics getInstance() {
+		return instance;
+	}
+
+	synchronized void onQueued(@NonNull SendPriority priority) {
+		final int lane = priority.ordinal();
+		this.depth[lane]++;
+		this.maxDepth[lane] = Math.max(this.maxDepth[lane], this.depth[lane]);
+	}
+
+	synchronized void onDequeued(@NonNull SendPriority priority) {
+		final int lane = priority.ordinal();
+		this.depth[lane]--;
+		this.sent[lane]++;
+	}
+
+	synchronized void onDiscarded(@NonNull SendPriority priority) {
+		this.depth[priority.ordinal()]--;
+	}
+
+	/**
+	 * @return number of messages currently waiting in the lane
+	 */
+	public synchronized int getDepth(@NonNull SendPriority priority) {
+		return this.depth[priority.ordinal()];
+	}
+
+	/**
+	 * @return highest number of messages that have been waiting in the lane at the same time
+	 */
+	public synchronized int getMaxDepth(@NonNull SendPriority priority) {
+		return this.maxDepth[priority.ordinal()];
+	}
+
+	/**
+	 * @return number of messages taken from the lane to be sent
+	 */
+	public synchronized long getSentCount(@NonNull SendPriority priority) {
+		return this.sent[priority.ordinal()];
+	}
+}
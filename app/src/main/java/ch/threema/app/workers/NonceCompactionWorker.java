@@ -0,0 +1,64 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.workers;
+
+import android.content.Context;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+import ch.threema.app.ThreemaApplication;
+import ch.threema.storage.NonceDatabaseBlobService;
+
+/**
+ * Periodically moves old nonces from the nonce database into the compact nonce archive.
+ */
+public class NonceCompactionWorker extends Worker {
+	private static final Logger logger = LoggerFactory.getLogger(NonceCompactionWorker.class);
+
+	public NonceCompactionWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+		super(context, workerParams);
+	}
+
+	@NonNull
+	@Override
+	@WorkerThread
+	public Result doWork() {
+		final NonceDatabaseBlobService nonceService = ThreemaApplication.getNonceDatabaseBlobService();
+		if (nonceService == null || ThreemaApplication.getMasterKey().isLocked()) {
+			logger.info("Nonce database not available, skipping compaction");
+			return Result.success();
+		}
+
+		try {
+			nonceService.compact();
+		} catch (Exception e) {
+			logger.error("Nonce compaction failed", e);
+			return Result.failure();
+		}
+		return Result.success();
+	}
+}
@@ -27,7 +27,15 @@ import org.slf4j.LoggerFactory;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
 
 import javax.net.ssl.HttpsURLConnection;
@@ -44,6 +52,8 @@ public class BlobLoader {
 	private static final Logger logger = LoggerFactory.getLogger(BlobLoader.class);
 
 	private static final int BUFFER_SIZE = 8192;
+	private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+	private static final String PROGRESS_FILE_SUFFIX = ".progress";
 
 	private final @NonNull SSLSocketFactoryFactory factory;
 	private final byte[] blobId;
@@ -78,102 +88,332 @@ public class BlobLoader {
 	 * @throws IOException
 	 */
 	public @Nullable byte[] load(boolean markAsDone) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try {
+			if (this.load(bos, markAsDone) < 0) {
+				return null;
+			}
+			return bos.toByteArray();
+		} catch (OutOfMemoryError e) {
+			throw new IOException("Out of memory on write");
+		}
+	}
+
+	/**
+	 * Attempt to load the given blob into a file, without keeping the blob in memory. If the
+	 * download fails or is cancelled, the file is deleted.
+	 *
+	 * @param markAsDone if true, the server is informed of successful download and will delete the
+	 * blob. Do not use for group messages.
+	 * @return true if the blob has been loaded, false if the download was cancelled
+	 * @throws IOException
+	 */
+	public boolean load(@NonNull File file, boolean markAsDone) throws IOException {
+		boolean success = false;
+		try (FileOutputStream fos = new FileOutputStream(file)) {
+			success = this.load(fos, markAsDone) >= 0;
+			if (success) {
+				fos.getFD().sync();
+			}
+		} finally {
+			if (!success && file.exists() && !file.delete()) {
+				logger.warn("Could not delete incomplete blob file");
+			}
+		}
+		return success;
+	}
+
+	/**
+	 * Attempt to load the given blob, writing it to the given stream as it is received (the
+	 * stream is not closed).
+	 *
+	 * @param markAsDone if true, the server is informed of successful download and will delete the
+	 * blob. Do not use for group messages.
+	 * @return number of bytes written, or -1 if download was cancelled
+	 * @throws IOException
+	 */
+	public long load(@NonNull OutputStream outputStream, boolean markAsDone) throws IOException {
 
 		cancel = false;
 
 		InputStreamLength isl = getInputStream();
 
 		int read;
-		byte[] blob;
+		long offset = 0;
 		byte[] buffer = new byte[BUFFER_SIZE];
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
 
-		/* Content length known? */
-		if (isl.length != -1) {
-			logger.debug("Blob content length is {}", isl.length);
+		try {
+			/* Content length known? */
+			if (isl.length != -1) {
+				logger.debug("Blob content length is {}", isl.length);
+			} else {
+				/* Content length is unknown - need to read until EOF */
+				logger.debug("Blob content length is unknown");
+			}
 
-			int offset = 0;
 			while ((read = isl.inputStream.read(buffer)) != -1 && !cancel) {
+				outputStream.write(buffer, 0, read);
 				offset += read;
 
-				try {
-					bos.write(buffer, 0, read);
-				} catch (OutOfMemoryError e) {
-					throw new IOException("Out of memory on write");
-				}
-
-				if (progressListener != null) {
+				if (progressListener != null && isl.length > 0) {
 					progressListener.updateProgress((int) ((float) 100 * offset / isl.length));
 				}
 			}
+		} finally {
+			try {
+				isl.inputStream.close();
+			} catch (IOException ignored) {}
+		}
 
-			if (cancel) {
-				logger.info("Blob load cancelled");
-				if (progressListener != null) {
-					progressListener.onFinished(false);
-				}
-				return null;
+		if (cancel) {
+			logger.info("Blob load cancelled");
+			if (progressListener != null) {
+				progressListener.onFinished(false);
 			}
+			return -1;
+		}
 
-			if (offset != isl.length) {
-				if (progressListener != null) {
-					progressListener.onFinished(false);
-				}
-				throw new IOException("Unexpected read size. current: " + offset + ", excepted: " + isl.length);
+		if (isl.length != -1 && offset != isl.length) {
+			if (progressListener != null) {
+				progressListener.onFinished(false);
+			}
+			throw new IOException("Unexpected read size. current: " + offset + ", excepted: " + isl.length);
+		}
+
+		logger.info("Blob load complete ({} bytes received)", offset);
+
+		if (progressListener != null) {
+			progressListener.onFinished(true);
+		}
+
+		if (markAsDone) {
+			if (offset > 0) {
+				this.markAsDown(blobId);
 			}
+		}
+
+		return offset;
+	}
 
-			blob = bos.toByteArray();
+	public InputStreamLength getInputStream() throws IOException {
+		HttpURLConnection connection = this.openBlobConnection();
+
+		BufferedInputStream inputStream = new BufferedInputStream(connection.getInputStream());
+		int contentLength = connection.getContentLength();
+		return new InputStreamLength(inputStream, contentLength);
+	}
+
+	/**
+	 * Attempt to load the given blob into a file, resuming a previous attempt if possible.
+	 *
+	 * While the download is in progress, its expected length is kept in a sidecar file next to
+	 * the target file (see {@link #getProgressFile(File)}). If a download is interrupted by an
+	 * error, both files are left in place, and the next call for the same file only requests the
+	 * missing bytes with an HTTP Range request. A partial download is only continued if the
+	 * server confirms the expected range and total length, otherwise it starts over.
+	 *
+	 * @param markAsDone if true, the server is informed of successful download and will delete the
+	 * blob. Do not use for group messages.
+	 * @return true if the blob has been loaded completely, false if the download was cancelled
+	 * (in which case the partial download is discarded)
+	 * @throws IOException if the download failed; the partial download is kept for resumption
+	 */
+	public boolean loadResumable(@NonNull File file, boolean markAsDone) throws IOException {
+		cancel = false;
+		return this.loadResumable(file, markAsDone, true);
+	}
+
+	/**
+	 * @return the sidecar file that tracks a resumable download into the given file
+	 */
+	public static @NonNull File getProgressFile(@NonNull File file) {
+		return new File(file.getPath() + PROGRESS_FILE_SUFFIX);
+	}
+
+	private boolean loadResumable(@NonNull File file, boolean markAsDone, boolean allowResume) throws IOException {
+		final File progressFile = getProgressFile(file);
+
+		DownloadProgress progress = allowResume ? DownloadProgress.read(progressFile) : null;
+		long existing = 0;
+		if (progress != null && file.isFile() && file.length() <= progress.totalLength) {
+			existing = file.length();
 		} else {
-			/* Content length is unknown - need to read until EOF */
-			logger.debug("Blob content length is unknown");
+			progress = null;
+			discardPartialDownload(file);
+		}
 
-			while ((read = isl.inputStream.read(buffer)) != -1 && !cancel) {
-				bos.write(buffer, 0, read);
+		if (progress != null && existing == progress.totalLength) {
+			logger.info("Blob already loaded completely ({} bytes)", existing);
+			return this.finishResumable(file, markAsDone, existing);
+		}
+
+		HttpURLConnection connection = this.openBlobConnection();
+		try {
+			if (existing > 0) {
+				logger.info("Resuming blob load at {} of {} bytes", existing, progress.totalLength);
+				connection.setRequestProperty("Range", "bytes=" + existing + "-");
+				if (progress.validator != null) {
+					connection.setRequestProperty("If-Range", progress.validator);
+				}
+			}
+
+			final int responseCode = connection.getResponseCode();
+			final long contentLength = parseLong(connection.getHeaderField("Content-Length"));
+			final long totalLength;
+			final boolean append;
+
+			if (existing > 0 && responseCode == HttpURLConnection.HTTP_PARTIAL) {
+				if (!isExpectedRange(connection.getHeaderField("Content-Range"), existing, progress.totalLength)
+						|| (contentLength != -1 && contentLength != progress.totalLength - existing)) {
+					logger.warn("Unexpected range response, restarting blob load");
+					connection.disconnect();
+					return this.loadResumable(file, markAsDone, false);
+				}
+				totalLength = progress.totalLength;
+				append = true;
+			} else if (responseCode == HttpURLConnection.HTTP_OK) {
+				/* a full response, either because nothing was requested or because the blob changed */
+				if (existing > 0) {
+					logger.info("Server sent the whole blob, restarting blob load");
+				}
+				existing = 0;
+				totalLength = contentLength;
+				append = false;
+				if (totalLength != -1) {
+					new DownloadProgress(totalLength, getValidator(connection)).write(progressFile);
+				} else {
+					/* cannot validate a resumption without knowing the length */
+					deleteIfExists(progressFile);
+				}
+			} else if (existing > 0 && responseCode == HTTP_RANGE_NOT_SATISFIABLE) {
+				logger.warn("Requested range not satisfiable, restarting blob load");
+				connection.disconnect();
+				return this.loadResumable(file, markAsDone, false);
+			} else {
+				throw new IOException("Unexpected response code " + responseCode);
+			}
+
+			long offset = existing;
+			try (InputStream inputStream = new BufferedInputStream(connection.getInputStream());
+			     FileOutputStream fos = new FileOutputStream(file, append)) {
+				int read;
+				byte[] buffer = new byte[BUFFER_SIZE];
+				while ((read = inputStream.read(buffer)) != -1 && !cancel) {
+					fos.write(buffer, 0, read);
+					offset += read;
+
+					if (progressListener != null && totalLength > 0) {
+						progressListener.updateProgress((int) ((float) 100 * offset / totalLength));
+					}
+				}
+				fos.getFD().sync();
 			}
 
 			if (cancel) {
 				logger.info("Blob load cancelled");
+				discardPartialDownload(file);
 				if (progressListener != null) {
 					progressListener.onFinished(false);
 				}
-				return null;
+				return false;
 			}
 
-			blob = bos.toByteArray();
+			if (totalLength != -1 && offset != totalLength) {
+				if (progressListener != null) {
+					progressListener.onFinished(false);
+				}
+				if (offset > totalLength) {
+					discardPartialDownload(file);
+				}
+				throw new IOException("Unexpected read size. current: " + offset + ", excepted: " + totalLength);
+			}
+
+			return this.finishResumable(file, markAsDone, offset);
+		} finally {
+			connection.disconnect();
 		}
+	}
 
-		logger.info("Blob load complete ({} bytes received)", blob.length);
+	private boolean finishResumable(@NonNull File file, boolean markAsDone, long length) {
+		deleteIfExists(getProgressFile(file));
+
+		logger.info("Blob load complete ({} bytes)", length);
 
 		if (progressListener != null) {
 			progressListener.onFinished(true);
 		}
 
-		if (markAsDone) {
-			if (blob.length > 0) {
-				this.markAsDown(blobId);
-			}
+		if (markAsDone && length > 0) {
+			this.markAsDown(blobId);
 		}
+		return true;
+	}
 
-		return blob;
+	private static void discardPartialDownload(@NonNull File file) {
+		deleteIfExists(file);
+		deleteIfExists(getProgressFile(file));
 	}
 
-	public InputStreamLength getInputStream() throws IOException {
+	private static void deleteIfExists(@NonNull File file) {
+		if (file.exists() && !file.delete()) {
+			logger.warn("Could not delete {}", file.getName());
+		}
+	}
 
+	/**
+	 * Check a Content-Range header of the form "bytes start-end/total".
+	 */
+	private static boolean isExpectedRange(@Nullable String contentRange, long start, long totalLength) {
+		if (contentRange == null || !contentRange.startsWith("bytes ")) {
+			return false;
+		}
+		int dash = contentRange.indexOf('-');
+		int slash = contentRange.indexOf('/');
+		if (dash < 0 || slash < dash) {
+			return false;
+		}
+		return parseLong(contentRange.substring(6, dash)) == start
+			&& parseLong(contentRange.substring(dash + 1, slash)) == totalLength - 1
+			&& parseLong(contentRange.substring(slash + 1)) == totalLength;
+	}
+
+	private static long parseLong(@Nullable String value) {
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return a value for If-Range that identifies this version of the blob, if the server sent one
+	 */
+	private static @Nullable String getValidator(@NonNull HttpURLConnection connection) {
+		String etag = connection.getHeaderField("ETag");
+		if (etag != null && !etag.startsWith("W/")) {
+			return etag;
+		}
+		return connection.getHeaderField("Last-Modified");
+	}
+
+	private @NonNull HttpURLConnection openBlobConnection() throws IOException {
 		String blobIdHex = Utils.byteArrayToHexString(blobId);
 		String blobIdPrefix = blobIdHex.substring(0, 2);
 		URL blobUrl = new URL(String.format(blobUrlPattern, blobIdPrefix, blobIdHex));
 
 		logger.info("Loading blob from {}", blobUrl.getHost());
-		HttpsURLConnection connection = (HttpsURLConnection)blobUrl.openConnection();
-		connection.setSSLSocketFactory(this.factory.makeFactory(blobUrl.getHost()));
+		HttpURLConnection connection = (HttpURLConnection) blobUrl.openConnection();
+		if (connection instanceof HttpsURLConnection) {
+			((HttpsURLConnection) connection).setSSLSocketFactory(this.factory.makeFactory(blobUrl.getHost()));
+		}
 		connection.setConnectTimeout(ProtocolDefines.BLOB_CONNECT_TIMEOUT * 1000);
 		connection.setReadTimeout(ProtocolDefines.BLOB_LOAD_TIMEOUT * 1000);
 		connection.setRequestProperty("User-Agent", ProtocolStrings.USER_AGENT + "/" + version.getVersion());
 		connection.setDoOutput(false);
-
-		BufferedInputStream inputStream = new BufferedInputStream(connection.getInputStream());
-		int contentLength = connection.getContentLength();
-		return new InputStreamLength(inputStream, contentLength);
+		return connection;
 	}
 
 	public boolean markAsDown(byte[] blobId) {
@@ -219,6 +459,46 @@ public class BlobLoader {
 		blobDoneUrlPattern = ipv6 ? ProtocolStrings.BLOB_DONE_PATTERN_IPV6 : ProtocolStrings.BLOB_DONE_PATTERN;
 	}
 
+	/**
+	 * Contents of the progress sidecar file of a resumable download.
+	 */
+	private static class DownloadProgress {
+		private static final int VERSION = 1;
+
+		final long totalLength;
+		final @Nullable String validator;
+
+		DownloadProgress(long totalLength, @Nullable String validator) {
+			this.totalLength = totalLength;
+			this.validator = validator;
+		}
+
+		static @Nullable DownloadProgress read(@NonNull File progressFile) {
+			if (!progressFile.isFile()) {
+				return null;
+			}
+			try (DataInputStream dis = new DataInputStream(new FileInputStream(progressFile))) {
+				if (dis.readInt() != VERSION) {
+					return null;
+				}
+				long totalLength = dis.readLong();
+				String validator = dis.readUTF();
+				return totalLength >= 0 ? new DownloadProgress(totalLength, validator.isEmpty() ? null : validator) : null;
+			} catch (IOException e) {
+				logger.warn("Could not read blob download progress", e);
+				return null;
+			}
+		}
+
+		void write(@NonNull File progressFile) throws IOException {
+			try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(progressFile))) {
+				dos.writeInt(VERSION);
+				dos.writeLong(this.totalLength);
+				dos.writeUTF(this.validator != null ? this.validator : "");
+			}
+		}
+	}
+
 	public class InputStreamLength {
 		public final BufferedInputStream inputStream;
 		public final int length;
@@ -0,0 +1,45 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema Java Client
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Re-readable source of blob data, for processing that needs more than one pass over the data
+ * (see {@link EncryptingBlobInputStream} and {@link DecryptingBlobInputStream}).
+ */
+public interface BlobSource {
+	/**
+	 * @return a new stream over the data; every call must provide identical contents
+	 */
+	@NonNull InputStream open() throws IOException;
+
+	static @NonNull BlobSource fromFile(@NonNull File file) {
+		return () -> new FileInputStream(file);
+	}
+}
@@ -39,7 +39,8 @@ import ch.threema.base.ThreemaException;
 
 /**
  * Helper class that uploads a blob (image, video) to the blob server and returns the assigned blob
- * ID. No processing is done on the data; any encryption must happen separately.
+ * ID. No processing is done on the data; any encryption must happen separately, either in
+ * advance or while uploading by passing an {@link EncryptingBlobInputStream}.
  */
 public class BlobUploader {
 
@@ -71,6 +72,14 @@ public class BlobUploader {
 		this(factory, blobInputStream, blobLength, false, progressListener);
 	}
 
+	/**
+	 * Upload a blob that is encrypted while it is being sent, so the memory used does not
+	 * depend on the blob size.
+	 */
+	public BlobUploader(@NonNull SSLSocketFactoryFactory factory, @NonNull EncryptingBlobInputStream encryptingInputStream, ProgressListener progressListener) {
+		this(factory, encryptingInputStream, toBlobLength(encryptingInputStream.getLength()), progressListener);
+	}
+
 	public BlobUploader(
 		@NonNull SSLSocketFactoryFactory factory,
 		InputStream blobInputStream,
@@ -186,6 +195,13 @@ public class BlobUploader {
 		}
 	}
 
+	private static int toBlobLength(long length) {
+		if (length > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Blob too large");
+		}
+		return (int) length;
+	}
+
 	/**
 	 * Cancel an upload in progress. upload() will return null.
 	 */
@@ -93,9 +93,22 @@ public class BoxedMessage implements Serializable {
 	 * @return parsed message
 	 * @throws Exception if a parse error occurs
 	 */
-	@SuppressWarnings("ResultOfMethodCallIgnored")
 	public static BoxedMessage parseBinary(byte[] data) throws Exception {
-		ByteArrayInputStream bis = new ByteArrayInputStream(data);
+		return parseBinary(data, 0, data.length);
+	}
+
+	/**
+	 * Attempt to parse the binary message representation in the given range of an array into
+	 * a boxed message. The parsed message does not keep a reference to the array.
+	 * @param data array containing the binary representation of message
+	 * @param offset start of the binary representation
+	 * @param length length of the binary representation
+	 * @return parsed message
+	 * @throws Exception if a parse error occurs
+	 */
+	@SuppressWarnings("ResultOfMethodCallIgnored")
+	public static BoxedMessage parseBinary(byte[] data, int offset, int length) throws Exception {
+		ByteArrayInputStream bis = new ByteArrayInputStream(data, offset, length);
 		BoxedMessage message = new BoxedMessage();
 
 		byte[] identity = new byte[ProtocolDefines.IDENTITY_LEN];
@@ -148,6 +161,16 @@ public class BoxedMessage implements Serializable {
 		return parseBinary(payload.getData());
 	}
 
+	/**
+	 * Attempt to parse the given payload view into a boxed message
+	 * @param payload the payload to parse
+	 * @return parsed message, which remains valid after the payload buffer is reused
+	 * @throws Exception if a parse error occurs
+	 */
+	static BoxedMessage parsePayload(PayloadView payload) throws Exception {
+		return parseBinary(payload.getBuffer(), payload.getOffset(), payload.getLength());
+	}
+
 	public String getFromIdentity() {
 		return fromIdentity;
 	}
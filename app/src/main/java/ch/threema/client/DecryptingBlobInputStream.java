@@ -0,0 +1,185 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema Java Client
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.client;
+
+import com.neilalexander.jnacl.NaCl;
+import com.neilalexander.jnacl.crypto.xsalsa20poly1305stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Input stream that decrypts a blob in the format of {@link NaCl#symmetricEncryptData}
+ * (authenticator followed by the ciphertext) while only holding a fixed size buffer in memory,
+ * e.g. straight from the file a blob has been downloaded to.
+ *
+ * The authenticator is checked over the whole ciphertext before any plaintext is returned, so
+ * the source is read twice: once when the first byte is requested, and once more while the
+ * plaintext is being read from this stream. If the authenticator does not match, reading fails
+ * with an {@link IOException}.
+ */
+public class DecryptingBlobInputStream extends InputStream {
+	private static final int BUFFER_SIZE = 16384;
+
+	private final @NonNull BlobSource source;
+	private final long ciphertextLength;
+	private final @NonNull byte[] key;
+	private final @NonNull byte[] nonce;
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	private InputStream ciphertextStream;
+	private xsalsa20poly1305stream cipher;
+	private long remaining;
+	private boolean closed;
+
+	/**
+	 * @param source provider of the encrypted blob
+	 * @param ciphertextLength exact number of bytes provided by the source (including authenticator)
+	 * @param key symmetric encryption key
+	 * @param nonce encryption nonce
+	 */
+	public DecryptingBlobInputStream(@NonNull BlobSource source, long ciphertextLength, @NonNull byte[] key, @NonNull byte[] nonce) {
+		if (key.length != NaCl.SYMMKEYBYTES) {
+			throw new IllegalArgumentException("Invalid symmetric key length");
+		}
+		if (nonce.length != NaCl.NONCEBYTES) {
+			throw new IllegalArgumentException("Invalid nonce length");
+		}
+		if (ciphertextLength < NaCl.BOXOVERHEAD) {
+			throw new IllegalArgumentException("Invalid ciphertext length");
+		}
+
+		this.source = source;
+		this.ciphertextLength = ciphertextLength;
+		this.key = key;
+		this.nonce = nonce;
+	}
+
+	public DecryptingBlobInputStream(@NonNull File file, @NonNull byte[] key, @NonNull byte[] nonce) {
+		this(BlobSource.fromFile(file), file.length(), key, nonce);
+	}
+
+	/**
+	 * @return total number of bytes this stream produces (ciphertext length minus authenticator)
+	 */
+	public long getLength() {
+		return this.ciphertextLength - NaCl.BOXOVERHEAD;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int n = this.read(b, 0, 1);
+		return n < 0 ? -1 : (b[0] & 0xff);
+	}
+
+	@Override
+	public int read(@NonNull byte[] b, int off, int len) throws IOException {
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+		if (len == 0) {
+			return 0;
+		}
+
+		if (this.cipher == null) {
+			this.start();
+		}
+
+		if (this.remaining == 0) {
+			return -1;
+		}
+
+		int n = this.ciphertextStream.read(b, off, (int) Math.min(len, this.remaining));
+		if (n <= 0) {
+			throw new IOException("Blob source ended prematurely");
+		}
+
+		this.cipher.xor(b, off, b, off, n);
+		this.remaining -= n;
+
+		if (this.remaining == 0) {
+			this.ciphertextStream.close();
+			this.ciphertextStream = null;
+		}
+		return n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.closed = true;
+		if (this.ciphertextStream != null) {
+			this.ciphertextStream.close();
+			this.ciphertextStream = null;
+		}
+	}
+
+	/**
+	 * First pass: check the authenticator over the whole ciphertext. The second pass is started
+	 * right away, positioned after the authenticator.
+	 */
+	private void start() throws IOException {
+		byte[] tag = new byte[NaCl.BOXOVERHEAD];
+		xsalsa20poly1305stream macPass = new xsalsa20poly1305stream(this.nonce, this.key);
+		try (InputStream in = this.source.open()) {
+			readFully(in, tag);
+
+			long total = tag.length;
+			int n;
+			while ((n = in.read(this.buffer)) > 0) {
+				macPass.authenticate(this.buffer, 0, n);
+				total += n;
+				if (total > this.ciphertextLength) {
+					break;
+				}
+			}
+			if (total != this.ciphertextLength) {
+				throw new IOException("Blob source length mismatch (expected " + this.ciphertextLength + ", got " + total + ")");
+			}
+		}
+
+		if (!macPass.verify(tag, 0)) {
+			throw new IOException("Blob decryption failed");
+		}
+
+		this.cipher = new xsalsa20poly1305stream(this.nonce, this.key);
+		this.ciphertextStream = this.source.open();
+		readFully(this.ciphertextStream, tag);
+		this.remaining = this.ciphertextLength - NaCl.BOXOVERHEAD;
+	}
+
+	private static void readFully(@NonNull InputStream in, @NonNull byte[] b) throws IOException {
+		int offset = 0;
+		while (offset < b.length) {
+			int n = in.read(b, offset, b.length - offset);
+			if (n < 0) {
+				throw new IOException("Blob source ended prematurely");
+			}
+			offset += n;
+		}
+	}
+}
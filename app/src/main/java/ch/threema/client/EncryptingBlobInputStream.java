@@ -0,0 +1,189 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema Java Client
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.client;
+
+import com.neilalexander.jnacl.NaCl;
+import com.neilalexander.jnacl.crypto.xsalsa20poly1305stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Input stream that produces the encrypted form of a blob, in the same format as
+ * {@link NaCl#symmetricEncryptData} (authenticator followed by the ciphertext), while only
+ * holding a fixed size buffer in memory regardless of the blob size.
+ *
+ * As the authenticator precedes the ciphertext but covers all of it, the plaintext is read
+ * twice: once when the first byte is requested (to compute the authenticator), and once more
+ * while the ciphertext is being read from this stream. The source must therefore be able to
+ * provide the same plaintext again, e.g. by reopening a file.
+ */
+public class EncryptingBlobInputStream extends InputStream {
+	private static final int BUFFER_SIZE = 16384;
+
+	private final @NonNull BlobSource source;
+	private final long plaintextLength;
+	private final @NonNull byte[] key;
+	private final @NonNull byte[] nonce;
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int bufferOffset;
+	private int bufferLength;
+
+	private InputStream plaintextStream;
+	private xsalsa20poly1305stream cipher;
+	private long remaining;
+	private boolean closed;
+
+	/**
+	 * @param source provider of the plaintext
+	 * @param plaintextLength exact number of bytes provided by the source
+	 * @param key symmetric encryption key
+	 * @param nonce encryption nonce
+	 */
+	public EncryptingBlobInputStream(@NonNull BlobSource source, long plaintextLength, @NonNull byte[] key, @NonNull byte[] nonce) {
+		if (key.length != NaCl.SYMMKEYBYTES) {
+			throw new IllegalArgumentException("Invalid symmetric key length");
+		}
+		if (nonce.length != NaCl.NONCEBYTES) {
+			throw new IllegalArgumentException("Invalid nonce length");
+		}
+		if (plaintextLength < 0) {
+			throw new IllegalArgumentException("Invalid plaintext length");
+		}
+
+		this.source = source;
+		this.plaintextLength = plaintextLength;
+		this.key = key;
+		this.nonce = nonce;
+	}
+
+	/**
+	 * @return total number of bytes this stream produces (plaintext length plus authenticator)
+	 */
+	public long getLength() {
+		return this.plaintextLength + NaCl.BOXOVERHEAD;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int n = this.read(b, 0, 1);
+		return n < 0 ? -1 : (b[0] & 0xff);
+	}
+
+	@Override
+	public int read(@NonNull byte[] b, int off, int len) throws IOException {
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+		if (len == 0) {
+			return 0;
+		}
+
+		if (this.cipher == null) {
+			this.start();
+		}
+
+		if (this.bufferOffset == this.bufferLength && !this.fill()) {
+			return -1;
+		}
+
+		int count = Math.min(len, this.bufferLength - this.bufferOffset);
+		System.arraycopy(this.buffer, this.bufferOffset, b, off, count);
+		this.bufferOffset += count;
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return this.bufferLength - this.bufferOffset;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.closed = true;
+		if (this.plaintextStream != null) {
+			this.plaintextStream.close();
+			this.plaintextStream = null;
+		}
+	}
+
+	/**
+	 * First pass: encrypt the whole plaintext to obtain the authenticator, which is then put
+	 * into the buffer ahead of the ciphertext. The second pass is started right away.
+	 */
+	private void start() throws IOException {
+		xsalsa20poly1305stream macPass = new xsalsa20poly1305stream(this.nonce, this.key);
+		try (InputStream in = this.source.open()) {
+			long total = 0;
+			int n;
+			while ((n = in.read(this.buffer)) > 0) {
+				macPass.update(this.buffer, 0, this.buffer, 0, n);
+				total += n;
+				if (total > this.plaintextLength) {
+					break;
+				}
+			}
+			if (total != this.plaintextLength) {
+				throw new IOException("Blob source length mismatch (expected " + this.plaintextLength + ", got " + total + ")");
+			}
+		}
+		macPass.finish(this.buffer, 0);
+		this.bufferOffset = 0;
+		this.bufferLength = NaCl.BOXOVERHEAD;
+
+		this.cipher = new xsalsa20poly1305stream(this.nonce, this.key);
+		this.plaintextStream = this.source.open();
+		this.remaining = this.plaintextLength;
+	}
+
+	/**
+	 * Read and encrypt the next piece of plaintext into the buffer.
+	 *
+	 * @return false at the end of the stream
+	 */
+	private boolean fill() throws IOException {
+		if (this.remaining == 0) {
+			return false;
+		}
+
+		int n = this.plaintextStream.read(this.buffer, 0, (int) Math.min(this.buffer.length, this.remaining));
+		if (n <= 0) {
+			throw new IOException("Blob source ended prematurely");
+		}
+
+		this.cipher.update(this.buffer, 0, this.buffer, 0, n);
+		this.bufferOffset = 0;
+		this.bufferLength = n;
+		this.remaining -= n;
+
+		if (this.remaining == 0) {
+			this.plaintextStream.close();
+			this.plaintextStream = null;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,399 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema Java Client
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+/**
+ * Hands incoming boxed messages from the {@link ThreemaConnection} reader thread to a small
+ * pool of worker threads, so that the socket can be drained while messages are being
+ * decrypted and persisted.
+ *
+ * Processing happens in two stages:
+ *
+ * 1. Messages are decoded (decrypted) on decode workers, assigned by sender identity.
+ * 2. Decoded messages are put back into the order in which they were received and handed to
+ *    process workers, assigned by the key of their {@link Step}. Messages with the same key
+ *    (e.g. all messages of one group, regardless of their sender) are processed in the order
+ *    in which they were received.
+ *
+ * The per-worker queues and the number of messages between submission and dispatch to the
+ * process workers are bounded; if a worker falls behind, {@link #submit(BoxedMessage)} blocks
+ * the reader thread.
+ */
+public class IncomingMessagePipeline {
+	private static final Logger logger = LoggerFactory.getLogger(IncomingMessagePipeline.class);
+
+	public static final int DEFAULT_WORKER_COUNT = 4;
+	public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+	public interface Handler {
+		/**
+		 * Decode (decrypt) a single incoming message. Called on a decode worker thread,
+		 * concurrently for messages of different senders.
+		 *
+		 * @return the step processing (persisting and acknowledging) the message
+		 */
+		@WorkerThread
+		@NonNull Step decode(@NonNull BoxedMessage boxmsg);
+	}
+
+	public interface Step {
+		/**
+		 * @return key of the conversation the message belongs to, steps with the same key
+		 *         are processed in the order in which their messages were received
+		 */
+		@NonNull String getKey();
+
+		/**
+		 * Called on a process worker thread.
+		 */
+		@WorkerThread
+		void process();
+	}
+
+	private final Handler handler;
+	private final Worker[] decodeWorkers;
+	private final Worker[] processWorkers;
+
+	// Messages that have been submitted but not yet handed to a process worker
+	private final Semaphore inFlight;
+
+	// Decoded steps (or barriers) waiting for their predecessors, by sequence number
+	private final Map<Long, Runnable> reorderBuffer = new HashMap<>();
+	private long nextSequence = 0;
+	private long nextDispatch = 0;
+	// Whether a thread is handing steps to the process workers, only one thread does so at a time
+	private boolean dispatching = false;
+
+	public IncomingMessagePipeline(@NonNull Handler handler) {
+		this(handler, DEFAULT_WORKER_COUNT, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	public IncomingMessagePipeline(@NonNull Handler handler, int workerCount, int queueCapacity) {
+		if (workerCount < 1 || queueCapacity < 1) {
+			throw new IllegalArgumentException("workerCount and queueCapacity must be positive");
+		}
+
+		this.handler = handler;
+		this.inFlight = new Semaphore(workerCount * queueCapacity);
+		this.decodeWorkers = new Worker[workerCount];
+		this.processWorkers = new Worker[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			this.decodeWorkers[i] = new Worker("IncomingMessageDecoder-" + i, queueCapacity);
+			this.decodeWorkers[i].start();
+			this.processWorkers[i] = new Worker("IncomingMessageWorker-" + i, queueCapacity);
+			this.processWorkers[i].start();
+		}
+	}
+
+	/**
+	 * Enqueue an incoming message for processing. Blocks if too many messages are in flight
+	 * or if the queue of the responsible worker is full.
+	 */
+	public void submit(@NonNull final BoxedMessage boxmsg) throws InterruptedException {
+		this.inFlight.acquire();
+		final long sequence = this.nextSequence();
+		try {
+			getWorker(this.decodeWorkers, boxmsg.getFromIdentity()).queue.put(new Runnable() {
+				@Override
+				public void run() {
+					Step step = null;
+					try {
+						step = handler.decode(boxmsg);
+					} catch (Exception e) {
+						logger.error("Exception while decoding incoming message", e);
+					} finally {
+						complete(sequence, step);
+					}
+				}
+			});
+		} catch (InterruptedException e) {
+			// never leave a gap in the sequence, or nothing after it would be processed anymore
+			this.complete(sequence, null);
+			throw e;
+		}
+	}
+
+	/**
+	 * Run the given task once all messages that have been submitted so far are processed.
+	 * The task is executed on one of the worker threads.
+	 */
+	@AnyThread
+	public void runWhenIdle(@NonNull final Runnable task) throws InterruptedException {
+		this.submitBarrier(new Runnable() {
+			@Override
+			public void run() {
+				final AtomicInteger remaining = new AtomicInteger(processWorkers.length);
+				final Runnable countdown = new Runnable() {
+					@Override
+					public void run() {
+						if (remaining.decrementAndGet() == 0) {
+							task.run();
+						}
+					}
+				};
+				for (Worker worker : processWorkers) {
+					putUninterruptibly(worker, countdown);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Wait until all messages that have been submitted so far are processed. Interruptions
+	 * are deferred until the wait is over, so that messages that are already being processed
+	 * can still be acknowledged before the connection is torn down.
+	 *
+	 * @param timeoutMs maximum time to wait
+	 * @return true if the pipeline has been drained, false if the timeout expired
+	 */
+	public boolean awaitIdle(long timeoutMs) {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final long deadline = System.currentTimeMillis() + timeoutMs;
+		boolean interrupted = false;
+
+		try {
+			while (true) {
+				try {
+					this.runWhenIdle(new Runnable() {
+						@Override
+						public void run() {
+							latch.countDown();
+						}
+					});
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+
+			while (true) {
+				long remaining = deadline - System.currentTimeMillis();
+				try {
+					if (remaining > 0 && latch.await(remaining, TimeUnit.MILLISECONDS)) {
+						return true;
+					}
+					logger.warn("Timeout while waiting for incoming messages to be processed");
+					return false;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return number of messages (and pending idle tasks) that are waiting to be processed
+	 */
+	public int getQueueSize() {
+		int size = 0;
+		for (Worker worker : this.decodeWorkers) {
+			size += worker.queue.size();
+		}
+		for (Worker worker : this.processWorkers) {
+			size += worker.queue.size();
+		}
+		synchronized (this.reorderBuffer) {
+			size += this.reorderBuffer.size();
+		}
+		return size;
+	}
+
+	private long nextSequence() {
+		synchronized (this.reorderBuffer) {
+			return this.nextSequence++;
+		}
+	}
+
+	/**
+	 * Enqueue a task that is run once all messages submitted before it have been handed to
+	 * the process workers. Barriers pass the decode stage without waiting.
+	 */
+	private void submitBarrier(@NonNull Runnable barrier) {
+		synchronized (this.reorderBuffer) {
+			this.reorderBuffer.put(this.nextSequence++, barrier);
+			if (!this.startDispatching()) {
+				return;
+			}
+		}
+		this.dispatchInOrder();
+	}
+
+	/**
+	 * A message has been decoded, hand it (and all decoded messages waiting for it) to the
+	 * process workers in the order in which they were received.
+	 */
+	private void complete(long sequence, @Nullable final Step step) {
+		synchronized (this.reorderBuffer) {
+			this.reorderBuffer.put(sequence, new Dispatch(step));
+			if (!this.startDispatching()) {
+				return;
+			}
+		}
+		this.dispatchInOrder();
+	}
+
+	/**
+	 * @return true if the calling thread has to dispatch, false if another thread is already
+	 *         dispatching (and will pick up the steps that have just been added)
+	 */
+	private boolean startDispatching() {
+		if (this.dispatching) {
+			return false;
+		}
+		this.dispatching = true;
+		return true;
+	}
+
+	/**
+	 * Hand all steps that are next in order to the process workers. The reorder buffer is only
+	 * locked to collect the steps, so that decode workers are not blocked while a process
+	 * worker's queue is full.
+	 */
+	private void dispatchInOrder() {
+		final List<Runnable> ready = new ArrayList<>();
+		while (true) {
+			synchronized (this.reorderBuffer) {
+				Runnable next;
+				while ((next = this.reorderBuffer.remove(this.nextDispatch)) != null) {
+					this.nextDispatch++;
+					ready.add(next);
+				}
+				if (ready.isEmpty()) {
+					this.dispatching = false;
+					return;
+				}
+			}
+
+			for (Runnable task : ready) {
+				try {
+					task.run();
+				} catch (Exception e) {
+					logger.error("Exception while dispatching incoming message", e);
+				}
+			}
+			ready.clear();
+		}
+	}
+
+	/**
+	 * Hands a decoded step (if decoding succeeded) to the process worker of its key.
+	 */
+	private class Dispatch implements Runnable {
+		private final @Nullable Step step;
+
+		Dispatch(@Nullable Step step) {
+			this.step = step;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (this.step != null) {
+					putUninterruptibly(getWorker(processWorkers, this.step.getKey()), new Runnable() {
+						@Override
+						public void run() {
+							step.process();
+						}
+					});
+				}
+			} finally {
+				inFlight.release();
+			}
+		}
+	}
+
+	/**
+	 * Put a task into a worker's queue. Dispatching must not be aborted halfway, or steps
+	 * would get lost; interruptions are deferred until the task has been enqueued.
+	 */
+	private static void putUninterruptibly(@NonNull Worker worker, @NonNull Runnable task) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				worker.queue.put(task);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static Worker getWorker(@NonNull Worker[] workers, @Nullable String key) {
+		int hash = key != null ? key.hashCode() : 0;
+		return workers[(hash & 0x7fffffff) % workers.length];
+	}
+
+	private static class Worker extends Thread {
+		private final BlockingQueue<Runnable> queue;
+
+		Worker(@NonNull String name, int queueCapacity) {
+			super(name);
+			this.queue = new ArrayBlockingQueue<>(queueCapacity);
+			this.setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				Runnable task;
+				try {
+					task = this.queue.take();
+				} catch (InterruptedException e) {
+					logger.info("Interrupted");
+					break;
+				}
+
+				try {
+					task.run();
+				} catch (Exception e) {
+					logger.error("Exception while processing incoming message", e);
+				}
+			}
+		}
+	}
+}
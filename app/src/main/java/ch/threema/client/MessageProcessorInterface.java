@@ -46,14 +46,51 @@ public interface MessageProcessorInterface {
 			return new ProcessIncomingResult(true, abstractMessage);
 		}
 	}
+	class DecodeIncomingResult {
+		public final AbstractMessage abstractMessage;
+		public final ProcessIncomingResult result;
+
+		private DecodeIncomingResult(AbstractMessage abstractMessage, ProcessIncomingResult result) {
+			this.abstractMessage = abstractMessage;
+			this.result = result;
+		}
+
+		/**
+		 * The message has been decoded and needs to be processed.
+		 */
+		public static DecodeIncomingResult decoded(AbstractMessage abstractMessage) {
+			return new DecodeIncomingResult(abstractMessage, null);
+		}
+
+		/**
+		 * The message could not be decoded or is to be ignored, no further processing needed.
+		 */
+		public static DecodeIncomingResult done(ProcessIncomingResult result) {
+			return new DecodeIncomingResult(null, result);
+		}
+	}
+
+	/**
+	 * Decrypt and decode an incoming message. This may be called concurrently for messages
+	 * of different senders, before earlier messages have been processed.
+	 *
+	 * @param boxmsg boxed message to be decoded
+	 */
+	@WorkerThread
+	DecodeIncomingResult decodeIncomingMessage(BoxedMessage boxmsg);
+
 	/**
-	 * Process an incoming message. This method should return true if the message has been processed
+	 * Process a decoded incoming message. This method should return true if the message has been processed
 	 * successfully, or false on error. An ACK will only be sent to the server if the return value is true.
 	 *
+	 * Messages of the same sender and messages of the same group are processed in the order in which
+	 * they have been received.
+	 *
 	 * @param boxmsg boxed message to be processed
+	 * @param msg the message decoded by {@link #decodeIncomingMessage(BoxedMessage)}
 	 */
 	@WorkerThread
-	ProcessIncomingResult processIncomingMessage(BoxedMessage boxmsg);
+	ProcessIncomingResult processIncomingMessage(BoxedMessage boxmsg, AbstractMessage msg);
 
 	/**
 	 * Process a server alert message. This is an informative message that the server may send
@@ -31,32 +31,59 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
-import java.util.Iterator;
-import java.util.LinkedList;
-
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import androidx.annotation.NonNull;
 import ch.threema.base.ThreemaException;
 
 /**
  * Message queue, used to send messages.
  *
+ * Queued messages are kept in insertion order and indexed by message ID, so that ACKs can be
+ * processed in constant time. Note that the same message ID may be queued several times (e.g.
+ * group messages sent to multiple members); an ACK always removes the oldest one.
+ *
+ * If a {@link MessageQueueJournal} is attached, every change is appended to it.
+ *
  * This class is thread safe.
  */
 public class MessageQueue implements MessageAckListener, ConnectionStateListener {
 
 	private static final Logger logger = LoggerFactory.getLogger(MessageQueue.class);
 
+	/* rewrite the journal once it contains this many more records than the queue */
+	private static final int JOURNAL_COMPACT_THRESHOLD = 256;
+
 	private final ContactStoreInterface contactStore;
 	private final IdentityStoreInterface identityStore;
 	private final ThreemaConnection con;
 
-	private final LinkedList<BoxedMessage> queue;
+	/* queued messages by insertion sequence number, in insertion order */
+	private final LinkedHashMap<Long, BoxedMessage> queue;
+	/* sequence numbers of queued messages by message ID, oldest first */
+	private final HashMap<MessageId, ArrayDeque<Long>> index;
+	private long nextSequenceNumber;
+
+	private MessageQueueJournal journal;
+	/* the journal is compacted in the background, so that processing an ACK never rewrites it */
+	private final ExecutorService journalExecutor = Executors.newSingleThreadExecutor();
+	private boolean journalCompactionScheduled;
+	/* serializes journal rewrites, which run without holding the queue lock */
+	private final Object journalCompactionLock = new Object();
 
 	public MessageQueue(ContactStoreInterface contactStore, IdentityStoreInterface identityStore, ThreemaConnection con) {
 		this.contactStore = contactStore;
 		this.identityStore = identityStore;
 		this.con = con;
 
-		queue = new LinkedList<>();
+		queue = new LinkedHashMap<>();
+		index = new HashMap<>();
 
 		/* add ourselves as an ACK listener to the connection */
 		con.addMessageAckListener(this);
@@ -98,24 +125,19 @@ public class MessageQueue implements MessageAckListener, ConnectionStateListener
 
 			/* Only add to queue if we want an ACK for this message */
 			if (!message.isNoAck())
-				queue.add(boxmsg);
+				add(boxmsg, true);
 		} else {
 			if (message.isImmediate())
 				logger.debug("Discarding immediate message because not connected");
 			else
-				queue.add(boxmsg);
+				add(boxmsg, true);
 		}
 
 		return boxmsg;
 	}
 
 	public synchronized boolean isQueued(MessageId messageId) {
-		for (BoxedMessage boxmsg : queue) {
-			if (boxmsg.getMessageId().equals(messageId))
-				return true;
-		}
-
-		return false;
+		return index.containsKey(messageId);
 	}
 
 	/**
@@ -124,15 +146,7 @@ public class MessageQueue implements MessageAckListener, ConnectionStateListener
 	 * @return true if a message has been dequeued, false otherwise
 	 */
 	public synchronized boolean dequeue(MessageId messageId) {
-		Iterator<BoxedMessage> it = queue.iterator();
-		while (it.hasNext()) {
-			MessageId id = it.next().getMessageId();
-			if (id != null && id.equals(messageId)) {
-				it.remove();
-				return true;
-			}
-		}
-		return false;
+		return messageId != null && remove(messageId, true);
 	}
 
 	public synchronized void processAck(MessageId messageId) {
@@ -141,15 +155,9 @@ public class MessageQueue implements MessageAckListener, ConnectionStateListener
 		logger.debug("Processing ACK for message ID {}", messageId);
 
 		/* find this message in the queue and remove it */
-		Iterator<BoxedMessage> it = queue.iterator();
-		while (it.hasNext()) {
-			if (it.next().getMessageId().equals(messageId)) {
-				it.remove();
-				return;
-			}
+		if (!remove(messageId, true)) {
+			logger.warn("Message ID {} not found in queue", messageId);
 		}
-
-		logger.warn("Message ID {} not found in queue", messageId);
 	}
 
 	public synchronized int getQueueSize() {
@@ -160,7 +168,7 @@ public class MessageQueue implements MessageAckListener, ConnectionStateListener
 		logger.info("Processing queue");
 
 		/* Send all messages in our queue */
-		for (BoxedMessage boxmsg : queue) {
+		for (BoxedMessage boxmsg : queue.values()) {
 			con.sendBoxedMessage(boxmsg);
 		}
 	}
@@ -170,10 +178,132 @@ public class MessageQueue implements MessageAckListener, ConnectionStateListener
 			processQueue();
 	}
 
+	private void add(BoxedMessage boxmsg, boolean journaled) {
+		long sequenceNumber = nextSequenceNumber++;
+		queue.put(sequenceNumber, boxmsg);
+
+		ArrayDeque<Long> sequenceNumbers = index.get(boxmsg.getMessageId());
+		if (sequenceNumbers == null) {
+			sequenceNumbers = new ArrayDeque<>(1);
+			index.put(boxmsg.getMessageId(), sequenceNumbers);
+		}
+		sequenceNumbers.addLast(sequenceNumber);
+
+		if (journaled && journal != null) {
+			try {
+				journal.appendEnqueue(boxmsg);
+			} catch (IOException e) {
+				logger.error("Could not append to message queue journal", e);
+			}
+		}
+	}
+
+	private boolean remove(MessageId messageId, boolean journaled) {
+		ArrayDeque<Long> sequenceNumbers = index.get(messageId);
+		if (sequenceNumbers == null) {
+			return false;
+		}
+
+		queue.remove(sequenceNumbers.removeFirst());
+		if (sequenceNumbers.isEmpty()) {
+			index.remove(messageId);
+		}
+
+		if (journaled && journal != null) {
+			try {
+				journal.appendRemove(messageId);
+				if (!journalCompactionScheduled && journal.getRecordCount() > queue.size() + JOURNAL_COMPACT_THRESHOLD) {
+					journalCompactionScheduled = true;
+					journalExecutor.execute(() -> {
+						try {
+							compactJournal();
+						} catch (IOException e) {
+							logger.error("Could not compact message queue journal", e);
+						}
+					});
+				}
+			} catch (IOException e) {
+				logger.error("Could not append to message queue journal", e);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Attach a journal and restore all messages recorded in it. Messages already in the queue
+	 * (e.g. restored from a legacy serialized file) are written to the journal as well.
+	 * Afterwards, every change to the queue is appended to the journal.
+	 */
+	public void restoreFromJournal(@NonNull MessageQueueJournal journal) throws IOException {
+		synchronized (this) {
+			replayJournal(journal);
+		}
+		compactJournal();
+
+		processQueue();
+	}
+
+	private void replayJournal(@NonNull MessageQueueJournal journal) throws IOException {
+		final String myId = identityStore.getIdentity();
+		final int sizeBefore = queue.size();
+
+		journal.replay(new MessageQueueJournal.ReplayListener() {
+			@Override
+			public void onEnqueue(@NonNull BoxedMessage boxmsg) {
+				add(boxmsg, false);
+			}
+
+			@Override
+			public void onRemove(@NonNull MessageId messageId) {
+				remove(messageId, false);
+			}
+		});
+
+		/* make sure all messages match our own current ID (the user may have switched IDs in the meantime) */
+		if (myId != null) {
+			List<MessageId> foreign = new ArrayList<>();
+			for (BoxedMessage boxmsg : queue.values()) {
+				if (!myId.equals(boxmsg.getFromIdentity())) {
+					foreign.add(boxmsg.getMessageId());
+				}
+			}
+			for (MessageId messageId : foreign) {
+				remove(messageId, false);
+			}
+		}
+
+		this.journal = journal;
+
+		logger.info("Restored {} messages from journal", queue.size() - sizeBefore);
+	}
+
+	/**
+	 * Rewrite the journal so that it only contains the currently queued messages.
+	 *
+	 * Only the snapshot of the queue is taken under the queue lock; the journal is written
+	 * without holding it, so that enqueue and ACK processing can continue meanwhile.
+	 */
+	public void compactJournal() throws IOException {
+		synchronized (journalCompactionLock) {
+			final MessageQueueJournal journal;
+			final List<BoxedMessage> messages;
+			synchronized (this) {
+				journalCompactionScheduled = false;
+				if (this.journal == null) {
+					return;
+				}
+				journal = this.journal;
+				messages = new ArrayList<>(queue.values());
+				journal.beginRewrite();
+			}
+			journal.rewrite(messages);
+		}
+	}
+
 	public synchronized void serializeToStream(OutputStream os) throws IOException {
 		ObjectOutputStream oos = new ObjectOutputStream(os);
 
-		for (BoxedMessage msg : queue) {
+		for (BoxedMessage msg : queue.values()) {
 			oos.writeObject(msg);
 		}
 
@@ -195,7 +325,7 @@ public class MessageQueue implements MessageAckListener, ConnectionStateListener
 				if (!myId.equals(msg.getFromIdentity()))
 					continue;
 
-				queue.add(msg);
+				add(msg, true);
 
 			} catch (EOFException e) {
 				break;
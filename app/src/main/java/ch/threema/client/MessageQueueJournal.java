@@ -0,0 +1,75 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema Java Client
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.client;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Append-only persistent log of {@link MessageQueue} operations. Replaying all records in order
+ * reconstructs the queue, so individual enqueue and remove operations never require rewriting
+ * the whole queue.
+ */
+public interface MessageQueueJournal {
+
+	interface ReplayListener {
+		void onEnqueue(@NonNull BoxedMessage boxmsg);
+		void onRemove(@NonNull MessageId messageId);
+	}
+
+	/**
+	 * Record that a message has been added to the queue.
+	 */
+	void appendEnqueue(@NonNull BoxedMessage boxmsg) throws IOException;
+
+	/**
+	 * Record that the oldest queued message with the given ID has been removed from the queue.
+	 * Implementations may write the record later, but before any record appended afterwards.
+	 */
+	void appendRemove(@NonNull MessageId messageId) throws IOException;
+
+	/**
+	 * Replay all records in the order in which they were appended. A truncated trailing record
+	 * (e.g. after a crash) is ignored.
+	 */
+	void replay(@NonNull ReplayListener listener) throws IOException;
+
+	/**
+	 * Start a rewrite. Must be called while the queue contains exactly the messages that will be
+	 * passed to {@link #rewrite}; records appended after this call are kept by the rewrite.
+	 */
+	void beginRewrite();
+
+	/**
+	 * Replace the journal contents with enqueue records for the given messages, followed by all
+	 * records appended since {@link #beginRewrite} was called. May be called without holding the
+	 * queue lock, i.e. concurrently with appends.
+	 */
+	void rewrite(@NonNull Collection<BoxedMessage> messages) throws IOException;
+
+	/**
+	 * @return number of records appended since the journal was last rewritten
+	 */
+	int getRecordCount();
+}
@@ -90,4 +90,13 @@ final public class NonceFactory {
 	public boolean exists(byte[] nonce) {
 		return this.nonceStore.exists(nonce);
 	}
+
+	/**
+	 * Run the given task once all nonces stored so far have been persisted
+	 *
+	 * @param task
+	 */
+	public void runWhenPersisted(Runnable task) {
+		this.nonceStore.runWhenPersisted(task);
+	}
 }
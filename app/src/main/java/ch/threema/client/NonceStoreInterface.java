@@ -41,4 +41,12 @@ public interface NonceStoreInterface {
 	 * @return return false if the nonce already exists
 	 */
 	boolean store(byte[] nonce);
+
+	/**
+	 * Run the given task once all nonces stored so far have been persisted. Stores that
+	 * persist nonces synchronously may run the task immediately on the calling thread.
+	 *
+	 * @param task task to run, e.g. sending the ACK for a message whose nonce has been stored
+	 */
+	void runWhenPersisted(Runnable task);
 }
@@ -0,0 +1,92 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema Java Client
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.client;
+
+import java.util.Arrays;
+
+/**
+ * A received payload whose data is a range of a (possibly reused) receive buffer, so that
+ * frames can be decoded without copying. The view is only valid until the buffer is reused;
+ * anything that needs to keep the data must copy it.
+ */
+class PayloadView {
+
+	private final int type;
+	private final byte[] buffer;
+	private final int offset;
+	private final int length;
+
+	public PayloadView(int type, byte[] buffer, int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > buffer.length) {
+			throw new IndexOutOfBoundsException("Invalid payload range");
+		}
+		this.type = type;
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * @return the underlying buffer; the payload data starts at {@link #getOffset()}
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @return big endian integer at the given index of the payload data
+	 */
+	public int getInt(int index) {
+		int i = offset + index;
+		return buffer[i] << 24 | (buffer[i + 1] & 0xFF) << 16 | (buffer[i + 2] & 0xFF) << 8 | (buffer[i + 3] & 0xFF);
+	}
+
+	/**
+	 * @return copy of the given range of the payload data
+	 */
+	public byte[] copyData(int index, int count) {
+		if (index < 0 || count < 0 || index + count > length) {
+			throw new IndexOutOfBoundsException("Invalid payload range");
+		}
+		return Arrays.copyOfRange(buffer, offset + index, offset + index + count);
+	}
+
+	/**
+	 * @return a {@link Payload} with a copy of the data, which remains valid after the buffer is reused
+	 */
+	public Payload toPayload() {
+		return new Payload(type, copyData(0, length));
+	}
+}
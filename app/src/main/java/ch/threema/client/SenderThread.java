@@ -24,14 +24,16 @@ package ch.threema.client;
 import androidx.annotation.AnyThread;
 import com.neilalexander.jnacl.NaCl;
 
-import org.apache.commons.io.EndianUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.neilalexander.jnacl.NaCl.BOXOVERHEAD;
 
@@ -44,13 +46,31 @@ class SenderThread extends Thread {
 
 	private static final Logger logger = LoggerFactory.getLogger(SenderThread.class);
 
+	/**
+	 * Default upper bound for the number of bytes written to the socket in one go. Must be at least
+	 * {@link ProtocolDefines#MAX_PKT_LEN} + 2 so that a single packet always fits.
+	 */
+	public static final int DEFAULT_MAX_BATCH_BYTES = 64 * 1024;
+
 	private final OutputStream os;
 	private final NaCl kclientTempServerTemp;
 	private final NonceCounter clientNonce;
+	private final int maxBatchBytes;
 
 	private final BlockingQueue<Payload> sendQueue;
 	private boolean running;
 
+	/* reused between batches */
+	private final List<Payload> batch = new ArrayList<>();
+	private final byte[] batchBuffer;
+	private int batchBufferLength;
+	private int batchBufferPackets;
+
+	/* statistics */
+	private final AtomicLong batchCount = new AtomicLong();
+	private final AtomicLong packetCount = new AtomicLong();
+	private final AtomicLong byteCount = new AtomicLong();
+
 	/**
 	 * Instantiate a new SenderThread instance.
 	 *
@@ -59,11 +79,29 @@ class SenderThread extends Thread {
 	 * @param clientNonce The nonce counter associated with this server connection.
 	 */
 	public SenderThread(OutputStream os, NaCl kclientTempServerTemp, NonceCounter clientNonce) {
+		this(os, kclientTempServerTemp, clientNonce, DEFAULT_MAX_BATCH_BYTES);
+	}
+
+	/**
+	 * Instantiate a new SenderThread instance.
+	 *
+	 * @param os The {@link OutputStream} used to send data to server.
+	 * @param kclientTempServerTemp The NaCl keypair used to communicate securely with the server.
+	 * @param clientNonce The nonce counter associated with this server connection.
+	 * @param maxBatchBytes Maximum number of bytes to write before flushing the output stream.
+	 */
+	public SenderThread(OutputStream os, NaCl kclientTempServerTemp, NonceCounter clientNonce, int maxBatchBytes) {
 		super("SenderThread");
 
+		if (maxBatchBytes < ProtocolDefines.MAX_PKT_LEN + 2) {
+			throw new IllegalArgumentException("maxBatchBytes must be at least MAX_PKT_LEN + 2");
+		}
+
 		this.os = os;
 		this.kclientTempServerTemp = kclientTempServerTemp;
 		this.clientNonce = clientNonce;
+		this.maxBatchBytes = maxBatchBytes;
+		this.batchBuffer = new byte[maxBatchBytes];
 
 		this.sendQueue = new LinkedBlockingQueue<>();
 		this.running = true;
@@ -86,38 +124,105 @@ class SenderThread extends Thread {
 			// Note: The `sendQueue.take()` method will check for interruptions,
 			// so we don't need to explicitly check `Thread.interrupted()` here.
 			try {
-				logger.info("Get payload from SendQueue.");
-				Payload payload = sendQueue.take();
-				logger.info("{} entries left", sendQueue.size());
-
-				/* encrypt payload */
-				byte[] pktdata = payload.makePacket();
-				if (pktdata.length > (ProtocolDefines.MAX_PKT_LEN - BOXOVERHEAD)) {
-					logger.info("Packet is too big ({}) - cannot send", pktdata.length);
-					continue;
-				}
-				byte[] pktBox = kclientTempServerTemp.encrypt(pktdata, clientNonce.nextNonce());
-
-				EndianUtils.writeSwappedShort(os, (short)pktBox.length);
-				os.write(pktBox);
-				os.flush();
-
-				logger.info(
-					"Message payload successfully sent. Size = {} - Type = {}",
-					pktBox.length,
-					Utils.byteToHex((byte) payload.getType(), true, true)
-				);
+				/* wait for one payload, then take everything else that is already queued */
+				batch.add(sendQueue.take());
+				sendQueue.drainTo(batch);
+
+				sendBatch();
 			} catch (InterruptedException e) {
 				logger.info("Interrupted");
 				break;
 			} catch (IOException e) {
 				logger.info("Exception in sender thread", e);
 				break;
+			} finally {
+				batch.clear();
 			}
 		}
 		logger.info("Ended");
 	}
 
+	/**
+	 * Encrypt all payloads of the current batch back-to-back into the batch buffer and write them
+	 * to the output stream, flushing only once at the end.
+	 */
+	private void sendBatch() throws IOException {
+		long packetsBefore = packetCount.get();
+		long bytesBefore = byteCount.get();
+
+		for (Payload payload : batch) {
+			byte[] pktdata = payload.makePacket();
+			if (pktdata.length > (ProtocolDefines.MAX_PKT_LEN - BOXOVERHEAD)) {
+				logger.info("Packet is too big ({}) - cannot send", pktdata.length);
+				continue;
+			}
+			final int boxLength = pktdata.length + BOXOVERHEAD;
+
+			if (batchBufferLength + 2 + boxLength > maxBatchBytes) {
+				writeBatchBuffer();
+			}
+
+			/* encrypt directly into the batch buffer, behind the 2-byte little endian length prefix */
+			kclientTempServerTemp.encrypt(pktdata, 0, pktdata.length, clientNonce.nextNonce(), batchBuffer, batchBufferLength + 2);
+			batchBuffer[batchBufferLength++] = (byte) boxLength;
+			batchBuffer[batchBufferLength++] = (byte) (boxLength >>> 8);
+			batchBufferLength += boxLength;
+			batchBufferPackets++;
+
+			if (logger.isDebugEnabled()) {
+				logger.debug("Queued payload. Size = {} - Type = {}", boxLength, Utils.byteToHex((byte) payload.getType(), true, true));
+			}
+		}
+
+		writeBatchBuffer();
+		long sentPackets = packetCount.get() - packetsBefore;
+		if (sentPackets == 0) {
+			return;
+		}
+		os.flush();
+		batchCount.incrementAndGet();
+
+		logger.info("Sent {} payloads ({} bytes), {} entries left", sentPackets, byteCount.get() - bytesBefore, sendQueue.size());
+	}
+
+	/**
+	 * Write the batch buffer to the output stream. Packets and bytes are only counted once they
+	 * have been written, not if they are skipped or lost to a write error.
+	 */
+	private void writeBatchBuffer() throws IOException {
+		if (batchBufferLength > 0) {
+			try {
+				os.write(batchBuffer, 0, batchBufferLength);
+				packetCount.addAndGet(batchBufferPackets);
+				byteCount.addAndGet(batchBufferLength);
+			} finally {
+				batchBufferLength = 0;
+				batchBufferPackets = 0;
+			}
+		}
+	}
+
+	/**
+	 * @return number of batches (i.e. flushes) sent so far
+	 */
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+
+	/**
+	 * @return number of payloads sent so far
+	 */
+	public long getPacketCount() {
+		return packetCount.get();
+	}
+
+	/**
+	 * @return number of bytes (including length prefixes) sent so far
+	 */
+	public long getByteCount() {
+		return byteCount.get();
+	}
+
 	/**
 	 * Shut down the sender thread.
 	 */
@@ -0,0 +1,135 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema Java Client
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.client;
+
+import com.neilalexander.jnacl.NaCl;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of precomputed NaCl shared keys (crypto_box_beforenm results), keyed
+ * by the public key of the peer. Computing a shared key requires a Curve25519 scalar
+ * multiplication, which dominates the cost of encrypting or decrypting a single message.
+ *
+ * Evicted and cleared keys are zeroized. The cache is bound to one private key; it must
+ * be cleared whenever that key changes.
+ */
+public class SharedKeyCache {
+	public static final int DEFAULT_MAX_ENTRIES = 64;
+
+	private final int maxEntries;
+	private final LinkedHashMap<ByteBuffer, byte[]> cache;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+	public SharedKeyCache() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	public SharedKeyCache(int maxEntries) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be positive");
+		}
+		this.maxEntries = maxEntries;
+		this.cache = new LinkedHashMap<ByteBuffer, byte[]>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, byte[]> eldest) {
+				if (size() > SharedKeyCache.this.maxEntries) {
+					zeroize(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Return a NaCl instance for the given key pair, using a cached shared key if available.
+	 * The returned instance holds its own copy of the shared key and is therefore not affected
+	 * by a later eviction.
+	 *
+	 * @param privateKey own private key
+	 * @param publicKey peer public key
+	 * @return NaCl instance
+	 */
+	public NaCl get(byte[] privateKey, byte[] publicKey) {
+		ByteBuffer cacheKey = ByteBuffer.wrap(publicKey);
+
+		synchronized (this.cache) {
+			byte[] precomputed = this.cache.get(cacheKey);
+			if (precomputed != null) {
+				this.hitCount.incrementAndGet();
+				return new NaCl(precomputed);
+			}
+		}
+
+		/* compute outside the lock, a concurrent miss for the same key is harmless */
+		this.missCount.incrementAndGet();
+		byte[] precomputed = NaCl.precompute(privateKey, publicKey);
+		NaCl nacl = new NaCl(precomputed);
+
+		synchronized (this.cache) {
+			byte[] previous = this.cache.put(ByteBuffer.wrap(Arrays.copyOf(publicKey, publicKey.length)), precomputed);
+			if (previous != null && previous != precomputed) {
+				zeroize(previous);
+			}
+		}
+		return nacl;
+	}
+
+	/**
+	 * Zeroize and remove all cached shared keys.
+	 */
+	public void clear() {
+		synchronized (this.cache) {
+			Iterator<byte[]> iterator = this.cache.values().iterator();
+			while (iterator.hasNext()) {
+				zeroize(iterator.next());
+				iterator.remove();
+			}
+		}
+	}
+
+	public int size() {
+		synchronized (this.cache) {
+			return this.cache.size();
+		}
+	}
+
+	public long getHitCount() {
+		return this.hitCount.get();
+	}
+
+	public long getMissCount() {
+		return this.missCount.get();
+	}
+
+	private static void zeroize(byte[] key) {
+		Arrays.fill(key, (byte) 0);
+	}
+}
@@ -22,6 +22,7 @@
 package ch.threema.client;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import com.neilalexander.jnacl.NaCl;
 
 import org.apache.commons.io.EndianUtils;
@@ -74,6 +75,7 @@ public class ThreemaConnection implements Runnable {
 	private final IdentityStoreInterface identityStore;
 	private final NonceFactory nonceFactory;
 	private MessageProcessorInterface messageProcessor;
+	private final IncomingMessagePipeline incomingMessagePipeline;
 
 	/* Permanent data */
 	private final String serverNamePrefix;
@@ -166,6 +168,8 @@ public class ThreemaConnection implements Runnable {
 		state = ConnectionState.DISCONNECTED;
 
 		version = new Version();
+
+		incomingMessagePipeline = new IncomingMessagePipeline(this::decodeBoxedMessage);
 	}
 
 	public MessageProcessorInterface getMessageProcessor() {
@@ -492,31 +496,36 @@ public class ThreemaConnection implements Runnable {
 				/* tell our listeners */
 				setConnectionState(ConnectionState.LOGGEDIN);
 
-				/* receive packets until the connection dies */
+				/* receive packets until the connection dies; frames are read into and decrypted
+				   in a reused buffer, payloads are only views of it */
+				byte[] receiveBuffer = new byte[ProtocolDefines.MAX_PKT_LEN];
 				while (running) {
 					int length = EndianUtils.swapShort(dis.readShort());
-					byte[] data = new byte[length];
-
-					dis.readFully(data);
-					logger.debug("Received payload ({} bytes)", length);
-
 					if (length < 4) {
 						logger.error("TC004");  /* Short payload received */
 						break;
 					}
 
-					/* decrypt payload */
-					byte[] decrypted = kclientTempServerTemp.decrypt(data, serverNonce.nextNonce());
-					if (decrypted == null) {
+					if (length > receiveBuffer.length) {
+						receiveBuffer = new byte[length];
+					}
+					dis.readFully(receiveBuffer, 0, length);
+					logger.debug("Received payload ({} bytes)", length);
+
+					/* decrypt payload in place */
+					if (!kclientTempServerTemp.decrypt(receiveBuffer, 0, length, serverNonce.nextNonce(), receiveBuffer, 0)) {
 						logger.error("TC005");   /* Payload decryption failed */
 						break;
 					}
 
-					int payloadType = decrypted[0] & 0xFF;
-					byte[] payloadData = new byte[decrypted.length - 4];
-					System.arraycopy(decrypted, 4, payloadData, 0, decrypted.length - 4);
-					Payload payload = new Payload(payloadType, payloadData);
-					processPayload(payload);
+					int decryptedLength = length - NaCl.BOXOVERHEAD;
+					if (decryptedLength < 4) {
+						logger.error("TC004");  /* Short payload received */
+						break;
+					}
+
+					int payloadType = receiveBuffer[0] & 0xFF;
+					processPayload(new PayloadView(payloadType, receiveBuffer, 4, decryptedLength - 4));
 				}
 
 			} catch (Exception e) {
@@ -533,6 +542,9 @@ public class ThreemaConnection implements Runnable {
 				}
 			}
 
+			/* let the workers finish (and acknowledge) the messages they have already received */
+			incomingMessagePipeline.awaitIdle(ProtocolDefines.READ_TIMEOUT * 1000);
+
 			setConnectionState(ConnectionState.DISCONNECTED);
 
 			if (senderThread != null) {
@@ -641,27 +653,32 @@ public class ThreemaConnection implements Runnable {
 		}
 	}
 
-	private void processPayload(Payload payload) throws PayloadProcessingException {
-		byte[] data = payload.getData();
+	/**
+	 * Process a received payload. The payload is only valid until this method returns.
+	 */
+	private void processPayload(PayloadView payload) throws PayloadProcessingException {
+		byte[] data = payload.getBuffer();
+		int offset = payload.getOffset();
+		int length = payload.getLength();
 
 		logger.debug("Payload type {}", payload.getType());
 
 		switch (payload.getType()) {
 			case ProtocolDefines.PLTYPE_ECHO_REPLY:
-				if (data.length == 4)
-					lastRcvdEchoSeq = Utils.byteArrayToInt(data);
+				if (length == 4)
+					lastRcvdEchoSeq = payload.getInt(0);
 				else
-					throw new PayloadProcessingException("TP001 (" + data.length + ")");  /* Bad echo reply datalen */
+					throw new PayloadProcessingException("TP001 (" + length + ")");  /* Bad echo reply datalen */
 
 				logger.info("Received echo reply (seq {})", lastRcvdEchoSeq);
 				break;
 
 			case ProtocolDefines.PLTYPE_ERROR:
-				if (data.length < 1)
+				if (length < 1)
 					throw new PayloadProcessingException("TP002");  /* Bad error packet length */
 
-				int reconnectAllowed = data[0] & 0xFF;
-				String errorMessage = new String(data, 1, data.length - 1, StandardCharsets.UTF_8);
+				int reconnectAllowed = data[offset] & 0xFF;
+				String errorMessage = new String(data, offset + 1, length - 1, StandardCharsets.UTF_8);
 
 				logger.error("TC006: {}", errorMessage);    /* Received error message from server: */
 
@@ -681,7 +698,7 @@ public class ThreemaConnection implements Runnable {
 				break;
 
 			case ProtocolDefines.PLTYPE_ALERT:
-				String alertMessage = new String(data, StandardCharsets.UTF_8);
+				String alertMessage = new String(data, offset, length, StandardCharsets.UTF_8);
 
 				logger.info("Received alert message from server: {}", alertMessage);
 
@@ -694,12 +711,11 @@ public class ThreemaConnection implements Runnable {
 				break;
 
 			case ProtocolDefines.PLTYPE_OUTGOING_MESSAGE_ACK:
-				if (data.length != (ProtocolDefines.IDENTITY_LEN + ProtocolDefines.MESSAGE_ID_LEN))
-					throw new PayloadProcessingException("TP003 (" + data.length + ")");       /* Bad ACK payload data length */
+				if (length != (ProtocolDefines.IDENTITY_LEN + ProtocolDefines.MESSAGE_ID_LEN))
+					throw new PayloadProcessingException("TP003 (" + length + ")");       /* Bad ACK payload data length */
 
 			/* ignore from identity, as it must be ours */
-				byte[] messageIdB = new byte[ProtocolDefines.MESSAGE_ID_LEN];
-				System.arraycopy(data, 8, messageIdB, 0, ProtocolDefines.MESSAGE_ID_LEN);
+				byte[] messageIdB = payload.copyData(ProtocolDefines.IDENTITY_LEN, ProtocolDefines.MESSAGE_ID_LEN);
 				MessageId messageId;
 				try {
 					messageId = new MessageId(messageIdB);
@@ -715,51 +731,132 @@ public class ThreemaConnection implements Runnable {
 				break;
 
 			case ProtocolDefines.PLTYPE_QUEUE_SEND_COMPLETE:
-				notifyQueueSendComplete();
+				/* only report completion once all messages received so far have been processed */
+				try {
+					incomingMessagePipeline.runWhenIdle(this::notifyQueueSendComplete);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
 				break;
 		}
 	}
 
-	private void processIncomingMessagePayload(Payload payload) throws PayloadProcessingException {
-		byte[] data = payload.getData();
-
-		if (data.length < ProtocolDefines.OVERHEAD_MSG_HDR)
-			throw new PayloadProcessingException("TP004 (" + data.length + ")"); /* Bad message payload data length */
+	private void processIncomingMessagePayload(PayloadView payload) throws PayloadProcessingException {
+		if (payload.getLength() < ProtocolDefines.OVERHEAD_MSG_HDR)
+			throw new PayloadProcessingException("TP004 (" + payload.getLength() + ")"); /* Bad message payload data length */
 
 		try {
+			/* parsing copies everything the message needs out of the receive buffer */
 			BoxedMessage boxmsg = BoxedMessage.parsePayload(payload);
 
 			logger.info("Incoming message from {} (ID {})", boxmsg.getFromIdentity(), boxmsg.getMessageId());
 
-			if (messageProcessor != null) {
-				boolean ackMessage;
-				if (!this.nonceFactory.exists(boxmsg.getNonce())) {
+			/* decryption and persistence happen on the pipeline workers */
+			incomingMessagePipeline.submit(boxmsg);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			/* don't break connection if we cannot parse the message (may not be the server's fault) */
+			logger.warn("Box message parse failed", e);
+		}
+	}
 
-					MessageProcessorInterface.ProcessIncomingResult result = messageProcessor.processIncomingMessage(boxmsg);
+	/**
+	 * Decode a single incoming message.
+	 * Called on an {@link IncomingMessagePipeline} decode worker thread.
+	 */
+	@WorkerThread
+	@NonNull
+	private IncomingMessagePipeline.Step decodeBoxedMessage(@NonNull final BoxedMessage boxmsg) {
+		final MessageProcessorInterface processor = messageProcessor;
+		final MessageProcessorInterface.DecodeIncomingResult decoded;
+		if (processor != null && !this.nonceFactory.exists(boxmsg.getNonce())) {
+			decoded = processor.decodeIncomingMessage(boxmsg);
+		} else {
+			decoded = null;
+		}
 
-					// Save nonce if the incoming message was successfully processed
-					// and if the message is *not* a typing indicator
-					if (result != null
-							&& result.processed
-							&& result.abstractMessage != null
-							&& result.abstractMessage.getType() != ProtocolDefines.MSGTYPE_TYPING_INDICATOR) {
-						this.nonceFactory.store(boxmsg.getNonce());
-					}
+		final String key = getOrderingKey(boxmsg, decoded != null ? decoded.abstractMessage : null);
+		return new IncomingMessagePipeline.Step() {
+			@Override
+			@NonNull
+			public String getKey() {
+				return key;
+			}
 
-					ackMessage = result != null && result.processed;
-				} else {
-					// auto ack a already nonce'd message
-					ackMessage = true;
+			@Override
+			@WorkerThread
+			public void process() {
+				processBoxedMessage(boxmsg, decoded);
+			}
+		};
+	}
+
+	/**
+	 * Messages of a group depend on earlier messages of that group (e.g. the group create
+	 * message), which may have been sent by another member. They are processed in order
+	 * per group, all other messages in order per sender.
+	 */
+	@NonNull
+	private static String getOrderingKey(@NonNull BoxedMessage boxmsg, @Nullable AbstractMessage msg) {
+		if (msg instanceof AbstractGroupMessage) {
+			final AbstractGroupMessage groupMessage = (AbstractGroupMessage) msg;
+			return "group/" + groupMessage.getGroupCreator() + "/" + groupMessage.getGroupId();
+		}
+		return "identity/" + boxmsg.getFromIdentity();
+	}
+
+	/**
+	 * Process a single decoded incoming message and acknowledge it once it has been processed.
+	 * Called on an {@link IncomingMessagePipeline} process worker thread.
+	 *
+	 * @param decoded result of the decode stage, null if the message has not been decoded
+	 */
+	@WorkerThread
+	private void processBoxedMessage(@NonNull BoxedMessage boxmsg, @Nullable MessageProcessorInterface.DecodeIncomingResult decoded) {
+		if (messageProcessor == null) {
+			return;
+		}
+
+		try {
+			boolean ackMessage;
+			boolean nonceStored = false;
+			// check again, a copy of this message may have been processed since it was decoded
+			if (!this.nonceFactory.exists(boxmsg.getNonce())) {
+				if (decoded == null) {
+					decoded = messageProcessor.decodeIncomingMessage(boxmsg);
 				}
 
-				if (ackMessage && (boxmsg.getFlags() & ProtocolDefines.MESSAGE_FLAG_NOACK) == 0) {
-					sendAck(boxmsg.getMessageId(), boxmsg.getFromIdentity());
+				MessageProcessorInterface.ProcessIncomingResult result = decoded.abstractMessage != null
+					? messageProcessor.processIncomingMessage(boxmsg, decoded.abstractMessage)
+					: decoded.result;
+
+				// Save nonce if the incoming message was successfully processed
+				// and if the message is *not* a typing indicator
+				if (result != null
+						&& result.processed
+						&& result.abstractMessage != null
+						&& result.abstractMessage.getType() != ProtocolDefines.MSGTYPE_TYPING_INDICATOR) {
+					this.nonceFactory.store(boxmsg.getNonce());
+					nonceStored = true;
 				}
+
+				ackMessage = result != null && result.processed;
+			} else {
+				// auto ack a already nonce'd message
+				ackMessage = true;
 			}
 
+			if (ackMessage && (boxmsg.getFlags() & ProtocolDefines.MESSAGE_FLAG_NOACK) == 0) {
+				if (nonceStored) {
+					// the server may only forget the message once its nonce is persisted
+					this.nonceFactory.runWhenPersisted(() -> sendAck(boxmsg.getMessageId(), boxmsg.getFromIdentity()));
+				} else {
+					sendAck(boxmsg.getMessageId(), boxmsg.getFromIdentity());
+				}
+			}
 		} catch (Exception e) {
-			/* don't break connection if we cannot parse the message (may not be the server's fault) */
-			logger.warn("Box message parse failed", e);
+			logger.warn("Processing of incoming message failed", e);
 		}
 	}
 
@@ -0,0 +1,166 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema Java Client
+ * Copyright (c) 2013-2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.localcrypto;
+
+import java.io.DataInput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Seekable format for files encrypted under the master key, used for (large) media files.
+ *
+ * The plaintext is split into chunks of a fixed size that are encrypted independently with
+ * AES-GCM, so any part of the file can be decrypted (and authenticated) without reading it
+ * from the start.
+ *
+ * File format:
+ *
+ *      magic (7 bytes) and format version (1 byte)
+ *      chunk size (4 bytes, big endian)
+ *      salt (16 bytes)
+ *      chunks (chunk size bytes of ciphertext + 16 bytes tag each, the last one may be shorter)
+ *
+ * Every file is encrypted with its own key, HMAC-SHA256(master key, salt). The nonce of a chunk
+ * consists of its index and a flag that marks the last chunk, and the header is passed as
+ * associated data, so chunks cannot be reordered, cut off or mixed between files undetected.
+ * An empty file consists of a single empty chunk.
+ */
+final class ChunkedCipher {
+	static final byte VERSION = 1;
+	static final byte[] MAGIC = new byte[]{'3', 'M', 'A', 'C', 'H', 'N', 'K', VERSION};
+	static final int SALT_LENGTH = 16;
+	static final int HEADER_LENGTH = MAGIC.length + 4 + SALT_LENGTH;
+	static final int TAG_LENGTH = 16;
+	static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+	static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+
+	private static final int NONCE_LENGTH = 12;
+
+	/**
+	 * Parsed file header.
+	 */
+	static final class Header {
+		final int chunkSize;
+		final byte[] salt;
+		final byte[] encoded;
+
+		private Header(int chunkSize, byte[] salt, byte[] encoded) {
+			this.chunkSize = chunkSize;
+			this.salt = salt;
+			this.encoded = encoded;
+		}
+
+		static Header create(int chunkSize, @NonNull SecureRandom random) {
+			byte[] salt = new byte[SALT_LENGTH];
+			random.nextBytes(salt);
+			return new Header(chunkSize, salt, encode(chunkSize, salt));
+		}
+
+		static Header read(@NonNull DataInput input) throws IOException {
+			byte[] magic = new byte[MAGIC.length];
+			input.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException("Bad encrypted file (not in chunked format)");
+			}
+			int chunkSize = input.readInt();
+			if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+				throw new IOException("Bad encrypted file (invalid chunk size " + chunkSize + ")");
+			}
+			byte[] salt = new byte[SALT_LENGTH];
+			input.readFully(salt);
+			return new Header(chunkSize, salt, encode(chunkSize, salt));
+		}
+
+		private static byte[] encode(int chunkSize, byte[] salt) {
+			byte[] encoded = new byte[HEADER_LENGTH];
+			System.arraycopy(MAGIC, 0, encoded, 0, MAGIC.length);
+			encoded[MAGIC.length] = (byte) (chunkSize >>> 24);
+			encoded[MAGIC.length + 1] = (byte) (chunkSize >>> 16);
+			encoded[MAGIC.length + 2] = (byte) (chunkSize >>> 8);
+			encoded[MAGIC.length + 3] = (byte) chunkSize;
+			System.arraycopy(salt, 0, encoded, MAGIC.length + 4, SALT_LENGTH);
+			return encoded;
+		}
+	}
+
+	private ChunkedCipher() { }
+
+	/**
+	 * @return true if the file starts with the magic of the chunked format
+	 */
+	static boolean isChunkedFile(@NonNull File file) throws IOException {
+		if (file.length() < HEADER_LENGTH) {
+			return false;
+		}
+		byte[] magic = new byte[MAGIC.length];
+		try (InputStream inputStream = new FileInputStream(file)) {
+			int offset = 0;
+			while (offset < magic.length) {
+				int read = inputStream.read(magic, offset, magic.length - offset);
+				if (read < 0) {
+					return false;
+				}
+				offset += read;
+			}
+		}
+		return Arrays.equals(magic, MAGIC);
+	}
+
+	static SecretKeySpec deriveFileKey(@NonNull byte[] masterKey, @NonNull byte[] salt) {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(masterKey, "HmacSHA256"));
+			return new SecretKeySpec(mac.doFinal(salt), "AES");
+		} catch (GeneralSecurityException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static Cipher getCipher() {
+		try {
+			return Cipher.getInstance("AES/GCM/NoPadding");
+		} catch (GeneralSecurityException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static GCMParameterSpec getChunkParameters(long index, boolean last) {
+		byte[] nonce = new byte[NONCE_LENGTH];
+		for (int i = 0; i < 8; i++) {
+			nonce[3 + i] = (byte) (index >>> (56 - 8 * i));
+		}
+		nonce[NONCE_LENGTH - 1] = (byte) (last ? 1 : 0);
+		return new GCMParameterSpec(TAG_LENGTH * 8, nonce);
+	}
+}
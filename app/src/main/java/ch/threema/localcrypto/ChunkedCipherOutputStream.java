@@ -0,0 +1,120 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema Java Client
+ * Copyright (c) 2013-2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.localcrypto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Writes a file in the seekable chunked format (see {@link ChunkedCipher}).
+ *
+ * A chunk is only encrypted once the next byte arrives (or the stream is closed), because the
+ * last chunk is marked as such. The stream must be closed to produce a valid file.
+ */
+public class ChunkedCipherOutputStream extends OutputStream {
+	private final @NonNull OutputStream outputStream;
+	private final ChunkedCipher.Header header;
+	private final SecretKeySpec fileKey;
+	private final Cipher cipher;
+	private final byte[] buffer;
+	private final byte[] cipherBuffer;
+	private int bufferLength;
+	private long chunkIndex;
+	private boolean closed;
+
+	ChunkedCipherOutputStream(@NonNull OutputStream outputStream, @NonNull byte[] masterKey, @NonNull SecureRandom random, int chunkSize) throws IOException {
+		this.outputStream = outputStream;
+		this.header = ChunkedCipher.Header.create(chunkSize, random);
+		this.fileKey = ChunkedCipher.deriveFileKey(masterKey, this.header.salt);
+		this.cipher = ChunkedCipher.getCipher();
+		this.buffer = new byte[chunkSize];
+		this.cipherBuffer = new byte[chunkSize + ChunkedCipher.TAG_LENGTH];
+
+		outputStream.write(this.header.encoded);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		this.write(new byte[]{(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(@NonNull byte[] b, int off, int len) throws IOException {
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+		while (len > 0) {
+			if (this.bufferLength == this.buffer.length) {
+				// more data follows, so this is not the last chunk
+				this.writeChunk(false);
+			}
+			int n = Math.min(len, this.buffer.length - this.bufferLength);
+			System.arraycopy(b, off, this.buffer, this.bufferLength, n);
+			this.bufferLength += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Flushes the underlying stream. Buffered plaintext is only written once a chunk is complete.
+	 */
+	@Override
+	public void flush() throws IOException {
+		this.outputStream.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		try {
+			this.writeChunk(true);
+		} finally {
+			Arrays.fill(this.buffer, (byte) 0);
+			this.outputStream.close();
+		}
+	}
+
+	private void writeChunk(boolean last) throws IOException {
+		try {
+			this.cipher.init(Cipher.ENCRYPT_MODE, this.fileKey, ChunkedCipher.getChunkParameters(this.chunkIndex, last));
+			this.cipher.updateAAD(this.header.encoded);
+			int length = this.cipher.doFinal(this.buffer, 0, this.bufferLength, this.cipherBuffer, 0);
+			this.outputStream.write(this.cipherBuffer, 0, length);
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Chunk encryption failed", e);
+		}
+		this.chunkIndex++;
+		this.bufferLength = 0;
+	}
+}
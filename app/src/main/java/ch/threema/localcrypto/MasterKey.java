@@ -32,6 +32,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
@@ -364,6 +365,77 @@ public class MasterKey {
 		}
 	}
 
+	/**
+	 * Wrap an output stream with an encryption operation under this master key, using the
+	 * seekable chunked format. Files written this way must be read with
+	 * {@link #getSeekableCipherInputStream(File)} or {@link #getCipherInputStream(File)}.
+	 *
+	 * @param outputStream the raw ciphertext output stream
+	 * @return an output stream for writing plaintext data (must be closed to complete the file)
+	 * @throws MasterKeyLockedException
+	 * @throws IOException
+	 */
+	public ChunkedCipherOutputStream getChunkedCipherOutputStream(@NonNull OutputStream outputStream) throws MasterKeyLockedException, IOException {
+		ChunkedCipherOutputStream chunkedCipherOutputStream = null;
+		try {
+			if (locked) {
+				throw new MasterKeyLockedException("Master key is locked");
+			}
+
+			chunkedCipherOutputStream = new ChunkedCipherOutputStream(outputStream, masterKey, random, ChunkedCipher.DEFAULT_CHUNK_SIZE);
+			return chunkedCipherOutputStream;
+		} finally {
+			if (chunkedCipherOutputStream == null) {
+				outputStream.close();
+			}
+		}
+	}
+
+	/**
+	 * Open a file in the seekable chunked format for random access decryption.
+	 *
+	 * @param file file written with {@link #getChunkedCipherOutputStream(OutputStream)}
+	 * @return a seekable input stream for reading plaintext data
+	 * @throws MasterKeyLockedException
+	 * @throws IOException if the file is not in the chunked format
+	 */
+	public SeekableCipherInputStream getSeekableCipherInputStream(@NonNull File file) throws MasterKeyLockedException, IOException {
+		if (locked) {
+			throw new MasterKeyLockedException("Master key is locked");
+		}
+
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			return new SeekableCipherInputStream(randomAccessFile, masterKey);
+		} catch (IOException | RuntimeException e) {
+			randomAccessFile.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Open an encrypted file in either format, the seekable chunked one or the one written
+	 * by {@link #getCipherOutputStream(OutputStream)}.
+	 *
+	 * @param file the encrypted file
+	 * @return an input stream for reading plaintext data
+	 * @throws MasterKeyLockedException
+	 * @throws IOException
+	 */
+	public InputStream getCipherInputStream(@NonNull File file) throws MasterKeyLockedException, IOException {
+		if (isChunkedFile(file)) {
+			return getSeekableCipherInputStream(file);
+		}
+		return getCipherInputStream(new FileInputStream(file));
+	}
+
+	/**
+	 * @return true if the file has been written in the seekable chunked format
+	 */
+	public static boolean isChunkedFile(@NonNull File file) throws IOException {
+		return ChunkedCipher.isChunkedFile(file);
+	}
+
 	public Cipher getDecryptCipher(byte[] iv) throws MasterKeyLockedException {
 		if (locked)
 			throw new MasterKeyLockedException("Master key is locked");
@@ -0,0 +1,213 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema Java Client
+ * Copyright (c) 2013-2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.localcrypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Reads a file in the seekable chunked format (see {@link ChunkedCipher}).
+ *
+ * Only the chunk containing the current position is decrypted, so {@link #seek(long)} and
+ * {@link #skip(long)} are cheap regardless of the file size. Not thread safe.
+ */
+public class SeekableCipherInputStream extends InputStream {
+	private final @NonNull RandomAccessFile file;
+	private final ChunkedCipher.Header header;
+	private final SecretKeySpec fileKey;
+	private final Cipher cipher;
+	private final int chunkSize;
+	private final long chunkCount;
+	private final long length;
+
+	private final byte[] chunk;
+	private final byte[] cipherBuffer;
+	private long chunkIndex = -1;
+	private int chunkLength;
+
+	private long position;
+	private long markPosition;
+	private boolean closed;
+
+	SeekableCipherInputStream(@NonNull RandomAccessFile file, @NonNull byte[] masterKey) throws IOException {
+		this.file = file;
+		this.header = ChunkedCipher.Header.read(file);
+		this.chunkSize = this.header.chunkSize;
+
+		final long stride = (long) this.chunkSize + ChunkedCipher.TAG_LENGTH;
+		final long body = file.length() - ChunkedCipher.HEADER_LENGTH;
+		if (body < ChunkedCipher.TAG_LENGTH) {
+			throw new IOException("Bad encrypted file (truncated)");
+		}
+		this.chunkCount = (body + stride - 1) / stride;
+		final long lastChunkLength = body - (this.chunkCount - 1) * stride - ChunkedCipher.TAG_LENGTH;
+		if (lastChunkLength < 0) {
+			throw new IOException("Bad encrypted file (truncated)");
+		}
+		this.length = (this.chunkCount - 1) * this.chunkSize + lastChunkLength;
+
+		this.fileKey = ChunkedCipher.deriveFileKey(masterKey, this.header.salt);
+		this.cipher = ChunkedCipher.getCipher();
+		this.chunk = new byte[this.chunkSize];
+		this.cipherBuffer = new byte[this.chunkSize + ChunkedCipher.TAG_LENGTH];
+
+		if (this.length == 0) {
+			// nothing will ever be read, authenticate the (empty) chunk right away
+			this.decryptChunk(0);
+		}
+	}
+
+	/**
+	 * @return length of the plaintext
+	 */
+	public long length() {
+		return this.length;
+	}
+
+	/**
+	 * @return current position in the plaintext
+	 */
+	public long getPosition() {
+		return this.position;
+	}
+
+	/**
+	 * Move to the given position in the plaintext. The chunk is decrypted on the next read.
+	 */
+	public void seek(long position) throws IOException {
+		if (position < 0 || position > this.length) {
+			throw new IOException("Invalid position " + position + " (length " + this.length + ")");
+		}
+		this.position = position;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!this.loadChunkAtPosition()) {
+			return -1;
+		}
+		int b = this.chunk[(int) (this.position - this.chunkIndex * this.chunkSize)] & 0xff;
+		this.position++;
+		return b;
+	}
+
+	@Override
+	public int read(@NonNull byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!this.loadChunkAtPosition()) {
+			return -1;
+		}
+		int offsetInChunk = (int) (this.position - this.chunkIndex * this.chunkSize);
+		int n = Math.min(len, this.chunkLength - offsetInChunk);
+		System.arraycopy(this.chunk, offsetInChunk, b, off, n);
+		this.position += n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0) {
+			return 0;
+		}
+		long skipped = Math.min(n, this.length - this.position);
+		this.position += skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return (int) Math.min(this.length - this.position, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		this.markPosition = this.position;
+	}
+
+	@Override
+	public synchronized void reset() {
+		this.position = this.markPosition;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!this.closed) {
+			this.closed = true;
+			Arrays.fill(this.chunk, (byte) 0);
+			this.chunkIndex = -1;
+			this.file.close();
+		}
+	}
+
+	/**
+	 * @return false at the end of the file
+	 */
+	private boolean loadChunkAtPosition() throws IOException {
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+		if (this.position >= this.length) {
+			return false;
+		}
+		long index = this.position / this.chunkSize;
+		if (index != this.chunkIndex) {
+			this.decryptChunk(index);
+		}
+		return true;
+	}
+
+	private void decryptChunk(long index) throws IOException {
+		final boolean last = index == this.chunkCount - 1;
+		final int cipherLength = last
+			? (int) (this.length - index * this.chunkSize) + ChunkedCipher.TAG_LENGTH
+			: this.cipherBuffer.length;
+
+		this.file.seek(ChunkedCipher.HEADER_LENGTH + index * (this.chunkSize + ChunkedCipher.TAG_LENGTH));
+		this.file.readFully(this.cipherBuffer, 0, cipherLength);
+
+		// invalidate first, the chunk buffer is overwritten even if authentication fails
+		this.chunkIndex = -1;
+		try {
+			this.cipher.init(Cipher.DECRYPT_MODE, this.fileKey, ChunkedCipher.getChunkParameters(index, last));
+			this.cipher.updateAAD(this.header.encoded);
+			this.chunkLength = this.cipher.doFinal(this.cipherBuffer, 0, cipherLength, this.chunk, 0);
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Bad encrypted file (chunk " + index + " failed to authenticate)", e);
+		}
+		this.chunkIndex = index;
+	}
+}
@@ -93,6 +93,7 @@ import ch.threema.app.services.systemupdate.SystemUpdateToVersion60;
 import ch.threema.app.services.systemupdate.SystemUpdateToVersion61;
 import ch.threema.app.services.systemupdate.SystemUpdateToVersion62;
 import ch.threema.app.services.systemupdate.SystemUpdateToVersion63;
+import ch.threema.app.services.systemupdate.SystemUpdateToVersion64;
 import ch.threema.app.services.systemupdate.SystemUpdateToVersion7;
 import ch.threema.app.services.systemupdate.SystemUpdateToVersion8;
 import ch.threema.app.services.systemupdate.SystemUpdateToVersion9;
@@ -124,7 +125,7 @@ public class DatabaseServiceNew extends SQLiteOpenHelper {
 	public static final String DATABASE_NAME = "threema.db";
 	public static final String DATABASE_NAME_V4 = "threema4.db";
 	public static final String DATABASE_BACKUP_EXT = ".backup";
-	private static final int DATABASE_VERSION = 63;
+	private static final int DATABASE_VERSION = 64;
 	private final Context context;
 	private final String key;
 	private final UpdateSystemService updateSystemService;
@@ -579,6 +580,9 @@ public class DatabaseServiceNew extends SQLiteOpenHelper {
 		if (oldVersion < 63) {
 			this.updateSystemService.addUpdate(new SystemUpdateToVersion63(this.context));
 		}
+		if (oldVersion < 64) {
+			this.updateSystemService.addUpdate(new SystemUpdateToVersion64(sqLiteDatabase));
+		}
 	}
 
 	public void executeNull() throws SQLiteException {
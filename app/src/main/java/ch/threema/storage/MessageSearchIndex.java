@@ -0,0 +1,185 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.storage;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import ch.threema.storage.models.AbstractMessageModel;
+import ch.threema.storage.models.MessageType;
+
+/**
+ * Full text search index (FTS5) over the searchable text of a message table: the body of
+ * text, location and ballot messages and the caption of image and file messages.
+ *
+ * The index is contentless (it only stores the index, not the text) and is kept up to date
+ * by triggers on the message table, so every way of writing messages is covered.
+ */
+public class MessageSearchIndex {
+	private static final String FTS_SUFFIX = "_fts";
+
+	private static final String BODY_TYPES = MessageType.TEXT.ordinal() + "," +
+		MessageType.LOCATION.ordinal() + "," +
+		MessageType.BALLOT.ordinal();
+	private static final String CAPTION_TYPES = MessageType.IMAGE.ordinal() + "," +
+		MessageType.FILE.ordinal();
+
+	private MessageSearchIndex() { }
+
+	/**
+	 * @return name of the virtual table indexing the given message table
+	 */
+	@NonNull
+	public static String getTableName(@NonNull String messageTable) {
+		return messageTable + FTS_SUFFIX;
+	}
+
+	/**
+	 * Statements creating the (empty) index table.
+	 */
+	@NonNull
+	public static String[] getCreateTableStatements(@NonNull String messageTable) {
+		return new String[] {
+			"CREATE VIRTUAL TABLE IF NOT EXISTS `" + getTableName(messageTable) + "` USING fts5(" +
+				AbstractMessageModel.COLUMN_BODY + ", " +
+				AbstractMessageModel.COLUMN_CAPTION + ", " +
+				"content='', prefix='2 3', tokenize='unicode61 remove_diacritics 2')"
+		};
+	}
+
+	/**
+	 * Statements creating the triggers that keep the index in sync with the message table.
+	 */
+	@NonNull
+	public static String[] getCreateTriggerStatements(@NonNull String messageTable) {
+		final String ftsTable = getTableName(messageTable);
+		return new String[] {
+			"CREATE TRIGGER IF NOT EXISTS `" + ftsTable + "_ai` AFTER INSERT ON `" + messageTable + "` BEGIN " +
+				insertStatement(ftsTable, "new") +
+				"END",
+			"CREATE TRIGGER IF NOT EXISTS `" + ftsTable + "_ad` AFTER DELETE ON `" + messageTable + "` BEGIN " +
+				deleteStatement(ftsTable, "old") +
+				"END",
+			"CREATE TRIGGER IF NOT EXISTS `" + ftsTable + "_au` AFTER UPDATE ON `" + messageTable + "`" +
+				" WHEN old." + AbstractMessageModel.COLUMN_BODY + " IS NOT new." + AbstractMessageModel.COLUMN_BODY +
+				" OR old." + AbstractMessageModel.COLUMN_CAPTION + " IS NOT new." + AbstractMessageModel.COLUMN_CAPTION +
+				" OR old." + AbstractMessageModel.COLUMN_TYPE + " IS NOT new." + AbstractMessageModel.COLUMN_TYPE +
+				" OR old." + AbstractMessageModel.COLUMN_IS_STATUS_MESSAGE + " IS NOT new." + AbstractMessageModel.COLUMN_IS_STATUS_MESSAGE +
+				" BEGIN " +
+				deleteStatement(ftsTable, "old") +
+				insertStatement(ftsTable, "new") +
+				"END"
+		};
+	}
+
+	/**
+	 * Statement indexing all messages that are not indexed yet.
+	 */
+	@NonNull
+	public static String getBackfillStatement(@NonNull String messageTable) {
+		final String ftsTable = getTableName(messageTable);
+		return "INSERT INTO `" + ftsTable + "`(rowid, " + AbstractMessageModel.COLUMN_BODY + ", " + AbstractMessageModel.COLUMN_CAPTION + ")" +
+			" SELECT m." + AbstractMessageModel.COLUMN_ID + ", " + bodyExpression("m") + ", " + captionExpression("m") +
+			" FROM `" + messageTable + "` m" +
+			" WHERE " + indexedCondition("m") +
+			" AND m." + AbstractMessageModel.COLUMN_ID + " NOT IN (SELECT rowid FROM `" + ftsTable + "`)";
+	}
+
+	/**
+	 * Query returning the message rows matching a {@link #toMatchExpression(String) match expression},
+	 * paged with limit and offset arguments.
+	 *
+	 * @param rankByRelevance order by relevance (bm25) rather than by date only
+	 */
+	@NonNull
+	public static String getSearchQuery(@NonNull String messageTable, boolean rankByRelevance) {
+		final String ftsTable = getTableName(messageTable);
+		return "SELECT m.* FROM `" + ftsTable + "`" +
+			" JOIN `" + messageTable + "` m ON m." + AbstractMessageModel.COLUMN_ID + " = `" + ftsTable + "`.rowid" +
+			" WHERE `" + ftsTable + "` MATCH ?" +
+			" ORDER BY " + (rankByRelevance ? "bm25(`" + ftsTable + "`), " : "") +
+			"m." + AbstractMessageModel.COLUMN_CREATED_AT + " DESC" +
+			" LIMIT ? OFFSET ?";
+	}
+
+	/**
+	 * Convert user input into an FTS5 match expression. Every word is matched as a prefix
+	 * and all words must occur. Quoting the words keeps FTS5 operators and special
+	 * characters in the input from being interpreted.
+	 *
+	 * @return the expression or null if the input does not contain any words
+	 */
+	@Nullable
+	public static String toMatchExpression(@Nullable String text) {
+		if (text == null) {
+			return null;
+		}
+
+		final StringBuilder expression = new StringBuilder();
+		for (String word : text.trim().split("\\s+")) {
+			if (word.isEmpty()) {
+				continue;
+			}
+			if (expression.length() > 0) {
+				expression.append(" AND ");
+			}
+			expression.append('"').append(word.replace("\"", "\"\"")).append("\"*");
+		}
+		return expression.length() > 0 ? expression.toString() : null;
+	}
+
+	@NonNull
+	private static String insertStatement(@NonNull String ftsTable, @NonNull String row) {
+		return "INSERT INTO `" + ftsTable + "`(rowid, " + AbstractMessageModel.COLUMN_BODY + ", " + AbstractMessageModel.COLUMN_CAPTION + ")" +
+			" SELECT " + row + "." + AbstractMessageModel.COLUMN_ID + ", " + bodyExpression(row) + ", " + captionExpression(row) +
+			" WHERE " + indexedCondition(row) + "; ";
+	}
+
+	/*
+	 * Contentless tables are updated with the special 'delete' command, which needs exactly
+	 * the values that were indexed.
+	 */
+	@NonNull
+	private static String deleteStatement(@NonNull String ftsTable, @NonNull String row) {
+		return "INSERT INTO `" + ftsTable + "`(`" + ftsTable + "`, rowid, " + AbstractMessageModel.COLUMN_BODY + ", " + AbstractMessageModel.COLUMN_CAPTION + ")" +
+			" SELECT 'delete', " + row + "." + AbstractMessageModel.COLUMN_ID + ", " + bodyExpression(row) + ", " + captionExpression(row) +
+			" WHERE " + indexedCondition(row) + "; ";
+	}
+
+	@NonNull
+	private static String indexedCondition(@NonNull String row) {
+		return row + "." + AbstractMessageModel.COLUMN_IS_STATUS_MESSAGE + " = 0" +
+			" AND " + row + "." + AbstractMessageModel.COLUMN_TYPE + " IN (" + BODY_TYPES + "," + CAPTION_TYPES + ")";
+	}
+
+	@NonNull
+	private static String bodyExpression(@NonNull String row) {
+		return "CASE WHEN " + row + "." + AbstractMessageModel.COLUMN_TYPE + " IN (" + BODY_TYPES + ")" +
+			" THEN " + row + "." + AbstractMessageModel.COLUMN_BODY + " END";
+	}
+
+	@NonNull
+	private static String captionExpression(@NonNull String row) {
+		return "CASE WHEN " + row + "." + AbstractMessageModel.COLUMN_TYPE + " IN (" + CAPTION_TYPES + ")" +
+			" THEN " + row + "." + AbstractMessageModel.COLUMN_CAPTION + " END";
+	}
+}
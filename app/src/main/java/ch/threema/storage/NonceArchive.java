@@ -0,0 +1,326 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import ch.threema.localcrypto.MasterKey;
+import ch.threema.localcrypto.MasterKeyLockedException;
+import ch.threema.localcrypto.SeekableCipherInputStream;
+
+/**
+ * Compact set of hashed nonces that have been moved out of the nonce database.
+ *
+ * The archive is a sequence of fixed length entries in ascending (unsigned lexicographic) order,
+ * without any per-entry overhead. It is encrypted with the master key in the seekable chunked
+ * format, so lookups are a binary search that only decrypts the chunks it touches. Entries are
+ * added by merging a sorted sequence into a new file that then replaces the old one.
+ */
+public class NonceArchive {
+	private static final Logger logger = LoggerFactory.getLogger(NonceArchive.class);
+
+	public static final int ENTRY_LENGTH = 32;
+
+	/**
+	 * Sequence of entries in ascending order.
+	 */
+	public interface SortedSource {
+		/**
+		 * @return the next entry, or null if there are no more entries
+		 */
+		@Nullable byte[] next() throws IOException;
+	}
+
+	public interface EntryCallback {
+		void onEntry(@NonNull byte[] entry);
+	}
+
+	private final File file;
+	private final MasterKey masterKey;
+	/* serializes merges, which do not hold the archive lock while writing the new file */
+	private final Object mergeLock = new Object();
+	private final byte[] buffer = new byte[ENTRY_LENGTH];
+	/* opened by the first lookup, the count is only valid while it is open */
+	private SeekableCipherInputStream inputStream;
+	private long count;
+
+	public NonceArchive(@NonNull File file, @NonNull MasterKey masterKey) {
+		this.file = file;
+		this.masterKey = masterKey;
+	}
+
+	/**
+	 * @return number of entries in the archive, 0 if it cannot be read
+	 */
+	public synchronized long getCount() {
+		try {
+			return this.getCountLocked();
+		} catch (IOException e) {
+			logger.error("Could not read nonce archive", e);
+			return 0;
+		}
+	}
+
+	public synchronized boolean contains(@NonNull byte[] entry) throws IOException {
+		if (entry.length != ENTRY_LENGTH || this.getCountLocked() == 0) {
+			return false;
+		}
+
+		long low = 0;
+		long high = this.count - 1;
+		while (low <= high) {
+			long mid = (low + high) >>> 1;
+			this.inputStream.seek(mid * ENTRY_LENGTH);
+			readFully(this.inputStream, this.buffer);
+
+			int cmp = compare(this.buffer, entry);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Call the callback for every entry in the archive, in ascending order.
+	 */
+	@WorkerThread
+	public synchronized void scan(@NonNull EntryCallback callback) throws IOException {
+		if (this.getCountLocked() == 0) {
+			return;
+		}
+
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(this.openInputStream()))) {
+			for (long i = 0; i < this.count; i++) {
+				byte[] entry = new byte[ENTRY_LENGTH];
+				dis.readFully(entry);
+				callback.onEntry(entry);
+			}
+		}
+	}
+
+	/**
+	 * Add the entries of the given source to the archive. Entries that are already in the
+	 * archive (or repeated in the source) are only stored once, entries with the wrong length
+	 * are skipped.
+	 *
+	 * The merged archive is written to a new file without holding the archive lock, so lookups
+	 * are not blocked and see the old contents until the new file atomically replaces it.
+	 *
+	 * @return number of entries in the archive afterwards
+	 */
+	@WorkerThread
+	public long merge(@NonNull SortedSource source) throws IOException {
+		synchronized (this.mergeLock) {
+			long newCount = this.writeMerged(source);
+			synchronized (this) {
+				this.close();
+				if (!this.getTempFile().renameTo(this.file)) {
+					throw new IOException("Could not replace nonce archive");
+				}
+			}
+			return newCount;
+		}
+	}
+
+	/**
+	 * Write the union of the archive and the source to the temporary file.
+	 *
+	 * @return number of entries written
+	 */
+	private long writeMerged(@NonNull SortedSource source) throws IOException {
+		File tempFile = this.getTempFile();
+		long newCount = 0;
+
+		/* only merges replace the file, so it can be read without holding the archive lock */
+		try (DataInputStream existing = this.getCount() > 0
+				? new DataInputStream(new BufferedInputStream(this.openInputStream()))
+				: null;
+			OutputStream cos = this.openOutputStream(tempFile)) {
+
+			byte[] current = readEntry(existing);
+			byte[] added = nextValid(source);
+			byte[] last = null;
+			while (current != null || added != null) {
+				byte[] entry;
+				if (added == null || (current != null && compare(current, added) <= 0)) {
+					entry = current;
+					current = readEntry(existing);
+				} else {
+					entry = added;
+					added = nextValid(source);
+				}
+
+				if (last == null || compare(last, entry) < 0) {
+					cos.write(entry);
+					last = entry;
+					newCount++;
+				} else if (compare(last, entry) > 0) {
+					throw new IOException("Archive entries are not sorted");
+				}
+			}
+		} catch (IOException e) {
+			if (!tempFile.delete()) {
+				logger.warn("Could not delete temporary nonce archive");
+			}
+			throw e;
+		}
+		return newCount;
+	}
+
+	@NonNull
+	private File getTempFile() {
+		return new File(this.file.getPath() + ".tmp");
+	}
+
+	/**
+	 * Close the underlying file. The next lookup reopens it.
+	 */
+	public synchronized void close() {
+		if (this.inputStream != null) {
+			try {
+				this.inputStream.close();
+			} catch (IOException e) {
+				logger.warn("Could not close nonce archive", e);
+			}
+			this.inputStream = null;
+		}
+	}
+
+	/**
+	 * Open the archive for lookups (if necessary) and determine the number of entries.
+	 */
+	private long getCountLocked() throws IOException {
+		if (this.inputStream == null) {
+			if (!this.file.exists()) {
+				return 0;
+			}
+			this.inputStream = this.openInputStream();
+			this.count = this.inputStream.length() / ENTRY_LENGTH;
+		}
+		return this.count;
+	}
+
+	@NonNull
+	private SeekableCipherInputStream openInputStream() throws IOException {
+		try {
+			return this.masterKey.getSeekableCipherInputStream(this.file);
+		} catch (MasterKeyLockedException e) {
+			throw new IOException("Master key is locked", e);
+		}
+	}
+
+	/**
+	 * Open an encrypting stream to the given file. Closing it completes the file and syncs it
+	 * to the disk.
+	 */
+	@NonNull
+	private OutputStream openOutputStream(@NonNull File file) throws IOException {
+		final FileOutputStream fos = new FileOutputStream(file);
+		final OutputStream syncing = new FilterOutputStream(fos) {
+			@Override
+			public void write(@NonNull byte[] b, int off, int len) throws IOException {
+				this.out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				try {
+					this.out.flush();
+					fos.getFD().sync();
+				} finally {
+					this.out.close();
+				}
+			}
+		};
+		try {
+			return this.masterKey.getChunkedCipherOutputStream(syncing);
+		} catch (MasterKeyLockedException e) {
+			throw new IOException("Master key is locked", e);
+		}
+	}
+
+	private static void readFully(@NonNull InputStream inputStream, @NonNull byte[] entry) throws IOException {
+		int offset = 0;
+		while (offset < entry.length) {
+			int read = inputStream.read(entry, offset, entry.length - offset);
+			if (read < 0) {
+				throw new EOFException("Nonce archive is truncated");
+			}
+			offset += read;
+		}
+	}
+
+	@Nullable
+	private static byte[] readEntry(@Nullable DataInputStream dis) throws IOException {
+		if (dis == null) {
+			return null;
+		}
+		byte[] entry = new byte[ENTRY_LENGTH];
+		try {
+			dis.readFully(entry);
+		} catch (EOFException e) {
+			return null;
+		}
+		return entry;
+	}
+
+	@Nullable
+	private static byte[] nextValid(@NonNull SortedSource source) throws IOException {
+		byte[] entry;
+		do {
+			entry = source.next();
+		} while (entry != null && entry.length != ENTRY_LENGTH);
+		return entry;
+	}
+
+	/**
+	 * Unsigned lexicographic comparison of two entries, the same order SQLite uses for blobs.
+	 */
+	private static int compare(@NonNull byte[] a, @NonNull byte[] b) {
+		for (int i = 0; i < ENTRY_LENGTH; i++) {
+			int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return 0;
+	}
+}
@@ -34,13 +34,31 @@ import net.sqlcipher.database.SQLiteOpenHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import ch.threema.app.collections.BloomFilter;
 import ch.threema.app.exceptions.DatabaseMigrationFailedException;
 import ch.threema.app.utils.FileUtil;
 import ch.threema.client.IdentityStoreInterface;
@@ -55,9 +73,55 @@ public class NonceDatabaseBlobService extends SQLiteOpenHelper
 
 	public static final String DATABASE_NAME = "threema-nonce-blob.db";
 	public static final String DATABASE_NAME_V4 = "threema-nonce-blob4.db";
-	private static final int DATABASE_VERSION = 1;
+	private static final int DATABASE_VERSION = 2;
+	public static final String FILTER_FILE_NAME = "nonce-filter.dat";
+	public static final String ARCHIVE_FILE_NAME = "nonce-archive.dat";
+	private static final int FILTER_MIN_CAPACITY = 64 * 1024;
+	private static final int FILTER_MAX_CAPACITY = 4 * 1024 * 1024;
+	private static final double FILTER_FALSE_POSITIVE_RATE = 0.01;
+	private static final int STORE_BATCH_SIZE = 50;
+	private static final long STORE_BATCH_DELAY_MS = 200;
+	private static final long STORE_RETRY_DELAY_MS = 5 * 1000;
+	private static final long FILTER_SAVE_DELAY_MS = 30 * 1000;
+
+	/* nonces are kept in the database for RETAINED_EPOCHS receive epochs, then archived by compact() */
+	private static final long EPOCH_LENGTH_MS = 7L * 24 * 60 * 60 * 1000;
+	private static final int RETAINED_EPOCHS = 4;
+
 	private final String key;
 	private final IdentityStoreInterface identityStore;
+	private final MasterKey masterKey;
+	private final File filterFile;
+	private final File databaseFile;
+	private final NonceArchive archive;
+	private final Object compactLock = new Object();
+
+	/* in-memory filter of all stored nonces; only consulted once it is complete */
+	private final Object filterLock = new Object();
+	private volatile BloomFilter filter;
+	private volatile boolean filterReady = false;
+	/* the filter contains nonces that are not in the saved filter file (guarded by filterLock) */
+	private boolean filterDirty = false;
+
+	/* hashed nonces accepted by store() but not yet written to the database (guarded by filterLock) */
+	private final Set<ByteBuffer> pendingNonces = new LinkedHashSet<>();
+	private final List<Runnable> pendingTasks = new ArrayList<>();
+	private final Timer flushTimer = new Timer("NonceStoreFlush", true);
+	private TimerTask flushTask;
+	private TimerTask saveFilterTask;
+
+	private static final class KeyedMac {
+		final String identity;
+		final Mac mac;
+
+		KeyedMac(String identity, Mac mac) {
+			this.identity = identity;
+			this.mac = mac;
+		}
+	}
+
+	/* Mac instances are not thread safe, and looking one up and keying it is expensive */
+	private final ThreadLocal<KeyedMac> nonceMac = new ThreadLocal<>();
 
 	public NonceDatabaseBlobService(final Context context, final MasterKey masterKey, final int nonceSqlCipherVersion, IdentityStoreInterface identityStore) throws MasterKeyLockedException {
 		super(context,
@@ -92,6 +156,10 @@ public class NonceDatabaseBlobService extends SQLiteOpenHelper
 		});
 		this.key = nonceSqlCipherVersion == 3 ? "x\"" + Utils.byteArrayToHexString(masterKey.getKey()) + "\"" : "";
 		this.identityStore = identityStore;
+		this.masterKey = masterKey;
+		this.filterFile = new File(context.getFilesDir(), FILTER_FILE_NAME);
+		this.databaseFile = context.getDatabasePath(nonceSqlCipherVersion == 4 ? DATABASE_NAME_V4 : DATABASE_NAME);
+		this.archive = new NonceArchive(new File(context.getFilesDir(), ARCHIVE_FILE_NAME), masterKey);
 	}
 
 	public synchronized SQLiteDatabase getWritableDatabase()  {
@@ -103,22 +171,40 @@ public class NonceDatabaseBlobService extends SQLiteOpenHelper
 
 	@Override
 	public void onCreate(SQLiteDatabase sqLiteDatabase) {
-		sqLiteDatabase.execSQL("CREATE TABLE `threema_nonce` (`nonce` BLOB PRIMARY KEY)");
+		sqLiteDatabase.execSQL("CREATE TABLE `threema_nonce` (`nonce` BLOB PRIMARY KEY, `epoch` INTEGER NOT NULL DEFAULT 0)");
 	}
 
 	@Override
-	public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
-
+	public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+		if (oldVersion < 2) {
+			// existing nonces get epoch 0 and are archived by the first compaction
+			sqLiteDatabase.execSQL("ALTER TABLE `threema_nonce` ADD COLUMN `epoch` INTEGER NOT NULL DEFAULT 0");
+		}
 	}
 
 	@Override
 	public boolean exists(byte[] nonce) {
+		return this.exists(nonce, this.hashNonce(nonce));
+	}
+
+	private boolean exists(byte[] nonce, byte[] hashedNonce) {
+		/* the filter has no false negatives, so the database only needs to be asked on a filter hit */
+		BloomFilter currentFilter = this.filter;
+		if (this.filterReady && currentFilter != null
+			&& !currentFilter.mightContain(nonce) && !currentFilter.mightContain(hashedNonce)) {
+			return false;
+		}
+
+		if (this.isPending(hashedNonce)) {
+			return true;
+		}
+
 		boolean hasRecord = false;
 		Cursor c = this.getReadableDatabase()
 				.rawQuery("SELECT COUNT(*) FROM `threema_nonce` WHERE `nonce` = x'"
 								+ Utils.byteArrayToHexString(nonce)
 								+ "' OR `nonce` = x'"
-								+ Utils.byteArrayToHexString(this.hashNonce(nonce))
+								+ Utils.byteArrayToHexString(hashedNonce)
 								+ "'", null);
 		if (c != null) {
 			if(c.moveToFirst()) {
@@ -126,31 +212,371 @@ public class NonceDatabaseBlobService extends SQLiteOpenHelper
 			}
 			c.close();
 		}
+
+		if (!hasRecord) {
+			try {
+				hasRecord = this.archive.contains(hashedNonce);
+			} catch (IOException e) {
+				logger.error("Could not read nonce archive", e);
+			}
+		}
 		return hasRecord;
 	}
 
+	/**
+	 * Accept the nonce and write it to the database in the next batch. A batch is written once
+	 * {@link #STORE_BATCH_SIZE} nonces are pending or {@link #STORE_BATCH_DELAY_MS} after the first
+	 * pending nonce, whatever comes first. Until then, {@link #exists(byte[])} finds the nonce in
+	 * the pending set.
+	 *
+	 * @return false if the nonce is already known (in the filter and the database or archive, or pending)
+	 */
 	@Override
 	public boolean store(byte[] nonce) {
-		ContentValues c = new ContentValues();
-		c.put("nonce", this.hashNonce(nonce));
+		byte[] hashedNonce = this.hashNonce(nonce);
+		List<Runnable> tasks = null;
 
+		if (this.exists(nonce, hashedNonce)) {
+			return false;
+		}
+
+		synchronized (this.filterLock) {
+			/* add to the filter first, a spurious entry is harmless but a missing one is not */
+			BloomFilter currentFilter = this.filter;
+			if (currentFilter != null) {
+				currentFilter.add(hashedNonce);
+			}
+
+			if (!this.pendingNonces.add(ByteBuffer.wrap(hashedNonce))) {
+				return false;
+			}
+
+			if (this.pendingNonces.size() >= STORE_BATCH_SIZE) {
+				tasks = this.writePendingLocked();
+			} else {
+				this.scheduleFlushLocked(STORE_BATCH_DELAY_MS);
+			}
+		}
+
+		runTasks(tasks);
+		return true;
+	}
+
+	@Override
+	public void runWhenPersisted(Runnable task) {
+		synchronized (this.filterLock) {
+			if (!this.pendingNonces.isEmpty()) {
+				this.pendingTasks.add(task);
+				return;
+			}
+		}
+		task.run();
+	}
+
+	/**
+	 * Write all pending nonces to the database now. The nonce filter is saved
+	 * {@link #FILTER_SAVE_DELAY_MS} later, so that a burst of flushes only saves it once.
+	 */
+	public void flush() {
+		List<Runnable> tasks;
+		synchronized (this.filterLock) {
+			tasks = this.writePendingLocked();
+			if (this.filterDirty) {
+				this.scheduleSaveFilterLocked();
+			}
+		}
+		runTasks(tasks);
+	}
+
+	private boolean isPending(byte[] hashedNonce) {
+		synchronized (this.filterLock) {
+			return this.pendingNonces.contains(ByteBuffer.wrap(hashedNonce));
+		}
+	}
+
+	private void scheduleFlushLocked(long delayMs) {
+		if (this.flushTask == null) {
+			this.flushTask = new TimerTask() {
+				@Override
+				public void run() {
+					flush();
+				}
+			};
+			this.flushTimer.schedule(this.flushTask, delayMs);
+		}
+	}
+
+	private void scheduleSaveFilterLocked() {
+		if (this.saveFilterTask == null) {
+			this.saveFilterTask = new TimerTask() {
+				@Override
+				public void run() {
+					saveFilter();
+				}
+			};
+			this.flushTimer.schedule(this.saveFilterTask, FILTER_SAVE_DELAY_MS);
+		}
+	}
+
+	/**
+	 * Insert all pending nonces in a single transaction. Must be called with the filter lock
+	 * held, so that a nonce is never missing from both the pending set and the database.
+	 *
+	 * If the transaction fails, the nonces stay pending (so they are still rejected as
+	 * duplicates) and the tasks keep waiting; the write is retried {@link #STORE_RETRY_DELAY_MS}
+	 * later.
+	 *
+	 * @return tasks waiting for the nonces to be persisted, to be run after releasing the lock
+	 */
+	@NonNull
+	private List<Runnable> writePendingLocked() {
+		if (this.flushTask != null) {
+			this.flushTask.cancel();
+			this.flushTask = null;
+		}
+
+		if (!this.pendingNonces.isEmpty()) {
+			if (!this.insertPendingLocked()) {
+				this.scheduleFlushLocked(STORE_RETRY_DELAY_MS);
+				return Collections.emptyList();
+			}
+			this.pendingNonces.clear();
+			this.filterDirty = true;
+		}
+
+		if (this.pendingTasks.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<Runnable> tasks = new ArrayList<>(this.pendingTasks);
+		this.pendingTasks.clear();
+		return tasks;
+	}
+
+	/**
+	 * @return true if all pending nonces have been written to the database
+	 */
+	private boolean insertPendingLocked() {
 		try {
-			return this.getWritableDatabase()
-					.insertOrThrow("threema_nonce", null, c) >= 1;
+			SQLiteDatabase db = this.getWritableDatabase();
+			db.beginTransaction();
+			try {
+				ContentValues c = new ContentValues();
+				c.put("epoch", getCurrentEpoch());
+				for (ByteBuffer hashedNonce : this.pendingNonces) {
+					c.put("nonce", hashedNonce.array());
+					if (db.insert("threema_nonce", null, c) < 0) {
+						logger.warn("Nonce could not be inserted (duplicate?)");
+					}
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+			return true;
 		} catch (SQLException x) {
-			//ignore exception
-			logger.error("Exception", x);
+			logger.error("Could not write pending nonces, retrying later", x);
+			return false;
 		}
+	}
 
-		return false;
+	private static void runTasks(List<Runnable> tasks) {
+		if (tasks != null) {
+			for (Runnable task : tasks) {
+				try {
+					task.run();
+				} catch (Exception e) {
+					logger.error("Exception", e);
+				}
+			}
+		}
 	}
 
+	/**
+	 * Load the nonce filter from disk or, if it is missing or out of date, rebuild it from the
+	 * database. Runs in a background thread; lookups go to the database until the filter is ready.
+	 */
+	public void loadFilterAsync() {
+		new Thread(this::loadFilter, "NonceFilterLoader").start();
+	}
+
+	@WorkerThread
+	private void loadFilter() {
+		try {
+			long count;
+			boolean loaded = false;
+			List<Runnable> tasks;
+			synchronized (this.filterLock) {
+				/* pending nonces are not in the saved filter, but once written they are counted */
+				tasks = this.writePendingLocked();
+				count = this.getCount();
+				if (this.filterFile.exists()) {
+					try (DataInputStream dis = new DataInputStream(new BufferedInputStream(
+						this.masterKey.getCipherInputStream(new FileInputStream(this.filterFile))))) {
+						/* the filter is only valid if the database has not changed since it was saved */
+						if (dis.readLong() == count
+							&& this.filterFile.lastModified() >= this.databaseFile.lastModified()) {
+							this.filter = BloomFilter.readFrom(dis);
+							this.filterReady = true;
+							this.filterDirty = false;
+							loaded = true;
+							logger.info("Nonce filter loaded ({} nonces)", count);
+						} else {
+							logger.info("Nonce filter is out of date");
+						}
+					} catch (Exception e) {
+						logger.warn("Could not load nonce filter", e);
+					}
+				}
+			}
+			runTasks(tasks);
+
+			if (!loaded) {
+				this.rebuildFilter(count);
+			}
+		} catch (Exception e) {
+			logger.error("Exception", e);
+		}
+	}
+
+	/**
+	 * Rebuild the nonce filter from all nonces in the database.
+	 */
+	@WorkerThread
+	private void rebuildFilter(long count) {
+		long startTime = System.currentTimeMillis();
+		int capacity = (int) Math.min(FILTER_MAX_CAPACITY, Math.max(FILTER_MIN_CAPACITY, count * 2));
+		BloomFilter newFilter = new BloomFilter(capacity, FILTER_FALSE_POSITIVE_RATE);
+
+		/* from now on, store() adds new nonces to the new filter; everything older is in the database */
+		synchronized (this.filterLock) {
+			this.filterReady = false;
+			this.filter = newFilter;
+			for (ByteBuffer hashedNonce : this.pendingNonces) {
+				newFilter.add(hashedNonce.array());
+			}
+		}
+
+		Cursor c = this.getReadableDatabase().rawQuery("SELECT `nonce` FROM `threema_nonce`", null);
+		if (c != null) {
+			try {
+				while (c.moveToNext()) {
+					newFilter.add(c.getBlob(0));
+				}
+			} finally {
+				c.close();
+			}
+		}
+
+		/* after the table, so that nonces archived by a concurrent compaction are not missed */
+		try {
+			this.archive.scan(newFilter::add);
+		} catch (IOException e) {
+			logger.error("Could not read nonce archive", e);
+		}
+
+		synchronized (this.filterLock) {
+			this.filterDirty = true;
+		}
+		this.filterReady = true;
+		logger.info("Nonce filter rebuilt ({} nonces, {} ms)", count, System.currentTimeMillis() - startTime);
+
+		this.saveFilter();
+	}
+
+	/**
+	 * Persist the nonce filter (encrypted with the master key), so that it does not need to be
+	 * rebuilt on the next start. Does nothing if the saved filter is up to date.
+	 */
+	@WorkerThread
+	public void saveFilter() {
+		if (!this.filterReady || this.masterKey.isLocked()) {
+			return;
+		}
+
+		/* hold the lock so that the saved count matches the saved filter */
+		List<Runnable> tasks;
+		synchronized (this.filterLock) {
+			if (this.saveFilterTask != null) {
+				this.saveFilterTask.cancel();
+				this.saveFilterTask = null;
+			}
+			tasks = this.writePendingLocked();
+			if (this.filterDirty) {
+				try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+					this.masterKey.getCipherOutputStream(new FileOutputStream(this.filterFile))))) {
+					dos.writeLong(this.getCount());
+					this.filter.writeTo(dos);
+					this.filterDirty = false;
+					logger.debug("Nonce filter saved");
+				} catch (Exception e) {
+					logger.warn("Could not save nonce filter", e);
+					FileUtil.deleteFileOrWarn(this.filterFile, "nonce filter", logger);
+				}
+			}
+		}
+		runTasks(tasks);
+	}
+
+	/**
+	 * Move the nonces of all epochs except the {@link #RETAINED_EPOCHS} most recent ones from the
+	 * database into the archive, which needs a fraction of the space and keeps the indexed table
+	 * small. Nonces stay in the database until they have been written to the archive, so this may
+	 * run concurrently with lookups. Only deleting the archived nonces from the database holds the
+	 * filter lock.
+	 *
+	 * @return number of nonces moved to the archive
+	 */
+	@WorkerThread
+	public long compact() throws IOException {
+		synchronized (this.compactLock) {
+			this.flush();
+
+			long startTime = System.currentTimeMillis();
+			String condition = "`epoch` < " + (getCurrentEpoch() - RETAINED_EPOCHS + 1)
+				+ " AND length(`nonce`) = " + NonceArchive.ENTRY_LENGTH;
+
+			long moved;
+			long archived;
+			// ordered by the primary key, which is the same order the archive uses
+			Cursor c = this.getReadableDatabase().rawQuery("SELECT `nonce` FROM `threema_nonce` WHERE "
+				+ condition + " ORDER BY `nonce`", null);
+			if (c == null) {
+				return 0;
+			}
+			try {
+				moved = c.getCount();
+				if (moved == 0) {
+					return 0;
+				}
+				archived = this.archive.merge(() -> c.moveToNext() ? c.getBlob(0) : null);
+			} finally {
+				c.close();
+			}
+
+			synchronized (this.filterLock) {
+				this.getWritableDatabase().execSQL("DELETE FROM `threema_nonce` WHERE " + condition);
+				/* the filter is unchanged, but the saved one no longer matches the database */
+				this.filterDirty = true;
+			}
+			this.getWritableDatabase().execSQL("VACUUM");
+
+			logger.info("Nonce database compacted ({} nonces moved, {} archived, {} ms)",
+				moved, archived, System.currentTimeMillis() - startTime);
+
+			this.saveFilter();
+			return moved;
+		}
+	}
+
+	/**
+	 * @return number of nonces in the database and the archive
+	 */
 	public long getCount() {
-		long size = 0;
+		long size = this.archive.getCount();
 		Cursor c = this.getReadableDatabase().rawQuery("SELECT COUNT(*) FROM `threema_nonce`", null);
 		if (c != null) {
 			if (c.moveToFirst()) {
-				size = c.getLong(0);
+				size += c.getLong(0);
 			}
 			c.close();
 		}
@@ -201,7 +627,7 @@ public class NonceDatabaseBlobService extends SQLiteOpenHelper
 									"ATTACH DATABASE '" + newDatabaseFile.getAbsolutePath() + "' AS nonce4 KEY '';" +
 									"PRAGMA nonce4.cipher_memory_security = OFF;" +
 									"SELECT sqlcipher_export('nonce4');" +
-									"PRAGMA nonce4.user_version = " + DATABASE_VERSION + ";" +
+									"PRAGMA nonce4.user_version = " + database.getVersion() + ";" +
 									"DETACH DATABASE nonce4;");
 							database.close();
 
@@ -242,6 +668,10 @@ public class NonceDatabaseBlobService extends SQLiteOpenHelper
 		}
 	}
 
+	private static long getCurrentEpoch() {
+		return System.currentTimeMillis() / EPOCH_LENGTH_MS;
+	}
+
 	private byte[] hashNonce(byte[] nonce) {
 		// Hash nonce with HMAC-SHA256 using the identity as the key if available.
 		// This serves to make it impossible to correlate the nonce DBs of users to determine whether they have been communicating. */
@@ -251,9 +681,15 @@ public class NonceDatabaseBlobService extends SQLiteOpenHelper
 		}
 
 		try {
-			Mac mobileNoMac = Mac.getInstance("HmacSHA256");
-			mobileNoMac.init(new SecretKeySpec(identity.getBytes(), "HmacSHA256"));
-			return mobileNoMac.doFinal(nonce);
+			KeyedMac keyedMac = this.nonceMac.get();
+			if (keyedMac == null || !identity.equals(keyedMac.identity)) {
+				Mac mobileNoMac = Mac.getInstance("HmacSHA256");
+				mobileNoMac.init(new SecretKeySpec(identity.getBytes(), "HmacSHA256"));
+				keyedMac = new KeyedMac(identity, mobileNoMac);
+				this.nonceMac.set(keyedMac);
+			}
+			// doFinal resets the Mac, so it can be reused for the next nonce
+			return keyedMac.mac.doFinal(nonce);
 		} catch (NoSuchAlgorithmException | InvalidKeyException e) {
 			throw new RuntimeException(e);
 		}
@@ -23,10 +23,13 @@ package ch.threema.storage.factories;
 
 import android.content.ContentValues;
 
+import net.sqlcipher.Cursor;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -36,6 +39,7 @@ import ch.threema.app.utils.TestUtil;
 import ch.threema.storage.CursorHelper;
 import ch.threema.storage.DatabaseServiceNew;
 import ch.threema.storage.DatabaseUtil;
+import ch.threema.storage.MessageSearchIndex;
 import ch.threema.storage.QueryBuilder;
 import ch.threema.storage.models.AbstractMessageModel;
 import ch.threema.storage.models.MessageState;
@@ -121,6 +125,37 @@ abstract class AbstractMessageModelFactory extends ModelFactory {
 		return contentValues;
 	}
 
+	/**
+	 * Append the statements creating the full text search index of the message table.
+	 */
+	String[] withSearchIndex(String[] statements) {
+		List<String> result = new ArrayList<>(Arrays.asList(statements));
+		result.addAll(Arrays.asList(MessageSearchIndex.getCreateTableStatements(this.getTableName())));
+		result.addAll(Arrays.asList(MessageSearchIndex.getCreateTriggerStatements(this.getTableName())));
+		return result.toArray(new String[result.size()]);
+	}
+
+	/**
+	 * Search body and caption of the messages using the full text search index. Every word
+	 * of the text is matched as a prefix.
+	 *
+	 * @param rankByRelevance order by relevance instead of by date
+	 * @return cursor over the message rows or null if the text does not contain any words
+	 */
+	Cursor searchByText(String text, int limit, int offset, boolean rankByRelevance) {
+		String matchExpression = MessageSearchIndex.toMatchExpression(text);
+		if (matchExpression == null) {
+			return null;
+		}
+		return this.databaseService.getReadableDatabase().rawQuery(
+			MessageSearchIndex.getSearchQuery(this.getTableName(), rankByRelevance),
+			new String[] {
+				matchExpression,
+				String.valueOf(limit),
+				String.valueOf(offset)
+			});
+	}
+
 	void appendFilter(QueryBuilder queryBuilder, MessageService.MessageFilter filter, List<String> placeholders) {
 		if(filter != null) {
 			if(!filter.withStatusMessages()) {
@@ -98,25 +98,16 @@ public class GroupMessageModelFactory extends AbstractMessageModelFactory {
 	}
 
 	public List<AbstractMessageModel> getMessagesByText(String text) {
-		return convertAbstractList(this.databaseService.getReadableDatabase().rawQuery(
-			"SELECT * FROM " +
-				GroupMessageModel.TABLE +
-				" WHERE ( ( " + GroupMessageModel.COLUMN_BODY + " LIKE ? " +
-					" AND " + GroupMessageModel.COLUMN_TYPE + " IN (" +
-						MessageType.TEXT.ordinal() + "," +
-						MessageType.LOCATION.ordinal() + "," +
-						MessageType.BALLOT.ordinal() + ") )" +
-				" OR ( " + GroupMessageModel.COLUMN_CAPTION + " LIKE ? " +
-					" AND " + GroupMessageModel.COLUMN_TYPE + " IN (" +
-						MessageType.IMAGE.ordinal() + "," +
-						MessageType.FILE.ordinal() + ") ) )" +
-				" AND " + GroupMessageModel.COLUMN_IS_STATUS_MESSAGE + " = 0" +
-				" ORDER BY " + GroupMessageModel.COLUMN_CREATED_AT + " DESC" +
-				" LIMIT 200",
-			new String[] {
-				"%" + text + "%",
-				"%" + text + "%"
-			}));
+		return this.searchMessages(text, 200, 0, false);
+	}
+
+	/**
+	 * Search body and caption of the messages, every word of the text is matched as a prefix.
+	 *
+	 * @param rankByRelevance order by relevance instead of by date
+	 */
+	public List<AbstractMessageModel> searchMessages(String text, int limit, int offset, boolean rankByRelevance) {
+		return convertAbstractList(this.searchByText(text, limit, offset, rankByRelevance));
 	}
 
 	private List<AbstractMessageModel> convertAbstractList(Cursor cursor) {
@@ -360,7 +351,7 @@ public class GroupMessageModelFactory extends AbstractMessageModelFactory {
 
 	@Override
 	public String[] getStatements() {
-		return new String[] {
+		return this.withSearchIndex(new String[] {
 				"CREATE TABLE `" + GroupMessageModel.TABLE + "`" +
 						"(" +
 						"`" + GroupMessageModel.COLUMN_ID + "` INTEGER PRIMARY KEY AUTOINCREMENT , " +
@@ -399,6 +390,6 @@ public class GroupMessageModelFactory extends AbstractMessageModelFactory {
 				"CREATE INDEX `groupMessageApiMessageIdIdx` ON `"+ GroupMessageModel.TABLE + "` ( `" + GroupMessageModel.COLUMN_API_MESSAGE_ID + "` );",
 				"CREATE INDEX `groupMessageCorrelationIdIdx` ON `"+ GroupMessageModel.TABLE + "` ( `" + GroupMessageModel.COLUMN_CORRELATION_ID + "` );"
 
-		};
+		});
 	}
 }
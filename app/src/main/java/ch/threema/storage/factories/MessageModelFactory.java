@@ -100,24 +100,16 @@ public class MessageModelFactory extends AbstractMessageModelFactory {
 	}
 
 	public List<AbstractMessageModel> getMessagesByText(String text) {
-		return convertAbstractList(this.databaseService.getReadableDatabase().rawQuery(
-			"SELECT * FROM " + MessageModel.TABLE +
-				" WHERE ( ( " + MessageModel.COLUMN_BODY + " LIKE ? " +
-				" AND " + MessageModel.COLUMN_TYPE + " IN (" +
-						MessageType.TEXT.ordinal() + "," +
-						MessageType.LOCATION.ordinal() + "," +
-						MessageType.BALLOT.ordinal() + ") )" +
-				" OR ( " + MessageModel.COLUMN_CAPTION + " LIKE ? " +
-				" AND " + MessageModel.COLUMN_TYPE + " IN (" +
-					MessageType.IMAGE.ordinal() + "," +
-					MessageType.FILE.ordinal() + ") ) )" +
-				" AND " + MessageModel.COLUMN_IS_STATUS_MESSAGE + " = 0" +
-				" ORDER BY " + MessageModel.COLUMN_CREATED_AT + " DESC" +
-				" LIMIT 200",
-			new String[] {
-				"%" + text + "%",
-				"%" + text + "%"
-			}));
+		return this.searchMessages(text, 200, 0, false);
+	}
+
+	/**
+	 * Search body and caption of the messages, every word of the text is matched as a prefix.
+	 *
+	 * @param rankByRelevance order by relevance instead of by date
+	 */
+	public List<AbstractMessageModel> searchMessages(String text, int limit, int offset, boolean rankByRelevance) {
+		return convertAbstractList(this.searchByText(text, limit, offset, rankByRelevance));
 	}
 
 	private List<AbstractMessageModel> convertAbstractList(Cursor cursor) {
@@ -373,7 +365,7 @@ public class MessageModelFactory extends AbstractMessageModelFactory {
 
 	@Override
 	public String[] getStatements() {
-		return new String[]{
+		return this.withSearchIndex(new String[]{
 				//create table
 				"CREATE TABLE `" + MessageModel.TABLE + "`(" +
 						"`" + MessageModel.COLUMN_ID + "` INTEGER PRIMARY KEY AUTOINCREMENT , " +
@@ -419,6 +411,6 @@ public class MessageModelFactory extends AbstractMessageModelFactory {
 						+ "`, `" + MessageModel.COLUMN_IS_QUEUED
 						+ "`, `" + MessageModel.COLUMN_OUTBOX
 						+ "`)"
-		};
+		});
 	}
 }
@@ -28,6 +28,7 @@
 package com.neilalexander.jnacl;
 
 import com.neilalexander.jnacl.crypto.curve25519xsalsa20poly1305;
+import com.neilalexander.jnacl.crypto.poly1305;
 import com.neilalexander.jnacl.crypto.salsa20;
 import com.neilalexander.jnacl.crypto.xsalsa20;
 import com.neilalexander.jnacl.crypto.xsalsa20poly1305;
@@ -71,6 +72,43 @@ public class NaCl
 		this(getBinary(privatekey), getBinary(publickey));
 	}
 
+	/**
+	 * Create an instance from a shared key that has previously been computed with
+	 * {@link #precompute(byte[], byte[])}. The key is copied, so the caller may zeroize
+	 * its own copy at any time.
+	 *
+	 * @param precomputed shared key (BEFORENMBYTES long)
+	 */
+	public NaCl(byte[] precomputed)
+	{
+		if (precomputed.length != BEFORENMBYTES)
+			throw new Error("Invalid precomputed key length");
+
+		System.arraycopy(precomputed, 0, this.precomputed, 0, BEFORENMBYTES);
+	}
+
+	/**
+	 * Compute the shared key for the given key pair (crypto_box_beforenm). This is the
+	 * expensive part of creating a NaCl instance, so callers that talk to the same peer
+	 * repeatedly may want to cache the result.
+	 *
+	 * @param privatekey own private key
+	 * @param publickey peer public key
+	 * @return shared key (BEFORENMBYTES long)
+	 */
+	public static byte[] precompute(byte[] privatekey, byte[] publickey)
+	{
+		if (privatekey.length != SECRETKEYBYTES)
+			throw new Error("Invalid private key length");
+
+		if (publickey.length != PUBLICKEYBYTES)
+			throw new Error("Invalid public key length");
+
+		byte[] precomputed = new byte[BEFORENMBYTES];
+		curve25519xsalsa20poly1305.crypto_box_beforenm(precomputed, publickey, privatekey);
+		return precomputed;
+	}
+
 	public byte[] encrypt(byte[] input, byte[] nonce)
 	{
 		return encrypt(input, input.length, nonce);
@@ -87,6 +125,29 @@ public class NaCl
 		return output;
 	}
 
+	/**
+	 * Encrypt into a caller-provided buffer, without allocating any arrays proportional to the
+	 * input length. Input and output must not overlap.
+	 *
+	 * @param input array containing the plaintext
+	 * @param inputoffset offset of the plaintext in input
+	 * @param inputlength length of the plaintext
+	 * @param nonce nonce
+	 * @param output array to receive inputlength + {@link #BOXOVERHEAD} bytes of box
+	 * @param outputoffset offset of the box in output
+	 */
+	public void encrypt(byte[] input, int inputoffset, int inputlength, byte[] nonce, byte[] output, int outputoffset)
+	{
+        if (nonce.length != NONCEBYTES)
+            throw new Error("Invalid nonce length");
+
+        if (inputoffset < 0 || inputlength < 0 || inputoffset + inputlength > input.length
+                || outputoffset < 0 || outputoffset + inputlength + BOXOVERHEAD > output.length)
+            throw new Error("Invalid offset or length");
+
+		curve25519xsalsa20poly1305.crypto_box_afternm_nopad(output, outputoffset, input, inputoffset, inputlength, nonce, this.precomputed);
+	}
+
 	public byte[] decrypt(byte[] input, byte[] nonce)
 	{
 		return decrypt(input, input.length, nonce);
@@ -107,6 +168,37 @@ public class NaCl
 		return output;
 	}
 
+	/**
+	 * Decrypt a box into a caller-provided buffer, without allocating any arrays proportional
+	 * to the input length.
+	 *
+	 * The output may be the same array as the input if outputoffset == inputoffset, in which
+	 * case the box is decrypted in place and the plaintext starts at inputoffset. Otherwise,
+	 * input and output must not overlap.
+	 *
+	 * @param input array containing the box
+	 * @param inputoffset offset of the box in input
+	 * @param inputlength length of the box (plaintext length + {@link #BOXOVERHEAD})
+	 * @param nonce nonce
+	 * @param output array to receive inputlength - {@link #BOXOVERHEAD} bytes of plaintext
+	 * @param outputoffset offset of the plaintext in output
+	 * @return true if the box could be authenticated and was decrypted
+	 */
+	public boolean decrypt(byte[] input, int inputoffset, int inputlength, byte[] nonce, byte[] output, int outputoffset)
+	{
+        if (nonce.length != NONCEBYTES)
+            throw new Error("Invalid nonce length");
+
+        if (inputlength < BOXOVERHEAD)
+            return false;
+
+        if (inputoffset < 0 || inputoffset + inputlength > input.length
+                || outputoffset < 0 || outputoffset + inputlength - BOXOVERHEAD > output.length)
+            throw new Error("Invalid offset or length");
+
+		return curve25519xsalsa20poly1305.crypto_box_open_afternm_nopad(output, outputoffset, input, inputoffset, inputlength, nonce, this.precomputed) == 0;
+	}
+
     public static void genkeypair(byte[] publickey, byte[] privatekey) {
         genkeypair(publickey, privatekey, null);
     }
@@ -260,6 +352,15 @@ public class NaCl
         return salsa20.haveNativeCrypto();
     }
 
+    /**
+     * Select the Java implementation of Salsa20 and Poly1305 that is used when native code is not
+     * available: the optimized word/limb based one (default), or the byte-wise reference one.
+     */
+    public static void setUseOptimizedJavaCrypto(boolean useOptimized) {
+        salsa20.setUseOptimizedJava(useOptimized);
+        poly1305.setUseOptimizedJava(useOptimized);
+    }
+
     public static void selfTest() {
         /* test vectors from tests/box.* in nacl distribution */
         byte alicepk[] = new byte[] {
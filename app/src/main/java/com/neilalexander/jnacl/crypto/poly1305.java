@@ -47,6 +47,13 @@ public class poly1305
         }
     }
 
+    /* use poly1305fast instead of the reference implementation below when native code is not available */
+    static volatile boolean useOptimizedJava = true;
+
+    public static void setUseOptimizedJava(boolean useOptimized) {
+        useOptimizedJava = useOptimized;
+    }
+
 	public static int crypto_onetimeauth_verify(byte[] h, int hoffset, byte[] inv, int invoffset, long inlen, byte[] k)
 	{
         if (haveNative) {
@@ -57,6 +64,9 @@ public class poly1305
             }
         }
 
+        if (useOptimizedJava)
+            return poly1305fast.crypto_onetimeauth_verify(h, hoffset, inv, invoffset, inlen, k);
+
 		byte[] correct = new byte[16];
 
 		crypto_onetimeauth(correct, 0, inv, invoffset, inlen, k);
@@ -150,6 +160,11 @@ public class poly1305
             }
         }
 
+        if (useOptimizedJava) {
+            poly1305fast.crypto_onetimeauth(outv, outvoffset, inv, invoffset, inlen, k);
+            return 0;
+        }
+
 		int j;
 		int[] r = new int[17];
 		int[] h = new int[17];
@@ -0,0 +1,227 @@
+//
+//  Copyright (c) 2020, Threema GmbH.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.neilalexander.jnacl.crypto;
+
+/**
+ * Poly1305 with the accumulator and key in five 26-bit limbs (as in poly1305-donna), so a
+ * 16-byte block costs 25 multiplications instead of the byte-wise reduction in
+ * {@link poly1305}, and nothing is allocated per block. Produces the same output as
+ * {@link poly1305}.
+ */
+public class poly1305fast
+{
+	private static final int MASK26 = 0x3ffffff;
+
+	static void crypto_onetimeauth(byte[] outv, int outvoffset, byte[] inv, int invoffset, long inlen, byte[] k)
+	{
+		final State state = new State(k);
+		state.update(inv, invoffset, (int) inlen);
+		state.finish(outv, outvoffset);
+	}
+
+	static int crypto_onetimeauth_verify(byte[] h, int hoffset, byte[] inv, int invoffset, long inlen, byte[] k)
+	{
+		byte[] correct = new byte[16];
+		crypto_onetimeauth(correct, 0, inv, invoffset, inlen, k);
+		return verify_16.crypto_verify(h, hoffset, correct);
+	}
+
+	/**
+	 * Incremental Poly1305, for authenticating data that is not available in one piece.
+	 * Feeding the data through any sequence of {@link #update} calls yields the same
+	 * authenticator as {@link #crypto_onetimeauth} over the concatenated data.
+	 */
+	public static final class State
+	{
+		private final int r0, r1, r2, r3, r4;
+		private final byte[] pad = new byte[16];
+		private int h0, h1, h2, h3, h4;
+
+		/* partial block carried over between updates */
+		private final byte[] buffer = new byte[16];
+		private int buffered;
+
+		public State(byte[] k)
+		{
+			/* clamp r */
+			r0 = load_littleendian(k, 0) & 0x3ffffff;
+			r1 = (load_littleendian(k, 3) >>> 2) & 0x3ffff03;
+			r2 = (load_littleendian(k, 6) >>> 4) & 0x3ffc0ff;
+			r3 = (load_littleendian(k, 9) >>> 6) & 0x3f03fff;
+			r4 = (load_littleendian(k, 12) >>> 8) & 0x00fffff;
+			System.arraycopy(k, 16, pad, 0, 16);
+		}
+
+		public void update(byte[] inv, int invoffset, int inlen)
+		{
+			if (buffered > 0)
+			{
+				int count = Math.min(16 - buffered, inlen);
+				System.arraycopy(inv, invoffset, buffer, buffered, count);
+				buffered += count;
+				invoffset += count;
+				inlen -= count;
+				if (buffered < 16)
+					return;
+				blocks(buffer, 0, 16, 1 << 24);
+				buffered = 0;
+			}
+
+			int full = inlen & ~15;
+			if (full > 0)
+				blocks(inv, invoffset, full, 1 << 24);
+
+			buffered = inlen - full;
+			System.arraycopy(inv, invoffset + full, buffer, 0, buffered);
+		}
+
+		public void finish(byte[] outv, int outvoffset)
+		{
+			if (buffered > 0)
+			{
+				/* final partial block, padded with a single 1 byte */
+				buffer[buffered] = 1;
+				for (int i = buffered + 1; i < 16; i++)
+					buffer[i] = 0;
+				blocks(buffer, 0, 16, 0);
+				buffered = 0;
+			}
+
+			int h0 = this.h0, h1 = this.h1, h2 = this.h2, h3 = this.h3, h4 = this.h4;
+
+			/* fully carry h */
+			int c = h1 >>> 26; h1 &= MASK26;
+			h2 += c; c = h2 >>> 26; h2 &= MASK26;
+			h3 += c; c = h3 >>> 26; h3 &= MASK26;
+			h4 += c; c = h4 >>> 26; h4 &= MASK26;
+			h0 += c * 5; c = h0 >>> 26; h0 &= MASK26;
+			h1 += c;
+
+			/* compute h + -p */
+			int g0 = h0 + 5; c = g0 >>> 26; g0 &= MASK26;
+			int g1 = h1 + c; c = g1 >>> 26; g1 &= MASK26;
+			int g2 = h2 + c; c = g2 >>> 26; g2 &= MASK26;
+			int g3 = h3 + c; c = g3 >>> 26; g3 &= MASK26;
+			int g4 = h4 + c - (1 << 26);
+
+			/* select h if h < p, or h + -p if h >= p (constant time) */
+			int mask = (g4 >>> 31) - 1;
+			g0 &= mask;
+			g1 &= mask;
+			g2 &= mask;
+			g3 &= mask;
+			g4 &= mask;
+			mask = ~mask;
+			h0 = (h0 & mask) | g0;
+			h1 = (h1 & mask) | g1;
+			h2 = (h2 & mask) | g2;
+			h3 = (h3 & mask) | g3;
+			h4 = (h4 & mask) | g4;
+
+			/* h = h % 2^128 */
+			h0 = h0 | (h1 << 26);
+			h1 = (h1 >>> 6) | (h2 << 20);
+			h2 = (h2 >>> 12) | (h3 << 14);
+			h3 = (h3 >>> 18) | (h4 << 8);
+
+			/* mac = (h + pad) % 2^128 */
+			long f = (h0 & 0xffffffffL) + (load_littleendian(pad, 0) & 0xffffffffL);
+			store_littleendian(outv, outvoffset, (int) f);
+			f = (h1 & 0xffffffffL) + (load_littleendian(pad, 4) & 0xffffffffL) + (f >>> 32);
+			store_littleendian(outv, outvoffset + 4, (int) f);
+			f = (h2 & 0xffffffffL) + (load_littleendian(pad, 8) & 0xffffffffL) + (f >>> 32);
+			store_littleendian(outv, outvoffset + 8, (int) f);
+			f = (h3 & 0xffffffffL) + (load_littleendian(pad, 12) & 0xffffffffL) + (f >>> 32);
+			store_littleendian(outv, outvoffset + 12, (int) f);
+		}
+
+		/**
+		 * Process len bytes (a multiple of 16) in 16-byte blocks.
+		 */
+		private void blocks(byte[] b, int boffset, int len, int hibit)
+		{
+			final int r0 = this.r0, r1 = this.r1, r2 = this.r2, r3 = this.r3, r4 = this.r4;
+			final long s1 = r1 * 5L;
+			final long s2 = r2 * 5L;
+			final long s3 = r3 * 5L;
+			final long s4 = r4 * 5L;
+
+			int h0 = this.h0, h1 = this.h1, h2 = this.h2, h3 = this.h3, h4 = this.h4;
+
+			while (len > 0)
+			{
+				h0 += load_littleendian(b, boffset) & MASK26;
+				h1 += (load_littleendian(b, boffset + 3) >>> 2) & MASK26;
+				h2 += (load_littleendian(b, boffset + 6) >>> 4) & MASK26;
+				h3 += (load_littleendian(b, boffset + 9) >>> 6) & MASK26;
+				h4 += (load_littleendian(b, boffset + 12) >>> 8) | hibit;
+
+				/* h *= r (mod 2^130 - 5) */
+				long d0 = (long) h0 * r0 + h1 * s4 + h2 * s3 + h3 * s2 + h4 * s1;
+				long d1 = (long) h0 * r1 + (long) h1 * r0 + h2 * s4 + h3 * s3 + h4 * s2;
+				long d2 = (long) h0 * r2 + (long) h1 * r1 + (long) h2 * r0 + h3 * s4 + h4 * s3;
+				long d3 = (long) h0 * r3 + (long) h1 * r2 + (long) h2 * r1 + (long) h3 * r0 + h4 * s4;
+				long d4 = (long) h0 * r4 + (long) h1 * r3 + (long) h2 * r2 + (long) h3 * r1 + (long) h4 * r0;
+
+				long c = d0 >>> 26; h0 = (int) d0 & MASK26;
+				d1 += c; c = d1 >>> 26; h1 = (int) d1 & MASK26;
+				d2 += c; c = d2 >>> 26; h2 = (int) d2 & MASK26;
+				d3 += c; c = d3 >>> 26; h3 = (int) d3 & MASK26;
+				d4 += c; c = d4 >>> 26; h4 = (int) d4 & MASK26;
+				c = h0 + c * 5; h0 = (int) c & MASK26;
+				h1 += (int) (c >>> 26);
+
+				boffset += 16;
+				len -= 16;
+			}
+
+			this.h0 = h0;
+			this.h1 = h1;
+			this.h2 = h2;
+			this.h3 = h3;
+			this.h4 = h4;
+		}
+	}
+
+	private static int load_littleendian(byte[] x, int offset)
+	{
+		return (x[offset] & 0xff) |
+				((x[offset + 1] & 0xff) << 8) |
+				((x[offset + 2] & 0xff) << 16) |
+				((x[offset + 3] & 0xff) << 24);
+	}
+
+	private static void store_littleendian(byte[] x, int offset, int u)
+	{
+		x[offset] = (byte) u;
+		x[offset + 1] = (byte) (u >>> 8);
+		x[offset + 2] = (byte) (u >>> 16);
+		x[offset + 3] = (byte) (u >>> 24);
+	}
+}
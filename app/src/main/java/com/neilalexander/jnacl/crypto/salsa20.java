@@ -51,10 +51,17 @@ public class salsa20
         }
     }
 
+    /* use salsa20fast instead of the reference implementation below when native code is not available */
+    static volatile boolean useOptimizedJava = true;
+
     public static boolean haveNativeCrypto() {
         return haveNative;
     }
 
+    public static void setUseOptimizedJava(boolean useOptimized) {
+        useOptimizedJava = useOptimized;
+    }
+
 	static long rotate(int u, int c)
 	{
 		return (u << c) | (u >>> (32 - c));
@@ -182,6 +189,11 @@ public class salsa20
             }
         }
 
+        if (useOptimizedJava) {
+            salsa20fast.stream_xor(null, c, 0, null, 0, clen, n, noffset, k, 0);
+            return 0;
+        }
+
 		byte[] inv = new byte[16];
 		byte[] block = new byte[64];
 		
@@ -198,7 +210,8 @@ public class salsa20
 
 		while (clen >= 64)
 		{		
-			salsa20.crypto_core(c, inv, k, xsalsa20.sigma);
+			salsa20.crypto_core(block, inv, k, xsalsa20.sigma);
+			System.arraycopy(block, 0, c, coffset, 64);
 
 			int u = 1;
 			
@@ -234,6 +247,11 @@ public class salsa20
             }
         }
 
+        if (useOptimizedJava) {
+            salsa20fast.stream_xor(null, c, 0, m, 0, mlen, n, noffset, k, 0);
+            return 0;
+        }
+
 		byte[] inv = new byte[16];
 		byte[] block = new byte[64];
 		
@@ -293,6 +311,11 @@ public class salsa20
             }
         }
 
+        if (useOptimizedJava) {
+            salsa20fast.stream_xor(c0, c, coffset, m, moffset, mlen, n, noffset, k, 32);
+            return 0;
+        }
+
         int u;
         byte[] inv = new byte[16];
         byte[] prevblock = new byte[64];
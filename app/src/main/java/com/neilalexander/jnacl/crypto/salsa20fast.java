@@ -0,0 +1,196 @@
+//
+//  Copyright (c) 2020, Threema GmbH.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.neilalexander.jnacl.crypto;
+
+/**
+ * Salsa20 stream cipher working on 32-bit words. The key and nonce are decoded once per call
+ * instead of once per block, the keystream is never stored as bytes and nothing is allocated
+ * per block. Produces the same output as the functions in {@link salsa20}.
+ */
+public class salsa20fast
+{
+	final static int ROUNDS = 20;
+
+	/**
+	 * XOR len bytes of m with the keystream (or output the keystream itself if m is null),
+	 * starting at keystream position skip, which must be less than 64.
+	 *
+	 * If c0 is not null, the first 32 bytes of the keystream are written to it.
+	 */
+	static void stream_xor(byte[] c0, byte[] c, int coffset, byte[] m, int moffset, int len, byte[] n, int noffset, byte[] k, int skip)
+	{
+		if (len == 0)
+			return;
+
+		final int[] input = new int[16];
+		final int[] block = new int[16];
+
+		input[0] = load_littleendian(xsalsa20.sigma, 0);
+		input[1] = load_littleendian(k, 0);
+		input[2] = load_littleendian(k, 4);
+		input[3] = load_littleendian(k, 8);
+		input[4] = load_littleendian(k, 12);
+		input[5] = load_littleendian(xsalsa20.sigma, 4);
+		input[6] = load_littleendian(n, noffset);
+		input[7] = load_littleendian(n, noffset + 4);
+		input[8] = 0;
+		input[9] = 0;
+		input[10] = load_littleendian(xsalsa20.sigma, 8);
+		input[11] = load_littleendian(k, 16);
+		input[12] = load_littleendian(k, 20);
+		input[13] = load_littleendian(k, 24);
+		input[14] = load_littleendian(k, 28);
+		input[15] = load_littleendian(xsalsa20.sigma, 12);
+
+		int pos = skip;
+		boolean first = true;
+		while (len > 0)
+		{
+			core(block, input);
+
+			if (first)
+			{
+				if (c0 != null)
+				{
+					for (int i = 0; i < 8; i++)
+						store_littleendian(c0, i * 4, block[i]);
+				}
+				first = false;
+			}
+
+			int count = Math.min(64 - pos, len);
+			if (pos == 0 && count == 64)
+			{
+				/* full block, word by word */
+				for (int i = 0; i < 16; i++)
+				{
+					int w = block[i];
+					if (m != null)
+						w ^= load_littleendian(m, moffset + i * 4);
+					store_littleendian(c, coffset + i * 4, w);
+				}
+			}
+			else
+			{
+				for (int i = 0; i < count; i++)
+				{
+					int p = pos + i;
+					byte b = (byte) (block[p >>> 2] >>> ((p & 3) << 3));
+					c[coffset + i] = m != null ? (byte) (m[moffset + i] ^ b) : b;
+				}
+			}
+
+			coffset += count;
+			moffset += count;
+			len -= count;
+			pos = 0;
+
+			/* 64-bit block counter */
+			if (++input[8] == 0)
+				input[9]++;
+		}
+	}
+
+	static void core(int[] out, int[] in)
+	{
+		int x0 = in[0], x1 = in[1], x2 = in[2], x3 = in[3],
+			x4 = in[4], x5 = in[5], x6 = in[6], x7 = in[7],
+			x8 = in[8], x9 = in[9], x10 = in[10], x11 = in[11],
+			x12 = in[12], x13 = in[13], x14 = in[14], x15 = in[15];
+
+		for (int i = ROUNDS; i > 0; i -= 2)
+		{
+			x4 ^= Integer.rotateLeft(x0 + x12, 7);
+			x8 ^= Integer.rotateLeft(x4 + x0, 9);
+			x12 ^= Integer.rotateLeft(x8 + x4, 13);
+			x0 ^= Integer.rotateLeft(x12 + x8, 18);
+			x9 ^= Integer.rotateLeft(x5 + x1, 7);
+			x13 ^= Integer.rotateLeft(x9 + x5, 9);
+			x1 ^= Integer.rotateLeft(x13 + x9, 13);
+			x5 ^= Integer.rotateLeft(x1 + x13, 18);
+			x14 ^= Integer.rotateLeft(x10 + x6, 7);
+			x2 ^= Integer.rotateLeft(x14 + x10, 9);
+			x6 ^= Integer.rotateLeft(x2 + x14, 13);
+			x10 ^= Integer.rotateLeft(x6 + x2, 18);
+			x3 ^= Integer.rotateLeft(x15 + x11, 7);
+			x7 ^= Integer.rotateLeft(x3 + x15, 9);
+			x11 ^= Integer.rotateLeft(x7 + x3, 13);
+			x15 ^= Integer.rotateLeft(x11 + x7, 18);
+			x1 ^= Integer.rotateLeft(x0 + x3, 7);
+			x2 ^= Integer.rotateLeft(x1 + x0, 9);
+			x3 ^= Integer.rotateLeft(x2 + x1, 13);
+			x0 ^= Integer.rotateLeft(x3 + x2, 18);
+			x6 ^= Integer.rotateLeft(x5 + x4, 7);
+			x7 ^= Integer.rotateLeft(x6 + x5, 9);
+			x4 ^= Integer.rotateLeft(x7 + x6, 13);
+			x5 ^= Integer.rotateLeft(x4 + x7, 18);
+			x11 ^= Integer.rotateLeft(x10 + x9, 7);
+			x8 ^= Integer.rotateLeft(x11 + x10, 9);
+			x9 ^= Integer.rotateLeft(x8 + x11, 13);
+			x10 ^= Integer.rotateLeft(x9 + x8, 18);
+			x12 ^= Integer.rotateLeft(x15 + x14, 7);
+			x13 ^= Integer.rotateLeft(x12 + x15, 9);
+			x14 ^= Integer.rotateLeft(x13 + x12, 13);
+			x15 ^= Integer.rotateLeft(x14 + x13, 18);
+		}
+
+		out[0] = x0 + in[0];
+		out[1] = x1 + in[1];
+		out[2] = x2 + in[2];
+		out[3] = x3 + in[3];
+		out[4] = x4 + in[4];
+		out[5] = x5 + in[5];
+		out[6] = x6 + in[6];
+		out[7] = x7 + in[7];
+		out[8] = x8 + in[8];
+		out[9] = x9 + in[9];
+		out[10] = x10 + in[10];
+		out[11] = x11 + in[11];
+		out[12] = x12 + in[12];
+		out[13] = x13 + in[13];
+		out[14] = x14 + in[14];
+		out[15] = x15 + in[15];
+	}
+
+	static int load_littleendian(byte[] x, int offset)
+	{
+		return (x[offset] & 0xff) |
+				((x[offset + 1] & 0xff) << 8) |
+				((x[offset + 2] & 0xff) << 16) |
+				((x[offset + 3] & 0xff) << 24);
+	}
+
+	static void store_littleendian(byte[] x, int offset, int u)
+	{
+		x[offset] = (byte) u;
+		x[offset + 1] = (byte) (u >>> 8);
+		x[offset + 2] = (byte) (u >>> 16);
+		x[offset + 3] = (byte) (u >>> 24);
+	}
+}
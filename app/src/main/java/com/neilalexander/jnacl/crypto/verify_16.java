@@ -36,7 +36,7 @@ public class verify_16
 	{
 		int differentbits = 0;
 
-		for (int i = 0; i < 15; i++)
+		for (int i = 0; i < 16; i++)
 			differentbits |= (x[xoffset + i] ^ y[i]) & 0xff;
 
 		return (1 & ((differentbits - 1) >>> 8)) - 1;
@@ -0,0 +1,163 @@
+//
+//  Copyright (c) 2020, Threema GmbH.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.neilalexander.jnacl.crypto;
+
+/**
+ * Incremental form of {@link xsalsa20poly1305#crypto_secretbox_nopad}, for data that is
+ * processed in pieces (e.g. read from a stream) instead of being held in a single array.
+ *
+ * Encrypting data through any sequence of {@link #update} calls produces the same ciphertext
+ * as crypto_secretbox_nopad, and {@link #finish} the same authenticator. Note that in the
+ * secretbox format the authenticator precedes the ciphertext.
+ *
+ * An instance can only be used once, for one message.
+ */
+public class xsalsa20poly1305stream
+{
+	private final int[] input = new int[16];
+	private final int[] block = new int[16];
+	private final byte[] keystream = new byte[64];
+	private int position;
+
+	private final poly1305fast.State poly1305;
+	private long length;
+
+	public xsalsa20poly1305stream(byte[] n, byte[] k)
+	{
+		byte[] subkey = new byte[32];
+		hsalsa20.crypto_core(subkey, n, k, xsalsa20.sigma);
+
+		input[0] = salsa20fast.load_littleendian(xsalsa20.sigma, 0);
+		input[1] = salsa20fast.load_littleendian(subkey, 0);
+		input[2] = salsa20fast.load_littleendian(subkey, 4);
+		input[3] = salsa20fast.load_littleendian(subkey, 8);
+		input[4] = salsa20fast.load_littleendian(subkey, 12);
+		input[5] = salsa20fast.load_littleendian(xsalsa20.sigma, 4);
+		input[6] = salsa20fast.load_littleendian(n, 16);
+		input[7] = salsa20fast.load_littleendian(n, 20);
+		input[8] = 0;
+		input[9] = 0;
+		input[10] = salsa20fast.load_littleendian(xsalsa20.sigma, 8);
+		input[11] = salsa20fast.load_littleendian(subkey, 16);
+		input[12] = salsa20fast.load_littleendian(subkey, 20);
+		input[13] = salsa20fast.load_littleendian(subkey, 24);
+		input[14] = salsa20fast.load_littleendian(subkey, 28);
+		input[15] = salsa20fast.load_littleendian(xsalsa20.sigma, 12);
+
+		/* the first 32 bytes of the keystream are the Poly1305 key, the message starts after them */
+		nextBlock();
+		poly1305 = new poly1305fast.State(keystream);
+		position = 32;
+	}
+
+	/**
+	 * Encrypt len bytes of m into c (which may be the same array at the same offset).
+	 */
+	public void update(byte[] c, int coffset, byte[] m, int moffset, int len)
+	{
+		xor(c, coffset, m, moffset, len);
+		authenticate(c, coffset, len);
+	}
+
+	/**
+	 * XOR len bytes of in with the keystream into out (which may be the same array at the same
+	 * offset), without authenticating anything. For decryption, after the ciphertext has been
+	 * checked with {@link #authenticate} and {@link #verify} on another instance.
+	 */
+	public void xor(byte[] out, int outoffset, byte[] in, int inoffset, int len)
+	{
+		while (len > 0)
+		{
+			if (position == 64)
+			{
+				nextBlock();
+				position = 0;
+			}
+
+			int count = Math.min(64 - position, len);
+			for (int i = 0; i < count; i++)
+				out[outoffset + i] = (byte) (in[inoffset + i] ^ keystream[position + i]);
+
+			position += count;
+			outoffset += count;
+			inoffset += count;
+			len -= count;
+		}
+	}
+
+	/**
+	 * Add len bytes of ciphertext to the authenticator, without generating any keystream.
+	 */
+	public void authenticate(byte[] c, int coffset, int len)
+	{
+		poly1305.update(c, coffset, len);
+		length += len;
+	}
+
+	/**
+	 * Write the 16-byte authenticator over all ciphertext produced so far.
+	 */
+	public void finish(byte[] tag, int tagoffset)
+	{
+		if (length == 0)
+		{
+			/* crypto_secretbox_nopad never generates any keystream for an empty message,
+			 * so its authenticator is computed with an all-zero key (and is all zero) */
+			for (int i = 0; i < 16; i++)
+				tag[tagoffset + i] = 0;
+			return;
+		}
+
+		poly1305.finish(tag, tagoffset);
+	}
+
+	/**
+	 * Check the authenticator over all ciphertext passed to {@link #authenticate} so far, in
+	 * constant time. Like crypto_secretbox_open_nopad, this always uses the real Poly1305 key.
+	 *
+	 * @return true if the authenticator matches
+	 */
+	public boolean verify(byte[] tag, int tagoffset)
+	{
+		byte[] correct = new byte[16];
+		poly1305.finish(correct, 0);
+		return verify_16.crypto_verify(tag, tagoffset, correct) == 0;
+	}
+
+	private void nextBlock()
+	{
+		salsa20fast.core(block, input);
+		for (int i = 0; i < 16; i++)
+			salsa20fast.store_littleendian(keystream, i * 4, block[i]);
+
+		/* 64-bit block counter */
+		if (++input[8] == 0)
+			input[9]++;
+	}
+}
@@ -0,0 +1,144 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.cache;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+public class BitmapPoolTest {
+	private static Bitmap createBitmap(int byteCount) {
+		Bitmap bitmap = PowerMockito.mock(Bitmap.class);
+		when(bitmap.getAllocationByteCount()).thenReturn(byteCount);
+		when(bitmap.isMutable()).thenReturn(true);
+		when(bitmap.isRecycled()).thenReturn(false);
+		return bitmap;
+	}
+
+	@Test
+	public void testReuseSmallestFitting() {
+		BitmapPool pool = new BitmapPool(10000);
+		Bitmap large = createBitmap(4000);
+		Bitmap small = createBitmap(1600);
+		pool.put(large);
+		pool.put(small);
+
+		// 10x10 ARGB_8888 needs 400 bytes, both fit
+		assertSame(small, pool.get(10, 10));
+		assertSame(large, pool.get(10, 10));
+		assertNull(pool.get(10, 10));
+
+		assertEquals(2, pool.getHitCount());
+		assertEquals(1, pool.getMissCount());
+		verify(small, never()).recycle();
+		verify(large, never()).recycle();
+	}
+
+	@Test
+	public void testNoFittingBitmap() {
+		BitmapPool pool = new BitmapPool(10000);
+		Bitmap bitmap = createBitmap(1600);
+		pool.put(bitmap);
+
+		// 30x30 ARGB_8888 needs 3600 bytes
+		assertNull(pool.get(30, 30));
+		assertEquals(1, pool.getMissCount());
+
+		// still in the pool
+		assertSame(bitmap, pool.get(20, 20));
+	}
+
+	@Test
+	public void testTrimRecyclesOldest() {
+		BitmapPool pool = new BitmapPool(1000);
+		Bitmap first = createBitmap(400);
+		Bitmap second = createBitmap(400);
+		Bitmap third = createBitmap(400);
+		pool.put(first);
+		pool.put(second);
+		pool.put(third);
+
+		verify(first).recycle();
+		verify(second, never()).recycle();
+		verify(third, never()).recycle();
+
+		assertSame(second, pool.get(10, 10));
+		assertSame(third, pool.get(10, 10));
+		assertNull(pool.get(10, 10));
+	}
+
+	@Test
+	public void testRejectsUnusableBitmaps() {
+		BitmapPool pool = new BitmapPool(1000);
+
+		Bitmap immutable = createBitmap(400);
+		when(immutable.isMutable()).thenReturn(false);
+		Bitmap recycled = createBitmap(400);
+		when(recycled.isRecycled()).thenReturn(true);
+		Bitmap tooLarge = createBitmap(2000);
+
+		pool.put(null);
+		pool.put(immutable);
+		pool.put(recycled);
+		pool.put(tooLarge);
+
+		assertNull(pool.get(1, 1));
+		verify(tooLarge, never()).recycle();
+	}
+
+	@Test
+	public void testPutTwice() {
+		BitmapPool pool = new BitmapPool(1000);
+		Bitmap bitmap = createBitmap(400);
+		pool.put(bitmap);
+		pool.put(bitmap);
+
+		assertSame(bitmap, pool.get(10, 10));
+		assertNull(pool.get(10, 10));
+	}
+
+	@Test
+	public void testClear() {
+		BitmapPool pool = new BitmapPool(1000);
+		Bitmap first = createBitmap(400);
+		Bitmap second = createBitmap(400);
+		pool.put(first);
+		pool.put(second);
+
+		pool.clear();
+
+		verify(first).recycle();
+		verify(second).recycle();
+		assertNull(pool.get(1, 1));
+	}
+}
@@ -0,0 +1,207 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.cache;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import ch.threema.localcrypto.MasterKey;
+import ch.threema.localcrypto.SeekableCipherInputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class DecryptedRangeCacheTest {
+	private static final int BLOCK_SIZE = DecryptedRangeCache.BLOCK_SIZE;
+	private static final long RANDOM_SEED = 123456789;
+
+	private File keyFile;
+	private File file;
+	private MasterKey masterKey;
+
+	@Before
+	public void setUp() throws IOException {
+		this.keyFile = Files.createTempFile("3ma", "rangecachetest-key").toFile();
+		//noinspection ResultOfMethodCallIgnored
+		this.keyFile.delete();
+		this.file = Files.createTempFile("3ma", "rangecachetest").toFile();
+		this.masterKey = new MasterKey(this.keyFile, null, false);
+	}
+
+	@After
+	public void tearDown() {
+		//noinspection ResultOfMethodCallIgnored
+		this.keyFile.delete();
+		//noinspection ResultOfMethodCallIgnored
+		this.file.delete();
+	}
+
+	private byte[] writeFile(int length) throws Exception {
+		byte[] plaintext = new byte[length];
+		new Random(RANDOM_SEED + length).nextBytes(plaintext);
+		try (OutputStream os = this.masterKey.getChunkedCipherOutputStream(new FileOutputStream(this.file))) {
+			os.write(plaintext);
+		}
+		return plaintext;
+	}
+
+	private SeekableCipherInputStream open() throws Exception {
+		return this.masterKey.getSeekableCipherInputStream(this.file);
+	}
+
+	@Test
+	public void testRangeReads() throws Exception {
+		byte[] plaintext = writeFile(3 * BLOCK_SIZE + 1234);
+		DecryptedRangeCache cache = new DecryptedRangeCache(1024);
+
+		Random random = new Random(RANDOM_SEED);
+		try (SeekableCipherInputStream sis = open()) {
+			for (int i = 0; i < 100; i++) {
+				int offset = random.nextInt(plaintext.length);
+				int size = random.nextInt(2 * BLOCK_SIZE);
+				byte[] data = new byte[size + 10];
+
+				int read = cache.read("file", sis, offset, data, 10, size);
+
+				int expected = Math.min(size, plaintext.length - offset);
+				assertEquals(expected, read);
+				Assert.assertArrayEquals(Arrays.copyOfRange(plaintext, offset, offset + expected), Arrays.copyOfRange(data, 10, 10 + read));
+			}
+		}
+
+		// every block has been decrypted exactly once
+		assertEquals(4, cache.getMissCount());
+		assertEquals(plaintext.length, cache.getSize());
+	}
+
+	@Test
+	public void testRangeAcrossBlocks() throws Exception {
+		byte[] plaintext = writeFile(2 * BLOCK_SIZE);
+		DecryptedRangeCache cache = new DecryptedRangeCache(1024);
+
+		try (SeekableCipherInputStream sis = open()) {
+			byte[] data = new byte[100];
+			assertEquals(100, cache.read("file", sis, BLOCK_SIZE - 50, data, 0, 100));
+			Assert.assertArrayEquals(Arrays.copyOfRange(plaintext, BLOCK_SIZE - 50, BLOCK_SIZE + 50), data);
+			assertEquals(2, cache.getMissCount());
+
+			assertEquals(100, cache.read("file", sis, BLOCK_SIZE - 50, data, 0, 100));
+			assertEquals(2, cache.getMissCount());
+			assertEquals(2, cache.getHitCount());
+		}
+	}
+
+	@Test
+	public void testOutOfBounds() throws Exception {
+		byte[] plaintext = writeFile(BLOCK_SIZE + 100);
+		DecryptedRangeCache cache = new DecryptedRangeCache(1024);
+
+		try (SeekableCipherInputStream sis = open()) {
+			byte[] data = new byte[200];
+
+			// at and past the end of the file
+			assertEquals(0, cache.read("file", sis, plaintext.length, data, 0, 200));
+			assertEquals(0, cache.read("file", sis, plaintext.length + BLOCK_SIZE, data, 0, 200));
+
+			// truncated at the end of the file
+			assertEquals(50, cache.read("file", sis, plaintext.length - 50, data, 0, 200));
+			Assert.assertArrayEquals(Arrays.copyOfRange(plaintext, plaintext.length - 50, plaintext.length), Arrays.copyOf(data, 50));
+
+			try {
+				cache.read("file", sis, -1, data, 0, 10);
+				Assert.fail("Negative offset accepted");
+			} catch (IOException e) {
+				// expected
+			}
+			try {
+				cache.read("file", sis, 0, data, 150, 100);
+				Assert.fail("Range exceeding the buffer accepted");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		byte[] plaintext = writeFile(4 * BLOCK_SIZE);
+		// room for two blocks
+		DecryptedRangeCache cache = new DecryptedRangeCache(2 * BLOCK_SIZE / 1024);
+
+		try (SeekableCipherInputStream sis = open()) {
+			byte[] data = new byte[10];
+			for (int block = 0; block < 4; block++) {
+				cache.read("file", sis, (long) block * BLOCK_SIZE, data, 0, data.length);
+				assertTrue(cache.getSize() <= 2 * BLOCK_SIZE);
+			}
+			assertEquals(4, cache.getMissCount());
+
+			// the two most recently used blocks are still cached, the others have been evicted
+			cache.read("file", sis, 3L * BLOCK_SIZE, data, 0, data.length);
+			cache.read("file", sis, 2L * BLOCK_SIZE, data, 0, data.length);
+			assertEquals(4, cache.getMissCount());
+			cache.read("file", sis, 0, data, 0, data.length);
+			assertEquals(5, cache.getMissCount());
+			Assert.assertArrayEquals(Arrays.copyOf(plaintext, data.length), data);
+
+			// block 3 was used least recently and made room for block 0
+			cache.read("file", sis, 2L * BLOCK_SIZE, data, 0, data.length);
+			assertEquals(5, cache.getMissCount());
+			cache.read("file", sis, 3L * BLOCK_SIZE, data, 0, data.length);
+			assertEquals(6, cache.getMissCount());
+		}
+	}
+
+	@Test
+	public void testRemoveAndClear() throws Exception {
+		writeFile(2 * BLOCK_SIZE);
+		DecryptedRangeCache cache = new DecryptedRangeCache(1024);
+
+		try (SeekableCipherInputStream sis = open()) {
+			byte[] data = new byte[10];
+			cache.read("a", sis, 0, data, 0, data.length);
+			cache.read("b", sis, 0, data, 0, data.length);
+			cache.read("b", sis, BLOCK_SIZE, data, 0, data.length);
+			assertEquals(3 * BLOCK_SIZE, cache.getSize());
+
+			cache.remove("b");
+			assertEquals(BLOCK_SIZE, cache.getSize());
+			cache.read("a", sis, 0, data, 0, data.length);
+			assertEquals(3, cache.getMissCount());
+
+			cache.clear();
+			assertEquals(0, cache.getSize());
+			cache.read("a", sis, 0, data, 0, data.length);
+			assertEquals(4, cache.getMissCount());
+		}
+	}
+}
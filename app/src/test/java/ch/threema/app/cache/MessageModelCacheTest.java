@@ -0,0 +1,182 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.app.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import ch.threema.app.utils.TestUtil;
+import ch.threema.storage.models.MessageModel;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class MessageModelCacheTest {
+	private interface Predicate {
+		boolean apply(MessageModel m);
+	}
+
+	private static MessageModel createModel(int id, String apiMessageId, String identity, boolean outbox) {
+		MessageModel model = new MessageModel();
+		model.setId(id);
+		model.setApiMessageId(apiMessageId);
+		model.setIdentity(identity);
+		model.setOutbox(outbox);
+		return model;
+	}
+
+	/**
+	 * The cache must return one of the instances the linear scan over all cached instances
+	 * would have returned (the same one if the match is unique), or null if there is none.
+	 */
+	private static void assertEquivalent(Set<MessageModel> reference, MessageModel result, Predicate predicate) {
+		final List<MessageModel> matches = new ArrayList<>();
+		for (MessageModel m : reference) {
+			if (predicate.apply(m)) {
+				matches.add(m);
+			}
+		}
+		if (matches.isEmpty()) {
+			assertNull(result);
+		} else {
+			assertNotNull(result);
+			boolean found = false;
+			for (MessageModel m : matches) {
+				found |= m == result;
+			}
+			assertTrue(found);
+			if (matches.size() == 1) {
+				assertSame(matches.get(0), result);
+			}
+		}
+	}
+
+	@Test
+	public void testEquivalentToLinearScan() {
+		final Random random = new Random(42);
+		final String[] apiMessageIds = {"0102030405060708", "1112131415161718", "2122232425262728", "3132333435363738"};
+		final String[] identities = {"ECHOECHO", "ABCDEFGH", null};
+
+		final MessageModelCache<MessageModel> cache = new MessageModelCache<>(10000);
+		final Set<MessageModel> reference = new HashSet<>();
+		final List<MessageModel> unsaved = new ArrayList<>();
+
+		for (int n = 0; n < 5000; n++) {
+			final int op = random.nextInt(6);
+			if (op == 0) {
+				// cached right after creation, saved later
+				final MessageModel model = createModel(0, null, null, false);
+				cache.put(model);
+				reference.add(model);
+				unsaved.add(model);
+			} else if ((op == 1 || op == 4) && !unsaved.isEmpty()) {
+				// fields set and saved without caching the model again
+				final MessageModel model = unsaved.remove(random.nextInt(unsaved.size()));
+				final int id = 1 + random.nextInt(200);
+				model.setApiMessageId(apiMessageIds[id % apiMessageIds.length]);
+				model.setIdentity(identities[id % identities.length]);
+				model.setOutbox(id % 2 == 0);
+				model.setId(id);
+			} else if (op == 2) {
+				// another instance of a message, possibly already cached
+				final int id = 1 + random.nextInt(200);
+				final MessageModel model = createModel(id,
+					apiMessageIds[id % apiMessageIds.length],
+					identities[id % identities.length],
+					id % 2 == 0);
+				cache.put(model);
+				reference.add(model);
+			} else if (op == 3 && n % 10 == 0) {
+				final int id = 1 + random.nextInt(200);
+				cache.remove(id);
+				final List<MessageModel> removed = new ArrayList<>();
+				for (MessageModel m : reference) {
+					if (m.getId() == id) {
+						removed.add(m);
+					}
+				}
+				reference.removeAll(removed);
+			}
+
+			final int id = random.nextInt(201);
+			final String apiMessageId = apiMessageIds[random.nextInt(apiMessageIds.length)];
+			final String identity = identities[random.nextInt(identities.length)];
+
+			if (id > 0) {
+				assertEquivalent(reference, cache.getById(id), m -> m.getId() == id);
+			}
+			assertEquivalent(reference, cache.getByApiMessageId(apiMessageId), m -> apiMessageId.equals(m.getApiMessageId()));
+			assertEquivalent(reference, cache.getByApiMessageIdAndIdentity(apiMessageId, identity),
+				m -> m.getApiMessageId() != null && m.getApiMessageId().equals(apiMessageId) && TestUtil.compare(m.getIdentity(), identity));
+			assertEquivalent(reference, cache.getOutgoingByApiMessageId(apiMessageId),
+				m -> m.getApiMessageId() != null && m.getApiMessageId().equals(apiMessageId) && m.isOutbox());
+		}
+	}
+
+	@Test
+	public void testAllInstancesOfAMessage() {
+		final MessageModelCache<MessageModel> cache = new MessageModelCache<>(10);
+		final MessageModel first = createModel(1, "0102030405060708", "ECHOECHO", false);
+		final MessageModel second = createModel(1, "0102030405060708", "ECHOECHO", false);
+		cache.put(first);
+		cache.put(second);
+		cache.put(first);
+
+		assertEquals(1, cache.size());
+		assertEquals(2, cache.getAllById(1).size());
+		assertSame(first, cache.getById(1));
+
+		cache.remove(1);
+		assertEquals(0, cache.size());
+		assertNull(cache.getByApiMessageId("0102030405060708"));
+	}
+
+	@Test
+	public void testEviction() {
+		final MessageModelCache<MessageModel> cache = new MessageModelCache<>(3);
+		for (int id = 1; id <= 3; id++) {
+			cache.put(createModel(id, "000000000000000" + id, "ECHOECHO", true));
+		}
+		// touch the first message, the second is the least recently used now
+		assertNotNull(cache.getById(1));
+		cache.put(createModel(4, "0000000000000004", "ECHOECHO", true));
+
+		assertEquals(3, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		assertNull(cache.getById(2));
+		assertNull(cache.getByApiMessageIdAndIdentity("0000000000000002", "ECHOECHO"));
+		assertNotNull(cache.getById(1));
+		assertNotNull(cache.getOutgoingByApiMessageId("0000000000000004"));
+
+		assertEquals(3, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+	}
+}
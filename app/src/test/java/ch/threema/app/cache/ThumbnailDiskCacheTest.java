@@ -0,0 +1,207 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.cache;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import ch.threema.localcrypto.MasterKey;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(BitmapFactory.class)
+public class ThumbnailDiskCacheTest {
+	private static final int COMPRESSED_SIZE = 1000;
+
+	private File keyFile;
+	private File directory;
+	private MasterKey masterKey;
+	private Bitmap decodedBitmap;
+	private long entrySize;
+
+	@Before
+	public void setUp() throws Exception {
+		this.keyFile = Files.createTempFile("3ma", "thumbnaildiskcachetest-key").toFile();
+		//noinspection ResultOfMethodCallIgnored
+		this.keyFile.delete();
+		this.directory = Files.createTempDirectory("3ma-thumbnaildiskcachetest").toFile();
+		this.masterKey = new MasterKey(this.keyFile, null, false);
+
+		this.decodedBitmap = PowerMockito.mock(Bitmap.class);
+		PowerMockito.mockStatic(BitmapFactory.class);
+		when(BitmapFactory.decodeStream(any(InputStream.class))).thenReturn(this.decodedBitmap);
+
+		// size of one encrypted entry on disk
+		ThumbnailDiskCache probe = new ThumbnailDiskCache(this.directory, this.masterKey, Long.MAX_VALUE);
+		probe.put("probe", createBitmap(COMPRESSED_SIZE));
+		this.entrySize = probe.getSize();
+		probe.clear();
+		assertTrue(this.entrySize >= COMPRESSED_SIZE);
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = this.directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				//noinspection ResultOfMethodCallIgnored
+				file.delete();
+			}
+		}
+		//noinspection ResultOfMethodCallIgnored
+		this.directory.delete();
+		//noinspection ResultOfMethodCallIgnored
+		this.keyFile.delete();
+	}
+
+	private static Bitmap createBitmap(final int compressedSize) {
+		Bitmap bitmap = PowerMockito.mock(Bitmap.class);
+		when(bitmap.hasAlpha()).thenReturn(false);
+		when(bitmap.compress(any(), anyInt(), any(OutputStream.class))).thenAnswer(invocation -> {
+			OutputStream outputStream = invocation.getArgument(2);
+			outputStream.write(new byte[compressedSize]);
+			return true;
+		});
+		return bitmap;
+	}
+
+	private File getFile(String key) {
+		return new File(this.directory, key + ".thumb");
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() {
+		ThumbnailDiskCache cache = new ThumbnailDiskCache(this.directory, this.masterKey, 3 * this.entrySize);
+		cache.put("entry-a", createBitmap(COMPRESSED_SIZE));
+		cache.put("entry-b", createBitmap(COMPRESSED_SIZE));
+		cache.put("entry-c", createBitmap(COMPRESSED_SIZE));
+		assertEquals(3 * this.entrySize, cache.getSize());
+
+		// a becomes the most recently used entry
+		assertNotNull(cache.get("entry-a"));
+
+		cache.put("entry-d", createBitmap(COMPRESSED_SIZE));
+		assertEquals(3 * this.entrySize, cache.getSize());
+		assertEquals(1, cache.getEvictionCount());
+		assertFalse(getFile("entry-b").exists());
+
+		assertNull(cache.get("entry-b"));
+		assertNotNull(cache.get("entry-a"));
+		assertNotNull(cache.get("entry-c"));
+		assertNotNull(cache.get("entry-d"));
+		assertEquals(4, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void testReplaceEntry() {
+		ThumbnailDiskCache cache = new ThumbnailDiskCache(this.directory, this.masterKey, 3 * this.entrySize);
+		cache.put("entry-a", createBitmap(COMPRESSED_SIZE));
+		cache.put("entry-a", createBitmap(COMPRESSED_SIZE));
+
+		assertEquals(this.entrySize, cache.getSize());
+		assertEquals(0, cache.getEvictionCount());
+	}
+
+	@Test
+	public void testTrimOnLoad() throws IOException {
+		ThumbnailDiskCache cache = new ThumbnailDiskCache(this.directory, this.masterKey, Long.MAX_VALUE);
+		cache.put("entry-a", createBitmap(COMPRESSED_SIZE));
+		cache.put("entry-b", createBitmap(COMPRESSED_SIZE));
+		cache.put("entry-c", createBitmap(COMPRESSED_SIZE));
+
+		// the access order is restored from the modification dates
+		assertTrue(getFile("entry-b").setLastModified(1000000000000L));
+		assertTrue(getFile("entry-c").setLastModified(1000000001000L));
+		assertTrue(getFile("entry-a").setLastModified(1000000002000L));
+		// left over from an interrupted write
+		File tempFile = new File(this.directory, "x.tmp");
+		assertTrue(tempFile.createNewFile());
+
+		ThumbnailDiskCache reopened = new ThumbnailDiskCache(this.directory, this.masterKey, 2 * this.entrySize);
+		assertEquals(2 * this.entrySize, reopened.getSize());
+		assertEquals(1, reopened.getEvictionCount());
+		assertFalse(getFile("entry-b").exists());
+		assertTrue(getFile("entry-c").exists());
+		assertTrue(getFile("entry-a").exists());
+		assertFalse(tempFile.exists());
+	}
+
+	@Test
+	public void testTooLarge() {
+		ThumbnailDiskCache cache = new ThumbnailDiskCache(this.directory, this.masterKey, COMPRESSED_SIZE / 2);
+		cache.put("entry-a", createBitmap(COMPRESSED_SIZE));
+
+		assertEquals(0, cache.getSize());
+		assertFalse(getFile("entry-a").exists());
+	}
+
+	@Test
+	public void testUnreadableEntry() {
+		ThumbnailDiskCache cache = new ThumbnailDiskCache(this.directory, this.masterKey, 3 * this.entrySize);
+		cache.put("entry-a", createBitmap(COMPRESSED_SIZE));
+
+		when(BitmapFactory.decodeStream(any(InputStream.class))).thenReturn(null);
+
+		assertNull(cache.get("entry-a"));
+		assertEquals(1, cache.getMissCount());
+		assertEquals(0, cache.getSize());
+		assertFalse(getFile("entry-a").exists());
+	}
+
+	@Test
+	public void testRemoveAndClear() {
+		ThumbnailDiskCache cache = new ThumbnailDiskCache(this.directory, this.masterKey, 3 * this.entrySize);
+		cache.put("entry-a", createBitmap(COMPRESSED_SIZE));
+		cache.put("entry-b", createBitmap(COMPRESSED_SIZE));
+
+		cache.remove("entry-a");
+		assertEquals(this.entrySize, cache.getSize());
+		assertFalse(getFile("entry-a").exists());
+
+		cache.clear();
+		assertEquals(0, cache.getSize());
+		assertFalse(getFile("entry-b").exists());
+	}
+}
@@ -0,0 +1,96 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.collections;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class BloomFilterTest {
+
+	private static List<byte[]> randomItems(Random random, int count) {
+		final List<byte[]> items = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			byte[] item = new byte[24];
+			random.nextBytes(item);
+			items.add(item);
+		}
+		return items;
+	}
+
+	@Test
+	public void noFalseNegatives() {
+		final BloomFilter filter = new BloomFilter(1000, 0.01);
+		final List<byte[]> items = randomItems(new Random(1), 1000);
+		for (byte[] item : items) {
+			filter.add(item);
+		}
+		for (byte[] item : items) {
+			assertTrue(filter.mightContain(item));
+		}
+	}
+
+	@Test
+	public void falsePositiveRate() {
+		final BloomFilter filter = new BloomFilter(10000, 0.01);
+		final Random random = new Random(2);
+		for (byte[] item : randomItems(random, 10000)) {
+			filter.add(item);
+		}
+
+		int falsePositives = 0;
+		for (byte[] item : randomItems(random, 10000)) {
+			if (filter.mightContain(item)) {
+				falsePositives++;
+			}
+		}
+		assertTrue("Too many false positives: " + falsePositives, falsePositives < 200);
+	}
+
+	@Test
+	public void serialization() throws Exception {
+		final BloomFilter filter = new BloomFilter(100, 0.01);
+		final List<byte[]> items = randomItems(new Random(3), 100);
+		for (byte[] item : items) {
+			filter.add(item);
+		}
+
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		filter.writeTo(new DataOutputStream(bos));
+		final BloomFilter restored = BloomFilter.readFrom(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+
+		assertEquals(filter.getNumBits(), restored.getNumBits());
+		assertEquals(filter.getNumHashes(), restored.getNumHashes());
+		for (byte[] item : items) {
+			assertTrue(restored.mightContain(item));
+		}
+	}
+}
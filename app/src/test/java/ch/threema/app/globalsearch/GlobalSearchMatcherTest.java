@@ -0,0 +1,61 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.app.globalsearch;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class GlobalSearchMatcherTest {
+	@Test
+	public void testPrefixMatch() {
+		assertTrue(GlobalSearchMatcher.matches("Team meeting at noon", "meet"));
+		assertTrue(GlobalSearchMatcher.matches("Team meeting at noon", "noon te"));
+		assertFalse(GlobalSearchMatcher.matches("Team meeting at noon", "eting"));
+		assertFalse(GlobalSearchMatcher.matches("Team meeting at noon", "meet tomorrow"));
+		assertFalse(GlobalSearchMatcher.matches(null, "meet"));
+	}
+
+	@Test
+	public void testCaseAndDiacritics() {
+		assertTrue(GlobalSearchMatcher.matches("Gr\u00fcezi mitenand", "GRUE"));
+		assertTrue(GlobalSearchMatcher.matches("Gruezi mitenand", "gr\u00fce"));
+	}
+
+	@Test
+	public void testPunctuation() {
+		assertTrue(GlobalSearchMatcher.matches("see you, (tomorrow)!", "tomorrow!"));
+		assertTrue(GlobalSearchMatcher.matches("e-mail me", "mail"));
+	}
+
+	@Test
+	public void testRefines() {
+		assertTrue(GlobalSearchMatcher.refines("meet", "meeting"));
+		assertTrue(GlobalSearchMatcher.refines("meet", "meet at"));
+		assertFalse(GlobalSearchMatcher.refines("meeting", "meet"));
+		assertFalse(GlobalSearchMatcher.refines("meet", "greet"));
+		assertFalse(GlobalSearchMatcher.refines(null, "meet"));
+		assertFalse(GlobalSearchMatcher.refines("!", "!meet"));
+	}
+}
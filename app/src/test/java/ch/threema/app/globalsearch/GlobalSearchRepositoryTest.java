@@ -0,0 +1,179 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.globalsearch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.annotation.NonNull;
+import androidx.arch.core.executor.ArchTaskExecutor;
+import androidx.arch.core.executor.TaskExecutor;
+import ch.threema.app.ThreemaApplication;
+import ch.threema.app.managers.ListenerManager;
+import ch.threema.app.managers.ServiceManager;
+import ch.threema.app.services.MessageService;
+import ch.threema.storage.models.AbstractMessageModel;
+import ch.threema.storage.models.MessageModel;
+import ch.threema.storage.models.MessageType;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(ThreemaApplication.class)
+public class GlobalSearchRepositoryTest {
+	/**
+	 * Searches an in-memory list of messages.
+	 */
+	private static class TestRepository extends GlobalSearchRepository {
+		final List<AbstractMessageModel> messages = new CopyOnWriteArrayList<>();
+		final AtomicInteger searchCount = new AtomicInteger();
+
+		TestRepository() {
+			super(null);
+		}
+
+		@Override
+		List<AbstractMessageModel> searchMessages(String queryString, int limit, int offset) {
+			searchCount.incrementAndGet();
+			final List<AbstractMessageModel> result = new ArrayList<>();
+			for (AbstractMessageModel messageModel : messages) {
+				if (GlobalSearchMatcher.matches(messageModel.getBody(), queryString)) {
+					result.add(messageModel);
+				}
+			}
+			return new ArrayList<>(result.subList(Math.min(offset, result.size()), Math.min(offset + limit, result.size())));
+		}
+	}
+
+	private TestRepository repository;
+	private final BlockingQueue<List<AbstractMessageModel>> results = new LinkedBlockingQueue<>();
+
+	@Before
+	public void setUp() throws Exception {
+		// deliver LiveData updates on the calling thread
+		ArchTaskExecutor.getInstance().setDelegate(new TaskExecutor() {
+			@Override
+			public void executeOnDiskIO(@NonNull Runnable runnable) {
+				runnable.run();
+			}
+
+			@Override
+			public void postToMainThread(@NonNull Runnable runnable) {
+				runnable.run();
+			}
+
+			@Override
+			public boolean isMainThread() {
+				return true;
+			}
+		});
+
+		ServiceManager serviceManager = mock(ServiceManager.class);
+		when(serviceManager.getMessageService()).thenReturn(mock(MessageService.class));
+		PowerMockito.mockStatic(ThreemaApplication.class);
+		when(ThreemaApplication.getServiceManager()).thenReturn(serviceManager);
+
+		repository = new TestRepository();
+		repository.getIsLoading().observeForever(loading -> {
+			if (!loading) {
+				results.add(repository.getMessageModels().getValue());
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		repository.shutdown();
+		ArchTaskExecutor.getInstance().setDelegate(null);
+	}
+
+	private static MessageModel createMessage(String text) {
+		MessageModel messageModel = new MessageModel();
+		messageModel.setType(MessageType.TEXT);
+		messageModel.setBody(text);
+		return messageModel;
+	}
+
+	private List<AbstractMessageModel> search(String query) throws InterruptedException {
+		repository.onQueryChanged(query);
+		List<AbstractMessageModel> result = results.poll(5, TimeUnit.SECONDS);
+		assertNotNull(result);
+		return result;
+	}
+
+	@Test
+	public void testRefinePreviousResult() throws Exception {
+		MessageModel meeting = createMessage("meeting at noon");
+		repository.messages.add(meeting);
+		repository.messages.add(createMessage("lunch"));
+
+		assertEquals(Arrays.asList(meeting), search("meet"));
+		assertEquals(Arrays.asList(meeting), search("meeting"));
+
+		/* the second query is answered from the first result */
+		assertEquals(1, repository.searchCount.get());
+	}
+
+	@Test
+	public void testMessageInsertedBetweenSearches() throws Exception {
+		MessageModel meeting = createMessage("meeting at noon");
+		repository.messages.add(meeting);
+
+		assertEquals(Arrays.asList(meeting), search("meet"));
+
+		final MessageModel inserted = createMessage("meeting tomorrow");
+		repository.messages.add(inserted);
+		ListenerManager.messageListeners.handle(listener -> listener.onNew(inserted));
+
+		assertEquals(Arrays.asList(meeting, inserted), search("meeting"));
+		assertEquals(2, repository.searchCount.get());
+	}
+
+	@Test
+	public void testShorterQuerySearchesAgain() throws Exception {
+		MessageModel meeting = createMessage("meeting at noon");
+		MessageModel meat = createMessage("meat for dinner");
+		repository.messages.add(meeting);
+		repository.messages.add(meat);
+
+		assertEquals(Arrays.asList(meeting), search("meeting"));
+		assertEquals(Arrays.asList(meeting, meat), search("me"));
+		assertEquals(2, repository.searchCount.get());
+	}
+}
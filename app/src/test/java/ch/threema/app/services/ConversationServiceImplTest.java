@@ -0,0 +1,290 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.services;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import ch.threema.app.messagereceiver.ContactMessageReceiver;
+import ch.threema.app.messagereceiver.MessageReceiver;
+import ch.threema.storage.models.ContactModel;
+import ch.threema.storage.models.ConversationModel;
+import ch.threema.storage.models.MessageModel;
+import ch.threema.storage.models.TagModel;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+public class ConversationServiceImplTest {
+	private static final long RANDOM_SEED = 4711;
+
+	private final List<ConversationModel> cache = new ArrayList<>();
+	private final Set<ConversationModel> pinned = new HashSet<>();
+	private ConversationServiceImpl service;
+	private int nextIdentity = 0;
+
+	/**
+	 * Reference order, independent of the implementation: pinned first, then the most recent
+	 * first, conversations without a date last.
+	 */
+	private final Comparator<ConversationModel> referenceComparator = new Comparator<ConversationModel>() {
+		@Override
+		public int compare(ConversationModel c1, ConversationModel c2) {
+			int pinned1 = pinned.contains(c1) ? 0 : 1;
+			int pinned2 = pinned.contains(c2) ? 0 : 1;
+			if (pinned1 != pinned2) {
+				return pinned1 - pinned2;
+			}
+			long time1 = c1.getSortDate() != null ? c1.getSortDate().getTime() : Long.MIN_VALUE;
+			long time2 = c2.getSortDate() != null ? c2.getSortDate().getTime() : Long.MIN_VALUE;
+			return Long.compare(time2, time1);
+		}
+	};
+
+	@Before
+	public void setUp() {
+		TagModel starTag = new TagModel(ConversationTagServiceImpl.FIXED_TAG_PIN, 1, 2, "Star");
+
+		ConversationTagService conversationTagService = PowerMockito.mock(ConversationTagService.class);
+		when(conversationTagService.getTagModel(ConversationTagServiceImpl.FIXED_TAG_PIN)).thenReturn(starTag);
+		when(conversationTagService.isTaggedWith(any(), any()))
+			.thenAnswer(invocation -> this.pinned.contains(invocation.<ConversationModel>getArgument(0)));
+
+		CacheService cacheService = PowerMockito.mock(CacheService.class);
+		when(cacheService.getConversationModelCache()).thenReturn(this.cache);
+
+		this.service = new ConversationServiceImpl(cacheService, null, null, null, null, null, null, conversationTagService);
+	}
+
+	private ConversationModel createConversation(Long time) {
+		ContactMessageReceiver receiver = PowerMockito.mock(ContactMessageReceiver.class);
+		when(receiver.getType()).thenReturn(MessageReceiver.Type_CONTACT);
+		when(receiver.getContact()).thenReturn(new ContactModel(String.format("TEST%04d", this.nextIdentity++), new byte[32]));
+
+		ConversationModel conversationModel = new ConversationModel(receiver);
+		setTime(conversationModel, time);
+		return conversationModel;
+	}
+
+	private static void setTime(ConversationModel conversationModel, Long time) {
+		if (time == null) {
+			conversationModel.setLatestMessage(null);
+		} else {
+			MessageModel messageModel = new MessageModel();
+			messageModel.setCreatedAt(new Date(time));
+			conversationModel.setLatestMessage(messageModel);
+		}
+	}
+
+	/**
+	 * The cache must be in the order of a full sort (conversations comparing equal may be in
+	 * any order) and the position of each conversation must be its index.
+	 */
+	private void assertSorted(Set<ConversationModel> expected) {
+		assertEquals(expected.size(), this.cache.size());
+		assertEquals(expected, new HashSet<>(this.cache));
+
+		List<ConversationModel> sorted = new ArrayList<>(this.cache);
+		Collections.sort(sorted, this.referenceComparator);
+		for (int i = 0; i < this.cache.size(); i++) {
+			assertEquals(0, this.referenceComparator.compare(sorted.get(i), this.cache.get(i)));
+			assertEquals(i, this.cache.get(i).getPosition());
+		}
+	}
+
+	private List<ConversationModel> fill(Set<ConversationModel> all, long... times) {
+		List<ConversationModel> conversations = new ArrayList<>();
+		for (long time : times) {
+			ConversationModel conversationModel = createConversation(time);
+			this.service.addToCache(conversationModel);
+			conversations.add(conversationModel);
+			all.add(conversationModel);
+		}
+		this.service.sort();
+		return conversations;
+	}
+
+	@Test
+	public void testMoveToFront() {
+		Set<ConversationModel> all = new HashSet<>();
+		List<ConversationModel> conversations = fill(all, 1000, 2000, 3000, 4000, 5000);
+		assertSame(conversations.get(4), this.cache.get(0));
+		assertSame(conversations.get(0), this.cache.get(4));
+
+		// new message in the oldest conversation
+		setTime(conversations.get(0), 6000L);
+		this.service.updatePosition(conversations.get(0));
+
+		assertSorted(all);
+		assertSame(conversations.get(0), this.cache.get(0));
+		assertSame(conversations.get(4), this.cache.get(1));
+		assertSame(conversations.get(1), this.cache.get(4));
+
+		// no change
+		this.service.updatePosition(conversations.get(0));
+		assertSorted(all);
+		assertSame(conversations.get(0), this.cache.get(0));
+	}
+
+	@Test
+	public void testPinned() {
+		Set<ConversationModel> all = new HashSet<>();
+		List<ConversationModel> conversations = fill(all, 1000, 2000, 3000, 4000, 5000);
+
+		// pinned conversations stay in front of newer ones
+		this.pinned.add(conversations.get(1));
+		this.service.updatePosition(conversations.get(1));
+		assertSorted(all);
+		assertSame(conversations.get(1), this.cache.get(0));
+
+		this.pinned.add(conversations.get(0));
+		this.service.updatePosition(conversations.get(0));
+		assertSorted(all);
+		assertSame(conversations.get(1), this.cache.get(0));
+		assertSame(conversations.get(0), this.cache.get(1));
+
+		// a new message in an unpinned conversation does not move it past the pinned ones
+		setTime(conversations.get(2), 9000L);
+		this.service.updatePosition(conversations.get(2));
+		assertSorted(all);
+		assertSame(conversations.get(2), this.cache.get(2));
+
+		// unpinned, back among the others by date
+		this.pinned.remove(conversations.get(1));
+		this.service.updatePosition(conversations.get(1));
+		assertSorted(all);
+		assertSame(conversations.get(1), this.cache.get(4));
+	}
+
+	@Test
+	public void testRemoveRenumbers() {
+		Set<ConversationModel> all = new HashSet<>();
+		List<ConversationModel> conversations = fill(all, 1000, 2000, 3000, 4000, 5000);
+
+		this.service.removeFromCache(conversations.get(3));
+		all.remove(conversations.get(3));
+		assertSorted(all);
+
+		this.service.removeFromCache(conversations.get(4));
+		all.remove(conversations.get(4));
+		assertSorted(all);
+		assertSame(conversations.get(2), this.cache.get(0));
+
+		// not cached (anymore), nothing happens
+		this.service.removeFromCache(conversations.get(4));
+		this.service.updatePosition(conversations.get(4));
+		assertSorted(all);
+	}
+
+	@Test
+	public void testNullDates() {
+		Set<ConversationModel> all = new HashSet<>();
+		List<ConversationModel> conversations = fill(all, 1000, 2000, 3000);
+		ConversationModel empty1 = createConversation(null);
+		ConversationModel empty2 = createConversation(null);
+		this.service.addToCache(empty1);
+		this.service.addToCache(empty2);
+		all.add(empty1);
+		all.add(empty2);
+		this.service.sort();
+		assertSorted(all);
+
+		// conversations without a date go last
+		setTime(conversations.get(2), null);
+		this.service.updatePosition(conversations.get(2));
+		assertSorted(all);
+		assertSame(conversations.get(1), this.cache.get(0));
+
+		// and move to the front with their first message
+		setTime(empty1, 5000L);
+		this.service.updatePosition(empty1);
+		assertSorted(all);
+		assertSame(empty1, this.cache.get(0));
+	}
+
+	@Test
+	public void testRandomOperations() {
+		Random random = new Random(RANDOM_SEED);
+		Set<ConversationModel> all = new HashSet<>();
+		List<ConversationModel> conversations = new ArrayList<>();
+		long time = 0;
+		for (int i = 0; i < 50; i++) {
+			ConversationModel conversationModel = createConversation(random.nextInt(5) == 0 ? null : ++time);
+			this.service.addToCache(conversationModel);
+			conversations.add(conversationModel);
+			all.add(conversationModel);
+		}
+		this.service.sort();
+		assertSorted(all);
+
+		for (int i = 0; i < 500; i++) {
+			ConversationModel conversationModel = conversations.get(random.nextInt(conversations.size()));
+			switch (random.nextInt(5)) {
+				case 0:
+					// new message
+					setTime(conversationModel, ++time);
+					break;
+				case 1:
+					// last message deleted
+					setTime(conversationModel, random.nextBoolean() ? null : (long) random.nextInt((int) time + 1));
+					break;
+				case 2:
+					if (!this.pinned.remove(conversationModel)) {
+						this.pinned.add(conversationModel);
+					}
+					break;
+				case 3:
+					this.service.removeFromCache(conversationModel);
+					all.remove(conversationModel);
+					conversations.remove(conversationModel);
+					ConversationModel newConversationModel = createConversation(++time);
+					this.service.addToCache(newConversationModel);
+					conversationModel = newConversationModel;
+					conversations.add(conversationModel);
+					all.add(conversationModel);
+					break;
+				default:
+					// unchanged
+					break;
+			}
+			this.service.updatePosition(conversationModel);
+			assertSorted(all);
+		}
+		assertTrue(this.cache.size() == conversations.size());
+	}
+}
@@ -0,0 +1,146 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.services;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Collections;
+
+import ch.threema.app.messagereceiver.ContactMessageReceiver;
+import ch.threema.app.messagereceiver.MessageReceiver;
+import ch.threema.storage.DatabaseServiceNew;
+import ch.threema.storage.factories.ConversationTagFactory;
+import ch.threema.storage.models.ContactModel;
+import ch.threema.storage.models.ConversationModel;
+import ch.threema.storage.models.ConversationTagModel;
+import ch.threema.storage.models.TagModel;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+public class ConversationTagServiceImplTest {
+	private ConversationTagFactory conversationTagFactory;
+	private ConversationTagServiceImpl service;
+	private TagModel starTag;
+	private ConversationModel conversationA;
+	private ConversationModel conversationB;
+
+	private static ConversationModel createConversation(String identity) {
+		ContactMessageReceiver receiver = PowerMockito.mock(ContactMessageReceiver.class);
+		when(receiver.getType()).thenReturn(MessageReceiver.Type_CONTACT);
+		when(receiver.getContact()).thenReturn(new ContactModel(identity, new byte[32]));
+		return new ConversationModel(receiver);
+	}
+
+	@Before
+	public void setUp() {
+		this.conversationA = createConversation("AAAAAAAA");
+		this.conversationB = createConversation("BBBBBBBB");
+
+		this.conversationTagFactory = PowerMockito.mock(ConversationTagFactory.class);
+		when(this.conversationTagFactory.getAll()).thenReturn(Collections.singletonList(
+			new ConversationTagModel(this.conversationA.getUid(), ConversationTagServiceImpl.FIXED_TAG_PIN)));
+
+		DatabaseServiceNew databaseService = PowerMockito.mock(DatabaseServiceNew.class);
+		when(databaseService.getConversationTagFactory()).thenReturn(this.conversationTagFactory);
+
+		this.service = new ConversationTagServiceImpl(databaseService);
+		this.starTag = this.service.getTagModel(ConversationTagServiceImpl.FIXED_TAG_PIN);
+	}
+
+	@Test
+	public void testLoadedOnce() {
+		assertTrue(this.service.isTaggedWith(this.conversationA, this.starTag));
+		assertFalse(this.service.isTaggedWith(this.conversationB, this.starTag));
+		assertTrue(this.service.isTaggedWith(this.conversationA, this.starTag));
+		assertFalse(this.service.isTaggedWith(null, this.starTag));
+		assertFalse(this.service.isTaggedWith(this.conversationA, null));
+
+		verify(this.conversationTagFactory, times(1)).getAll();
+	}
+
+	@Test
+	public void testTagAndUntag() {
+		assertTrue(this.service.tag(this.conversationB, this.starTag));
+		assertTrue(this.service.isTaggedWith(this.conversationB, this.starTag));
+		verify(this.conversationTagFactory, times(1)).create(any(ConversationTagModel.class));
+
+		// already tagged
+		assertFalse(this.service.tag(this.conversationB, this.starTag));
+		verify(this.conversationTagFactory, times(1)).create(any(ConversationTagModel.class));
+
+		assertTrue(this.service.unTag(this.conversationB, this.starTag));
+		assertFalse(this.service.isTaggedWith(this.conversationB, this.starTag));
+		verify(this.conversationTagFactory).deleteByConversationUidAndTag(this.conversationB.getUid(), ConversationTagServiceImpl.FIXED_TAG_PIN);
+
+		// not tagged anymore
+		assertFalse(this.service.unTag(this.conversationB, this.starTag));
+		verify(this.conversationTagFactory, times(1)).deleteByConversationUidAndTag(this.conversationB.getUid(), ConversationTagServiceImpl.FIXED_TAG_PIN);
+
+		// the other conversation is unaffected, and the database was only read once
+		assertTrue(this.service.isTaggedWith(this.conversationA, this.starTag));
+		verify(this.conversationTagFactory, times(1)).getAll();
+	}
+
+	@Test
+	public void testToggle() {
+		this.service.toggle(this.conversationA, this.starTag, true);
+		assertFalse(this.service.isTaggedWith(this.conversationA, this.starTag));
+
+		this.service.toggle(this.conversationA, this.starTag, true);
+		assertTrue(this.service.isTaggedWith(this.conversationA, this.starTag));
+	}
+
+	@Test
+	public void testRemoveAllOfConversation() {
+		this.service.tag(this.conversationB, this.starTag);
+
+		this.service.removeAll(this.conversationA);
+		assertFalse(this.service.isTaggedWith(this.conversationA, this.starTag));
+		assertTrue(this.service.isTaggedWith(this.conversationB, this.starTag));
+		verify(this.conversationTagFactory).deleteByConversationUid(this.conversationA.getUid());
+		verify(this.conversationTagFactory, never()).deleteByConversationUid(this.conversationB.getUid());
+	}
+
+	@Test
+	public void testRemoveAllOfTag() {
+		this.service.tag(this.conversationB, this.starTag);
+
+		this.service.removeAll(this.starTag);
+		assertFalse(this.service.isTaggedWith(this.conversationA, this.starTag));
+		assertFalse(this.service.isTaggedWith(this.conversationB, this.starTag));
+		verify(this.conversationTagFactory).deleteByConversationTag(ConversationTagServiceImpl.FIXED_TAG_PIN);
+
+		// the cache is not reloaded from the database
+		verify(this.conversationTagFactory, times(1)).getAll();
+	}
+}
@@ -0,0 +1,195 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.services;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class DownloadSchedulerTest {
+
+	/**
+	 * Collects worker runnables so the test decides when they run.
+	 */
+	private static class ManualExecutor implements Executor {
+		final Queue<Runnable> runnables = new ArrayDeque<>();
+
+		@Override
+		public void execute(Runnable command) {
+			this.runnables.add(command);
+		}
+
+		void runAll() {
+			Runnable runnable;
+			while ((runnable = this.runnables.poll()) != null) {
+				runnable.run();
+			}
+		}
+	}
+
+	private static DownloadScheduler.Task recordingTask(List<String> order, String key) {
+		return progress -> {
+			order.add(key);
+			return true;
+		};
+	}
+
+	@Test
+	public void runsHighestPriorityFirst() {
+		final ManualExecutor executor = new ManualExecutor();
+		final DownloadScheduler scheduler = new DownloadScheduler(1, executor);
+		final List<String> order = new ArrayList<>();
+
+		scheduler.schedule("a", DownloadScheduler.Priority.BACKGROUND, recordingTask(order, "a"), null);
+		scheduler.schedule("b", DownloadScheduler.Priority.AUTO_DOWNLOAD, recordingTask(order, "b"), null);
+		scheduler.schedule("c", DownloadScheduler.Priority.VISIBLE, recordingTask(order, "c"), null);
+		scheduler.schedule("d", DownloadScheduler.Priority.AUTO_DOWNLOAD, recordingTask(order, "d"), null);
+
+		// a single worker is started, no matter how many tasks are waiting
+		assertEquals(1, executor.runnables.size());
+		executor.runAll();
+
+		assertEquals("c", order.get(0));
+		assertEquals("b", order.get(1));
+		assertEquals("d", order.get(2));
+		assertEquals("a", order.get(3));
+		assertEquals(0, scheduler.getCount());
+	}
+
+	@Test
+	public void boundsWorkers() {
+		final ManualExecutor executor = new ManualExecutor();
+		final DownloadScheduler scheduler = new DownloadScheduler(3, executor);
+		final List<String> order = new ArrayList<>();
+
+		for (int i = 0; i < 10; i++) {
+			scheduler.schedule("k" + i, DownloadScheduler.Priority.AUTO_DOWNLOAD, recordingTask(order, "k" + i), null);
+		}
+		assertEquals(3, executor.runnables.size());
+		executor.runAll();
+		assertEquals(10, order.size());
+	}
+
+	@Test
+	public void deduplicatesByKey() {
+		final ManualExecutor executor = new ManualExecutor();
+		final DownloadScheduler scheduler = new DownloadScheduler(1, executor);
+		final List<String> order = new ArrayList<>();
+		final List<Boolean> results = new ArrayList<>();
+		final DownloadScheduler.Callback callback = (success, exception) -> results.add(success);
+
+		scheduler.schedule("other", DownloadScheduler.Priority.AUTO_DOWNLOAD, recordingTask(order, "other"), null);
+		scheduler.schedule("x", DownloadScheduler.Priority.BACKGROUND, recordingTask(order, "x1"), callback);
+		// joins the first task and raises its priority
+		scheduler.schedule("x", DownloadScheduler.Priority.VISIBLE, recordingTask(order, "x2"), callback);
+		assertEquals(2, scheduler.getCount());
+
+		executor.runAll();
+
+		assertEquals(2, order.size());
+		assertEquals("x1", order.get(0));
+		assertEquals("other", order.get(1));
+		assertEquals(2, results.size());
+		assertTrue(results.get(0));
+		assertTrue(results.get(1));
+	}
+
+	@Test
+	public void reprioritizesWaitingTasks() {
+		final ManualExecutor executor = new ManualExecutor();
+		final DownloadScheduler scheduler = new DownloadScheduler(1, executor);
+		final List<String> order = new ArrayList<>();
+
+		scheduler.schedule("a", DownloadScheduler.Priority.VISIBLE, recordingTask(order, "a"), null);
+		scheduler.schedule("b", DownloadScheduler.Priority.BACKGROUND, recordingTask(order, "b"), null);
+		assertTrue(scheduler.setPriority("a", DownloadScheduler.Priority.BACKGROUND));
+		assertTrue(scheduler.setPriority("b", DownloadScheduler.Priority.VISIBLE));
+		assertFalse(scheduler.setPriority("unknown", DownloadScheduler.Priority.VISIBLE));
+
+		executor.runAll();
+
+		assertEquals("b", order.get(0));
+		assertEquals("a", order.get(1));
+	}
+
+	@Test
+	public void cancelsWaitingTasks() {
+		final ManualExecutor executor = new ManualExecutor();
+		final DownloadScheduler scheduler = new DownloadScheduler(1, executor);
+		final List<String> order = new ArrayList<>();
+		final List<Boolean> results = new ArrayList<>();
+
+		scheduler.schedule("a", DownloadScheduler.Priority.VISIBLE, recordingTask(order, "a"),
+			(success, exception) -> results.add(success));
+		assertTrue(scheduler.isWaiting("a"));
+		assertTrue(scheduler.cancel("a"));
+		assertFalse(scheduler.isScheduled("a"));
+		assertFalse(scheduler.cancel("a"));
+
+		// cancelled tasks report back right away
+		assertEquals(1, results.size());
+		assertFalse(results.get(0));
+
+		executor.runAll();
+		assertEquals(0, order.size());
+	}
+
+	@Test
+	public void reportsExceptionsAndProgress() {
+		final ManualExecutor executor = new ManualExecutor();
+		final DownloadScheduler scheduler = new DownloadScheduler(1, executor);
+		final List<Integer> progress = new ArrayList<>();
+		final List<Exception> exceptions = new ArrayList<>();
+		final IllegalStateException failure = new IllegalStateException("failed");
+
+		scheduler.schedule("a", DownloadScheduler.Priority.VISIBLE, p -> {
+			p.update(50);
+			throw failure;
+		}, new DownloadScheduler.Callback() {
+			@Override
+			public void onProgress(int percent) {
+				progress.add(percent);
+			}
+
+			@Override
+			public void onFinished(boolean success, Exception exception) {
+				assertFalse(success);
+				exceptions.add(exception);
+			}
+		});
+		executor.runAll();
+
+		assertEquals(1, progress.size());
+		assertEquals(50, (int) progress.get(0));
+		assertEquals(1, exceptions.size());
+		assertEquals(failure, exceptions.get(0));
+		assertEquals(0, scheduler.getCount());
+	}
+}
@@ -0,0 +1,165 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.utils;
+
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import ch.threema.app.webclient.converter.MsgpackBuilder;
+import ch.threema.app.webclient.converter.MsgpackObjectBuilder;
+
+/**
+ * Encoding a conversations response (the fixture of {@link MsgpackBuilderTest}, repeated) with
+ * the builders vs. the former approach of recording instructions and replaying them into a
+ * {@link MessageBufferPacker}. Run {@link #main(String[])} to get the results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MsgpackBuilderBenchmark {
+
+	@Param({ "10", "1000" })
+	public int conversations;
+
+	@Benchmark
+	public ByteBuffer builder() {
+		final List<MsgpackBuilder> data = new ArrayList<>();
+		for (int i = 0; i < this.conversations; i++) {
+			data.add((new MsgpackObjectBuilder())
+				.put("type", "contact")
+				.put("id", "ECHOECHO")
+				.put("position", i)
+				.put("messageCount", 1000L + i)
+				.put("unreadCount", 0)
+				.put("latestMessage", (new MsgpackObjectBuilder())
+					.put("id", "0102030405060708")
+					.put("body", "Gr\u00fcezi \u2603")
+					.put("date", 1588000000000L)
+					.put("isOutbox", true))
+				.put("isStarred", i % 10 == 0));
+		}
+		return (new MsgpackObjectBuilder())
+			.put("type", "response")
+			.put("subType", "conversations")
+			.put("data", data)
+			.consume();
+	}
+
+	@Benchmark
+	public ByteBuffer instructions() throws IOException {
+		final List<InstructionBuilder> data = new ArrayList<>();
+		for (int i = 0; i < this.conversations; i++) {
+			data.add((new InstructionBuilder())
+				.put("type", "contact")
+				.put("id", "ECHOECHO")
+				.put("position", i)
+				.put("messageCount", 1000L + i)
+				.put("unreadCount", 0)
+				.put("latestMessage", (new InstructionBuilder())
+					.put("id", "0102030405060708")
+					.put("body", "Gr\u00fcezi \u2603")
+					.put("date", 1588000000000L)
+					.put("isOutbox", true))
+				.put("isStarred", i % 10 == 0));
+		}
+		return (new InstructionBuilder())
+			.put("type", "response")
+			.put("subType", "conversations")
+			.put("data", data)
+			.consume();
+	}
+
+	/**
+	 * The former object builder: boxed values in a linked list, packed when consumed.
+	 */
+	private static class InstructionBuilder {
+		private final List<Object[]> instructions = new LinkedList<>();
+
+		InstructionBuilder put(String key, Object value) {
+			this.instructions.add(new Object[] { key, value });
+			return this;
+		}
+
+		ByteBuffer consume() throws IOException {
+			final MessageBufferPacker packer = new MessagePack.PackerConfig().newBufferPacker();
+			this.build(packer);
+			return ByteBuffer.wrap(packer.toByteArray());
+		}
+
+		@SuppressWarnings("unchecked")
+		private void build(MessageBufferPacker packer) throws IOException {
+			packer.packMapHeader(this.instructions.size());
+			for (Object[] instruction : this.instructions) {
+				packer.packString((String) instruction[0]);
+				final Object value = instruction[1];
+				if (value instanceof String) {
+					packer.packString((String) value);
+				} else if (value instanceof Integer) {
+					packer.packInt((Integer) value);
+				} else if (value instanceof Long) {
+					packer.packLong((Long) value);
+				} else if (value instanceof Boolean) {
+					packer.packBoolean((Boolean) value);
+				} else if (value instanceof InstructionBuilder) {
+					((InstructionBuilder) value).build(packer);
+				} else if (value instanceof List) {
+					final List<InstructionBuilder> list = (List<InstructionBuilder>) value;
+					packer.packArrayHeader(list.size());
+					for (InstructionBuilder builder : list) {
+						builder.build(packer);
+					}
+				} else {
+					packer.packNil();
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+			.include(MsgpackBuilderBenchmark.class.getSimpleName())
+			.build()).run();
+	}
+}
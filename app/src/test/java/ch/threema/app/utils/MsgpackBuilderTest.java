@@ -23,8 +23,13 @@ package ch.threema.app.utils;
 
 
 import org.junit.Test;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import ch.threema.app.webclient.converter.MsgpackArrayBuilder;
 import ch.threema.app.webclient.converter.MsgpackBuilder;
@@ -84,5 +89,121 @@ public class MsgpackBuilderTest {
 					"82 a4 6b 65 79 31 a6 76 61 6c 75 65 31 a6 61 72 72 61 79 31 92 ab 61 72 72 61 79 56 61 6c 75 65 31 ab 61 72 72 61 79 56 61 6c 75 65 32");
 	}
 
+	@Test
+	public void testIntegerFormats() {
+		doTest(
+				(new MsgpackArrayBuilder())
+						.put(0).put(127).put(128).put(255).put(256).put(65535).put(65536)
+						.put(4294967295L).put(4294967296L)
+						.put(-1).put(-32).put(-33).put(-128).put(-129).put(-32768).put(-32769)
+						.put(Integer.MIN_VALUE).put(-2147483649L),
+				"dc 00 12 00 7f cc 80 cc ff cd 01 00 cd ff ff ce 00 01 00 00 " +
+						"ce ff ff ff ff cf 00 00 00 01 00 00 00 00 " +
+						"ff e0 d0 df d0 80 d1 ff 7f d1 80 00 d2 ff ff 7f ff " +
+						"d2 80 00 00 00 d3 ff ff ff ff 7f ff ff ff");
+	}
+
+	@Test
+	public void testValueFormats() {
+		doTest(
+				(new MsgpackArrayBuilder())
+						.put(true)
+						.put(false)
+						.put((String) null)
+						.put(1.5f)
+						.put(1.5d)
+						.put(new byte[] {1, 2, 3})
+						.put("\u00fc"),
+				"97 c3 c2 c0 ca 3f c0 00 00 cb 3f f8 00 00 00 00 00 00 c4 03 01 02 03 a2 c3 bc");
+		doTest(
+				(new MsgpackObjectBuilder())
+						.putNull("a")
+						.maybePut("b", (String) null)
+						.put("list", Arrays.<MsgpackBuilder>asList(new MsgpackObjectBuilder(), new MsgpackArrayBuilder())),
+				"82 a1 61 c0 a4 6c 69 73 74 92 80 90");
+	}
+
+	@Test
+	public void testStringAndContainerSizes() {
+		for (int length : new int[] {31, 32, 255, 256, 65536}) {
+			final char[] chars = new char[length];
+			Arrays.fill(chars, 'a');
+			final byte[] result = (new MsgpackArrayBuilder()).put(new String(chars)).consume().array();
+
+			if (length < 32) {
+				assertHeader(result, String.format("91 %02x", 0xa0 | length), length);
+			} else if (length < 256) {
+				assertHeader(result, String.format("91 d9 %02x", length), length);
+			} else if (length < 65536) {
+				assertHeader(result, String.format("91 da %04x", length), length);
+			} else {
+				assertHeader(result, String.format("91 db %08x", length), length);
+			}
+		}
 
-}
+		final MsgpackObjectBuilder map = new MsgpackObjectBuilder();
+		for (int i = 0; i < 16; i++) {
+			map.put("k" + Integer.toHexString(i), i);
+		}
+		assertHeader(map.consume().array(), "de 00 10", 16 * 4);
+
+		final MsgpackArrayBuilder array = new MsgpackArrayBuilder();
+		for (int i = 0; i < 65536; i++) {
+			array.put(false);
+		}
+		assertHeader(array.consume().array(), "dd 00 01 00 00", 65536);
+	}
+
+	private void assertHeader(byte[] result, String hexString, int contentLength) {
+		final byte[] header = Utils.hexStringToByteArray(hexString.replace(" ", ""));
+		assertEquals(header.length + contentLength, result.length);
+		assertEquals(Arrays.toString(header), Arrays.toString(Arrays.copyOf(result, header.length)));
+	}
+
+	@Test
+	public void testNestedBuilderModifiedAfterPut() {
+		final MsgpackArrayBuilder child = new MsgpackArrayBuilder();
+		final List<MsgpackBuilder> list = new ArrayList<>();
+		final MsgpackObjectBuilder builder = (new MsgpackObjectBuilder())
+				.put("c", child)
+				.put("l", list);
+		child.put("x");
+		list.add(new MsgpackArrayBuilder().put(1));
+		doTest(builder, "82 a1 63 91 a1 78 a1 6c 91 91 01");
+	}
+
+	/**
+	 * The builders must produce the same bytes as packing the values with msgpack-core.
+	 */
+	@Test
+	public void testPackerEquivalence() throws IOException {
+		final byte[] avatar = new byte[300];
+		final MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+		packer.packMapHeader(5);
+		packer.packString("type").packString("contact");
+		packer.packString("position").packInt(3);
+		packer.packString("latestMessage").packMapHeader(4);
+		packer.packString("id").packString("0102030405060708");
+		packer.packString("body").packString("Gr\u00fcezi \u2603");
+		packer.packString("date").packLong(1588000000000L);
+		packer.packString("isOutbox").packBoolean(true);
+		packer.packString("avatar").packBinaryHeader(avatar.length).writePayload(avatar);
+		packer.packString("data").packArrayHeader(2);
+		packer.packArrayHeader(2).packDouble(0.25d).packFloat(-0.5f);
+		packer.packMapHeader(0);
+
+		final MsgpackObjectBuilder builder = (new MsgpackObjectBuilder())
+				.put("type", "contact")
+				.put("position", 3)
+				.put("latestMessage", (new MsgpackObjectBuilder())
+						.put("id", "0102030405060708")
+						.put("body", "Gr\u00fcezi \u2603")
+						.put("date", 1588000000000L)
+						.put("isOutbox", true))
+				.maybePut("avatar", avatar)
+				.put("data", Arrays.<MsgpackBuilder>asList(
+						new MsgpackArrayBuilder().put(0.25d).put(-0.5f),
+						new MsgpackObjectBuilder()));
+		doTest(builder, packer.toByteArray());
+	}
+}
\ No newline at end of file
@@ -0,0 +1,135 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.webclient.services;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+public class SyncRevisionsTest {
+	@Test
+	public void testChangesSince() {
+		final SyncRevisions revisions = new SyncRevisions("abc");
+		final String initial = revisions.getRevision();
+		assertEquals("abc-0", initial);
+
+		revisions.onModified("contact:A");
+		revisions.onModified("group:1");
+		final String afterModified = revisions.getRevision();
+		revisions.onRemoved("group:1");
+		revisions.onModified("contact:B");
+
+		SyncRevisions.Changes changes = revisions.getChangesSince(initial);
+		assertNotNull(changes);
+		assertEquals(new HashSet<>(Arrays.asList("contact:A", "contact:B")), changes.modified);
+		assertEquals(Collections.singleton("group:1"), changes.removed);
+
+		changes = revisions.getChangesSince(afterModified);
+		assertNotNull(changes);
+		assertEquals(Collections.singleton("contact:B"), changes.modified);
+		assertEquals(Collections.singleton("group:1"), changes.removed);
+
+		changes = revisions.getChangesSince(revisions.getRevision());
+		assertNotNull(changes);
+		assertEquals(0, changes.modified.size());
+		assertEquals(0, changes.removed.size());
+	}
+
+	@Test
+	public void testRecreated() {
+		final SyncRevisions revisions = new SyncRevisions("abc");
+		final String initial = revisions.getRevision();
+		revisions.onRemoved("group:1");
+		revisions.onModified("group:1");
+
+		final SyncRevisions.Changes changes = revisions.getChangesSince(initial);
+		assertNotNull(changes);
+		assertEquals(Collections.singleton("group:1"), changes.modified);
+		assertEquals(0, changes.removed.size());
+	}
+
+	@Test
+	public void testUnknownRevisions() {
+		final SyncRevisions revisions = new SyncRevisions("abc");
+		revisions.onModified("contact:A");
+
+		assertNull(revisions.getChangesSince((String) null));
+		assertNull(revisions.getChangesSince("xyz-0"));
+		assertNull(revisions.getChangesSince("abc-2"));
+		assertNull(revisions.getChangesSince("abc-x"));
+		assertNull(revisions.getChangesSince("abc"));
+		assertNull(new SyncRevisions().getChangesSince(new SyncRevisions().getRevision()));
+	}
+
+	@Test
+	public void testModifiedAll() {
+		final SyncRevisions revisions = new SyncRevisions("abc");
+		final String initial = revisions.getRevision();
+		revisions.onModified("contact:A");
+		revisions.onModifiedAll();
+
+		assertNull(revisions.getChangesSince(initial));
+		final SyncRevisions.Changes changes = revisions.getChangesSince(revisions.getRevision());
+		assertNotNull(changes);
+		assertEquals(0, changes.modified.size());
+	}
+
+	@Test
+	public void testRemovedLimit() {
+		final SyncRevisions revisions = new SyncRevisions("abc");
+		final String initial = revisions.getRevision();
+		revisions.onRemoved("contact:A");
+		final String afterFirst = revisions.getRevision();
+		for (int i = 0; i < 1000; i++) {
+			revisions.onRemoved("contact:" + i);
+		}
+
+		// the first removal has been forgotten
+		assertNull(revisions.getChangesSince(initial));
+		final SyncRevisions.Changes changes = revisions.getChangesSince(afterFirst);
+		assertNotNull(changes);
+		assertEquals(1000, changes.removed.size());
+	}
+
+	@Test
+	public void testDeliveredRevision() {
+		final SyncRevisions revisions = new SyncRevisions("abc");
+		final String delivered = revisions.getRevision();
+		assertNull(revisions.getChangesSince(1, delivered));
+
+		revisions.setDeliveredRevision(1, delivered);
+		revisions.onModified("contact:A");
+		final SyncRevisions.Changes changes = revisions.getChangesSince(1, delivered);
+		assertNotNull(changes);
+		assertEquals(Collections.singleton("contact:A"), changes.modified);
+
+		// other sessions and other revisions require a full sync
+		assertNull(revisions.getChangesSince(2, delivered));
+		assertNull(revisions.getChangesSince(1, revisions.getRevision()));
+	}
+}
@@ -0,0 +1,88 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.webclient.services;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+public class SyncSnapshotTest {
+	@Test
+	public void testPages() {
+		final List<Integer> items = new ArrayList<>(Arrays.asList(1, 2, 3, 4, 5));
+		final SyncSnapshot<Integer> snapshot = new SyncSnapshot<>("abc-1", items);
+		// later changes do not affect the snapshot
+		items.clear();
+
+		SyncSnapshot.Page<Integer> page = snapshot.getFirstPage(2);
+		assertEquals(Arrays.asList(1, 2), page.items);
+		assertEquals(0, page.offset);
+		assertNotNull(page.nextCursor);
+
+		page = snapshot.getPage(page.nextCursor, 2);
+		assertNotNull(page);
+		assertEquals(Arrays.asList(3, 4), page.items);
+		assertEquals(2, page.offset);
+
+		page = snapshot.getPage(page.nextCursor, 2);
+		assertNotNull(page);
+		assertEquals(Arrays.asList(5), page.items);
+		assertNull(page.nextCursor);
+		assertEquals("abc-1", snapshot.getRevision());
+	}
+
+	@Test
+	public void testEmpty() {
+		final SyncSnapshot.Page<Integer> page = new SyncSnapshot<Integer>("abc-1", new ArrayList<>()).getFirstPage(10);
+		assertEquals(0, page.items.size());
+		assertNull(page.nextCursor);
+	}
+
+	@Test
+	public void testLargePageSize() {
+		final SyncSnapshot<Integer> snapshot = new SyncSnapshot<>("abc-1", Arrays.asList(1, 2, 3));
+		SyncSnapshot.Page<Integer> page = snapshot.getFirstPage(1);
+		page = snapshot.getPage(page.nextCursor, Integer.MAX_VALUE);
+		assertNotNull(page);
+		assertEquals(Arrays.asList(2, 3), page.items);
+		assertNull(page.nextCursor);
+	}
+
+	@Test
+	public void testInvalidCursor() {
+		final SyncSnapshot<Integer> snapshot = new SyncSnapshot<>("abc-1", Arrays.asList(1, 2, 3));
+		final String cursor = snapshot.getFirstPage(1).nextCursor;
+		assertNotNull(cursor);
+
+		final SyncSnapshot<Integer> other = new SyncSnapshot<>("abc-1", Arrays.asList(1, 2, 3));
+		assertNull(other.getPage(cursor, 1));
+		assertNull(snapshot.getPage("x", 1));
+		assertNull(snapshot.getPage("x:1", 1));
+		assertNull(snapshot.getPage(cursor.substring(0, cursor.indexOf(':')) + ":9", 1));
+	}
+}
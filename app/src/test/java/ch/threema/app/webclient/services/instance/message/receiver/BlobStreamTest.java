@@ -0,0 +1,208 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.webclient.services.instance.message.receiver;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import java8.util.concurrent.CompletableFuture;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static org.junit.Assert.assertArrayEquals;
+
+public class BlobStreamTest {
+	private static class Part {
+		final long offset;
+		final long size;
+		final byte[] data;
+		final boolean last;
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+
+		Part(long offset, long size, byte[] data, boolean last) {
+			this.offset = offset;
+			this.size = size;
+			this.data = data;
+			this.last = last;
+		}
+	}
+
+	private static class RecordingSender implements BlobStream.PartSender {
+		final List<Part> parts = new ArrayList<>();
+		IOException failure;
+
+		@NonNull
+		@Override
+		public CompletableFuture<Void> send(long offset, long size, @NonNull byte[] part, boolean last) {
+			final Part recorded = new Part(offset, size, part.clone(), last);
+			this.parts.add(recorded);
+			return recorded.future;
+		}
+
+		@Override
+		public void failed(@NonNull IOException e) {
+			this.failure = e;
+		}
+	}
+
+	private static class TrackingInputStream extends ByteArrayInputStream {
+		boolean closed = false;
+
+		TrackingInputStream(byte[] data) {
+			super(data);
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.closed = true;
+			super.close();
+		}
+	}
+
+	private static byte[] blob(int length) {
+		final byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) i;
+		}
+		return data;
+	}
+
+	@Test
+	public void testPartOffsets() {
+		final byte[] data = blob(25);
+		final TrackingInputStream inputStream = new TrackingInputStream(data);
+		final RecordingSender sender = new RecordingSender();
+		new BlobStream(inputStream, data.length, 10, sender, Runnable::run).start();
+
+		// The next part is only sent once the previous one has been handed over
+		assertEquals(1, sender.parts.size());
+		sender.parts.get(0).future.complete(null);
+		assertEquals(2, sender.parts.size());
+		sender.parts.get(1).future.complete(null);
+		assertEquals(3, sender.parts.size());
+		sender.parts.get(2).future.complete(null);
+		assertEquals(3, sender.parts.size());
+
+		final long[] offsets = {0, 10, 20};
+		for (int i = 0; i < offsets.length; i++) {
+			final Part part = sender.parts.get(i);
+			assertEquals(offsets[i], part.offset);
+			assertEquals(data.length, part.size);
+			final int end = (int) Math.min(offsets[i] + 10, data.length);
+			assertArrayEquals(Arrays.copyOfRange(data, (int) offsets[i], end), part.data);
+		}
+		assertTrue(inputStream.closed);
+		assertNull(sender.failure);
+	}
+
+	@Test
+	public void testLastPart() {
+		final byte[] data = blob(20);
+		final TrackingInputStream inputStream = new TrackingInputStream(data);
+		final RecordingSender sender = new RecordingSender();
+		new BlobStream(inputStream, data.length, 10, sender, Runnable::run).start();
+
+		sender.parts.get(0).future.complete(null);
+		assertEquals(2, sender.parts.size());
+		assertFalse(sender.parts.get(0).last);
+		assertTrue(sender.parts.get(1).last);
+		assertEquals(10, sender.parts.get(1).data.length);
+
+		// Nothing is sent after the last part
+		assertFalse(inputStream.closed);
+		sender.parts.get(1).future.complete(null);
+		assertEquals(2, sender.parts.size());
+		assertTrue(inputStream.closed);
+	}
+
+	@Test
+	public void testTruncatedStream() {
+		// The stream ends before the announced size, the short part is the last one
+		final byte[] data = blob(15);
+		final TrackingInputStream inputStream = new TrackingInputStream(data);
+		final RecordingSender sender = new RecordingSender();
+		new BlobStream(inputStream, 30, 10, sender, Runnable::run).start();
+
+		sender.parts.get(0).future.complete(null);
+		assertEquals(2, sender.parts.size());
+		assertEquals(5, sender.parts.get(1).data.length);
+		assertTrue(sender.parts.get(1).last);
+	}
+
+	@Test
+	public void testEmptyBlob() {
+		final TrackingInputStream inputStream = new TrackingInputStream(new byte[0]);
+		final RecordingSender sender = new RecordingSender();
+		new BlobStream(inputStream, 0, 10, sender, Runnable::run).start();
+
+		assertEquals(1, sender.parts.size());
+		final Part part = sender.parts.get(0);
+		assertEquals(0, part.offset);
+		assertEquals(0, part.size);
+		assertEquals(0, part.data.length);
+		assertTrue(part.last);
+
+		part.future.complete(null);
+		assertEquals(1, sender.parts.size());
+		assertTrue(inputStream.closed);
+	}
+
+	@Test
+	public void testAbortOnFailedSend() {
+		final byte[] data = blob(30);
+		final TrackingInputStream inputStream = new TrackingInputStream(data);
+		final RecordingSender sender = new RecordingSender();
+		new BlobStream(inputStream, data.length, 10, sender, Runnable::run).start();
+
+		sender.parts.get(0).future.complete(null);
+		assertEquals(2, sender.parts.size());
+		sender.parts.get(1).future.completeExceptionally(new IllegalStateException("channel closed"));
+
+		assertEquals(2, sender.parts.size());
+		assertTrue(inputStream.closed);
+	}
+
+	@Test
+	public void testReadError() {
+		final TrackingInputStream inputStream = new TrackingInputStream(blob(10));
+		final RecordingSender sender = new RecordingSender();
+		new BlobStream(new FilterInputStream(inputStream) {
+			@Override
+			public int read(@NonNull byte[] b, int off, int len) throws IOException {
+				throw new IOException("corrupt");
+			}
+		}, 10, 10, sender, Runnable::run).start();
+
+		assertEquals(0, sender.parts.size());
+		assertEquals("corrupt", sender.failure.getMessage());
+		assertTrue(inputStream.closed);
+	}
+}
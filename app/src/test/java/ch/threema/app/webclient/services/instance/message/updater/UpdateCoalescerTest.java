@@ -0,0 +1,79 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.webclient.services.instance.message.updater;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import ch.threema.app.webclient.Protocol;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class UpdateCoalescerTest {
+	@Test
+	public void testLatestValueKeepsFirstPosition() {
+		final UpdateCoalescer<String> coalescer = new UpdateCoalescer<>();
+		assertTrue(coalescer.add("a", "a1", Protocol.ARGUMENT_MODE_MODIFIED));
+		assertTrue(coalescer.add("b", "b1", Protocol.ARGUMENT_MODE_NEW));
+		assertTrue(coalescer.add("a", "a2", Protocol.ARGUMENT_MODE_MODIFIED));
+		assertTrue(coalescer.add("b", "b2", Protocol.ARGUMENT_MODE_MODIFIED));
+
+		final List<UpdateCoalescer.Update<String>> updates = coalescer.flush();
+		assertEquals(2, updates.size());
+		assertEquals("a2", updates.get(0).value);
+		assertEquals(Protocol.ARGUMENT_MODE_MODIFIED, updates.get(0).mode);
+		assertEquals("b2", updates.get(1).value);
+		assertEquals(Protocol.ARGUMENT_MODE_NEW, updates.get(1).mode);
+		assertTrue(coalescer.isEmpty());
+	}
+
+	@Test
+	public void testRemovalSupersedes() {
+		final UpdateCoalescer<String> coalescer = new UpdateCoalescer<>();
+		assertTrue(coalescer.add("a", "a1", Protocol.ARGUMENT_MODE_NEW));
+		assertTrue(coalescer.add("a", "a2", Protocol.ARGUMENT_MODE_REMOVED));
+		assertTrue(coalescer.add("b", "b1", Protocol.ARGUMENT_MODE_MODIFIED));
+		assertTrue(coalescer.add("b", "b2", Protocol.ARGUMENT_MODE_REMOVED));
+
+		final List<UpdateCoalescer.Update<String>> updates = coalescer.flush();
+		assertEquals(Protocol.ARGUMENT_MODE_REMOVED, updates.get(0).mode);
+		assertEquals("a2", updates.get(0).value);
+		assertEquals(Protocol.ARGUMENT_MODE_REMOVED, updates.get(1).mode);
+	}
+
+	@Test
+	public void testUnmergeable() {
+		final UpdateCoalescer<String> coalescer = new UpdateCoalescer<>();
+		assertTrue(coalescer.add("a", "a1", Protocol.ARGUMENT_MODE_REMOVED));
+		assertFalse(coalescer.add("a", "a2", Protocol.ARGUMENT_MODE_NEW));
+		assertFalse(coalescer.add("a", "a2", Protocol.ARGUMENT_MODE_MODIFIED));
+		assertTrue(coalescer.add("b", "b1", Protocol.ARGUMENT_MODE_MODIFIED));
+		assertFalse(coalescer.add("b", "b2", Protocol.ARGUMENT_MODE_NEW));
+
+		// the pending update is unchanged
+		assertEquals("a1", coalescer.flush().get(0).value);
+		assertTrue(coalescer.add("a", "a2", Protocol.ARGUMENT_MODE_NEW));
+	}
+}
@@ -0,0 +1,75 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.webclient.utils;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+
+public class HistogramTest {
+	@Test
+	public void testEmpty() {
+		final Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMean());
+		assertEquals(0, histogram.getPercentile(50));
+		assertEquals(0, histogram.getMax());
+	}
+
+	@Test
+	public void testRecord() {
+		final Histogram histogram = new Histogram();
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i);
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(5050, histogram.getSum());
+		assertEquals(50, histogram.getMean());
+		assertEquals(100, histogram.getMax());
+
+		// 50 falls into [32, 64), 95 into [64, 128) which is capped at the maximum
+		assertEquals(63, histogram.getPercentile(50));
+		assertEquals(100, histogram.getPercentile(95));
+		assertEquals(1, histogram.getPercentile(0));
+	}
+
+	@Test
+	public void testZeroAndNegative() {
+		final Histogram histogram = new Histogram();
+		histogram.record(0);
+		histogram.record(-5);
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(3, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(50));
+		assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+	}
+
+	@Test
+	public void testReset() {
+		final Histogram histogram = new Histogram();
+		histogram.record(42);
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getSum());
+		assertEquals(0, histogram.getPercentile(100));
+	}
+}
@@ -0,0 +1,93 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.webclient.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import ch.threema.app.webclient.SendPriority;
+
+import static junit.framework.Assert.assertTrue;
+
+public class SessionTelemetryTest {
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void testReport() {
+		final SessionTelemetry telemetry = new SessionTelemetry();
+		telemetry.onHandled(SessionTelemetry.getKey("request", "conversations"), 3 * MS, true);
+		telemetry.onHandled(SessionTelemetry.getKey("request", "conversations"), 5 * MS, false);
+		telemetry.onIgnored();
+		telemetry.onDecrypted(MS, 120);
+		telemetry.onEncoded(SessionTelemetry.getKey("response", "conversations"), MS, 2000);
+		telemetry.onDelivered(SessionTelemetry.getKey("response", "conversations"), 10 * MS);
+		telemetry.onDeliveryFailed(SessionTelemetry.getKey("update", "typing"));
+		telemetry.onWritten(SendPriority.BULK, 2 * MS, MS, 4 * MS, 3);
+		telemetry.onWriteFailed(SendPriority.CONTROL);
+
+		final String report = telemetry.getReport();
+		assertTrue(report, report.contains("Incoming: n=1 bytes=120 (mean=120 max=120), decrypt p50=1000 p95=1000 max=1000, ignored=1"));
+		assertTrue(report, report.contains("  request/conversations: n=2, failed=1, handle "));
+		assertTrue(report, report.contains("  response/conversations: n=1 bytes=2000 (mean=2000 max=2000), failed=0, encode p50=1000 p95=1000 max=1000, delivery p50=10000 p95=10000 max=10000"));
+		assertTrue(report, report.contains("  update/typing: n=0 bytes=0 (mean=0 max=0), failed=1"));
+		assertTrue(report, report.contains("  BULK: n=1, failed=0, queue wait p50=2000 p95=2000 max=2000, encrypt p50=1000 p95=1000 max=1000, write p50=4000 p95=4000 max=4000, chunks mean=3 max=3"));
+		assertTrue(report, report.contains("  CONTROL: n=0, failed=1"));
+	}
+
+	@Test
+	public void testReset() {
+		final SessionTelemetry telemetry = new SessionTelemetry();
+		telemetry.onHandled(SessionTelemetry.getKey("request", "receivers"), MS, true);
+		telemetry.onIgnored();
+		telemetry.reset();
+
+		final String report = telemetry.getReport();
+		assertTrue(report, !report.contains("request/receivers"));
+		assertTrue(report, report.contains("ignored=0"));
+	}
+
+	@Test
+	public void testSessionPeriods() {
+		final SessionTelemetry telemetry = new SessionTelemetry();
+		telemetry.onSessionStarted(1);
+		telemetry.onHandled(SessionTelemetry.getKey("request", "receivers"), MS, true);
+
+		// A second concurrent session does not reset the counters
+		telemetry.onSessionStarted(2);
+		telemetry.onSessionStopped(1);
+		String report = telemetry.getReport();
+		assertTrue(report, report.contains("request/receivers"));
+		assertTrue(report, report.contains("since the current sessions started"));
+
+		// Once all sessions have stopped, the report covers the last sessions
+		telemetry.onSessionStopped(2);
+		report = telemetry.getReport();
+		assertTrue(report, report.contains("request/receivers"));
+		assertTrue(report, report.contains("since the last sessions started"));
+
+		// A new session starts a new period
+		telemetry.onSessionStarted(3);
+		report = telemetry.getReport();
+		assertTrue(report, !report.contains("request/receivers"));
+	}
+}
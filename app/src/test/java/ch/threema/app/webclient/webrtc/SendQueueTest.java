@@ -0,0 +1,73 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.app.webclient.webrtc;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import ch.threema.app.webclient.SendPriority;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+public class SendQueueTest {
+	@Test
+	public void testPriorityOrder() {
+		final SendQueue<String> queue = new SendQueue<>(new SendQueueMetrics());
+		queue.add("blob1", SendPriority.BULK);
+		queue.add("update1", SendPriority.UPDATE);
+		queue.add("blob2", SendPriority.BULK);
+		queue.add("typing", SendPriority.CONTROL);
+		queue.add("update2", SendPriority.UPDATE);
+
+		assertEquals("typing", queue.poll());
+		assertEquals("update1", queue.poll());
+		assertEquals("update2", queue.poll());
+		assertEquals("blob1", queue.poll());
+		assertEquals("blob2", queue.poll());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void testMetrics() {
+		final SendQueueMetrics metrics = new SendQueueMetrics();
+		final SendQueue<String> queue = new SendQueue<>(metrics);
+		queue.add("update1", SendPriority.UPDATE);
+		queue.add("update2", SendPriority.UPDATE);
+		queue.add("blob", SendPriority.BULK);
+		assertEquals(2, queue.getDepth(SendPriority.UPDATE));
+		assertEquals(2, metrics.getDepth(SendPriority.UPDATE));
+
+		queue.poll();
+		assertEquals(1, metrics.getDepth(SendPriority.UPDATE));
+		assertEquals(2, metrics.getMaxDepth(SendPriority.UPDATE));
+		assertEquals(1, metrics.getSentCount(SendPriority.UPDATE));
+
+		assertEquals(Arrays.asList("update2", "blob"), queue.clear());
+		assertEquals(0, metrics.getDepth(SendPriority.UPDATE));
+		assertEquals(0, metrics.getDepth(SendPriority.BULK));
+		assertEquals(1, metrics.getMaxDepth(SendPriority.BULK));
+		assertEquals(0, metrics.getSentCount(SendPriority.BULK));
+		assertEquals(0, metrics.getDepth(SendPriority.CONTROL));
+	}
+}
@@ -0,0 +1,273 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema Java Client
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.client;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.internal.util.reflection.FieldSetter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Exercises resumable blob downloads against a local stand-in for the blob server.
+ */
+public class BlobLoaderTest {
+	private static final byte[] BLOB_ID = Utils.hexStringToByteArray("0123456789abcdef0123456789abcdef");
+
+	/**
+	 * Minimal blob server that supports Range/If-Range and can be told to break off a response
+	 * (by closing the connection, as a dropped mobile link would).
+	 */
+	private static class TestBlobServer implements Runnable {
+		final ServerSocket serverSocket;
+		final Thread thread;
+		final List<String> rangeHeaders = Collections.synchronizedList(new ArrayList<>());
+		final List<Long> bytesServed = Collections.synchronizedList(new ArrayList<>());
+
+		volatile byte[] blob;
+		volatile String etag = "\"v1\"";
+		/** if >= 0, the next response is broken off after this many body bytes */
+		volatile long abortAfter = -1;
+		/** if true, the next partial response announces a wrong range */
+		volatile boolean sendWrongRange;
+
+		TestBlobServer(byte[] blob) throws IOException {
+			this.blob = blob;
+			this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			this.thread = new Thread(this, "TestBlobServer");
+			this.thread.start();
+		}
+
+		String getUrlPattern() {
+			return "http://127.0.0.1:" + this.serverSocket.getLocalPort() + "/%s/%s";
+		}
+
+		@Override
+		public void run() {
+			while (!this.serverSocket.isClosed()) {
+				try (Socket socket = this.serverSocket.accept()) {
+					this.handle(socket);
+				} catch (IOException e) {
+					// closed, or client went away
+				}
+			}
+		}
+
+		private void handle(Socket socket) throws IOException {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			String line = reader.readLine();
+			if (line == null) {
+				return;
+			}
+			String range = null;
+			String ifRange = null;
+			while ((line = reader.readLine()) != null && !line.isEmpty()) {
+				int colon = line.indexOf(':');
+				String name = line.substring(0, colon).trim();
+				String value = line.substring(colon + 1).trim();
+				if (name.equalsIgnoreCase("Range")) {
+					range = value;
+				} else if (name.equalsIgnoreCase("If-Range")) {
+					ifRange = value;
+				}
+			}
+			this.rangeHeaders.add(range);
+
+			final byte[] data = this.blob;
+			long start = 0;
+			if (range != null && range.startsWith("bytes=") && range.endsWith("-")
+					&& (ifRange == null || ifRange.equals(this.etag))) {
+				start = Long.parseLong(range.substring(6, range.length() - 1));
+			}
+
+			StringBuilder header = new StringBuilder();
+			if (start >= data.length && start > 0) {
+				header.append("HTTP/1.1 416 Range Not Satisfiable\r\n");
+				header.append("Content-Length: 0\r\n");
+			} else if (start > 0) {
+				long announcedStart = this.sendWrongRange ? start + 1 : start;
+				this.sendWrongRange = false;
+				header.append("HTTP/1.1 206 Partial Content\r\n");
+				header.append("Content-Range: bytes ").append(announcedStart).append('-')
+					.append(data.length - 1).append('/').append(data.length).append("\r\n");
+				header.append("Content-Length: ").append(data.length - start).append("\r\n");
+			} else {
+				header.append("HTTP/1.1 200 OK\r\n");
+				header.append("Content-Length: ").append(data.length).append("\r\n");
+			}
+			header.append("ETag: ").append(this.etag).append("\r\n");
+			header.append("Connection: close\r\n\r\n");
+
+			OutputStream os = socket.getOutputStream();
+			os.write(header.toString().getBytes(StandardCharsets.US_ASCII));
+			if (header.indexOf("HTTP/1.1 416") == 0) {
+				os.flush();
+				this.bytesServed.add(0L);
+				return;
+			}
+
+			long count = data.length - start;
+			long abort = this.abortAfter;
+			this.abortAfter = -1;
+			if (abort >= 0) {
+				count = Math.min(count, abort);
+			}
+			os.write(data, (int) start, (int) count);
+			os.flush();
+			this.bytesServed.add(count);
+		}
+
+		void stop() throws IOException {
+			this.serverSocket.close();
+		}
+	}
+
+	private TestBlobServer server;
+	private File downloadFile;
+	private byte[] blob;
+
+	@Before
+	public void setUp() throws IOException {
+		blob = new byte[300000];
+		new Random(11).nextBytes(blob);
+		server = new TestBlobServer(blob);
+		downloadFile = File.createTempFile("blob", ".part");
+		Assert.assertTrue(downloadFile.delete());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.stop();
+		FileUtils.deleteQuietly(downloadFile);
+		FileUtils.deleteQuietly(BlobLoader.getProgressFile(downloadFile));
+	}
+
+	private BlobLoader createLoader() throws NoSuchFieldException {
+		BlobLoader loader = new BlobLoader(host -> null, BLOB_ID);
+		FieldSetter.setField(loader, BlobLoader.class.getDeclaredField("blobUrlPattern"), server.getUrlPattern());
+		return loader;
+	}
+
+	private void assertDownloadComplete() throws IOException {
+		Assert.assertArrayEquals(blob, FileUtils.readFileToByteArray(downloadFile));
+		Assert.assertFalse(BlobLoader.getProgressFile(downloadFile).exists());
+	}
+
+	private long interruptedDownload(long abortAfter) throws Exception {
+		server.abortAfter = abortAfter;
+		try {
+			createLoader().loadResumable(downloadFile, false);
+			Assert.fail("Interrupted download succeeded");
+		} catch (IOException expected) {
+			// ok
+		}
+		Assert.assertTrue(BlobLoader.getProgressFile(downloadFile).exists());
+		long partial = downloadFile.length();
+		Assert.assertTrue(partial > 0 && partial < blob.length);
+		return partial;
+	}
+
+	@Test
+	public void testFullDownload() throws Exception {
+		Assert.assertTrue(createLoader().loadResumable(downloadFile, false));
+		assertDownloadComplete();
+		Assert.assertEquals(Arrays.asList((String) null), server.rangeHeaders);
+	}
+
+	@Test
+	public void testResumeAfterInterruption() throws Exception {
+		long partial = interruptedDownload(120000);
+
+		Assert.assertTrue(createLoader().loadResumable(downloadFile, false));
+		assertDownloadComplete();
+
+		/* only the missing bytes have been transferred again */
+		Assert.assertEquals("bytes=" + partial + "-", server.rangeHeaders.get(1));
+		Assert.assertEquals(blob.length - partial, (long) server.bytesServed.get(1));
+	}
+
+	@Test
+	public void testResumeSeveralTimes() throws Exception {
+		interruptedDownload(50000);
+		interruptedDownload(50000);
+		interruptedDownload(50000);
+
+		Assert.assertTrue(createLoader().loadResumable(downloadFile, false));
+		assertDownloadComplete();
+		Assert.assertEquals(4, server.rangeHeaders.size());
+	}
+
+	@Test
+	public void testRestartWhenBlobChanged() throws Exception {
+		interruptedDownload(120000);
+
+		/* the server ignores the range for a different version, and sends everything */
+		blob = blob.clone();
+		blob[0] ^= 1;
+		server.blob = blob;
+		server.etag = "\"v2\"";
+
+		Assert.assertTrue(createLoader().loadResumable(downloadFile, false));
+		assertDownloadComplete();
+		Assert.assertEquals(blob.length, (long) server.bytesServed.get(1));
+	}
+
+	@Test
+	public void testRestartOnUnexpectedRange() throws Exception {
+		interruptedDownload(120000);
+
+		server.sendWrongRange = true;
+		Assert.assertTrue(createLoader().loadResumable(downloadFile, false));
+		assertDownloadComplete();
+
+		/* the mismatching partial response is discarded, the retry requests everything */
+		Assert.assertEquals(3, server.rangeHeaders.size());
+		Assert.assertNull(server.rangeHeaders.get(2));
+	}
+
+	@Test
+	public void testStaleProgressWithoutFile() throws Exception {
+		interruptedDownload(120000);
+		Assert.assertTrue(downloadFile.delete());
+
+		Assert.assertTrue(createLoader().loadResumable(downloadFile, false));
+		assertDownloadComplete();
+		Assert.assertNull(server.rangeHeaders.get(1));
+	}
+}
@@ -0,0 +1,125 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema Java Client
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.client;
+
+import com.neilalexander.jnacl.NaCl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+public class DecryptingBlobInputStreamTest {
+	private final byte[] key = new byte[NaCl.SYMMKEYBYTES];
+	private final byte[] nonce = new byte[NaCl.NONCEBYTES];
+
+	public DecryptingBlobInputStreamTest() {
+		Random random = new Random(7);
+		random.nextBytes(key);
+		random.nextBytes(nonce);
+	}
+
+	private static byte[] readAll(InputStream in, int readSize) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] buf = new byte[readSize];
+		int n;
+		while ((n = in.read(buf)) >= 0) {
+			bos.write(buf, 0, n);
+		}
+		return bos.toByteArray();
+	}
+
+	@Test
+	public void testDecrypt() throws IOException {
+		Random random = new Random(8);
+		int[] lengths = {1, 15, 16, 17, 33, 64, 65, 16383, 16384, 16385, 100000};
+		for (int length : lengths) {
+			byte[] plaintext = new byte[length];
+			random.nextBytes(plaintext);
+			final byte[] ciphertext = NaCl.symmetricEncryptData(plaintext, key, nonce);
+
+			for (int readSize : new int[] {7, 4096, 65536}) {
+				DecryptingBlobInputStream in = new DecryptingBlobInputStream(
+					() -> new ByteArrayInputStream(ciphertext), ciphertext.length, key, nonce);
+				Assert.assertEquals(length, in.getLength());
+				Assert.assertArrayEquals("length " + length + ", read size " + readSize,
+					plaintext, readAll(in, readSize));
+				in.close();
+			}
+		}
+	}
+
+	@Test
+	public void testDecryptFromFile() throws IOException {
+		byte[] plaintext = new byte[50000];
+		new Random(9).nextBytes(plaintext);
+
+		File file = File.createTempFile("blob", ".bin");
+		try {
+			try (FileOutputStream fos = new FileOutputStream(file)) {
+				fos.write(NaCl.symmetricEncryptData(plaintext, key, nonce));
+			}
+			try (DecryptingBlobInputStream in = new DecryptingBlobInputStream(file, key, nonce)) {
+				Assert.assertArrayEquals(plaintext, readAll(in, 8192));
+			}
+		} finally {
+			Assert.assertTrue(file.delete());
+		}
+	}
+
+	@Test
+	public void testTamperedBlobIsRejected() throws IOException {
+		byte[] plaintext = new byte[1000];
+		final byte[] ciphertext = NaCl.symmetricEncryptData(plaintext, key, nonce);
+		ciphertext[500] ^= 1;
+
+		DecryptingBlobInputStream in = new DecryptingBlobInputStream(
+			() -> new ByteArrayInputStream(ciphertext), ciphertext.length, key, nonce);
+		try {
+			in.read();
+			Assert.fail("Tampered blob was decrypted");
+		} catch (IOException expected) {
+			// ok
+		}
+	}
+
+	@Test
+	public void testRoundTripWithEncryptingStream() throws IOException {
+		final byte[] plaintext = new byte[70000];
+		new Random(10).nextBytes(plaintext);
+
+		EncryptingBlobInputStream encrypting = new EncryptingBlobInputStream(
+			() -> new ByteArrayInputStream(plaintext), plaintext.length, key, nonce);
+		final byte[] ciphertext = readAll(encrypting, 4096);
+
+		DecryptingBlobInputStream decrypting = new DecryptingBlobInputStream(
+			() -> new ByteArrayInputStream(ciphertext), ciphertext.length, key, nonce);
+		Assert.assertArrayEquals(plaintext, readAll(decrypting, 4096));
+	}
+}
@@ -0,0 +1,89 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema Java Client
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.client;
+
+import com.neilalexander.jnacl.NaCl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+public class EncryptingBlobInputStreamTest {
+
+	private static byte[] readAll(InputStream in, int readSize) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] buf = new byte[readSize];
+		int n;
+		while ((n = in.read(buf)) >= 0) {
+			bos.write(buf, 0, n);
+		}
+		return bos.toByteArray();
+	}
+
+	@Test
+	public void testSameOutputAsSymmetricEncryptData() throws IOException {
+		Random random = new Random(42);
+		byte[] key = new byte[NaCl.SYMMKEYBYTES];
+		byte[] nonce = new byte[NaCl.NONCEBYTES];
+		random.nextBytes(key);
+		random.nextBytes(nonce);
+
+		int[] lengths = {0, 1, 15, 16, 17, 31, 32, 33, 63, 64, 65, 1000, 16383, 16384, 16385, 100000};
+		int[] readSizes = {1, 7, 4096, 65536};
+		for (int length : lengths) {
+			final byte[] plaintext = new byte[length];
+			random.nextBytes(plaintext);
+			byte[] expected = NaCl.symmetricEncryptData(plaintext, key, nonce);
+
+			for (int readSize : readSizes) {
+				if (readSize == 1 && length > 1000) {
+					continue;
+				}
+				EncryptingBlobInputStream in = new EncryptingBlobInputStream(
+					() -> new ByteArrayInputStream(plaintext), length, key, nonce);
+				Assert.assertEquals(expected.length, in.getLength());
+				Assert.assertArrayEquals("length " + length + ", read size " + readSize,
+					expected, readAll(in, readSize));
+				in.close();
+			}
+
+			/* and the result must decrypt */
+			if (length > 0) {
+				Assert.assertArrayEquals(plaintext, NaCl.symmetricDecryptData(expected, key, nonce));
+			}
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testLengthMismatch() throws IOException {
+		final byte[] plaintext = new byte[100];
+		EncryptingBlobInputStream in = new EncryptingBlobInputStream(
+			() -> new ByteArrayInputStream(plaintext), 101, new byte[NaCl.SYMMKEYBYTES], new byte[NaCl.NONCEBYTES]);
+		readAll(in, 4096);
+	}
+}
@@ -0,0 +1,196 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema Java Client
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.client;
+
+import com.neilalexander.jnacl.NaCl;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Decoding of received transport frames: in-place decryption into a reused buffer and
+ * payload views.
+ */
+public class FrameDecodingTest {
+	private static final int FRAME_COUNT = 2000;
+	private static final int PLAINTEXT_LENGTH = 1024;
+
+	private final SecureRandom random = new SecureRandom();
+
+	private NaCl makeNaCl() {
+		byte[] publicKey = new byte[NaCl.PUBLICKEYBYTES];
+		byte[] privateKey = new byte[NaCl.SECRETKEYBYTES];
+		NaCl.genkeypair(publicKey, privateKey);
+		return new NaCl(privateKey, publicKey);
+	}
+
+	private byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+
+	@Test
+	public void testInPlaceDecrypt() {
+		NaCl nacl = makeNaCl();
+		byte[] nonce = randomBytes(NaCl.NONCEBYTES);
+		byte[] plaintext = randomBytes(PLAINTEXT_LENGTH);
+		byte[] box = nacl.encrypt(plaintext, nonce);
+
+		/* box at an offset within a larger buffer */
+		byte[] buffer = new byte[box.length + 10];
+		System.arraycopy(box, 0, buffer, 5, box.length);
+		Assert.assertTrue(nacl.decrypt(buffer, 5, box.length, nonce, buffer, 5));
+		for (int i = 0; i < PLAINTEXT_LENGTH; i++) {
+			Assert.assertEquals(plaintext[i], buffer[5 + i]);
+		}
+
+		/* into a separate buffer */
+		byte[] output = new byte[PLAINTEXT_LENGTH];
+		Assert.assertTrue(nacl.decrypt(box, 0, box.length, nonce, output, 0));
+		Assert.assertArrayEquals(plaintext, output);
+		Assert.assertArrayEquals(nacl.decrypt(box, nonce), output);
+	}
+
+	@Test
+	public void testEncryptAtOffset() {
+		NaCl nacl = makeNaCl();
+		byte[] nonce = randomBytes(NaCl.NONCEBYTES);
+		byte[] plaintext = randomBytes(PLAINTEXT_LENGTH);
+		byte[] box = nacl.encrypt(plaintext, nonce);
+
+		/* box at an offset within a larger buffer, the bytes around it are left alone */
+		byte[] buffer = new byte[box.length + 10];
+		nacl.encrypt(plaintext, 0, plaintext.length, nonce, buffer, 5);
+		Assert.assertArrayEquals(box, Arrays.copyOfRange(buffer, 5, 5 + box.length));
+		Assert.assertArrayEquals(new byte[5], Arrays.copyOfRange(buffer, 0, 5));
+		Assert.assertArrayEquals(new byte[5], Arrays.copyOfRange(buffer, 5 + box.length, buffer.length));
+	}
+
+	@Test
+	public void testInPlaceDecryptRejectsTamperedBox() {
+		NaCl nacl = makeNaCl();
+		byte[] nonce = randomBytes(NaCl.NONCEBYTES);
+		byte[] box = nacl.encrypt(randomBytes(100), nonce);
+		box[box.length - 1] ^= 1;
+		Assert.assertFalse(nacl.decrypt(box, 0, box.length, nonce, box, 0));
+		Assert.assertFalse(nacl.decrypt(box, 0, NaCl.BOXOVERHEAD - 1, nonce, box, 0));
+	}
+
+	@Test
+	public void testParsePayloadView() throws Exception {
+		BoxedMessage boxmsg = new BoxedMessage();
+		boxmsg.setFromIdentity("AAAAAAAA");
+		boxmsg.setToIdentity("BBBBBBBB");
+		boxmsg.setMessageId(new MessageId());
+		boxmsg.setDate(new Date(1600000000000L));
+		boxmsg.setPushFromName("Tester");
+		boxmsg.setNonce(randomBytes(NaCl.NONCEBYTES));
+		boxmsg.setBox(randomBytes(200));
+		byte[] binary = boxmsg.makeBinary();
+
+		byte[] buffer = new byte[binary.length + 8];
+		System.arraycopy(binary, 0, buffer, 4, binary.length);
+		PayloadView view = new PayloadView(ProtocolDefines.PLTYPE_INCOMING_MESSAGE, buffer, 4, binary.length);
+		BoxedMessage parsed = BoxedMessage.parsePayload(view);
+
+		/* the parsed message must not depend on the buffer */
+		Arrays.fill(buffer, (byte) 0);
+		Assert.assertEquals("AAAAAAAA", parsed.getFromIdentity());
+		Assert.assertEquals("BBBBBBBB", parsed.getToIdentity());
+		Assert.assertEquals(boxmsg.getMessageId(), parsed.getMessageId());
+		Assert.assertEquals("Tester", parsed.getPushFromName());
+		Assert.assertArrayEquals(boxmsg.getNonce(), parsed.getNonce());
+		Assert.assertArrayEquals(boxmsg.getBox(), parsed.getBox());
+	}
+
+	/**
+	 * Microbenchmark: bytes allocated per decoded frame, copying (as before) vs. in place with
+	 * a payload view.
+	 */
+	@Test
+	public void testAllocationPerFrame() {
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadMXBean;
+		Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+		long threadId = Thread.currentThread().getId();
+
+		NaCl nacl = makeNaCl();
+		byte[] nonce = randomBytes(NaCl.NONCEBYTES);
+		byte[] frame = nacl.encrypt(randomBytes(PLAINTEXT_LENGTH), nonce);
+		byte[] receiveBuffer = new byte[ProtocolDefines.MAX_PKT_LEN];
+		long checksum = 0;
+
+		/* warm up both paths */
+		for (int i = 0; i < FRAME_COUNT; i++) {
+			checksum += decodeCopying(nacl, frame, nonce).getData().length;
+			checksum += decodeInPlace(nacl, frame, nonce, receiveBuffer).getLength();
+		}
+
+		long start = allocationBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < FRAME_COUNT; i++) {
+			checksum += decodeCopying(nacl, frame, nonce).getData().length;
+		}
+		long copyingBytesPerFrame = (allocationBean.getThreadAllocatedBytes(threadId) - start) / FRAME_COUNT;
+
+		start = allocationBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < FRAME_COUNT; i++) {
+			checksum += decodeInPlace(nacl, frame, nonce, receiveBuffer).getLength();
+		}
+		long inPlaceBytesPerFrame = (allocationBean.getThreadAllocatedBytes(threadId) - start) / FRAME_COUNT;
+
+		System.out.println(String.format("Frame decoding (%d bytes): copying %d bytes/frame, in place %d bytes/frame (%d)",
+			frame.length, copyingBytesPerFrame, inPlaceBytesPerFrame, checksum));
+
+		/* the copying path allocates the frame three times, the in-place path not at all
+		   (what remains is allocated inside the crypto primitives) */
+		Assert.assertTrue(copyingBytesPerFrame - inPlaceBytesPerFrame >= 2 * PLAINTEXT_LENGTH);
+	}
+
+	private static Payload decodeCopying(NaCl nacl, byte[] frame, byte[] nonce) {
+		byte[] data = new byte[frame.length];
+		System.arraycopy(frame, 0, data, 0, frame.length);
+		byte[] decrypted = nacl.decrypt(data, nonce);
+		byte[] payloadData = new byte[decrypted.length - 4];
+		System.arraycopy(decrypted, 4, payloadData, 0, decrypted.length - 4);
+		return new Payload(decrypted[0] & 0xFF, payloadData);
+	}
+
+	private static PayloadView decodeInPlace(NaCl nacl, byte[] frame, byte[] nonce, byte[] receiveBuffer) {
+		/* stands in for reading the frame from the socket into the receive buffer */
+		System.arraycopy(frame, 0, receiveBuffer, 0, frame.length);
+		if (!nacl.decrypt(receiveBuffer, 0, frame.length, nonce, receiveBuffer, 0)) {
+			throw new AssertionError("Decryption failed");
+		}
+		int decryptedLength = frame.length - NaCl.BOXOVERHEAD;
+		return new PayloadView(receiveBuffer[0] & 0xFF, receiveBuffer, 4, decryptedLength - 4);
+	}
+}
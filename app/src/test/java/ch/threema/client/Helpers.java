@@ -115,6 +115,11 @@ public class Helpers {
 			public boolean store(byte[] nonce) {
 				return true;
 			}
+
+			@Override
+			public void runWhenPersisted(Runnable task) {
+				task.run();
+			}
 		});
 	}
 }
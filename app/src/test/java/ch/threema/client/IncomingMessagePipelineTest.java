@@ -0,0 +1,190 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema Java Client
+ * Copyright (c) 2013-2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.client;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.annotation.NonNull;
+
+public class IncomingMessagePipelineTest {
+	/**
+	 * Decodes a message by sleeping for box[1] milliseconds, box[0] is the number of the message
+	 * and box[2] the number of its group (0 if it is not a group message).
+	 */
+	private static class TestHandler implements IncomingMessagePipeline.Handler {
+		final List<Integer> processed = Collections.synchronizedList(new ArrayList<Integer>());
+
+		@Override
+		@NonNull
+		public IncomingMessagePipeline.Step decode(@NonNull final BoxedMessage boxmsg) {
+			final byte[] box = boxmsg.getBox();
+			if (box[1] < 0) {
+				throw new IllegalStateException("Cannot decode");
+			}
+			try {
+				Thread.sleep(box[1]);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			return new IncomingMessagePipeline.Step() {
+				@Override
+				@NonNull
+				public String getKey() {
+					return box[2] != 0 ? "group/" + box[2] : "identity/" + boxmsg.getFromIdentity();
+				}
+
+				@Override
+				public void process() {
+					processed.add((int) box[0]);
+				}
+			};
+		}
+	}
+
+	private static BoxedMessage createMessage(String from, int number, int decodeMs, int group) {
+		final BoxedMessage boxmsg = new BoxedMessage();
+		boxmsg.setFromIdentity(from);
+		boxmsg.setBox(new byte[]{(byte) number, (byte) decodeMs, (byte) group});
+		return boxmsg;
+	}
+
+	/**
+	 * Messages of one group must be processed in order, even if they have been sent by
+	 * different members and an earlier message takes longer to decode.
+	 */
+	@Test
+	public void testGroupOrderAcrossSenders() throws InterruptedException {
+		final TestHandler handler = new TestHandler();
+		final IncomingMessagePipeline pipeline = new IncomingMessagePipeline(handler, 4, 8);
+
+		// the slow first message must hold back the others, whichever workers they are on
+		pipeline.submit(createMessage("AAAAAAAA", 1, 100, 7));
+		pipeline.submit(createMessage("BBBBBBBB", 2, 0, 7));
+		pipeline.submit(createMessage("CCCCCCCC", 3, 0, 7));
+		Assert.assertTrue(pipeline.awaitIdle(5000));
+
+		Assert.assertEquals(Arrays.asList(1, 2, 3), handler.processed);
+	}
+
+	@Test
+	public void testSenderOrder() throws InterruptedException {
+		final TestHandler handler = new TestHandler();
+		final IncomingMessagePipeline pipeline = new IncomingMessagePipeline(handler, 4, 8);
+
+		for (int i = 0; i < 50; i++) {
+			pipeline.submit(createMessage("AAAAAAAA", i, i % 3, 0));
+		}
+		Assert.assertTrue(pipeline.awaitIdle(5000));
+
+		Assert.assertEquals(50, handler.processed.size());
+		for (int i = 0; i < 50; i++) {
+			Assert.assertEquals(i, (int) handler.processed.get(i));
+		}
+	}
+
+	/**
+	 * A message that cannot be decoded must not hold back the messages received after it.
+	 */
+	@Test
+	public void testDecodeFailure() throws InterruptedException {
+		final TestHandler handler = new TestHandler();
+		final IncomingMessagePipeline pipeline = new IncomingMessagePipeline(handler, 2, 8);
+
+		pipeline.submit(createMessage("AAAAAAAA", 1, -1, 0));
+		pipeline.submit(createMessage("BBBBBBBB", 2, 0, 0));
+		Assert.assertTrue(pipeline.awaitIdle(5000));
+
+		Assert.assertEquals(Collections.singletonList(2), handler.processed);
+	}
+
+	/**
+	 * Messages waiting for a slow predecessor count towards the in-flight limit, so the
+	 * submitting thread is blocked instead of buffering an unbounded number of messages.
+	 */
+	@Test
+	public void testInFlightLimit() throws InterruptedException {
+		final TestHandler handler = new TestHandler();
+		// 3 workers with a queue capacity of 1 allow 3 messages in flight
+		final IncomingMessagePipeline pipeline = new IncomingMessagePipeline(handler, 3, 1);
+		final AtomicInteger submitted = new AtomicInteger();
+
+		// AAAAAAAA and DDDDDDDD are decoded by different workers, but processed in order
+		final Thread submitter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					pipeline.submit(createMessage("AAAAAAAA", 0, 120, 5));
+					submitted.incrementAndGet();
+					for (int i = 1; i <= 10; i++) {
+						pipeline.submit(createMessage("DDDDDDDD", i, 0, 5));
+						submitted.incrementAndGet();
+					}
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		submitter.start();
+
+		Thread.sleep(60);
+		Assert.assertEquals(3, submitted.get());
+
+		submitter.join(5000);
+		Assert.assertTrue(pipeline.awaitIdle(5000));
+		Assert.assertEquals(11, handler.processed.size());
+		for (int i = 0; i <= 10; i++) {
+			Assert.assertEquals(i, (int) handler.processed.get(i));
+		}
+	}
+
+	@Test
+	public void testRunWhenIdle() throws InterruptedException {
+		final TestHandler handler = new TestHandler();
+		final IncomingMessagePipeline pipeline = new IncomingMessagePipeline(handler, 4, 8);
+		final List<Integer> processedWhenIdle = new ArrayList<>();
+		final CountDownLatch latch = new CountDownLatch(1);
+
+		pipeline.submit(createMessage("AAAAAAAA", 1, 50, 0));
+		pipeline.submit(createMessage("BBBBBBBB", 2, 20, 3));
+		pipeline.runWhenIdle(new Runnable() {
+			@Override
+			public void run() {
+				processedWhenIdle.addAll(handler.processed);
+				latch.countDown();
+			}
+		});
+
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		Collections.sort(processedWhenIdle);
+		Assert.assertEquals(Arrays.asList(1, 2), processedWhenIdle);
+		Assert.assertEquals(0, pipeline.getQueueSize());
+	}
+}
@@ -0,0 +1,208 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema Java Client
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.client;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import ch.threema.base.ThreemaException;
+
+import static org.mockito.Mockito.*;
+
+public class MessageQueueTest {
+
+	/**
+	 * In-memory journal that simply records all operations.
+	 */
+	private static class MemoryJournal implements MessageQueueJournal {
+		private final List<Object> records = new ArrayList<>();
+		private int rewriteStart;
+
+		@Override
+		public synchronized void appendEnqueue(@NonNull BoxedMessage boxmsg) {
+			records.add(boxmsg);
+		}
+
+		@Override
+		public synchronized void appendRemove(@NonNull MessageId messageId) {
+			records.add(messageId);
+		}
+
+		@Override
+		public synchronized void replay(@NonNull ReplayListener listener) {
+			for (Object record : records) {
+				if (record instanceof BoxedMessage) {
+					listener.onEnqueue((BoxedMessage) record);
+				} else {
+					listener.onRemove((MessageId) record);
+				}
+			}
+		}
+
+		@Override
+		public synchronized void beginRewrite() {
+			rewriteStart = records.size();
+		}
+
+		@Override
+		public synchronized void rewrite(@NonNull Collection<BoxedMessage> messages) {
+			List<Object> appended = new ArrayList<>(records.subList(rewriteStart, records.size()));
+			records.clear();
+			records.addAll(messages);
+			records.addAll(appended);
+		}
+
+		@Override
+		public synchronized int getRecordCount() {
+			return records.size();
+		}
+	}
+
+	private ThreemaConnection connection;
+	private MessageQueue queue;
+
+	@Before
+	public void setUp() {
+		connection = mock(ThreemaConnection.class);
+		when(connection.getConnectionState()).thenReturn(ConnectionState.DISCONNECTED);
+		when(connection.getNonceFactory()).thenReturn(Helpers.getNonceFactory());
+		queue = new MessageQueue(Helpers.getContactStore(), Helpers.getIdentityStore(), connection);
+	}
+
+	private BoxedMessage enqueue(MessageId messageId, String toIdentity) throws ThreemaException {
+		BoxTextMessage message = new BoxTextMessage();
+		message.setMessageId(messageId);
+		message.setToIdentity(toIdentity);
+		message.setText("hello");
+		return queue.enqueue(message);
+	}
+
+	@Test
+	public void testAckRemovesOldestWithSameId() throws ThreemaException {
+		MessageId groupMessageId = new MessageId();
+		BoxedMessage first = enqueue(groupMessageId, "AAAAAAAA");
+		enqueue(groupMessageId, "BBBBBBBB");
+		enqueue(new MessageId(), "CCCCCCCC");
+
+		Assert.assertEquals(3, queue.getQueueSize());
+		Assert.assertTrue(queue.isQueued(groupMessageId));
+
+		queue.processAck(groupMessageId);
+		Assert.assertEquals(2, queue.getQueueSize());
+		Assert.assertTrue(queue.isQueued(groupMessageId));
+
+		queue.processAck(groupMessageId);
+		Assert.assertEquals(1, queue.getQueueSize());
+		Assert.assertFalse(queue.isQueued(groupMessageId));
+
+		/* unknown IDs are ignored */
+		queue.processAck(first.getMessageId());
+		Assert.assertEquals(1, queue.getQueueSize());
+	}
+
+	@Test
+	public void testDequeue() throws ThreemaException {
+		MessageId messageId = new MessageId();
+		enqueue(messageId, "AAAAAAAA");
+
+		Assert.assertTrue(queue.dequeue(messageId));
+		Assert.assertFalse(queue.dequeue(messageId));
+		Assert.assertEquals(0, queue.getQueueSize());
+	}
+
+	@Test
+	public void testJournalRestore() throws Exception {
+		MemoryJournal journal = new MemoryJournal();
+		queue.restoreFromJournal(journal);
+
+		MessageId groupMessageId = new MessageId();
+		enqueue(groupMessageId, "AAAAAAAA");
+		BoxedMessage second = enqueue(groupMessageId, "BBBBBBBB");
+		BoxedMessage third = enqueue(new MessageId(), "CCCCCCCC");
+		queue.processAck(groupMessageId);
+
+		/* restore into a fresh queue */
+		ThreemaConnection otherConnection = mock(ThreemaConnection.class);
+		MessageQueue restored = new MessageQueue(Helpers.getContactStore(), Helpers.getIdentityStore(), otherConnection);
+		restored.restoreFromJournal(journal);
+
+		Assert.assertEquals(2, restored.getQueueSize());
+		Assert.assertTrue(restored.isQueued(groupMessageId));
+
+		/* restored messages are sent again in their original order */
+		ArgumentCaptor<BoxedMessage> captor = ArgumentCaptor.forClass(BoxedMessage.class);
+		verify(otherConnection, times(2)).sendBoxedMessage(captor.capture());
+		Assert.assertSame(second, captor.getAllValues().get(0));
+		Assert.assertSame(third, captor.getAllValues().get(1));
+
+		/* restoring compacts the journal */
+		Assert.assertEquals(2, journal.getRecordCount());
+	}
+
+	@Test
+	public void testJournalCompactionDoesNotBlockQueue() throws Exception {
+		final MessageId enqueuedDuringRewrite = new MessageId();
+		final Thread[] enqueuer = new Thread[1];
+		MemoryJournal journal = new MemoryJournal() {
+			@Override
+			public void rewrite(@NonNull Collection<BoxedMessage> messages) {
+				/* the queue must accept new messages while the journal is being rewritten */
+				if (enqueuer[0] == null) {
+					enqueuer[0] = new Thread(() -> {
+						try {
+							enqueue(enqueuedDuringRewrite, "BBBBBBBB");
+						} catch (ThreemaException e) {
+							throw new RuntimeException(e);
+						}
+					});
+					enqueuer[0].start();
+					try {
+						enqueuer[0].join(5000);
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+				}
+				super.rewrite(messages);
+			}
+		};
+		queue.restoreFromJournal(journal);
+
+		MessageId messageId = new MessageId();
+		enqueue(messageId, "AAAAAAAA");
+		queue.compactJournal();
+		Assert.assertFalse(enqueuer[0].isAlive());
+
+		/* the message enqueued during the rewrite survives it */
+		MessageQueue restored = new MessageQueue(Helpers.getContactStore(), Helpers.getIdentityStore(), mock(ThreemaConnection.class));
+		restored.restoreFromJournal(journal);
+		Assert.assertEquals(2, restored.getQueueSize());
+		Assert.assertTrue(restored.isQueued(messageId));
+		Assert.assertTrue(restored.isQueued(enqueuedDuringRewrite));
+	}
+}
@@ -27,7 +27,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Random;
 
 public class SenderThreadTest {
@@ -84,4 +86,120 @@ public class SenderThreadTest {
 		Thread.sleep(100);
 		Assert.assertFalse("Thread was not shut down after 100ms", this.senderThread.isAlive());
 	}
+
+	/**
+	 * Payloads that are queued before the thread starts should be sent in one batch with a single
+	 * flush, and each packet must still be framed and encrypted individually.
+	 */
+	@Test
+	public void testBatchedSend() throws InterruptedException {
+		final byte[] publickey = new byte[NaCl.PUBLICKEYBYTES];
+		final byte[] privatekey = new byte[NaCl.SECRETKEYBYTES];
+		NaCl.genkeypair(publickey, privatekey);
+		final NaCl nacl = new NaCl(privatekey, publickey);
+
+		final byte[] cookie = new byte[ProtocolDefines.COOKIE_LEN];
+		(new Random()).nextBytes(cookie);
+
+		final int[] flushCount = new int[1];
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream() {
+			@Override
+			public void flush() throws IOException {
+				super.flush();
+				flushCount[0]++;
+			}
+		};
+
+		final SenderThread thread = new SenderThread(bos, nacl, new NonceCounter(cookie));
+		for (int i = 0; i < 10; i++) {
+			thread.sendPayload(new Payload(ProtocolDefines.PLTYPE_ECHO_REQUEST, new byte[]{(byte) i}));
+		}
+		thread.start();
+		Thread.sleep(100);
+		thread.shutdown();
+
+		Assert.assertEquals(1, flushCount[0]);
+		Assert.assertEquals(1, thread.getBatchCount());
+		Assert.assertEquals(10, thread.getPacketCount());
+
+		/* decode the frames again */
+		final NonceCounter serverNonce = new NonceCounter(cookie);
+		final byte[] data = bos.toByteArray();
+		Assert.assertEquals(data.length, thread.getByteCount());
+		int offset = 0;
+		for (int i = 0; i < 10; i++) {
+			int length = (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+			offset += 2;
+			byte[] box = Arrays.copyOfRange(data, offset, offset + length);
+			offset += length;
+
+			byte[] packet = nacl.decrypt(box, serverNonce.nextNonce());
+			Assert.assertNotNull(packet);
+			Assert.assertEquals(ProtocolDefines.PLTYPE_ECHO_REQUEST, packet[0] & 0xFF);
+			Assert.assertEquals(i, packet[4]);
+		}
+		Assert.assertEquals(data.length, offset);
+	}
+
+	/**
+	 * Payloads that are too big are skipped and must not be counted as sent.
+	 */
+	@Test
+	public void testSkippedPacketNotCounted() throws InterruptedException {
+		final byte[] publickey = new byte[NaCl.PUBLICKEYBYTES];
+		final byte[] privatekey = new byte[NaCl.SECRETKEYBYTES];
+		NaCl.genkeypair(publickey, privatekey);
+		final NaCl nacl = new NaCl(privatekey, publickey);
+
+		final byte[] cookie = new byte[ProtocolDefines.COOKIE_LEN];
+		(new Random()).nextBytes(cookie);
+
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		final SenderThread thread = new SenderThread(bos, nacl, new NonceCounter(cookie));
+		thread.sendPayload(new Payload(ProtocolDefines.PLTYPE_ECHO_REQUEST, new byte[]{1}));
+		thread.sendPayload(new Payload(ProtocolDefines.PLTYPE_ECHO_REQUEST, new byte[ProtocolDefines.MAX_PKT_LEN]));
+		thread.sendPayload(new Payload(ProtocolDefines.PLTYPE_ECHO_REQUEST, new byte[]{2}));
+		thread.start();
+		Thread.sleep(100);
+		thread.shutdown();
+
+		Assert.assertEquals(1, thread.getBatchCount());
+		Assert.assertEquals(2, thread.getPacketCount());
+		Assert.assertEquals(bos.size(), thread.getByteCount());
+	}
+
+	/**
+	 * Packets that could not be written to the socket must not be counted as sent.
+	 */
+	@Test
+	public void testFailedWriteNotCounted() throws InterruptedException {
+		final byte[] publickey = new byte[NaCl.PUBLICKEYBYTES];
+		final byte[] privatekey = new byte[NaCl.SECRETKEYBYTES];
+		NaCl.genkeypair(publickey, privatekey);
+		final NaCl nacl = new NaCl(privatekey, publickey);
+
+		final byte[] cookie = new byte[ProtocolDefines.COOKIE_LEN];
+		(new Random()).nextBytes(cookie);
+
+		final OutputStream failing = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("Connection reset");
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				throw new IOException("Connection reset");
+			}
+		};
+		final SenderThread thread = new SenderThread(failing, nacl, new NonceCounter(cookie));
+		thread.sendPayload(new Payload(ProtocolDefines.PLTYPE_ECHO_REQUEST, new byte[]{1}));
+		thread.start();
+		thread.join(1000);
+
+		Assert.assertFalse("Thread did not end after the write error", thread.isAlive());
+		Assert.assertEquals(0, thread.getBatchCount());
+		Assert.assertEquals(0, thread.getPacketCount());
+		Assert.assertEquals(0, thread.getByteCount());
+	}
 }
@@ -0,0 +1,93 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema Java Client
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.client;
+
+import com.neilalexander.jnacl.NaCl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SharedKeyCacheTest {
+
+	private static byte[][] keyPair() {
+		byte[] publicKey = new byte[NaCl.PUBLICKEYBYTES];
+		byte[] privateKey = new byte[NaCl.SECRETKEYBYTES];
+		NaCl.genkeypair(publicKey, privateKey);
+		return new byte[][]{publicKey, privateKey};
+	}
+
+	@Test
+	public void testCachedInstanceMatchesFreshInstance() {
+		byte[][] alice = keyPair();
+		byte[][] bob = keyPair();
+		byte[] nonce = new byte[NaCl.NONCEBYTES];
+		byte[] plaintext = "hello bob".getBytes();
+
+		SharedKeyCache cache = new SharedKeyCache();
+		byte[] first = cache.get(alice[1], bob[0]).encrypt(plaintext, nonce);
+		byte[] second = cache.get(alice[1], bob[0]).encrypt(plaintext, nonce);
+		byte[] expected = new NaCl(alice[1], bob[0]).encrypt(plaintext, nonce);
+
+		Assert.assertArrayEquals(expected, first);
+		Assert.assertArrayEquals(expected, second);
+		Assert.assertArrayEquals(plaintext, new NaCl(bob[1], alice[0]).decrypt(second, nonce));
+		Assert.assertEquals(1, cache.getMissCount());
+		Assert.assertEquals(1, cache.getHitCount());
+	}
+
+	@Test
+	public void testEviction() {
+		byte[][] own = keyPair();
+		byte[][] peer1 = keyPair();
+		byte[][] peer2 = keyPair();
+		byte[][] peer3 = keyPair();
+
+		SharedKeyCache cache = new SharedKeyCache(2);
+		cache.get(own[1], peer1[0]);
+		cache.get(own[1], peer2[0]);
+		cache.get(own[1], peer1[0]);
+		cache.get(own[1], peer3[0]);
+		Assert.assertEquals(2, cache.size());
+
+		/* peer2 was least recently used and must have been evicted */
+		cache.get(own[1], peer1[0]);
+		Assert.assertEquals(2, cache.getHitCount());
+		cache.get(own[1], peer2[0]);
+		Assert.assertEquals(4, cache.getMissCount());
+	}
+
+	@Test
+	public void testInstanceSurvivesClear() {
+		byte[][] alice = keyPair();
+		byte[][] bob = keyPair();
+		byte[] nonce = new byte[NaCl.NONCEBYTES];
+		byte[] plaintext = "hello bob".getBytes();
+
+		SharedKeyCache cache = new SharedKeyCache();
+		NaCl nacl = cache.get(alice[1], bob[0]);
+		cache.clear();
+		Assert.assertEquals(0, cache.size());
+
+		byte[] expected = new NaCl(alice[1], bob[0]).encrypt(plaintext, nonce);
+		Assert.assertArrayEquals(expected, nacl.encrypt(plaintext, nonce));
+	}
+}
@@ -77,6 +77,11 @@ public class ProtocolTest {
 			public boolean store(byte[] nonce) {
 				return true;
 			}
+
+			@Override
+			public void runWhenPersisted(Runnable task) {
+				task.run();
+			}
 		});
 
 		BoxedMessage boxmsg = groupFileMessage.makeBox(contactStore, identityStore, nonceFactory);
@@ -142,6 +147,11 @@ public class ProtocolTest {
 			public boolean store(byte[] nonce) {
 				return true;
 			}
+
+			@Override
+			public void runWhenPersisted(Runnable task) {
+				task.run();
+			}
 		});
 
 		BoxedMessage boxmsg = fileMessage.makeBox(contactStore, identityStore, nonceFactory);
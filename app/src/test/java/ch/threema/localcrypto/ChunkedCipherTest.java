@@ -0,0 +1,229 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema Java Client
+ * Copyright (c) 2013-2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.threema.localcrypto;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class ChunkedCipherTest {
+	private static final int CHUNK_SIZE = 1024;
+	private static final long RANDOM_SEED = 987654321;
+
+	private final byte[] key = new byte[MasterKey.KEY_LENGTH];
+	private File keyFile;
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		new Random(RANDOM_SEED).nextBytes(this.key);
+		this.keyFile = Files.createTempFile("3ma", "chunkedciphertest-key").toFile();
+		this.file = Files.createTempFile("3ma", "chunkedciphertest").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		//noinspection ResultOfMethodCallIgnored
+		this.keyFile.delete();
+		//noinspection ResultOfMethodCallIgnored
+		this.file.delete();
+	}
+
+	private byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		new Random(RANDOM_SEED + length).nextBytes(bytes);
+		return bytes;
+	}
+
+	private void writeChunked(byte[] plaintext) throws IOException {
+		try (ChunkedCipherOutputStream cos = new ChunkedCipherOutputStream(new FileOutputStream(this.file), this.key, new SecureRandom(), CHUNK_SIZE)) {
+			// odd write sizes to cross chunk boundaries
+			int offset = 0;
+			while (offset < plaintext.length) {
+				int n = Math.min(plaintext.length - offset, 700);
+				cos.write(plaintext, offset, n);
+				offset += n;
+			}
+		}
+	}
+
+	private SeekableCipherInputStream openChunked() throws IOException {
+		return new SeekableCipherInputStream(new RandomAccessFile(this.file, "r"), this.key);
+	}
+
+	private static byte[] readAll(InputStream inputStream, int length) throws IOException {
+		byte[] bytes = new byte[length];
+		new DataInputStream(inputStream).readFully(bytes);
+		Assert.assertEquals(-1, inputStream.read());
+		return bytes;
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		for (int length : new int[]{0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1, 3 * CHUNK_SIZE, 10 * CHUNK_SIZE + 17}) {
+			byte[] plaintext = randomBytes(length);
+			writeChunked(plaintext);
+
+			try (SeekableCipherInputStream sis = openChunked()) {
+				assertEquals(length, sis.length());
+				Assert.assertArrayEquals(plaintext, readAll(sis, length));
+			}
+		}
+	}
+
+	@Test
+	public void testSeek() throws IOException {
+		byte[] plaintext = randomBytes(10 * CHUNK_SIZE + 17);
+		writeChunked(plaintext);
+
+		Random random = new Random(RANDOM_SEED);
+		try (SeekableCipherInputStream sis = openChunked()) {
+			byte[] buffer = new byte[100];
+			for (int i = 0; i < 200; i++) {
+				int position = random.nextInt(plaintext.length + 1);
+				sis.seek(position);
+				assertEquals(position, sis.getPosition());
+
+				int expected = Math.min(buffer.length, plaintext.length - position);
+				int read = 0;
+				while (read < expected) {
+					read += sis.read(buffer, read, expected - read);
+				}
+				Assert.assertArrayEquals(Arrays.copyOfRange(plaintext, position, position + expected), Arrays.copyOf(buffer, expected));
+			}
+
+			sis.seek(0);
+			assertEquals(5 * CHUNK_SIZE, sis.skip(5 * CHUNK_SIZE));
+			assertEquals(plaintext[5 * CHUNK_SIZE] & 0xff, sis.read());
+		}
+	}
+
+	@Test
+	public void testTamperedChunk() throws IOException {
+		byte[] plaintext = randomBytes(3 * CHUNK_SIZE);
+		writeChunked(plaintext);
+
+		try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+			long position = ChunkedCipher.HEADER_LENGTH + (CHUNK_SIZE + ChunkedCipher.TAG_LENGTH) + 10;
+			raf.seek(position);
+			int b = raf.read();
+			raf.seek(position);
+			raf.write(b ^ 0x01);
+		}
+
+		try (SeekableCipherInputStream sis = openChunked()) {
+			// the first chunk is intact
+			byte[] buffer = new byte[CHUNK_SIZE];
+			assertEquals(CHUNK_SIZE, sis.read(buffer));
+			try {
+				sis.read(buffer);
+				Assert.fail("IOException not thrown");
+			} catch (IOException e) {
+				assertEquals("Bad encrypted file (chunk 1 failed to authenticate)", e.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void testTruncatedFile() throws IOException {
+		byte[] plaintext = randomBytes(3 * CHUNK_SIZE + 5);
+		writeChunked(plaintext);
+
+		// cut off the last chunk, so the previous one becomes the last one
+		try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+			raf.setLength(ChunkedCipher.HEADER_LENGTH + 3 * (CHUNK_SIZE + ChunkedCipher.TAG_LENGTH));
+		}
+
+		try (SeekableCipherInputStream sis = openChunked()) {
+			assertEquals(3 * CHUNK_SIZE, sis.length());
+			sis.seek(2 * CHUNK_SIZE);
+			try {
+				sis.read();
+				Assert.fail("IOException not thrown");
+			} catch (IOException e) {
+				assertEquals("Bad encrypted file (chunk 2 failed to authenticate)", e.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void testMasterKeyReadsBothFormats() throws Exception {
+		//noinspection ResultOfMethodCallIgnored
+		this.keyFile.delete();
+		MasterKey masterKey = new MasterKey(this.keyFile, null, false);
+		byte[] plaintext = randomBytes(ChunkedCipher.DEFAULT_CHUNK_SIZE + 1000);
+
+		try (OutputStream os = masterKey.getCipherOutputStream(new FileOutputStream(this.file))) {
+			os.write(plaintext);
+		}
+		assertFalse(MasterKey.isChunkedFile(this.file));
+		try (InputStream is = masterKey.getCipherInputStream(this.file)) {
+			Assert.assertArrayEquals(plaintext, readAll(is, plaintext.length));
+		}
+
+		try (OutputStream os = masterKey.getChunkedCipherOutputStream(new FileOutputStream(this.file))) {
+			os.write(plaintext);
+		}
+		assertTrue(MasterKey.isChunkedFile(this.file));
+		try (InputStream is = masterKey.getCipherInputStream(this.file)) {
+			assertTrue(is instanceof SeekableCipherInputStream);
+			Assert.assertArrayEquals(plaintext, readAll(is, plaintext.length));
+		}
+
+		try {
+			masterKey.getSeekableCipherInputStream(this.keyFile);
+			Assert.fail("IOException not thrown");
+		} catch (IOException e) {
+			assertEquals("Bad encrypted file (not in chunked format)", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testWrongKey() throws IOException {
+		writeChunked(randomBytes(100));
+		this.key[0] ^= 0x01;
+
+		try (SeekableCipherInputStream sis = openChunked()) {
+			sis.read();
+			Assert.fail("IOException not thrown");
+		} catch (IOException e) {
+			assertEquals("Bad encrypted file (chunk 0 failed to authenticate)", e.getMessage());
+		}
+	}
+}
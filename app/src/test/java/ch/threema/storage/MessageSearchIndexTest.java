@@ -0,0 +1,52 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.storage;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+public class MessageSearchIndexTest {
+	@Test
+	public void testSingleWord() {
+		assertEquals("\"hello\"*", MessageSearchIndex.toMatchExpression("hello"));
+	}
+
+	@Test
+	public void testMultipleWords() {
+		assertEquals("\"hello\"* AND \"world\"*", MessageSearchIndex.toMatchExpression("  hello \t world "));
+	}
+
+	@Test
+	public void testQuotesAndOperators() {
+		assertEquals("\"say\"* AND \"\"\"hi\"\"\"* AND \"OR\"* AND \"a*\"*", MessageSearchIndex.toMatchExpression("say \"hi\" OR a*"));
+	}
+
+	@Test
+	public void testEmpty() {
+		assertNull(MessageSearchIndex.toMatchExpression(null));
+		assertNull(MessageSearchIndex.toMatchExpression(""));
+		assertNull(MessageSearchIndex.toMatchExpression("   "));
+	}
+}
@@ -0,0 +1,235 @@
+/*  _____ _
+ * |_   _| |_  _ _ ___ ___ _ __  __ _
+ *   | | | ' \| '_/ -_) -_) '  \/ _` |_
+ *   |_| |_||_|_| \___\___|_|_|_\__,_(_)
+ *
+ * Threema for Android
+ * Copyright (c) 2020 Threema GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package ch.threema.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import ch.threema.localcrypto.MasterKey;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class NonceArchiveTest {
+	private File keyFile;
+	private File file;
+	private MasterKey masterKey;
+	private NonceArchive archive;
+
+	@Before
+	public void setUp() throws IOException {
+		keyFile = File.createTempFile("nonce-archive", ".key");
+		file = File.createTempFile("nonce-archive", ".dat");
+		if (!keyFile.delete() || !file.delete()) {
+			throw new IOException("Could not delete temp file");
+		}
+		masterKey = new MasterKey(keyFile, null, false);
+		archive = new NonceArchive(file, masterKey);
+	}
+
+	@After
+	public void tearDown() {
+		archive.close();
+		//noinspection ResultOfMethodCallIgnored
+		file.delete();
+		//noinspection ResultOfMethodCallIgnored
+		keyFile.delete();
+	}
+
+	private static TreeSet<String> randomEntries(Random random, int count) {
+		final TreeSet<String> entries = new TreeSet<>();
+		while (entries.size() < count) {
+			byte[] entry = new byte[NonceArchive.ENTRY_LENGTH];
+			random.nextBytes(entry);
+			entries.add(toHex(entry));
+		}
+		return entries;
+	}
+
+	/* lower case hex strings sort in the same order as the unsigned bytes they represent */
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) {
+			sb.append(String.format("%02x", b & 0xff));
+		}
+		return sb.toString();
+	}
+
+	private static byte[] fromHex(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+		}
+		return bytes;
+	}
+
+	private static NonceArchive.SortedSource source(Iterable<String> entries) {
+		final Iterator<String> iterator = entries.iterator();
+		return () -> iterator.hasNext() ? fromHex(iterator.next()) : null;
+	}
+
+	@Test
+	public void emptyArchive() throws IOException {
+		assertEquals(0, archive.getCount());
+		assertFalse(archive.contains(new byte[NonceArchive.ENTRY_LENGTH]));
+	}
+
+	@Test
+	public void mergeAndLookup() throws IOException {
+		final Random random = new Random(1);
+		final TreeSet<String> first = randomEntries(random, 1000);
+		final TreeSet<String> second = randomEntries(random, 1000);
+
+		assertEquals(1000, archive.merge(source(first)));
+		assertEquals(2000, archive.merge(source(second)));
+		assertEquals(2000, archive.getCount());
+
+		for (String entry : first) {
+			assertTrue(archive.contains(fromHex(entry)));
+		}
+		for (String entry : second) {
+			assertTrue(archive.contains(fromHex(entry)));
+		}
+		for (String entry : randomEntries(random, 1000)) {
+			if (!first.contains(entry) && !second.contains(entry)) {
+				assertFalse(archive.contains(fromHex(entry)));
+			}
+		}
+
+		/* a new instance reads the same file */
+		assertEquals(2000, new NonceArchive(file, masterKey).getCount());
+	}
+
+	@Test
+	public void archiveIsEncrypted() throws IOException {
+		final TreeSet<String> entries = randomEntries(new Random(5), 100);
+		archive.merge(source(entries));
+
+		/* no entry appears in the file, not even a part of one */
+		final String contents = toHex(Files.readAllBytes(file.toPath()));
+		for (String entry : entries) {
+			assertFalse(contents.contains(entry.substring(0, 16)));
+		}
+
+		/* another key cannot read it */
+		final File otherKeyFile = File.createTempFile("nonce-archive", ".key");
+		try {
+			//noinspection ResultOfMethodCallIgnored
+			otherKeyFile.delete();
+			final NonceArchive other = new NonceArchive(file, new MasterKey(otherKeyFile, null, false));
+			try {
+				other.contains(fromHex(entries.first()));
+				fail("Archive could be read with another key");
+			} catch (IOException expected) {
+				// expected
+			}
+		} finally {
+			//noinspection ResultOfMethodCallIgnored
+			otherKeyFile.delete();
+		}
+	}
+
+	@Test
+	public void mergeSkipsDuplicatesAndInvalidEntries() throws IOException {
+		final TreeSet<String> entries = randomEntries(new Random(2), 100);
+		archive.merge(source(entries));
+
+		final List<byte[]> added = new ArrayList<>();
+		added.add(new byte[24]);
+		for (String entry : entries) {
+			added.add(fromHex(entry));
+		}
+		final Iterator<byte[]> iterator = added.iterator();
+		assertEquals(100, archive.merge(() -> iterator.hasNext() ? iterator.next() : null));
+
+		final List<String> scanned = new ArrayList<>();
+		archive.scan(entry -> scanned.add(toHex(entry)));
+		assertEquals(new ArrayList<>(entries), scanned);
+	}
+
+	@Test
+	public void lookupsDuringMerge() throws Exception {
+		final Random random = new Random(4);
+		final TreeSet<String> first = randomEntries(random, 100);
+		final TreeSet<String> second = randomEntries(random, 100);
+		archive.merge(source(first));
+
+		/* look up entries from another thread while the merge is in progress */
+		final boolean[] found = new boolean[2];
+		final Iterator<String> iterator = second.iterator();
+		archive.merge(() -> {
+			if (!iterator.hasNext()) {
+				return null;
+			}
+			final String entry = iterator.next();
+			if (!iterator.hasNext()) {
+				final Thread lookup = new Thread(() -> {
+					try {
+						found[0] = archive.contains(fromHex(first.first()));
+						found[1] = archive.contains(fromHex(entry));
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				});
+				lookup.start();
+				try {
+					lookup.join(5000);
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				assertFalse("lookup blocked by merge", lookup.isAlive());
+			}
+			return fromHex(entry);
+		});
+
+		/* the old contents are visible until the merge completes */
+		assertTrue(found[0]);
+		assertFalse(found[1]);
+		assertEquals(200, archive.getCount());
+		assertTrue(archive.contains(fromHex(second.last())));
+	}
+
+	@Test(expected = IOException.class)
+	public void mergeRejectsUnsortedSource() throws IOException {
+		final List<String> entries = new ArrayList<>(randomEntries(new Random(3), 10));
+		Collections.reverse(entries);
+		try {
+			archive.merge(source(entries));
+		} finally {
+			assertEquals(0, archive.getCount());
+		}
+	}
+}
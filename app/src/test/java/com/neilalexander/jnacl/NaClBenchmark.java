@@ -0,0 +1,114 @@
+//
+//  Copyright (c) 2020, Threema GmbH.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.neilalexander.jnacl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the Java XSalsa20-Poly1305 implementations (reference vs. optimized), as used
+ * when the native library is not available. Run {@link #main(String[])} to get the results in
+ * MB/s.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NaClBenchmark {
+
+	@Param({ "64", "1024", "1048576" })
+	public int size;
+
+	@Param({ "reference", "optimized" })
+	public String implementation;
+
+	private byte[] key;
+	private byte[] nonce;
+	private byte[] plaintext;
+	private byte[] box;
+
+	@Setup
+	public void setUp() {
+		NaCl.setUseOptimizedJavaCrypto("optimized".equals(implementation));
+
+		final Random random = new Random(1);
+		key = new byte[NaCl.SYMMKEYBYTES];
+		nonce = new byte[NaCl.NONCEBYTES];
+		plaintext = new byte[size];
+		random.nextBytes(key);
+		random.nextBytes(nonce);
+		random.nextBytes(plaintext);
+		box = NaCl.symmetricEncryptData(plaintext, key, nonce);
+	}
+
+	@Benchmark
+	public byte[] encrypt() {
+		return NaCl.symmetricEncryptData(plaintext, key, nonce);
+	}
+
+	@Benchmark
+	public byte[] decrypt() {
+		return NaCl.symmetricDecryptData(box, key, nonce);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Collection<RunResult> results = new Runner(new OptionsBuilder()
+			.include(NaClBenchmark.class.getSimpleName())
+			.build()).run();
+
+		for (RunResult result : results) {
+			int size = Integer.parseInt(result.getParams().getParam("size"));
+			double opsPerSecond = result.getPrimaryResult().getScore();
+			System.out.println(String.format("%-40s %10s %8d B %10.1f MB/s",
+				result.getParams().getBenchmark(),
+				result.getParams().getParam("implementation"),
+				size,
+				opsPerSecond * size / 1e6));
+		}
+	}
+}
@@ -0,0 +1,151 @@
+//
+//  Copyright (c) 2020, Threema GmbH.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.neilalexander.jnacl;
+
+import com.neilalexander.jnacl.crypto.poly1305;
+import com.neilalexander.jnacl.crypto.xsalsa20;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.security.MessageDigest;
+import java.util.Random;
+
+/**
+ * Test vectors from the NaCl distribution, and cross checks between the reference and the
+ * optimized Java implementations of Salsa20 and Poly1305.
+ */
+public class NaClVectorsTest {
+	private static final byte[] FIRSTKEY = NaCl.getBinary("1b27556473e985d462cd51197a9a46c76009549eac6474f206c4ee0844f68389");
+	private static final byte[] NONCE = NaCl.getBinary("69696ee955b62b73cd62bda875fc73d68219e0036b7a0b37");
+
+	/* tests/onetimeauth.c */
+	private static final byte[] RS = NaCl.getBinary("eea6a7251c1e72916d11c2cb214d3c252539121d8e234e652d651fa4c8cff880");
+	private static final byte[] AUTH_MESSAGE = NaCl.getBinary(
+		"8e993b9f48681273c29650ba32fc76ce48332ea7164d96a4476fb8c531a1186a" +
+		"c0dfc17c98dce87b4da7f011ec48c97271d2c20f9b928fe2270d6fb863d51738" +
+		"b48eeee314a7cc8ab932164548e526ae90224368517acfeabd6bb3732bc0e9da" +
+		"99832b61ca01b6de56244a9e88d5f9b37973f622a43d14a6599b1f654cb45a74" +
+		"e355a5");
+	private static final byte[] AUTH_EXPECTED = NaCl.getBinary("f3ffc7703f9400e52a7dfb4b3d3305d9");
+
+	@After
+	public void tearDown() {
+		NaCl.setUseOptimizedJavaCrypto(true);
+	}
+
+	@Test
+	public void testSelfTest() {
+		for (boolean optimized : new boolean[] { false, true }) {
+			NaCl.setUseOptimizedJavaCrypto(optimized);
+			NaCl.selfTest();
+		}
+	}
+
+	/* tests/stream.c: SHA-256 of 4 MiB of XSalsa20 keystream */
+	@Test
+	public void testStream() throws Exception {
+		for (boolean optimized : new boolean[] { false, true }) {
+			NaCl.setUseOptimizedJavaCrypto(optimized);
+			byte[] output = new byte[4194304];
+			xsalsa20.crypto_stream(output, output.length, NONCE, FIRSTKEY);
+			Assert.assertEquals("662b9d0e3463029156069b12f918691a98f7dfb2ca0393c96bbfc6b1fbd630a2",
+				NaCl.asHex(MessageDigest.getInstance("SHA-256").digest(output)));
+		}
+	}
+
+	@Test
+	public void testOneTimeAuth() {
+		for (boolean optimized : new boolean[] { false, true }) {
+			NaCl.setUseOptimizedJavaCrypto(optimized);
+			byte[] auth = new byte[16];
+			poly1305.crypto_onetimeauth(auth, 0, AUTH_MESSAGE, 0, AUTH_MESSAGE.length, RS);
+			Assert.assertArrayEquals(AUTH_EXPECTED, auth);
+			Assert.assertEquals(0, poly1305.crypto_onetimeauth_verify(auth, 0, AUTH_MESSAGE, 0, AUTH_MESSAGE.length, RS));
+
+			/* every byte of the authenticator counts */
+			for (int i = 0; i < 16; i++) {
+				auth[i] ^= 1;
+				Assert.assertEquals(-1, poly1305.crypto_onetimeauth_verify(auth, 0, AUTH_MESSAGE, 0, AUTH_MESSAGE.length, RS));
+				auth[i] ^= 1;
+			}
+		}
+	}
+
+	@Test
+	public void testImplementationsAgree() {
+		final Random random = new Random(1);
+		final byte[] key = new byte[NaCl.SYMMKEYBYTES];
+		final byte[] nonce = new byte[NaCl.NONCEBYTES];
+
+		for (int length = 0; length < 300; length++) {
+			random.nextBytes(key);
+			random.nextBytes(nonce);
+			byte[] data = new byte[length];
+			random.nextBytes(data);
+
+			NaCl.setUseOptimizedJavaCrypto(false);
+			byte[] reference = NaCl.symmetricEncryptData(data, key, nonce);
+			byte[] referenceStream = NaCl.streamCryptData(data, key, nonce);
+			byte[] referenceAuth = new byte[16];
+			poly1305.crypto_onetimeauth(referenceAuth, 0, data, 0, length, key);
+
+			NaCl.setUseOptimizedJavaCrypto(true);
+			Assert.assertArrayEquals("Length " + length, reference, NaCl.symmetricEncryptData(data, key, nonce));
+			Assert.assertArrayEquals("Length " + length, referenceStream, NaCl.streamCryptData(data, key, nonce));
+			byte[] auth = new byte[16];
+			poly1305.crypto_onetimeauth(auth, 0, data, 0, length, key);
+			Assert.assertArrayEquals("Length " + length, referenceAuth, auth);
+
+			/* crypto_stream_xor_skip32 does not output the MAC key for empty messages */
+			if (length > 0) {
+				Assert.assertArrayEquals("Length " + length, data, NaCl.symmetricDecryptData(reference, key, nonce));
+			}
+		}
+	}
+
+	@Test
+	public void testInPlaceDecryptAtOffset() {
+		final Random random = new Random(2);
+		final byte[] key = new byte[NaCl.SYMMKEYBYTES];
+		random.nextBytes(key);
+		final byte[] data = new byte[1000];
+		random.nextBytes(data);
+
+		for (boolean optimized : new boolean[] { false, true }) {
+			NaCl.setUseOptimizedJavaCrypto(optimized);
+			byte[] io = NaCl.symmetricEncryptData(data, key, NONCE);
+			Assert.assertTrue(NaCl.symmetricDecryptDataInplace(io, key, NONCE));
+			for (int i = 0; i < data.length; i++) {
+				Assert.assertEquals(data[i], io[i]);
+			}
+		}
+	}
+}